@@ -14,13 +14,15 @@ import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Collection;
+import java.util.*;
 import junit.framework.Test;
 import junit.framework.TestSuite;
+import org.eclipse.osgi.event.StateMaskBundleListener;
 import org.eclipse.osgi.internal.baseadaptor.AdaptorUtil;
 import org.eclipse.osgi.tests.OSGiTestsActivator;
 import org.osgi.framework.*;
 import org.osgi.framework.hooks.bundle.CollisionHook;
+import org.osgi.util.tracker.BundleTracker;
 
 public class BundleInstallUpdateTests extends AbstractBundleTests {
 	public static Test suite() {
@@ -245,4 +247,44 @@ public class BundleInstallUpdateTests extends AbstractBundleTests {
 			reg.unregister();
 		}
 	}
+
+	public void testStateMaskBundleListener() throws BundleException {
+		final ArrayList events = new ArrayList();
+		StateMaskBundleListener activeListener = new StateMaskBundleListener() {
+			public void bundleChanged(BundleEvent event) {
+				if (!"test1".equals(event.getBundle().getSymbolicName())) //$NON-NLS-1$
+					return;
+				synchronized (events) {
+					events.add(new Integer(event.getType()));
+				}
+			}
+
+			public int getStateMask() {
+				return Bundle.ACTIVE;
+			}
+		};
+		BundleTracker activeTracker = new BundleTracker(OSGiTestsActivator.getContext(), Bundle.ACTIVE, null);
+		Bundle test = null;
+		OSGiTestsActivator.getContext().addBundleListener(activeListener);
+		activeTracker.open();
+		try {
+			test = OSGiTestsActivator.getContext().installBundle(installer.getBundleLocation("test")); //$NON-NLS-1$
+			assertNull("Tracked installed bundle", activeTracker.getObject(test)); //$NON-NLS-1$
+			test.start();
+			assertEquals("Not tracked started bundle", test, activeTracker.getObject(test)); //$NON-NLS-1$
+			test.stop();
+			assertNull("Tracked stopped bundle", activeTracker.getObject(test)); //$NON-NLS-1$
+			test.uninstall();
+			test = null;
+			// only the events of the bundle entering and leaving the ACTIVE state are delivered
+			synchronized (events) {
+				assertEquals("Wrong events", Arrays.asList(new Integer[] {new Integer(BundleEvent.STARTED), new Integer(BundleEvent.STOPPING)}), events); //$NON-NLS-1$
+			}
+		} finally {
+			activeTracker.close();
+			OSGiTestsActivator.getContext().removeBundleListener(activeListener);
+			if (test != null)
+				test.uninstall();
+		}
+	}
 }
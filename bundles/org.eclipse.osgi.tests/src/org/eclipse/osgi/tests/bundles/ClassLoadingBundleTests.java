@@ -16,6 +16,7 @@ import java.net.*;
 import java.util.*;
 import junit.framework.Test;
 import junit.framework.TestSuite;
+import org.eclipse.osgi.launch.Equinox;
 import org.eclipse.osgi.service.resolver.*;
 import org.eclipse.osgi.tests.OSGiTestsActivator;
 import org.osgi.framework.*;
@@ -849,6 +850,218 @@ public class ClassLoadingBundleTests extends AbstractBundleTests {
 
 	}
 
+	public void testThreadLockStress() throws Exception {
+		for (int i = 0; i < 20; i++) {
+			Bundle stress = installer.installBundle("thread.locktest.stress"); //$NON-NLS-1$
+			Bundle cycle = installer.installBundle("thread.locktest.cycle"); //$NON-NLS-1$
+			installer.installBundle("thread.locktest.frag"); //$NON-NLS-1$
+			assertTrue("Could not resolve bundles", installer.resolveBundles(new Bundle[] {stress, cycle})); //$NON-NLS-1$
+			loadThreadLockStressClasses(stress, cycle);
+			installer.refreshPackages(installer.uninstallAllBundles());
+		}
+	}
+
+	public void testThreadLockStressPerLoader() throws Exception {
+		// the per class loader deadlock avoidance locks are configured when a framework is launched
+		File config = OSGiTestsActivator.getContext().getDataFile("testThreadLockStressPerLoader"); //$NON-NLS-1$
+		Properties configuration = new Properties();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		configuration.put("osgi.classloader.singleThreadLoads", "perLoader"); //$NON-NLS-1$ //$NON-NLS-2$
+		Equinox equinox = new Equinox(configuration);
+		equinox.start();
+		try {
+			BundleContext systemContext = equinox.getBundleContext();
+			FrameworkWiring wiring = (FrameworkWiring) equinox.adapt(FrameworkWiring.class);
+			Bundle stress = systemContext.installBundle(installer.getBundleLocation("thread.locktest.stress")); //$NON-NLS-1$
+			Bundle cycle = systemContext.installBundle(installer.getBundleLocation("thread.locktest.cycle")); //$NON-NLS-1$
+			systemContext.installBundle(installer.getBundleLocation("thread.locktest.frag")); //$NON-NLS-1$
+			List bundles = Arrays.asList(new Bundle[] {stress, cycle});
+			for (int i = 0; i < 20; i++) {
+				assertTrue("Could not resolve bundles", wiring.resolveBundles(bundles)); //$NON-NLS-1$
+				loadThreadLockStressClasses(stress, cycle);
+				// discard the class loaders for the next iteration
+				final boolean[] refreshed = new boolean[] {false};
+				FrameworkListener listener = new FrameworkListener() {
+					public void frameworkEvent(FrameworkEvent event) {
+						synchronized (refreshed) {
+							refreshed[0] = true;
+							refreshed.notifyAll();
+						}
+					}
+				};
+				wiring.refreshBundles(bundles, new FrameworkListener[] {listener});
+				synchronized (refreshed) {
+					long end = System.currentTimeMillis() + 10000;
+					while (!refreshed[0] && System.currentTimeMillis() < end)
+						refreshed.wait(1000);
+				}
+				assertTrue("Bundles were not refreshed", refreshed[0]); //$NON-NLS-1$
+			}
+		} finally {
+			equinox.stop();
+			equinox.waitForStop(10000);
+		}
+	}
+
+	private void loadThreadLockStressClasses(Bundle stress, Bundle cycle) throws InterruptedException {
+		// thread.locktest.stress.ASub extends thread.locktest.cycle.BBase and
+		// thread.locktest.cycle.BSub extends thread.locktest.stress.ABase;
+		// loading both concurrently makes the two class loaders wait for each other
+		final String[][] classNames = new String[][] { {"thread.locktest.stress.ASub", "thread.locktest.cycle.BSub"}, {"thread.locktest.cycle.BSub", "thread.locktest.stress.ASub"}}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		final Bundle[] loaders = new Bundle[] {stress, cycle};
+		final Object gate = new Object();
+		final boolean[] open = new boolean[] {false};
+		final List errors = Collections.synchronizedList(new ArrayList());
+		Thread[] threads = new Thread[8];
+		for (int j = 0; j < threads.length; j++) {
+			final int index = j % 2;
+			threads[j] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						synchronized (gate) {
+							while (!open[0])
+								gate.wait();
+						}
+						for (int k = 0; k < classNames[index].length; k++)
+							loaders[index].loadClass(classNames[index][k]);
+					} catch (Throwable t) {
+						errors.add(t);
+					}
+				}
+			}, "thread.locktest.stress " + j); //$NON-NLS-1$
+			threads[j].setDaemon(true);
+			threads[j].start();
+		}
+		synchronized (gate) {
+			open[0] = true;
+			gate.notifyAll();
+		}
+		for (int j = 0; j < threads.length; j++) {
+			threads[j].join(10000);
+			assertFalse("Deadlock loading classes in " + threads[j].getName(), threads[j].isAlive()); //$NON-NLS-1$
+		}
+		if (!errors.isEmpty())
+			fail("Failed to load classes: " + errors.get(0)); //$NON-NLS-1$
+	}
+
+	public void testStartupClassPreload() throws Exception {
+		File config = OSGiTestsActivator.getContext().getDataFile("testStartupClassPreload"); //$NON-NLS-1$
+		Properties configuration = new Properties();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		configuration.put("osgi.classloader.preload", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		String bsub = "thread.locktest.cycle.BSub"; //$NON-NLS-1$
+		String bbase = "thread.locktest.cycle.BBase"; //$NON-NLS-1$
+
+		// the first launch records both classes of the cycle bundle
+		Equinox equinox = new Equinox(configuration);
+		equinox.init();
+		BundleContext systemContext = equinox.getBundleContext();
+		systemContext.installBundle(installer.getBundleLocation("thread.locktest.stress")); //$NON-NLS-1$
+		Bundle cycle = systemContext.installBundle(installer.getBundleLocation("thread.locktest.cycle")); //$NON-NLS-1$
+		cycle.loadClass(bsub);
+		cycle.loadClass(bbase);
+		equinox.start();
+		stopFramework(equinox);
+
+		// the second launch only uses BBase; BSub is preloaded
+		equinox = new Equinox(configuration);
+		equinox.init();
+		cycle = equinox.getBundleContext().getBundle(cycle.getBundleId());
+		cycle.loadClass(bbase);
+		equinox.start();
+		try {
+			assertTrue("BSub was not preloaded", waitForLoadedClass(cycle, bsub)); //$NON-NLS-1$
+		} finally {
+			stopFramework(equinox);
+		}
+
+		// BSub was not used by the second launch; only BBase is preloaded
+		equinox = new Equinox(configuration);
+		equinox.init();
+		cycle = equinox.getBundleContext().getBundle(cycle.getBundleId());
+		equinox.start();
+		try {
+			assertTrue("BBase was not preloaded", waitForLoadedClass(cycle, bbase)); //$NON-NLS-1$
+			assertFalse("BSub was preloaded", isLoadedClass(cycle, bsub)); //$NON-NLS-1$
+		} finally {
+			stopFramework(equinox);
+		}
+	}
+
+	private boolean waitForLoadedClass(Bundle bundle, String name) throws Exception {
+		// the classes are preloaded by background threads
+		long end = System.currentTimeMillis() + 10000;
+		while (!isLoadedClass(bundle, name) && System.currentTimeMillis() < end)
+			Thread.sleep(100);
+		return isLoadedClass(bundle, name);
+	}
+
+	private boolean isLoadedClass(Bundle bundle, String name) throws Exception {
+		// the embedded framework has its own copy of the framework classes
+		ClassLoader loader = ((BundleWiring) bundle.adapt(BundleWiring.class)).getClassLoader();
+		Method findLoaded = loader.getClass().getMethod("publicFindLoaded", new Class[] {String.class}); //$NON-NLS-1$
+		return findLoaded.invoke(loader, new Object[] {name}) != null;
+	}
+
+	private void stopFramework(Equinox equinox) throws Exception {
+		equinox.stop();
+		equinox.waitForStop(10000);
+	}
+
+	public void testPackageIndex() throws Exception {
+		// the same classes and resources must be found with and without the package index
+		List unindexed = getPackageIndexResults(getName() + ".unindexed", false); //$NON-NLS-1$
+		List indexed = getPackageIndexResults(getName() + ".indexed", true); //$NON-NLS-1$
+		assertEquals("Wrong results with the package index", unindexed, indexed); //$NON-NLS-1$
+		// the resource of the second classpath entry is found
+		assertTrue("Wrong results", indexed.contains("test2:resource2=1:/resource2")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private List getPackageIndexResults(String name, boolean index) throws Exception {
+		File config = OSGiTestsActivator.getContext().getDataFile(name);
+		Properties configuration = new Properties();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		// the test bundle imports a package of the tests bundle but does not use it
+		configuration.put(Constants.FRAMEWORK_SYSTEMPACKAGES_EXTRA, "org.eclipse.osgi.tests.bundles"); //$NON-NLS-1$
+		if (index)
+			configuration.put("osgi.classloader.packageIndex", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		Equinox equinox = new Equinox(configuration);
+		equinox.start();
+		try {
+			BundleContext systemContext = equinox.getBundleContext();
+			// the test bundles have the classpath entries . and stuff/
+			Bundle test = systemContext.installBundle(installer.getBundleLocation("test")); //$NON-NLS-1$
+			Bundle test2 = systemContext.installBundle(installer.getBundleLocation("test2")); //$NON-NLS-1$
+			systemContext.installBundle(installer.getBundleLocation("test.fragment1")); //$NON-NLS-1$
+			FrameworkWiring wiring = (FrameworkWiring) equinox.adapt(FrameworkWiring.class);
+			Bundle[] bundles = new Bundle[] {test, test2};
+			assertTrue("Could not resolve bundles", wiring.resolveBundles(Arrays.asList(bundles))); //$NON-NLS-1$
+
+			List results = new ArrayList();
+			String[] classNames = new String[] {"test1.Activator", "test1.Missing", "data.Missing", "stuff.data.Missing", "Missing"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+			String[] resourceNames = new String[] {"data/resource1", "/data/resource1", "stuff/data/resource1", "resource2", "a/b/c/d", "a/b/", "a/b/c/../c/d", "test1/Activator.class", "META-INF/MANIFEST.MF", "data/missing", "missing", ""}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$ //$NON-NLS-10$ //$NON-NLS-11$ //$NON-NLS-12$
+			for (int i = 0; i < bundles.length; i++) {
+				String prefix = bundles[i].getSymbolicName() + ":"; //$NON-NLS-1$
+				for (int j = 0; j < classNames.length; j++) {
+					try {
+						Class clazz = bundles[i].loadClass(classNames[j]);
+						results.add(prefix + classNames[j] + "=" + clazz.getName()); //$NON-NLS-1$
+					} catch (ClassNotFoundException e) {
+						results.add(prefix + classNames[j] + "=null"); //$NON-NLS-1$
+					}
+				}
+				for (int j = 0; j < resourceNames.length; j++) {
+					URL resource = bundles[i].getResource(resourceNames[j]);
+					// the host of the URL is different for each framework; the port is the classpath index
+					results.add(prefix + resourceNames[j] + "=" + (resource == null ? "null" : resource.getPort() + ":" + resource.getPath())); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				}
+			}
+			return results;
+		} finally {
+			stopFramework(equinox);
+		}
+	}
+
 	public void testURLsBug164077() throws Exception {
 		Bundle test = installer.installBundle("test"); //$NON-NLS-1$
 		installer.resolveBundles(new Bundle[] {test});
@@ -17,6 +17,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import junit.framework.Test;
 import junit.framework.TestSuite;
+import org.eclipse.osgi.event.CoalescingBundleListener;
 import org.eclipse.osgi.tests.OSGiTestsActivator;
 import org.osgi.framework.*;
 import org.osgi.service.packageadmin.ExportedPackage;
@@ -38,6 +39,50 @@ public class PackageAdminBundleTests extends AbstractBundleTests {
 		}
 	}
 
+	public class TestCoalescingListener implements CoalescingBundleListener {
+		ArrayList events = new ArrayList();
+		ArrayList batches = new ArrayList();
+
+		public synchronized void bundleChanged(BundleEvent event) {
+			events.add(event);
+			notifyAll();
+		}
+
+		public synchronized void bundlesChanged(BundleEvent[] batch) {
+			batches.add(batch);
+			notifyAll();
+		}
+
+		public synchronized BundleEvent[][] getBatches(int count) throws InterruptedException {
+			long endTime = System.currentTimeMillis() + 5000;
+			while (batches.size() < count && System.currentTimeMillis() < endTime)
+				wait(100);
+			try {
+				return (BundleEvent[][]) batches.toArray(new BundleEvent[0][]);
+			} finally {
+				batches.clear();
+			}
+		}
+
+		public synchronized BundleEvent[] getEvents() {
+			try {
+				return (BundleEvent[]) events.toArray(new BundleEvent[0]);
+			} finally {
+				events.clear();
+			}
+		}
+
+		public synchronized BundleEvent[] getEvents(int lastType) throws InterruptedException {
+			long endTime = System.currentTimeMillis() + 5000;
+			long remaining = 5000;
+			while ((events.isEmpty() || ((BundleEvent) events.get(events.size() - 1)).getType() != lastType) && remaining > 0) {
+				wait(remaining);
+				remaining = endTime - System.currentTimeMillis();
+			}
+			return getEvents();
+		}
+	}
+
 	public class Bug289719Listener implements SynchronousBundleListener {
 
 		ArrayList expectedEvents = new ArrayList();
@@ -147,6 +192,43 @@ public class PackageAdminBundleTests extends AbstractBundleTests {
 		}
 	}
 
+	public void testBundleEvents03() throws Exception {
+		Bundle chainTest = installer.installBundle("chain.test"); //$NON-NLS-1$
+		Bundle chainTestA = installer.installBundle("chain.test.a"); //$NON-NLS-1$
+		Bundle chainTestB = installer.installBundle("chain.test.b"); //$NON-NLS-1$
+		Bundle chainTestC = installer.installBundle("chain.test.c"); //$NON-NLS-1$
+		Bundle chainTestD = installer.installBundle("chain.test.d"); //$NON-NLS-1$
+		Bundle[] resolveBundles = new Bundle[] {chainTestC, chainTestA, chainTestB, chainTest, chainTestD};
+		Bundle[] dependencyOrder = new Bundle[] {chainTest, chainTestA, chainTestB, chainTestC, chainTestD};
+		TestCoalescingListener testListener = new TestCoalescingListener();
+		OSGiTestsActivator.getContext().addBundleListener(testListener);
+		try {
+			installer.resolveBundles(resolveBundles);
+			BundleEvent[][] batches = testListener.getBatches(1);
+			assertEquals("Batch count", 1, batches.length); //$NON-NLS-1$
+			// the lazy activation events are not delivered to asynchronous listeners
+			BundleEvent[] events = batches[0];
+			assertEquals("Event count", 5, events.length); //$NON-NLS-1$
+			int j = 0;
+			for (int i = dependencyOrder.length - 1; i >= 0; i--, j++) {
+				assertTrue("Resolved Event Bundle: " + dependencyOrder[i].getSymbolicName(), dependencyOrder[i] == events[j].getBundle()); //$NON-NLS-1$
+				assertEquals("Expecting Resolved event", BundleEvent.RESOLVED, events[j].getType()); //$NON-NLS-1$
+			}
+			assertEquals("Unexpected single events", 0, testListener.getEvents().length); //$NON-NLS-1$
+
+			// events outside of a batch are delivered individually
+			installer.uninstallBundle("chain.test.d"); //$NON-NLS-1$
+			BundleEvent[] single = testListener.getEvents(BundleEvent.UNINSTALLED);
+			assertTrue("No single events", single.length > 0); //$NON-NLS-1$
+			BundleEvent last = single[single.length - 1];
+			assertTrue("Uninstalled Event Bundle", chainTestD == last.getBundle()); //$NON-NLS-1$
+			assertEquals("Expecting Uninstalled event", BundleEvent.UNINSTALLED, last.getType()); //$NON-NLS-1$
+			assertEquals("Unexpected batches", 0, testListener.getBatches(0).length); //$NON-NLS-1$
+		} finally {
+			OSGiTestsActivator.getContext().removeBundleListener(testListener);
+		}
+	}
+
 	public void testBug259903() throws Exception {
 		Bundle bug259903a = installer.installBundle("test.bug259903.a"); //$NON-NLS-1$
 		Bundle bug259903b = installer.installBundle("test.bug259903.b"); //$NON-NLS-1$
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 IBM Corporation and others.
+ * Copyright (c) 2008, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,7 +12,7 @@ package org.eclipse.osgi.tests.eventmgr;
 
 import java.util.*;
 import junit.framework.*;
-import org.eclipse.osgi.framework.eventmgr.CopyOnWriteIdentityMap;
+import org.eclipse.osgi.framework.eventmgr.*;
 
 public class EventManagerTests extends TestCase {
 	public static Test suite() {
@@ -421,4 +421,129 @@ public class EventManagerTests extends TestCase {
 		assertNull("value not null", el2.get(l3)); //$NON-NLS-1$
 
 	}
+
+	public void testPooledAsynchronousDispatch() throws InterruptedException {
+		final Object slow = new Object();
+		final Map delivered = new HashMap();
+		CopyOnWriteIdentityMap listeners = new CopyOnWriteIdentityMap();
+		listeners.put(slow, null);
+		for (int i = 0; i < 4; i++)
+			listeners.put(new Object(), null);
+		for (Iterator iListeners = listeners.keySet().iterator(); iListeners.hasNext();)
+			delivered.put(iListeners.next(), new ArrayList());
+		final Object lock = new Object();
+		EventDispatcher dispatcher = new EventDispatcher() {
+			public void dispatchEvent(Object eventListener, Object listenerObject, int eventAction, Object eventObject) {
+				if (eventListener == slow) {
+					synchronized (lock) {
+						try {
+							// hold up the slow listener until the other listeners are done
+							lock.wait(5000);
+						} catch (InterruptedException e) {
+							// continue
+						}
+					}
+				}
+				List events = (List) delivered.get(eventListener);
+				synchronized (events) {
+					events.add(eventObject);
+					events.notifyAll();
+				}
+			}
+		};
+
+		EventManager manager = new EventManager("testPooledAsynchronousDispatch", null, 3); //$NON-NLS-1$
+		try {
+			for (int i = 0; i < 10; i++) {
+				ListenerQueue queue = new ListenerQueue(manager);
+				queue.queueListeners(listeners.entrySet(), dispatcher);
+				queue.dispatchEventAsynchronous(0, new Integer(i));
+			}
+			assertTrue("no queued events", manager.getPeakQueueDepth() > 0); //$NON-NLS-1$
+
+			// the other listeners receive their events while the slow listener is blocked
+			for (Iterator entries = delivered.entrySet().iterator(); entries.hasNext();) {
+				Map.Entry entry = (Map.Entry) entries.next();
+				if (entry.getKey() != slow)
+					waitForEvents((List) entry.getValue(), 10);
+			}
+			assertTrue("slow listener has no latency", manager.getListenerLatencies().containsKey(slow)); //$NON-NLS-1$
+
+			synchronized (lock) {
+				lock.notifyAll();
+			}
+			// release the slow listener for each of its events
+			for (int i = 0; i < 10; i++) {
+				List events = (List) delivered.get(slow);
+				synchronized (events) {
+					while (events.size() <= i) {
+						synchronized (lock) {
+							lock.notifyAll();
+						}
+						events.wait(10);
+					}
+				}
+			}
+
+			// each listener receives its events in order
+			for (Iterator entries = delivered.values().iterator(); entries.hasNext();) {
+				List events = (List) entries.next();
+				for (int i = 0; i < 10; i++)
+					assertEquals("wrong event order", new Integer(i), events.get(i)); //$NON-NLS-1$
+			}
+			assertEquals("events still queued", 0, manager.getQueueDepth()); //$NON-NLS-1$
+		} finally {
+			manager.close();
+		}
+	}
+
+	public void testListenerQueueSnapshot() {
+		final List delivered = new ArrayList();
+		EventDispatcher dispatcher = new EventDispatcher() {
+			public void dispatchEvent(Object eventListener, Object listenerObject, int eventAction, Object eventObject) {
+				delivered.add(eventListener);
+			}
+		};
+		EventDispatcher unused = new EventDispatcher() {
+			public void dispatchEvent(Object eventListener, Object listenerObject, int eventAction, Object eventObject) {
+				fail("replaced dispatcher called"); //$NON-NLS-1$
+			}
+		};
+		Object l1 = new Object();
+		Object l2 = new Object();
+		Object l3 = new Object();
+		CopyOnWriteIdentityMap listeners = new CopyOnWriteIdentityMap();
+		listeners.put(l1, null);
+		listeners.put(l2, null);
+		CopyOnWriteIdentityMap others = new CopyOnWriteIdentityMap();
+		others.put(l3, null);
+		Set snapshot = listeners.entrySet();
+		Set otherSnapshot = others.entrySet();
+		// shrink the snapshot as a hook would; the map is not changed
+		snapshot.remove(snapshot.iterator().next());
+		listeners.put(new Object(), null);
+
+		EventManager manager = new EventManager("testListenerQueueSnapshot"); //$NON-NLS-1$
+		try {
+			ListenerQueue queue = new ListenerQueue(manager);
+			queue.queueListeners(snapshot, unused);
+			queue.queueListeners(otherSnapshot, dispatcher);
+			queue.queueListeners(snapshot, dispatcher);
+			queue.queueListeners(Collections.EMPTY_SET, unused);
+			queue.dispatchEventSynchronous(0, null);
+			assertEquals("wrong listeners", Arrays.asList(new Object[] {l2, l3}), delivered); //$NON-NLS-1$
+			assertEquals("map changed", 3, listeners.size()); //$NON-NLS-1$
+		} finally {
+			manager.close();
+		}
+	}
+
+	private void waitForEvents(List events, int count) throws InterruptedException {
+		long endTime = System.currentTimeMillis() + 5000;
+		synchronized (events) {
+			while (events.size() < count && System.currentTimeMillis() < endTime)
+				events.wait(100);
+			assertEquals("wrong number of events", count, events.size()); //$NON-NLS-1$
+		}
+	}
 }
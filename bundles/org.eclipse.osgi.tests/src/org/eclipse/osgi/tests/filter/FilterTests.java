@@ -343,6 +343,28 @@ public abstract class FilterTests extends TestCase {
 		assertFalse("does match filter", f1.match(new DictionaryServiceReference(hash)));
 	}
 
+	public void testMixedValueTypes() {
+		Filter f1 = null;
+		Object[] values = new Object[] {new Integer(3), new Long(1), new Version(2, 0, 0), "3", new SampleComparable("42"), new Integer(1), new Long(2), new Version(1, 0, 0), "1", new SampleComparable("1")};
+		boolean[] expected = new boolean[] {true, false, true, true, true, false, true, false, false, false};
+		Hashtable hash = new Hashtable();
+
+		try {
+			f1 = createFilter("(value>=2)");
+		} catch (InvalidSyntaxException e) {
+			fail("invalid syntax", e);
+		}
+
+		// match the values twice; the second pass uses the operands converted by the first
+		for (int pass = 0; pass < 2; pass++) {
+			for (int i = 0; i < values.length; i++) {
+				hash.put("value", values[i]);
+				assertEquals("wrong result for " + values[i], expected[i], f1.match(hash));
+				assertEquals("wrong result for " + values[i], expected[i], f1.match(new DictionaryServiceReference(hash)));
+			}
+		}
+	}
+
 	public static class SampleComparable implements Comparable {
 		private int value = -1;
 
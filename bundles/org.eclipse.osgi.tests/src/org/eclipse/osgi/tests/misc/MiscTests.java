@@ -10,9 +10,22 @@
  *******************************************************************************/
 package org.eclipse.osgi.tests.misc;
 
+import java.io.*;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.zip.*;
 import junit.framework.*;
 import org.eclipse.core.runtime.Platform;
+import org.eclipse.osgi.baseadaptor.bundlefile.BundleEntry;
 import org.eclipse.osgi.framework.internal.core.BundleHost;
+import org.eclipse.osgi.internal.baseadaptor.ClassBufferPool;
+import org.eclipse.osgi.internal.baseadaptor.ClassBytesCache;
+import org.eclipse.osgi.internal.baseadaptor.MappedZipBundleFile;
+import org.eclipse.osgi.internal.baseadaptor.ZipIndex;
+import org.eclipse.osgi.internal.loader.LoaderLockGraph;
+import org.eclipse.osgi.internal.loader.NegativeLookupCache;
+import org.eclipse.osgi.internal.loader.PackageNameTrie;
 import org.eclipse.osgi.internal.loader.SingleSourcePackage;
 import org.eclipse.osgi.tests.OSGiTestsActivator;
 
@@ -43,4 +56,455 @@ public class MiscTests extends TestCase {
 		assertFalse("sources are equal", p111.equals(p112)); //$NON-NLS-1$
 		assertFalse("sources are equal", p212.equals(p211)); //$NON-NLS-1$
 	}
+
+	public void testClassBytesCacheReopen() throws IOException {
+		File file = File.createTempFile("classBytesCache", ".cache"); //$NON-NLS-1$ //$NON-NLS-2$
+		file.delete();
+		try {
+			byte[] bytes = new byte[1000];
+			for (int i = 0; i < bytes.length; i++)
+				bytes[i] = (byte) i;
+			// the cache fills up after a few classes
+			ClassBytesCache cache = new ClassBytesCache(file, 3500);
+			cache.open(false);
+			for (int i = 0; i < 5; i++)
+				cache.putClassBytes(1, 10, "bundle.jar", "c/C" + i + ".class", ByteBuffer.wrap(bytes)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			cache.close();
+			assertTrue("cache file is too large: " + file.length(), file.length() <= 3500); //$NON-NLS-1$
+
+			// reopen the full cache with a smaller maximum size
+			cache = new ClassBytesCache(file, 1000);
+			cache.open(false);
+			ByteBuffer cached = cache.getClassBytes(1, 10, "bundle.jar", "c/C0.class"); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNotNull("no cached class", cached); //$NON-NLS-1$
+			assertEquals("wrong cached class", ByteBuffer.wrap(bytes), cached); //$NON-NLS-1$
+			assertNotNull("no cached class", cache.getClassBytes(1, 10, "bundle.jar", "c/C2.class")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			assertNull("class past maximum size is cached", cache.getClassBytes(1, 10, "bundle.jar", "c/C3.class")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			assertNull("wrong bundle timestamp", cache.getClassBytes(1, 11, "bundle.jar", "c/C0.class")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			cache.close();
+
+			// a partially written record is dropped when the cache is reopened
+			long length = file.length();
+			RandomAccessFile raf = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+			try {
+				raf.setLength(length + 5);
+				raf.seek(length);
+				raf.writeByte(1);
+			} finally {
+				raf.close();
+			}
+			cache = new ClassBytesCache(file, 10000);
+			cache.open(false);
+			assertEquals("partial record is not dropped", length, file.length()); //$NON-NLS-1$
+			assertNotNull("no cached class", cache.getClassBytes(1, 10, "bundle.jar", "c/C1.class")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			cache.close();
+		} finally {
+			file.delete();
+		}
+	}
+
+	public void testClassBytesCacheInvalidate() throws IOException {
+		File file = File.createTempFile("classBytesCache", ".cache"); //$NON-NLS-1$ //$NON-NLS-2$
+		file.delete();
+		try {
+			byte[] bytes = new byte[100];
+			ClassBytesCache cache = new ClassBytesCache(file, 10000);
+			cache.open(false);
+			cache.putClassBytes(1, 10, "bundle.jar", "c/C.class", ByteBuffer.wrap(bytes)); //$NON-NLS-1$ //$NON-NLS-2$
+			cache.putClassBytes(2, 10, "bundle.jar", "c/C.class", ByteBuffer.wrap(bytes)); //$NON-NLS-1$ //$NON-NLS-2$
+			cache.close();
+
+			cache = new ClassBytesCache(file, 10000);
+			cache.open(false);
+			ByteBuffer cached = cache.getClassBytes(1, 10, "bundle.jar", "c/C.class"); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNotNull("no cached class", cached); //$NON-NLS-1$
+			cache.invalidate(1);
+			assertNull("invalidated class is cached", cache.getClassBytes(1, 10, "bundle.jar", "c/C.class")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			assertNotNull("no cached class", cache.getClassBytes(2, 10, "bundle.jar", "c/C.class")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			// a buffer returned before the bundle was invalidated is still readable
+			assertEquals("wrong cached class", ByteBuffer.wrap(bytes), cached); //$NON-NLS-1$
+			assertEquals("wrong hit count", 2, cache.getHitCount()); //$NON-NLS-1$
+			cache.close();
+
+			cache = new ClassBytesCache(file, 10000);
+			cache.open(true);
+			assertNull("invalidated class is cached", cache.getClassBytes(1, 10, "bundle.jar", "c/C.class")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			assertNotNull("no cached class", cache.getClassBytes(2, 10, "bundle.jar", "c/C.class")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			cache.close();
+		} finally {
+			file.delete();
+		}
+	}
+
+	public void testClassBufferPoolExhausted() {
+		// nested class definitions acquire more buffers than a thread pools; this also
+		// empties the pool of the current thread
+		ByteBuffer[] buffers = new ByteBuffer[ClassBufferPool.MAX_POOLED + 1];
+		for (int i = 0; i < buffers.length; i++) {
+			buffers[i] = ClassBufferPool.acquire();
+			assertTrue("buffer is too small", buffers[i].capacity() >= ClassBufferPool.BUFFER_SIZE); //$NON-NLS-1$
+			for (int j = 0; j < i; j++)
+				assertNotSame("buffer is acquired twice", buffers[j], buffers[i]); //$NON-NLS-1$
+			buffers[i].put((byte) i);
+		}
+		for (int i = 0; i < buffers.length; i++)
+			ClassBufferPool.release(buffers[i]);
+		// the pool is full when the last buffer is released; the last buffer is discarded
+		for (int i = ClassBufferPool.MAX_POOLED - 1; i >= 0; i--) {
+			ByteBuffer buffer = ClassBufferPool.acquire();
+			assertSame("pooled buffer is not reused", buffers[i], buffer); //$NON-NLS-1$
+			assertEquals("buffer is not cleared", 0, buffer.position()); //$NON-NLS-1$
+			assertEquals("buffer is not cleared", buffer.capacity(), buffer.limit()); //$NON-NLS-1$
+		}
+		ByteBuffer buffer = ClassBufferPool.acquire();
+		assertNotSame("discarded buffer is reused", buffers[ClassBufferPool.MAX_POOLED], buffer); //$NON-NLS-1$
+		assertEquals("wrong buffer size", ClassBufferPool.BUFFER_SIZE, buffer.capacity()); //$NON-NLS-1$
+	}
+
+	public void testClassBufferPoolOversize() throws IOException {
+		final byte[] content = new byte[ClassBufferPool.BUFFER_SIZE * 2];
+		for (int i = 0; i < content.length; i++)
+			content[i] = (byte) i;
+		BundleEntry entry = new BundleEntry() {
+			public InputStream getInputStream() {
+				return new ByteArrayInputStream(content);
+			}
+
+			public long getSize() {
+				return content.length;
+			}
+
+			public String getName() {
+				return "Oversize.class"; //$NON-NLS-1$
+			}
+
+			public long getTime() {
+				return 0;
+			}
+
+			public URL getLocalURL() {
+				return null;
+			}
+
+			public URL getFileURL() {
+				return null;
+			}
+		};
+		// a class larger than a pooled buffer is read into a new buffer
+		ByteBuffer pooled = ClassBufferPool.acquire();
+		ByteBuffer classbytes = entry.getByteBuffer(pooled);
+		assertNotSame("class is read into a buffer which is too small", pooled, classbytes); //$NON-NLS-1$
+		assertEquals("wrong class bytes", ByteBuffer.wrap(content), classbytes); //$NON-NLS-1$
+		ClassBufferPool.release(pooled);
+
+		// buffers larger than the maximum size are not pooled
+		ByteBuffer[] buffers = new ByteBuffer[ClassBufferPool.MAX_POOLED];
+		for (int i = 0; i < buffers.length; i++)
+			buffers[i] = ClassBufferPool.acquire();
+		ByteBuffer large = ByteBuffer.allocate(ClassBufferPool.MAX_BUFFER_SIZE + 1);
+		ClassBufferPool.release(large);
+		assertNotSame("large buffer is pooled", large, ClassBufferPool.acquire()); //$NON-NLS-1$
+		for (int i = 0; i < buffers.length; i++)
+			ClassBufferPool.release(buffers[i]);
+	}
+
+	public void testLoaderLockGraphExclusive() throws InterruptedException {
+		final LoaderLockGraph graph = new LoaderLockGraph();
+		final Object loader = new Object();
+		final boolean[] acquired = new boolean[] {false};
+		graph.lock(loader);
+		graph.lock(loader);
+		Thread other = new Thread(new Runnable() {
+			public void run() {
+				graph.lock(loader);
+				synchronized (acquired) {
+					acquired[0] = true;
+				}
+				graph.unlock(loader);
+			}
+		}, "testLoaderLockGraphExclusive"); //$NON-NLS-1$
+		other.setDaemon(true);
+		other.start();
+		other.join(500);
+		synchronized (acquired) {
+			assertFalse("lock is not exclusive", acquired[0]); //$NON-NLS-1$
+		}
+		graph.unlock(loader);
+		other.join(500);
+		synchronized (acquired) {
+			assertFalse("lock is not reentrant", acquired[0]); //$NON-NLS-1$
+		}
+		graph.unlock(loader);
+		other.join(10000);
+		assertFalse("lock is not released", other.isAlive()); //$NON-NLS-1$
+		assertTrue("lock is not acquired", acquired[0]); //$NON-NLS-1$
+	}
+
+	public void testLoaderLockGraphCycle() throws InterruptedException {
+		for (int i = 0; i < 50; i++) {
+			final LoaderLockGraph graph = new LoaderLockGraph();
+			final Object[] loaders = new Object[] {new Object(), new Object()};
+			// counts the threads which own their loader, then the threads which own both loaders
+			final int[] counts = new int[] {0, 0};
+			final List errors = Collections.synchronizedList(new ArrayList());
+			Thread[] threads = new Thread[2];
+			for (int j = 0; j < threads.length; j++) {
+				final Object own = loaders[j];
+				final Object other = loaders[(j + 1) % 2];
+				threads[j] = new Thread(new Runnable() {
+					public void run() {
+						try {
+							graph.lock(own);
+							synchronized (counts) {
+								// wait for the other thread to own its loader so the requests form a cycle
+								counts[0]++;
+								counts.notifyAll();
+								while (counts[0] < 2)
+									counts.wait();
+							}
+							graph.lock(other);
+							synchronized (counts) {
+								if (++counts[1] > 1)
+									errors.add("both threads own both loaders"); //$NON-NLS-1$
+							}
+							Thread.yield();
+							synchronized (counts) {
+								counts[1]--;
+							}
+							graph.unlock(other);
+							graph.unlock(own);
+						} catch (Throwable t) {
+							errors.add(t);
+						}
+					}
+				}, "testLoaderLockGraphCycle " + j); //$NON-NLS-1$
+				threads[j].setDaemon(true);
+				threads[j].start();
+			}
+			for (int j = 0; j < threads.length; j++) {
+				threads[j].join(10000);
+				assertFalse("Deadlock in " + threads[j].getName(), threads[j].isAlive()); //$NON-NLS-1$
+			}
+			if (!errors.isEmpty())
+				fail("Failed to lock loaders: " + errors.get(0)); //$NON-NLS-1$
+			// all the loaders are released
+			graph.lock(loaders[0]);
+			graph.lock(loaders[1]);
+			graph.unlock(loaders[1]);
+			graph.unlock(loaders[0]);
+		}
+	}
+
+	public void testNegativeLookupCache() {
+		NegativeLookupCache cache = new NegativeLookupCache(2);
+		int stamp = cache.getStamp();
+		assertFalse("Unexpected miss", cache.contains("a.A")); //$NON-NLS-1$ //$NON-NLS-2$
+		cache.add("a.A", stamp); //$NON-NLS-1$
+		assertTrue("Missing miss", cache.contains("a.A")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals("Wrong hit count", 1, cache.getHitCount()); //$NON-NLS-1$
+		assertEquals("Wrong miss count", 1, cache.getMissCount()); //$NON-NLS-1$
+
+		// the oldest name is discarded when the cache is full
+		cache.add("a.B", stamp); //$NON-NLS-1$
+		cache.add("a.C", stamp); //$NON-NLS-1$
+		assertFalse("Oldest miss is kept", cache.contains("a.A")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertTrue("Missing miss", cache.contains("a.C")); //$NON-NLS-1$ //$NON-NLS-2$
+
+		// a search which started before the cache was cleared is not recorded
+		cache.clear();
+		assertFalse("Miss is kept after clear", cache.contains("a.C")); //$NON-NLS-1$ //$NON-NLS-2$
+		cache.add("a.D", stamp); //$NON-NLS-1$
+		assertFalse("Stale miss is recorded", cache.contains("a.D")); //$NON-NLS-1$ //$NON-NLS-2$
+
+		stamp = cache.getStamp();
+		cache.add("a.D", stamp); //$NON-NLS-1$
+		NegativeLookupCache.invalidateAll();
+		assertFalse("Miss is kept after invalidate", cache.contains("a.D")); //$NON-NLS-1$ //$NON-NLS-2$
+		cache.add("a.E", stamp); //$NON-NLS-1$
+		assertFalse("Stale miss is recorded", cache.contains("a.E")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals("Wrong hit count", 2, cache.getHitCount()); //$NON-NLS-1$
+		assertEquals("Wrong miss count", 6, cache.getMissCount()); //$NON-NLS-1$
+		assertEquals("Wrong statistics", "NegativeLookupCache[size=0, hits=2, misses=6]", cache.toString()); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	public void testPackageNameTrieKeepsFirst() {
+		PackageNameTrie trie = new PackageNameTrie();
+		assertNull("Wrong previous value", trie.put("a.b", "first")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals("Wrong existing value", "first", trie.put("a.b", "second")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		assertNull("Wrong previous stem value", trie.putStem("a.", "stem1")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals("Wrong existing stem value", "stem1", trie.putStem("a.", "stem2")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		assertEquals("Wrong size", 2, trie.size()); //$NON-NLS-1$
+		assertEquals("Wrong package value", "first", trie.get("a.b")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		assertEquals("Wrong class package value", "first", trie.get("a.b.C", 0, 3)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		assertEquals("Wrong stem match", "stem1", trie.get("a.c")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		assertNull("Unexpected match", trie.get("b")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	public void testZipIndexRead() throws IOException {
+		File file = createTestZip();
+		try {
+			ZipIndex index = ZipIndex.read(ByteBuffer.wrap(readFile(file)), file.lastModified());
+			assertEquals("Wrong entry count", 4, index.getCount()); //$NON-NLS-1$
+			assertEquals("Wrong file length", file.length(), index.getFileLength()); //$NON-NLS-1$
+			int stored = index.indexOf("a/stored.txt"); //$NON-NLS-1$
+			assertTrue("Missing stored entry", stored >= 0); //$NON-NLS-1$
+			assertEquals("Wrong entry name", "a/stored.txt", index.getName(stored)); //$NON-NLS-1$ //$NON-NLS-2$
+			assertEquals("Wrong method", ZipIndex.STORED, index.getMethod(stored)); //$NON-NLS-1$
+			assertEquals("Wrong size", getTestZipContent("a/stored.txt").length, index.getSize(stored)); //$NON-NLS-1$ //$NON-NLS-2$
+			assertEquals("Wrong compressed size", index.getSize(stored), index.getCompressedSize(stored)); //$NON-NLS-1$
+			int deflated = index.indexOf("a/b/deflated.txt"); //$NON-NLS-1$
+			assertTrue("Missing deflated entry", deflated >= 0); //$NON-NLS-1$
+			assertEquals("Wrong method", ZipIndex.DEFLATED, index.getMethod(deflated)); //$NON-NLS-1$
+			assertEquals("Wrong size", getTestZipContent("a/b/deflated.txt").length, index.getSize(deflated)); //$NON-NLS-1$ //$NON-NLS-2$
+			assertTrue("Entry is not compressed", index.getCompressedSize(deflated) < index.getSize(deflated)); //$NON-NLS-1$
+			assertTrue("Missing directory entry", index.indexOf("a/") >= 0); //$NON-NLS-1$ //$NON-NLS-2$
+			assertEquals("Unexpected entry", -1, index.indexOf("a/b/")); //$NON-NLS-1$ //$NON-NLS-2$
+			assertEquals("Unexpected entry", -1, index.indexOf("a/stored")); //$NON-NLS-1$ //$NON-NLS-2$
+
+			try {
+				ZipIndex.read(ByteBuffer.wrap(new byte[100]), 0);
+				fail("Indexed a file which is not a zip file"); //$NON-NLS-1$
+			} catch (ZipException e) {
+				// expected
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	public void testZipIndexPersisted() throws IOException {
+		File file = createTestZip();
+		File indexFile = File.createTempFile("zipIndex", ".index"); //$NON-NLS-1$ //$NON-NLS-2$
+		try {
+			ZipIndex index = ZipIndex.read(ByteBuffer.wrap(readFile(file)), file.lastModified());
+			index.save(indexFile);
+			ZipIndex loaded = ZipIndex.load(indexFile, file.length(), file.lastModified());
+			assertNotNull("Index is not loaded", loaded); //$NON-NLS-1$
+			assertEquals("Wrong entry count", index.getCount(), loaded.getCount()); //$NON-NLS-1$
+			for (int i = 0; i < index.getCount(); i++) {
+				int entry = loaded.indexOf(index.getName(i));
+				assertEquals("Wrong entry index", i, entry); //$NON-NLS-1$
+				assertEquals("Wrong size", index.getSize(i), loaded.getSize(entry)); //$NON-NLS-1$
+				assertEquals("Wrong compressed size", index.getCompressedSize(i), loaded.getCompressedSize(entry)); //$NON-NLS-1$
+				assertEquals("Wrong method", index.getMethod(i), loaded.getMethod(entry)); //$NON-NLS-1$
+				assertEquals("Wrong time", index.getTime(i), loaded.getTime(entry)); //$NON-NLS-1$
+			}
+
+			// an index of a zip file which has changed is not used
+			assertNull("Loaded index with wrong length", ZipIndex.load(indexFile, file.length() + 1, file.lastModified())); //$NON-NLS-1$
+			assertNull("Loaded index with wrong last modified", ZipIndex.load(indexFile, file.length(), file.lastModified() + 1000)); //$NON-NLS-1$
+
+			// a truncated index is not used
+			byte[] content = readFile(indexFile);
+			FileOutputStream out = new FileOutputStream(indexFile);
+			try {
+				out.write(content, 0, content.length - 3);
+			} finally {
+				out.close();
+			}
+			assertNull("Loaded truncated index", ZipIndex.load(indexFile, file.length(), file.lastModified())); //$NON-NLS-1$
+
+			// an index file with the wrong format is not used
+			out = new FileOutputStream(indexFile);
+			try {
+				out.write(new byte[100]);
+			} finally {
+				out.close();
+			}
+			assertNull("Loaded corrupt index", ZipIndex.load(indexFile, file.length(), file.lastModified())); //$NON-NLS-1$
+		} finally {
+			indexFile.delete();
+			file.delete();
+		}
+	}
+
+	public void testMappedZipBundleFileEntries() throws IOException {
+		File file = createTestZip();
+		try {
+			MappedZipBundleFile bundleFile = MappedZipBundleFile.create(file, null, null);
+			try {
+				String[] names = new String[] {"a/stored.txt", "a/b/deflated.txt", "c.txt"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				for (int i = 0; i < names.length; i++) {
+					byte[] expected = getTestZipContent(names[i]);
+					BundleEntry entry = bundleFile.getEntry("/" + names[i]); //$NON-NLS-1$
+					assertNotNull("Missing entry: " + names[i], entry); //$NON-NLS-1$
+					assertEquals("Wrong name", names[i], entry.getName()); //$NON-NLS-1$
+					assertEquals("Wrong size", expected.length, entry.getSize()); //$NON-NLS-1$
+					assertTrue("Wrong content: " + names[i], Arrays.equals(expected, entry.getBytes())); //$NON-NLS-1$
+					assertEquals("Wrong buffer content: " + names[i], ByteBuffer.wrap(expected), entry.getByteBuffer(null)); //$NON-NLS-1$
+				}
+				assertNull("Unexpected entry", bundleFile.getEntry("a/missing.txt")); //$NON-NLS-1$ //$NON-NLS-2$
+				assertNotNull("Missing directory entry", bundleFile.getEntry("a/")); //$NON-NLS-1$ //$NON-NLS-2$
+				// the directory does not have its own zip entry
+				assertNotNull("Missing implied directory entry", bundleFile.getEntry("a/b/")); //$NON-NLS-1$ //$NON-NLS-2$
+				assertTrue("Missing directory", bundleFile.containsDir("a/b")); //$NON-NLS-1$ //$NON-NLS-2$
+				assertFalse("Unexpected directory", bundleFile.containsDir("b/")); //$NON-NLS-1$ //$NON-NLS-2$
+
+				Set paths = new HashSet(Collections.list(bundleFile.getEntryPaths("a"))); //$NON-NLS-1$
+				assertEquals("Wrong entry paths", new HashSet(Arrays.asList(new String[] {"a/stored.txt", "a/b/"})), paths); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				paths = new HashSet(Collections.list(bundleFile.getEntryPaths("", true))); //$NON-NLS-1$
+				assertEquals("Wrong recursive entry paths", new HashSet(Arrays.asList(new String[] {"a/", "a/stored.txt", "a/b/", "a/b/deflated.txt", "c.txt"})), paths); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+				assertNull("Unexpected entry paths", bundleFile.getEntryPaths("b")); //$NON-NLS-1$ //$NON-NLS-2$
+
+				// the file is mapped again after it is closed
+				bundleFile.close();
+				assertTrue("Wrong content after close", Arrays.equals(getTestZipContent("c.txt"), bundleFile.getEntry("c.txt").getBytes())); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			} finally {
+				bundleFile.close();
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static byte[] getTestZipContent(String name) {
+		StringBuffer content = new StringBuffer();
+		for (int i = 0; i < 200; i++)
+			content.append(name).append(' ').append(i).append('\n');
+		try {
+			return content.toString().getBytes("UTF-8"); //$NON-NLS-1$
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e.getMessage());
+		}
+	}
+
+	// creates a zip file with a directory entry, a stored entry and two deflated entries
+	private static File createTestZip() throws IOException {
+		File file = File.createTempFile("mappedZip", ".jar"); //$NON-NLS-1$ //$NON-NLS-2$
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+		try {
+			out.putNextEntry(new ZipEntry("a/")); //$NON-NLS-1$
+			out.closeEntry();
+			byte[] stored = getTestZipContent("a/stored.txt"); //$NON-NLS-1$
+			ZipEntry storedEntry = new ZipEntry("a/stored.txt"); //$NON-NLS-1$
+			storedEntry.setMethod(ZipEntry.STORED);
+			storedEntry.setSize(stored.length);
+			CRC32 crc = new CRC32();
+			crc.update(stored);
+			storedEntry.setCrc(crc.getValue());
+			out.putNextEntry(storedEntry);
+			out.write(stored);
+			out.closeEntry();
+			out.putNextEntry(new ZipEntry("a/b/deflated.txt")); //$NON-NLS-1$
+			out.write(getTestZipContent("a/b/deflated.txt")); //$NON-NLS-1$
+			out.closeEntry();
+			out.putNextEntry(new ZipEntry("c.txt")); //$NON-NLS-1$
+			out.write(getTestZipContent("c.txt")); //$NON-NLS-1$
+			out.closeEntry();
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		byte[] content = new byte[(int) file.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			in.readFully(content);
+		} finally {
+			in.close();
+		}
+		return content;
+	}
 }
@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.tests.perf;
+
+import java.util.Hashtable;
+import junit.framework.*;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.osgi.framework.internal.core.FilterImpl;
+import org.osgi.framework.*;
+
+/**
+ * Measures parsing and matching of filters against property values which require
+ * the filter operands to be converted to the type of the value.
+ */
+public class FilterPerformanceTest extends TestCase {
+	private static final String FILTER = "(&(objectClass=org.acme.Service)(service.ranking>=10)(version>=1.2.0)(size<=1024)(enabled=true))"; //$NON-NLS-1$
+
+	private Hashtable properties;
+
+	public static Test suite() {
+		return new TestSuite(FilterPerformanceTest.class);
+	}
+
+	public FilterPerformanceTest(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		properties = new Hashtable();
+		properties.put(Constants.OBJECTCLASS, new String[] {"org.acme.Service", "org.acme.Other"}); //$NON-NLS-1$ //$NON-NLS-2$
+		properties.put(Constants.SERVICE_RANKING, new Integer(20));
+		properties.put("version", new Version(1, 3, 0)); //$NON-NLS-1$
+		properties.put("size", new Long(512)); //$NON-NLS-1$
+		properties.put("enabled", Boolean.TRUE); //$NON-NLS-1$
+	}
+
+	public void testMatch() throws InvalidSyntaxException {
+		final Filter filter = FilterImpl.newInstance(FILTER);
+		assertTrue("No match", filter.match(properties)); //$NON-NLS-1$
+		new PerformanceTestRunner() {
+			protected void test() {
+				for (int i = 0; i < 100000; i++)
+					filter.match(properties);
+			}
+		}.run(this, 10, 10);
+	}
+
+	public void testNewInstance() throws InvalidSyntaxException {
+		new PerformanceTestRunner() {
+			protected void test() {
+				try {
+					for (int i = 0; i < 100000; i++)
+						FilterImpl.newInstance(FILTER).match(properties);
+				} catch (InvalidSyntaxException e) {
+					fail(e.getMessage());
+				}
+			}
+		}.run(this, 10, 10);
+	}
+}
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.tests.perf;
+
+import junit.framework.*;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.osgi.internal.loader.PackageNameTrie;
+
+/**
+ * Compares matching class names against boot delegation and import package names
+ * with a package name trie to the linear scan of package name strings it replaced.
+ */
+public class PackageNameTriePerformanceTest extends TestCase {
+	private static final String[] BOOT_PACKAGES = {"sun.misc", "sun.reflect", "com.sun.jndi.ldap", "org.w3c.dom", "org.xml.sax"};
+	private static final String[] BOOT_STEMS = {"javax.", "org.ietf.jgss.", "org.omg.", "com.ibm.", "sun.security."};
+	private static final String[] IMPORTS = {"org.osgi.framework", "org.osgi.service.packageadmin", "org.osgi.service.startlevel", "org.osgi.util.tracker", "org.eclipse.osgi.util", "org.eclipse.osgi.service.resolver", "org.eclipse.core.runtime", "org.eclipse.core.runtime.jobs", "org.eclipse.equinox.app", "org.eclipse.osgi.framework.log"};
+	private static final String[] CLASS_NAMES = {"org.osgi.framework.Bundle", "org.eclipse.core.runtime.IStatus", "javax.xml.parsers.SAXParserFactory", "sun.misc.Unsafe", "org.eclipse.osgi.util.NLS", "com.acme.internal.Impl", "org.osgi.util.tracker.ServiceTracker", "org.omg.CORBA.ORB", "Default", "org.eclipse.equinox.app.IApplication"};
+
+	private PackageNameTrie trie;
+
+	public static Test suite() {
+		return new TestSuite(PackageNameTriePerformanceTest.class);
+	}
+
+	public PackageNameTriePerformanceTest(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		trie = new PackageNameTrie();
+		for (int i = 0; i < BOOT_PACKAGES.length; i++)
+			trie.put(BOOT_PACKAGES[i], BOOT_PACKAGES[i]);
+		for (int i = 0; i < BOOT_STEMS.length; i++)
+			trie.putStem(BOOT_STEMS[i], BOOT_STEMS[i]);
+		for (int i = 0; i < IMPORTS.length; i++)
+			trie.put(IMPORTS[i], IMPORTS[i]);
+	}
+
+	public void testMatches() {
+		for (int i = 0; i < CLASS_NAMES.length; i++) {
+			String className = CLASS_NAMES[i];
+			int end = className.lastIndexOf('.');
+			String pkgName = end > 0 ? className.substring(0, end) : "."; //$NON-NLS-1$
+			if (end <= 0)
+				assertEquals(className, linearMatch(pkgName) != null, trie.get(pkgName) != null);
+			else
+				assertEquals(className, linearMatch(pkgName) != null, trie.get(className, 0, end) != null);
+		}
+		assertEquals("javax.", trie.get("javax.xml")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertNull("javax", trie.get("javax")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals("sun.misc", trie.get("sun.misc.Unsafe", 0, 8)); //$NON-NLS-1$ //$NON-NLS-2$
+		assertNull("sun.misc.Unsafe", trie.get("sun.misc.Unsafe")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	public void testLinearScan() {
+		new PerformanceTestRunner() {
+			protected void test() {
+				for (int n = 0; n < 100000; n++)
+					for (int i = 0; i < CLASS_NAMES.length; i++) {
+						String className = CLASS_NAMES[i];
+						int end = className.lastIndexOf('.');
+						linearMatch(end > 0 ? className.substring(0, end) : "."); //$NON-NLS-1$
+					}
+			}
+		}.run(this, 10, 10);
+	}
+
+	public void testTrie() {
+		new PerformanceTestRunner() {
+			protected void test() {
+				for (int n = 0; n < 100000; n++)
+					for (int i = 0; i < CLASS_NAMES.length; i++) {
+						String className = CLASS_NAMES[i];
+						int end = className.lastIndexOf('.');
+						if (end > 0)
+							trie.get(className, 0, end);
+						else
+							trie.get("."); //$NON-NLS-1$
+					}
+			}
+		}.run(this, 10, 10);
+	}
+
+	/*
+	 * The matching done before the trie was introduced: boot delegation packages and
+	 * stems were scanned linearly and imports were found by the package name string.
+	 */
+	static Object linearMatch(String pkgName) {
+		for (int i = 0; i < BOOT_PACKAGES.length; i++)
+			if (pkgName.equals(BOOT_PACKAGES[i]))
+				return BOOT_PACKAGES[i];
+		for (int i = 0; i < BOOT_STEMS.length; i++)
+			if (pkgName.startsWith(BOOT_STEMS[i]))
+				return BOOT_STEMS[i];
+		for (int i = 0; i < IMPORTS.length; i++)
+			if (pkgName.equals(IMPORTS[i]))
+				return IMPORTS[i];
+		return null;
+	}
+}
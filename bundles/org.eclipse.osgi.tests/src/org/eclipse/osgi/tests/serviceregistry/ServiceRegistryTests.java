@@ -10,9 +10,13 @@
  *******************************************************************************/
 package org.eclipse.osgi.tests.serviceregistry;
 
-import java.util.Hashtable;
+import java.io.File;
+import java.util.*;
 import junit.framework.Test;
 import junit.framework.TestSuite;
+import org.eclipse.osgi.event.AsynchronousServiceListener;
+import org.eclipse.osgi.framework.internal.core.BundleContextImpl;
+import org.eclipse.osgi.launch.Equinox;
 import org.eclipse.osgi.tests.OSGiTestsActivator;
 import org.eclipse.osgi.tests.bundles.AbstractBundleTests;
 import org.osgi.framework.*;
@@ -481,6 +485,404 @@ public class ServiceRegistryTests extends AbstractBundleTests {
 		}
 	}
 
+	public void testServiceListenerObjectClass() {
+		final List events = new ArrayList();
+		class RecordingListener implements ServiceListener {
+			private final String name;
+
+			RecordingListener(String name) {
+				this.name = name;
+			}
+
+			public void serviceChanged(ServiceEvent event) {
+				if (event.getServiceReference().getProperty(getName()) != null)
+					events.add(name);
+			}
+		}
+		ServiceListener all = new RecordingListener("all"); //$NON-NLS-1$
+		ServiceListener runnable = new RecordingListener("runnable"); //$NON-NLS-1$
+		ServiceListener readded = new RecordingListener("readded"); //$NON-NLS-1$
+		ServiceListener comparable = new RecordingListener("comparable"); //$NON-NLS-1$
+		ServiceListener either = new RecordingListener("either"); //$NON-NLS-1$
+		BundleContext context = getContext();
+		try {
+			context.addServiceListener(all);
+			context.addServiceListener(runnable, "(objectClass=java.lang.Runnable)"); //$NON-NLS-1$
+			context.addServiceListener(readded, "(objectClass=java.lang.Runnable)"); //$NON-NLS-1$
+			context.addServiceListener(comparable, "(&(objectClass=java.lang.Comparable)(" + getName() + "=true))"); //$NON-NLS-1$ //$NON-NLS-2$
+			context.addServiceListener(either, "(|(objectClass=java.lang.Runnable)(objectClass=java.lang.Comparable))"); //$NON-NLS-1$
+			// replacing the filter changes the required objectClass but keeps the order of the listener
+			context.addServiceListener(readded, "(objectClass=java.lang.Comparable)"); //$NON-NLS-1$
+		} catch (InvalidSyntaxException e) {
+			fail("filter error", e); //$NON-NLS-1$
+		}
+		Hashtable props = new Hashtable();
+		props.put(getName(), Boolean.TRUE);
+		ServiceRegistration reg1 = null;
+		ServiceRegistration reg2 = null;
+		try {
+			reg1 = context.registerService(Runnable.class.getName(), new Runnable() {
+				public void run() {
+					// nothing
+				}
+			}, props);
+			assertEquals("wrong listeners called", "[all, runnable, either]", events.toString()); //$NON-NLS-1$ //$NON-NLS-2$
+			events.clear();
+
+			reg2 = context.registerService(Comparable.class.getName(), "test", props); //$NON-NLS-1$
+			assertEquals("wrong listeners called", "[all, readded, comparable, either]", events.toString()); //$NON-NLS-1$ //$NON-NLS-2$
+			events.clear();
+
+			context.removeServiceListener(readded);
+			reg2.unregister();
+			reg2 = null;
+			assertEquals("wrong listeners called", "[all, comparable, either]", events.toString()); //$NON-NLS-1$ //$NON-NLS-2$
+		} finally {
+			context.removeServiceListener(all);
+			context.removeServiceListener(runnable);
+			context.removeServiceListener(readded);
+			context.removeServiceListener(comparable);
+			context.removeServiceListener(either);
+			if (reg1 != null)
+				reg1.unregister();
+			if (reg2 != null)
+				reg2.unregister();
+		}
+	}
+
+	public void testRegisterServices() {
+		final List events = new ArrayList();
+		final BundleContext context = getContext();
+		ServiceListener listener = new ServiceListener() {
+			public void serviceChanged(ServiceEvent event) {
+				try {
+					ServiceReference[] refs = context.getServiceReferences(Runnable.class.getName(), "(" + getName() + "=*)"); //$NON-NLS-1$ //$NON-NLS-2$
+					events.add(event.getType() + ":" + event.getServiceReference().getProperty(getName()) + ":" + (refs == null ? 0 : refs.length)); //$NON-NLS-1$ //$NON-NLS-2$
+				} catch (InvalidSyntaxException e) {
+					fail("filter error", e); //$NON-NLS-1$
+				}
+			}
+		};
+		try {
+			context.addServiceListener(listener, "(" + getName() + "=*)"); //$NON-NLS-1$ //$NON-NLS-2$
+		} catch (InvalidSyntaxException e) {
+			fail("filter error", e); //$NON-NLS-1$
+		}
+		Runnable runIt = new Runnable() {
+			public void run() {
+				// nothing
+			}
+		};
+		String[][] clazzes = new String[3][];
+		Object[] services = new Object[3];
+		Hashtable[] properties = new Hashtable[3];
+		for (int i = 0; i < 3; i++) {
+			clazzes[i] = new String[] {Runnable.class.getName()};
+			services[i] = runIt;
+			properties[i] = new Hashtable();
+			properties[i].put(getName(), new Integer(i));
+			properties[i].put(Constants.SERVICE_RANKING, new Integer(i));
+		}
+		BundleContextImpl contextImpl = (BundleContextImpl) context;
+		ServiceRegistration[] regs = null;
+		try {
+			regs = contextImpl.registerServices(clazzes, services, properties);
+			assertEquals("wrong number of registrations", 3, regs.length); //$NON-NLS-1$
+			// all services are registered before the first event
+			assertEquals("wrong events", "[1:0:3, 1:1:3, 1:2:3]", events.toString()); //$NON-NLS-1$ //$NON-NLS-2$
+			assertEquals("wrong service reference", regs[2].getReference(), context.getServiceReference(Runnable.class.getName())); //$NON-NLS-1$
+			events.clear();
+
+			try {
+				contextImpl.registerServices(clazzes, new Object[] {runIt}, properties);
+				fail("registered services with different array lengths"); //$NON-NLS-1$
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+			try {
+				contextImpl.unregisterServices(new ServiceRegistration[] {regs[0], regs[0]});
+				fail("unregistered the same service twice"); //$NON-NLS-1$
+			} catch (IllegalStateException e) {
+				// expected
+			}
+			final ServiceReference reference = regs[0].getReference();
+			ServiceRegistration foreign = new ServiceRegistration() {
+				public ServiceReference getReference() {
+					return reference;
+				}
+
+				public void setProperties(Dictionary props) {
+					// nothing
+				}
+
+				public void unregister() {
+					// nothing
+				}
+			};
+			try {
+				contextImpl.unregisterServices(new ServiceRegistration[] {regs[0], foreign});
+				fail("unregistered a registration of another framework"); //$NON-NLS-1$
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+			assertEquals("unexpected events", 0, events.size()); //$NON-NLS-1$
+
+			contextImpl.unregisterServices(regs);
+			regs = null;
+			// all services are unregistered before the first event
+			assertEquals("wrong events", "[4:0:0, 4:1:0, 4:2:0]", events.toString()); //$NON-NLS-1$ //$NON-NLS-2$
+		} finally {
+			context.removeServiceListener(listener);
+			if (regs != null)
+				for (int i = 0; i < regs.length; i++)
+					regs[i].unregister();
+		}
+	}
+
+	public void testServicePropertyKeys() {
+		BundleContext context = OSGiTestsActivator.getContext();
+		Hashtable props = new Hashtable();
+		props.put("Prop.Name", "value1"); //$NON-NLS-1$ //$NON-NLS-2$
+		props.put("OBJECTCLASS", "bogus"); //$NON-NLS-1$ //$NON-NLS-2$
+		props.put("Service.Id", new Long(-1)); //$NON-NLS-1$
+		props.put("array", new String[] {"a", "b"}); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		ServiceRegistration reg = null;
+		try {
+			reg = context.registerService(Runnable.class.getName(), new Runnable() {
+				public void run() {
+					// nothing
+				}
+			}, props);
+			ServiceReference ref = reg.getReference();
+			assertEquals("wrong number of keys", 4, ref.getPropertyKeys().length); //$NON-NLS-1$
+			assertEquals("wrong value", "value1", ref.getProperty("prop.name")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			assertEquals("wrong objectClass", Runnable.class.getName(), ((String[]) ref.getProperty("objectclass"))[0]); //$NON-NLS-1$ //$NON-NLS-2$
+			assertTrue("wrong service.id", ((Long) ref.getProperty(Constants.SERVICE_ID)).longValue() >= 0); //$NON-NLS-1$
+			assertTrue("filter did not match", context.createFilter("(&(PROP.NAME=value1)(Array=b))").match(ref)); //$NON-NLS-1$ //$NON-NLS-2$
+
+			// the property value is a copy
+			((String[]) ref.getProperty("array"))[0] = "c"; //$NON-NLS-1$ //$NON-NLS-2$
+			assertTrue("filter did not match", context.createFilter("(array=a)").match(ref)); //$NON-NLS-1$ //$NON-NLS-2$
+
+			Hashtable duplicates = new Hashtable();
+			duplicates.put("key", "value1"); //$NON-NLS-1$ //$NON-NLS-2$
+			duplicates.put("KEY", "value2"); //$NON-NLS-1$ //$NON-NLS-2$
+			try {
+				reg.setProperties(duplicates);
+				fail("set properties with case variants of the same key"); //$NON-NLS-1$
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+			assertEquals("wrong value", "value1", ref.getProperty("prop.name")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		} catch (InvalidSyntaxException e) {
+			fail("filter error", e); //$NON-NLS-1$
+		} finally {
+			if (reg != null)
+				reg.unregister();
+		}
+	}
+
+	public void testAsynchronousServiceListener() {
+		final Thread registering = Thread.currentThread();
+		final List asyncEvents = new ArrayList();
+		final List syncEvents = new ArrayList();
+		AsynchronousServiceListener asyncListener = new AsynchronousServiceListener() {
+			public void serviceChanged(ServiceEvent event) {
+				synchronized (asyncEvents) {
+					asyncEvents.add((Thread.currentThread() == registering ? "sync " : "") + event.getType() + ":" + event.getServiceReference().getProperty(getName())); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+					asyncEvents.notifyAll();
+				}
+			}
+		};
+		ServiceListener syncListener = new ServiceListener() {
+			public void serviceChanged(ServiceEvent event) {
+				syncEvents.add((Thread.currentThread() == registering ? "" : "async ") + event.getType() + ":" + event.getServiceReference().getProperty(getName())); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			}
+		};
+		BundleContext context = OSGiTestsActivator.getContext();
+		try {
+			context.addServiceListener(asyncListener, "(" + getName() + "=*)"); //$NON-NLS-1$ //$NON-NLS-2$
+			context.addServiceListener(syncListener, "(" + getName() + "=*)"); //$NON-NLS-1$ //$NON-NLS-2$
+		} catch (InvalidSyntaxException e) {
+			fail("filter error", e); //$NON-NLS-1$
+		}
+		try {
+			for (int i = 0; i < 10; i++) {
+				Hashtable props = new Hashtable();
+				props.put(getName(), new Integer(i));
+				ServiceRegistration reg = context.registerService(Runnable.class.getName(), new Runnable() {
+					public void run() {
+						// nothing
+					}
+				}, props);
+				props.put("modified", Boolean.TRUE); //$NON-NLS-1$
+				reg.setProperties(props);
+				reg.unregister();
+			}
+			assertEquals("wrong number of synchronous events", 30, syncEvents.size()); //$NON-NLS-1$
+			synchronized (asyncEvents) {
+				long endTime = System.currentTimeMillis() + 5000;
+				while (asyncEvents.size() < syncEvents.size() && System.currentTimeMillis() < endTime)
+					asyncEvents.wait(100);
+			}
+			// the asynchronous listener receives the same events in the same order on another thread
+			assertEquals("wrong asynchronous events", syncEvents, asyncEvents); //$NON-NLS-1$
+		} catch (InterruptedException e) {
+			fail("interrupted", e); //$NON-NLS-1$
+		} finally {
+			context.removeServiceListener(asyncListener);
+			context.removeServiceListener(syncListener);
+		}
+	}
+
+	public void testConcurrentGetUngetService() throws Exception {
+		final BundleContext context = OSGiTestsActivator.getContext();
+		// the number of service objects created and released by the factory
+		final int[] counts = new int[2];
+		ServiceFactory factory = new ServiceFactory() {
+			public Object getService(Bundle bundle, ServiceRegistration registration) {
+				synchronized (counts) {
+					counts[0]++;
+				}
+				return new Object();
+			}
+
+			public void ungetService(Bundle bundle, ServiceRegistration registration, Object service) {
+				synchronized (counts) {
+					counts[1]++;
+				}
+			}
+		};
+		final ServiceReference[] current = new ServiceReference[1];
+		final boolean[] done = new boolean[1];
+		final List failures = Collections.synchronizedList(new ArrayList());
+		Thread[] users = new Thread[4];
+		for (int i = 0; i < users.length; i++) {
+			// one user ungets the service without getting it first
+			final boolean unbalanced = i == 0;
+			users[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						while (true) {
+							ServiceReference ref;
+							synchronized (current) {
+								if (done[0])
+									return;
+								ref = current[0];
+							}
+							if (ref == null)
+								Thread.yield();
+							else if (unbalanced)
+								context.ungetService(ref);
+							else if (context.getService(ref) != null)
+								context.ungetService(ref);
+						}
+					} catch (Throwable t) {
+						failures.add(t);
+					}
+				}
+			}, getName() + i);
+			users[i].start();
+		}
+		try {
+			for (int i = 0; i < 200 && failures.isEmpty(); i++) {
+				ServiceRegistration reg = context.registerService(Object.class.getName(), factory, null);
+				synchronized (current) {
+					current[0] = reg.getReference();
+				}
+				Thread.sleep(5);
+				reg.unregister();
+				// each service object is released once when the service is unregistered
+				synchronized (counts) {
+					assertEquals("service objects are not released", counts[0], counts[1]); //$NON-NLS-1$
+				}
+			}
+		} finally {
+			synchronized (current) {
+				done[0] = true;
+			}
+			for (int i = 0; i < users.length; i++)
+				users[i].join(10000);
+		}
+		if (!failures.isEmpty())
+			fail("failed to get or unget the service", (Throwable) failures.get(0)); //$NON-NLS-1$
+	}
+
+	public void testServicePropertyIndex() throws Exception {
+		// the same lookups must find the same services with and without the property index
+		List unindexed = getServicePropertyIndexResults(getName() + ".unindexed", null); //$NON-NLS-1$
+		List indexed = getServicePropertyIndexResults(getName() + ".indexed", "test.key,test.other"); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals("wrong results with the property index", unindexed, indexed); //$NON-NLS-1$
+		// a filter value is converted to the type of a value which is not indexed
+		assertTrue("wrong results", indexed.contains(Runnable.class.getName() + "(test.key=5)[r3]")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private List getServicePropertyIndexResults(String name, String indexKeys) throws Exception {
+		File config = OSGiTestsActivator.getContext().getDataFile(name);
+		Properties configuration = new Properties();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		if (indexKeys != null)
+			configuration.put("osgi.serviceregistry.propertyIndex", indexKeys); //$NON-NLS-1$
+		Equinox equinox = new Equinox(configuration);
+		equinox.start();
+		try {
+			BundleContext context = equinox.getBundleContext();
+			Runnable service = new Runnable() {
+				public void run() {
+					// nothing
+				}
+			};
+			Object[][] values = new Object[][] { {"a"}, {new String[] {"a", "b"}}, {Arrays.asList(new String[] {"b", "c"})}, {new Integer(5)}, {"A"}, {null}}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+			ServiceRegistration[] regs = new ServiceRegistration[values.length + 1];
+			for (int i = 0; i < values.length; i++)
+				regs[i] = context.registerService(Runnable.class.getName(), service, getIndexProps("r" + i, values[i][0])); //$NON-NLS-1$
+			// a registration under another class with an indexed value
+			regs[values.length] = context.registerService(Object.class.getName(), service, getIndexProps("o", "a")); //$NON-NLS-1$ //$NON-NLS-2$
+
+			List results = new ArrayList();
+			getServicePropertyIndexResults(context, results);
+			// move a service to another value
+			Hashtable props = getIndexProps("r0", "b"); //$NON-NLS-1$ //$NON-NLS-2$
+			props.put("test.other", "x"); //$NON-NLS-1$ //$NON-NLS-2$
+			regs[0].setProperties(props);
+			getServicePropertyIndexResults(context, results);
+			// remove a service with several indexed values
+			regs[1].unregister();
+			getServicePropertyIndexResults(context, results);
+			return results;
+		} finally {
+			equinox.stop();
+			equinox.waitForStop(10000);
+		}
+	}
+
+	private void getServicePropertyIndexResults(BundleContext context, List results) throws InvalidSyntaxException {
+		String[] filters = new String[] {"(test.key=a)", "(TEST.KEY=b)", "(test.key=c)", "(test.key=5)", "(test.key=A)", "(test.key=z)", "(&(test.key=a)(test.name=r*))", "(&(test.key=b)(test.other=x))", "(|(test.key=a)(test.key=c))", "(test.key=*)", "(!(test.key=a))"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$ //$NON-NLS-10$ //$NON-NLS-11$
+		String[] classes = new String[] {Runnable.class.getName(), Object.class.getName(), null};
+		for (int i = 0; i < filters.length; i++) {
+			for (int j = 0; j < classes.length; j++) {
+				ServiceReference[] refs = context.getServiceReferences(classes[j], filters[i]);
+				List names = new ArrayList();
+				for (int k = 0; refs != null && k < refs.length; k++) {
+					// ignore the services of the framework
+					Object serviceName = refs[k].getProperty("test.name"); //$NON-NLS-1$
+					if (serviceName != null)
+						names.add(serviceName);
+				}
+				Collections.sort(names);
+				results.add(classes[j] + filters[i] + names);
+			}
+		}
+	}
+
+	private Hashtable getIndexProps(String name, Object value) {
+		Hashtable props = new Hashtable();
+		props.put("test.name", name); //$NON-NLS-1$
+		if (value != null)
+			props.put("test.key", value); //$NON-NLS-1$
+		return props;
+	}
+
 	private void clearResults(boolean[] results) {
 		for (int i = 0; i < results.length; i++)
 			results[i] = false;
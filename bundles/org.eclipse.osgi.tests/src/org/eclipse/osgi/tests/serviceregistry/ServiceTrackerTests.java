@@ -10,7 +10,7 @@
  *******************************************************************************/
 package org.eclipse.osgi.tests.serviceregistry;
 
-import java.util.Hashtable;
+import java.util.*;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 import org.eclipse.osgi.tests.OSGiTestsActivator;
@@ -252,6 +252,102 @@ public class ServiceTrackerTests extends AbstractBundleTests {
 		}
 	}
 
+	public void testServiceTrackerRanking() throws InvalidSyntaxException {
+		final String testMethodName = getName();
+		BundleContext context = OSGiTestsActivator.getContext();
+		ServiceRegistration[] regs = new ServiceRegistration[3];
+		Runnable[] services = new Runnable[regs.length];
+		ServiceTracker testTracker = new ServiceTracker(context, FrameworkUtil.createFilter("(&(objectclass=java.lang.Runnable)(" + testMethodName.toLowerCase() + "=true))"), null); //$NON-NLS-1$ //$NON-NLS-2$
+		try {
+			for (int i = 0; i < regs.length; i++) {
+				services[i] = new Runnable() {
+					public void run() {
+						// nothing
+					}
+				};
+				regs[i] = context.registerService(Runnable.class.getName(), services[i], getRankingProps(testMethodName, i == 1 ? 5 : 0));
+			}
+			testTracker.open();
+			assertEquals("Wrong reference", regs[1].getReference(), testTracker.getServiceReference()); //$NON-NLS-1$
+			assertSame("Wrong service", services[1], testTracker.getService()); //$NON-NLS-1$
+
+			// raise the ranking of a tracked service
+			regs[2].setProperties(getRankingProps(testMethodName, 10));
+			assertEquals("Wrong reference", regs[2].getReference(), testTracker.getServiceReference()); //$NON-NLS-1$
+			assertSame("Wrong service", services[2], testTracker.getService()); //$NON-NLS-1$
+
+			// lower it again
+			regs[2].setProperties(getRankingProps(testMethodName, -1));
+			assertSame("Wrong service", services[1], testTracker.getService()); //$NON-NLS-1$
+
+			// the lowest service id wins a tie
+			regs[1].unregister();
+			regs[1] = null;
+			assertEquals("Wrong reference", regs[0].getReference(), testTracker.getServiceReference()); //$NON-NLS-1$
+			assertSame("Wrong service", services[0], testTracker.getService()); //$NON-NLS-1$
+			assertSame("Wrong service", services[2], testTracker.getService(regs[2].getReference())); //$NON-NLS-1$
+
+			regs[0].unregister();
+			regs[0] = null;
+			regs[2].unregister();
+			regs[2] = null;
+			assertNull("Unexpected reference", testTracker.getServiceReference()); //$NON-NLS-1$
+			assertNull("Unexpected service", testTracker.getService()); //$NON-NLS-1$
+		} finally {
+			for (int i = 0; i < regs.length; i++)
+				if (regs[i] != null)
+					regs[i].unregister();
+			testTracker.close();
+		}
+		assertNull("Unexpected service after close", testTracker.getService()); //$NON-NLS-1$
+	}
+
+	public void testServiceTrackerRankingOverridden() throws InvalidSyntaxException {
+		final String testMethodName = getName();
+		BundleContext context = OSGiTestsActivator.getContext();
+		ServiceRegistration[] regs = new ServiceRegistration[2];
+		Runnable[] services = new Runnable[regs.length];
+		final ServiceReference[] excluded = new ServiceReference[1];
+		// getServiceReference must select from the references returned by an overridden getServiceReferences
+		ServiceTracker testTracker = new ServiceTracker(context, FrameworkUtil.createFilter("(&(objectclass=java.lang.Runnable)(" + testMethodName.toLowerCase() + "=true))"), null) { //$NON-NLS-1$ //$NON-NLS-2$
+			public ServiceReference[] getServiceReferences() {
+				ServiceReference[] references = super.getServiceReferences();
+				if (references == null || excluded[0] == null)
+					return references;
+				ArrayList result = new ArrayList(Arrays.asList(references));
+				result.remove(excluded[0]);
+				return result.isEmpty() ? null : (ServiceReference[]) result.toArray(new ServiceReference[result.size()]);
+			}
+		};
+		try {
+			for (int i = 0; i < regs.length; i++) {
+				services[i] = new Runnable() {
+					public void run() {
+						// nothing
+					}
+				};
+				regs[i] = context.registerService(Runnable.class.getName(), services[i], getRankingProps(testMethodName, i == 1 ? 5 : 0));
+			}
+			excluded[0] = regs[1].getReference();
+			testTracker.open();
+			assertEquals("Wrong reference", regs[0].getReference(), testTracker.getServiceReference()); //$NON-NLS-1$
+			assertSame("Wrong service", services[0], testTracker.getService()); //$NON-NLS-1$
+			assertSame("Wrong service", services[1], testTracker.getService(regs[1].getReference())); //$NON-NLS-1$
+		} finally {
+			for (int i = 0; i < regs.length; i++)
+				if (regs[i] != null)
+					regs[i].unregister();
+			testTracker.close();
+		}
+	}
+
+	private Hashtable getRankingProps(String testMethodName, int ranking) {
+		Hashtable props = new Hashtable();
+		props.put(testMethodName, Boolean.TRUE);
+		props.put(Constants.SERVICE_RANKING, new Integer(ranking));
+		return props;
+	}
+
 	private void clearResults(boolean[] results) {
 		for (int i = 0; i < results.length; i++)
 			results[i] = false;
@@ -13,13 +13,14 @@ package org.eclipse.osgi.internal.composite;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
 import java.security.AllPermission;
 import java.security.ProtectionDomain;
 import java.util.*;
 import org.eclipse.osgi.baseadaptor.*;
 import org.eclipse.osgi.baseadaptor.bundlefile.BundleEntry;
 import org.eclipse.osgi.baseadaptor.hooks.AdaptorHook;
-import org.eclipse.osgi.baseadaptor.hooks.ClassLoadingHook;
+import org.eclipse.osgi.baseadaptor.hooks.ByteBufferClassLoadingHook;
 import org.eclipse.osgi.baseadaptor.loader.*;
 import org.eclipse.osgi.framework.adaptor.*;
 import org.eclipse.osgi.framework.log.FrameworkLog;
@@ -31,7 +32,7 @@ import org.osgi.framework.launch.Framework;
 import org.osgi.service.framework.CompositeBundle;
 import org.osgi.service.framework.CompositeBundleFactory;
 
-public class CompositeConfigurator implements SynchronousBundleListener, HookConfigurator, AdaptorHook, ClassLoadingHook, CompositeBundleFactory, CompositeResolveHelperRegistry {
+public class CompositeConfigurator implements SynchronousBundleListener, HookConfigurator, AdaptorHook, ByteBufferClassLoadingHook, CompositeBundleFactory, CompositeResolveHelperRegistry {
 
 	// the base adaptor
 	private BaseAdaptor adaptor;
@@ -194,6 +195,11 @@ public class CompositeConfigurator implements SynchronousBundleListener, HookCon
 		return null;
 	}
 
+	public ByteBuffer processClass(String name, ByteBuffer classbytes, ClasspathEntry classpathEntry, BundleEntry entry, ClasspathManager manager) {
+		// nothing
+		return null;
+	}
+
 	private void addHelpers(Bundle[] bundles) {
 		synchronized (helpers) {
 			for (int i = 0; i < bundles.length; i++)
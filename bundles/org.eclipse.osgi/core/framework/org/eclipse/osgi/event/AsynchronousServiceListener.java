@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.event;
+
+import org.osgi.framework.*;
+
+/**
+ * An asynchronous <code>ServiceEvent</code> listener.
+ *
+ * <p>
+ * <code>AsynchronousServiceListener</code> is a listener interface that may be
+ * implemented by a bundle developer.
+ * <p>
+ * An <code>AsynchronousServiceListener</code> object is registered with the
+ * Framework using the {@link BundleContext#addServiceListener} method.
+ * <p>
+ * An <code>AsynchronousServiceListener</code> acts like a <code>ServiceListener</code>
+ * except the framework does not call the listener on the thread which registered,
+ * modified or unregistered the service.  The filter of the listener and the permission
+ * checks are evaluated when the event is published; the events which pass are then
+ * delivered to the listener on a framework event thread in the order in which they
+ * were published.  A slow listener therefore does not delay the bundle which
+ * changed the service.
+ * <p>
+ * Since the event is delivered after the service change has completed, the
+ * <code>ServiceReference</code> of an event may refer to a service which has
+ * since been modified or unregistered.
+ *
+ * <p>
+ * Clients may implement this interface.
+ * </p>
+ * @since 3.8
+ * @see ServiceEvent
+ * @see ServiceListener
+ */
+public interface AsynchronousServiceListener extends ServiceListener {
+	// marker interface
+}
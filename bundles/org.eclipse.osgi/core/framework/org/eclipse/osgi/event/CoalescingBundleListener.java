@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.event;
+
+import org.osgi.framework.*;
+
+/**
+ * A coalescing <code>BundleEvent</code> listener.
+ *
+ * <p>
+ * <code>CoalescingBundleListener</code> is a listener interface that may be
+ * implemented by a bundle developer.
+ * <p>
+ * A <code>CoalescingBundleListener</code> object is registered with the
+ * Framework using the {@link BundleContext#addBundleListener} method.
+ * <p>
+ * A <code>CoalescingBundleListener</code> acts like a <code>BundleListener</code>
+ * except the framework does not call the {@link BundleListener#bundleChanged(BundleEvent)}
+ * method for the events which occur during a batch process.  The framework
+ * collects these events and calls the {@link #bundlesChanged(BundleEvent[])} method
+ * once with all of them after the batch process has ended.  For example, the framework
+ * batches the events of a refresh packages operation, a resolve bundles operation or
+ * an increase of the active start level.  The batch of an increase of the active start
+ * level only holds the events published by the thread which changes the start level;
+ * the events published by other threads in the meantime are delivered individually.
+ * <p>
+ * Overlapping batch processes are coalesced into one batch; the events are
+ * delivered after the last overlapping batch process has ended.  Events are
+ * delivered to the listener asynchronously.  Events held for the same batch are delivered
+ * in the order in which they were published.
+ * Like a <code>BundleListener</code>, a <code>CoalescingBundleListener</code> does
+ * not receive events of type <code>STARTING</code>, <code>STOPPING</code> or
+ * <code>LAZY_ACTIVATION</code>.  A <code>CoalescingBundleListener</code> which is also
+ * a <code>SynchronousBundleListener</code> is treated as a
+ * <code>SynchronousBundleListener</code> and does not receive coalesced events.
+ *
+ * <p>
+ * Clients may implement this interface.
+ * </p>
+ * @since 3.8
+ * @see BundleEvent
+ * @see BundleListener
+ * @see BatchBundleListener
+ */
+public interface CoalescingBundleListener extends BundleListener {
+	/**
+	 * Receives notification of the events which occurred during a batch process.
+	 *
+	 * @param events The events in the order in which they were published.
+	 * The array is never empty.
+	 */
+	public abstract void bundlesChanged(BundleEvent[] events);
+}
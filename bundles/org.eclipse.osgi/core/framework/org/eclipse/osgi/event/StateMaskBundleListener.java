@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.event;
+
+import org.osgi.framework.*;
+
+/**
+ * A synchronous <code>BundleEvent</code> listener which is only interested
+ * in bundles in the states of a state mask.
+ *
+ * <p>
+ * <code>StateMaskBundleListener</code> is a listener interface that may be
+ * implemented by a bundle developer.
+ * <p>
+ * A <code>StateMaskBundleListener</code> object is registered with the
+ * Framework using the {@link BundleContext#addBundleListener} method.
+ * The framework indexes the listener by its state mask when it is added and
+ * only calls the listener for an event if the state of the bundle of the event,
+ * or a state the bundle may have left with the transition of the event, is in
+ * the state mask.  This is the filtering done by a <code>BundleTracker</code>;
+ * the listener is still called for every event in which a bundle enters, leaves
+ * or changes within the states of the mask.
+ * <p>
+ * The state mask must not change while the listener is registered.
+ *
+ * <p>
+ * Clients may implement this interface.
+ * </p>
+ * @since 3.8
+ * @see BundleEvent
+ * @see SynchronousBundleListener
+ */
+public interface StateMaskBundleListener extends SynchronousBundleListener {
+	/**
+	 * Returns the bundle states this listener is interested in.
+	 *
+	 * @return The bit mask of the <code>OR</code>ing of the bundle states.
+	 * @see Bundle#getState()
+	 */
+	public abstract int getStateMask();
+}
@@ -16,6 +16,7 @@ import java.io.InputStream;
 import java.security.*;
 import java.util.*;
 import org.eclipse.osgi.event.BatchBundleListener;
+import org.eclipse.osgi.event.CoalescingBundleListener;
 import org.eclipse.osgi.framework.debug.Debug;
 import org.eclipse.osgi.framework.eventmgr.EventDispatcher;
 import org.eclipse.osgi.internal.profile.Profile;
@@ -451,6 +452,54 @@ public class BundleContextImpl implements BundleContext, EventDispatcher<Object,
 		return registerService(clazzes, service, properties);
 	}
 
+	/**
+	 * Register a set of services with a single update of the service registry.
+	 * This Equinox specific method is equivalent to calling
+	 * {@link #registerService(java.lang.String[], java.lang.Object, java.util.Dictionary)}
+	 * for each service, except that either all of the services are registered or
+	 * none of them are. A {@link ServiceEvent#REGISTERED} event is published for
+	 * each service in the order of the arguments after all of the services have
+	 * been registered.
+	 *
+	 * @param clazzes The class names under which each service can be located.
+	 * @param services The service objects or <code>ServiceFactory</code> objects.
+	 * @param properties The properties for each service or <code>null</code> if
+	 * none of the services have properties.
+	 * @return The registrations of the services in the order of the arguments.
+	 * @see #registerService(java.lang.String[], java.lang.Object, java.util.Dictionary)
+	 * @since 3.8
+	 */
+	public ServiceRegistration<?>[] registerServices(String[][] clazzes, Object[] services, Dictionary<String, ?>[] properties) {
+		checkValid();
+		return framework.getServiceRegistry().registerServices(this, clazzes, services, properties);
+	}
+
+	/**
+	 * Unregister a set of services with a single update of the service registry.
+	 * This Equinox specific method is equivalent to calling
+	 * {@link ServiceRegistration#unregister()} for each registration, except that
+	 * either all of the services are unregistered or none of them are. The services
+	 * are removed from the service registry before the {@link ServiceEvent#UNREGISTERING}
+	 * event of the first service is published.
+	 *
+	 * @param registrations The registrations returned when the services were registered.
+	 * @exception java.lang.IllegalStateException If any of the services has
+	 * already been unregistered.
+	 * @exception java.lang.IllegalArgumentException If any of the registrations
+	 * was not returned by this framework.
+	 * @since 3.8
+	 */
+	public void unregisterServices(ServiceRegistration<?>[] registrations) {
+		ServiceRegistrationImpl<?>[] impls = new ServiceRegistrationImpl<?>[registrations.length];
+		for (int i = 0; i < registrations.length; i++) {
+			if (!(registrations[i] instanceof ServiceRegistrationImpl<?>)) {
+				throw new IllegalArgumentException();
+			}
+			impls[i] = (ServiceRegistrationImpl<?>) registrations[i];
+		}
+		framework.getServiceRegistry().unregisterServices(impls);
+	}
+
 	/**
 	 * Returns a list of <tt>ServiceReference</tt> objects. This method returns a list of
 	 * <tt>ServiceReference</tt> objects for services which implement and were registered under
@@ -850,6 +899,19 @@ public class BundleContextImpl implements BundleContext, EventDispatcher<Object,
 						break;
 					}
 
+					case Framework.BUNDLEEVENTBATCH : {
+						CoalescingBundleListener listener = (CoalescingBundleListener) l;
+
+						if (Debug.DEBUG_EVENTS) {
+							String listenerName = listener.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(listener)); //$NON-NLS-1$
+							Debug.println("dispatchBundleEventBatch[" + tmpBundle + "](" + listenerName + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+						}
+
+						/* each listener gets its own copy of the batch */
+						listener.bundlesChanged(((BundleEvent[]) object).clone());
+						break;
+					}
+
 					case ServiceRegistry.SERVICEEVENT : {
 						ServiceEvent event = (ServiceEvent) object;
 
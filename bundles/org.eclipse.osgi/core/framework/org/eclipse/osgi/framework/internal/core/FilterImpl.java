@@ -17,6 +17,7 @@ import java.security.PrivilegedAction;
 import java.util.*;
 import org.eclipse.osgi.framework.debug.Debug;
 import org.eclipse.osgi.framework.util.Headers;
+import org.eclipse.osgi.internal.serviceregistry.ServiceProperties;
 import org.eclipse.osgi.internal.serviceregistry.ServiceReferenceImpl;
 import org.eclipse.osgi.util.NLS;
 import org.osgi.framework.*;
@@ -156,11 +157,73 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 	 */
 	public boolean match(ServiceReference<?> reference) {
 		if (reference instanceof ServiceReferenceImpl) {
-			return matchCase(((ServiceReferenceImpl<?>) reference).getRegistration().getProperties());
+			return matchProperties(((ServiceReferenceImpl<?>) reference).getRegistration().getProperties());
 		}
 		return matchCase(new ServiceReferenceDictionary(reference));
 	}
 
+	/**
+	 * Filter using service properties.  The keys are looked up in a case
+	 * insensitive manner using the precomputed hashes of the attribute names.
+	 * 
+	 * @param properties The service properties used in the match.
+	 * @return {@code true} if the service properties match this
+	 *         {@code Filter}; {@code false} otherwise.
+	 */
+	public boolean matchProperties(ServiceProperties properties) {
+		switch (op) {
+			case AND : {
+				FilterImpl[] filters = (FilterImpl[]) value;
+				for (FilterImpl f : filters) {
+					if (!f.matchProperties(properties)) {
+						return false;
+					}
+				}
+
+				return true;
+			}
+
+			case OR : {
+				FilterImpl[] filters = (FilterImpl[]) value;
+				for (FilterImpl f : filters) {
+					if (f.matchProperties(properties)) {
+						return true;
+					}
+				}
+
+				return false;
+			}
+
+			case NOT : {
+				FilterImpl filter = (FilterImpl) value;
+
+				return !filter.matchProperties(properties);
+			}
+
+			case SUBSTRING :
+			case EQUAL :
+			case GREATER :
+			case LESS :
+			case APPROX : {
+				Object prop = (properties == null) ? null : properties.get(attr, attrHash);
+
+				return compare(op, prop, value);
+			}
+
+			case PRESENT : {
+				if (Debug.DEBUG_FILTER) {
+					Debug.println("PRESENT(" + attr + ")"); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+
+				Object prop = (properties == null) ? null : properties.get(attr, attrHash);
+
+				return prop != null;
+			}
+		}
+
+		return false;
+	}
+
 	/**
 	 * Filter using a {@code Dictionary} with case insensitive key lookup. This
 	 * {@code Filter} is executed using the specified {@code Dictionary}'s keys
@@ -477,15 +540,25 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 
 	/** filter attribute or null if operation AND, OR or NOT */
 	private final String attr;
+	/** case-folded hash of the filter attribute for service property lookup */
+	private final int attrHash;
 	/** filter operands */
 	private final Object value;
 
 	/* normalized filter string for topLevel Filter object */
 	private transient volatile String filterString;
 
+	/* filter operand converted to the types of the recently compared property values; most recent first */
+	private transient volatile Operand[] operands;
+	/* maximum number of property value types an operand is cached for */
+	private static final int MAX_OPERAND_TYPES = 4;
+	/* marks an operand which cannot be converted to the type of a property value */
+	private static final Object INVALID_OPERAND = new Object();
+
 	FilterImpl(int operation, String attr, Object value) {
 		this.op = operation;
 		this.attr = attr;
+		this.attrHash = (attr == null) ? 0 : ServiceProperties.hashKey(attr);
 		this.value = value;
 	}
 
@@ -773,7 +846,7 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 				}
 
 				string = approxString(string);
-				String string2 = approxString((String) value2);
+				String string2 = (String) getOperand(String.class);
 
 				return string.equalsIgnoreCase(string2);
 			}
@@ -802,12 +875,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 			return false;
 		}
 
-		int intval2;
-		try {
-			intval2 = Integer.parseInt(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Object operand = getOperand(Integer.class);
+		if (operand == INVALID_OPERAND) {
 			return false;
 		}
+		int intval2 = ((Integer) operand).intValue();
 		switch (operation) {
 			case EQUAL : {
 				if (Debug.DEBUG_FILTER) {
@@ -846,12 +918,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 			return false;
 		}
 
-		long longval2;
-		try {
-			longval2 = Long.parseLong(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Object operand = getOperand(Long.class);
+		if (operand == INVALID_OPERAND) {
 			return false;
 		}
+		long longval2 = ((Long) operand).longValue();
 		switch (operation) {
 			case EQUAL : {
 				if (Debug.DEBUG_FILTER) {
@@ -890,12 +961,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 			return false;
 		}
 
-		byte byteval2;
-		try {
-			byteval2 = Byte.parseByte(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Object operand = getOperand(Byte.class);
+		if (operand == INVALID_OPERAND) {
 			return false;
 		}
+		byte byteval2 = ((Byte) operand).byteValue();
 		switch (operation) {
 			case EQUAL : {
 				if (Debug.DEBUG_FILTER) {
@@ -934,12 +1004,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 			return false;
 		}
 
-		short shortval2;
-		try {
-			shortval2 = Short.parseShort(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Object operand = getOperand(Short.class);
+		if (operand == INVALID_OPERAND) {
 			return false;
 		}
+		short shortval2 = ((Short) operand).shortValue();
 		switch (operation) {
 			case EQUAL : {
 				if (Debug.DEBUG_FILTER) {
@@ -978,12 +1047,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 			return false;
 		}
 
-		char charval2;
-		try {
-			charval2 = ((String) value2).charAt(0);
-		} catch (IndexOutOfBoundsException e) {
+		Object operand = getOperand(Character.class);
+		if (operand == INVALID_OPERAND) {
 			return false;
 		}
+		char charval2 = ((Character) operand).charValue();
 		switch (operation) {
 			case EQUAL : {
 				if (Debug.DEBUG_FILTER) {
@@ -1022,7 +1090,7 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 			return false;
 		}
 
-		boolean boolval2 = Boolean.valueOf(((String) value2).trim()).booleanValue();
+		boolean boolval2 = ((Boolean) getOperand(Boolean.class)).booleanValue();
 		switch (operation) {
 			case EQUAL : {
 				if (Debug.DEBUG_FILTER) {
@@ -1061,12 +1129,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 			return false;
 		}
 
-		float floatval2;
-		try {
-			floatval2 = Float.parseFloat(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Object operand = getOperand(Float.class);
+		if (operand == INVALID_OPERAND) {
 			return false;
 		}
+		float floatval2 = ((Float) operand).floatValue();
 		switch (operation) {
 			case EQUAL : {
 				if (Debug.DEBUG_FILTER) {
@@ -1105,12 +1172,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 			return false;
 		}
 
-		double doubleval2;
-		try {
-			doubleval2 = Double.parseDouble(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Object operand = getOperand(Double.class);
+		if (operand == INVALID_OPERAND) {
 			return false;
 		}
+		double doubleval2 = ((Double) operand).doubleValue();
 		switch (operation) {
 			case EQUAL : {
 				if (Debug.DEBUG_FILTER) {
@@ -1143,28 +1209,111 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 
 	private static final Class<?>[] constructorType = new Class[] {String.class};
 
-	private boolean compare_Comparable(int operation, Comparable<Object> value1, Object value2) {
-		if (operation == SUBSTRING) {
-			if (Debug.DEBUG_FILTER) {
-				Debug.println("SUBSTRING(" + value1 + "," + value2 + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	/**
+	 * Returns the filter operand converted to the specified type. The conversion
+	 * is done once and cached for the few most recently requested types, so that
+	 * repeated evaluations against properties of the same types do not parse the
+	 * operand or reflectively construct a new instance each time.  Only the
+	 * conversions to JDK types and {@link Version} are cached; a filter must not
+	 * keep the classes of a bundle and its class loader reachable.
+	 *
+	 * @param type The type of the property value being compared.
+	 * @return The converted operand or {@link #INVALID_OPERAND} if the
+	 * operand cannot be converted to the type.
+	 */
+	private Object getOperand(Class<?> type) {
+		Operand[] current = operands;
+		int length = (current == null) ? 0 : current.length;
+		for (int i = 0; i < length; i++) {
+			if (current[i].type == type) {
+				return current[i].value;
+			}
+		}
+		Object converted = convertOperand(type, (String) value);
+		// only the boot class loader defines java.* classes; Version is defined by the framework
+		if ((type == Version.class) || type.getName().startsWith("java.")) { //$NON-NLS-1$
+			// copy on write; a conversion lost to a concurrent update is done again later
+			int kept = Math.min(length, MAX_OPERAND_TYPES - 1);
+			Operand[] updated = new Operand[kept + 1];
+			updated[0] = new Operand(type, converted);
+			if (kept > 0) {
+				System.arraycopy(current, 0, updated, 1, kept);
+			}
+			operands = updated;
+		}
+		return converted;
+	}
+
+	private static Object convertOperand(Class<?> type, String string) {
+		try {
+			if (type == String.class) {
+				// only used for APPROX
+				return approxString(string);
 			}
-			return false;
+			if (type == Integer.class) {
+				return Integer.valueOf(string.trim());
+			}
+			if (type == Long.class) {
+				return Long.valueOf(string.trim());
+			}
+			if (type == Byte.class) {
+				return Byte.valueOf(string.trim());
+			}
+			if (type == Short.class) {
+				return Short.valueOf(string.trim());
+			}
+			if (type == Float.class) {
+				return Float.valueOf(string.trim());
+			}
+			if (type == Double.class) {
+				return Double.valueOf(string.trim());
+			}
+			if (type == Character.class) {
+				return Character.valueOf(string.charAt(0));
+			}
+			if (type == Boolean.class) {
+				return Boolean.valueOf(string.trim());
+			}
+			if (type == Version.class) {
+				return new Version(string.trim());
+			}
+		} catch (IllegalArgumentException e) {
+			return INVALID_OPERAND;
+		} catch (IndexOutOfBoundsException e) {
+			return INVALID_OPERAND;
 		}
+
 		Constructor<?> constructor;
 		try {
-			constructor = value1.getClass().getConstructor(constructorType);
+			constructor = type.getConstructor(constructorType);
 		} catch (NoSuchMethodException e) {
-			return false;
+			if (Debug.DEBUG_FILTER) {
+				Debug.println("Type not supported"); //$NON-NLS-1$
+			}
+			return INVALID_OPERAND;
 		}
 		try {
 			if (!constructor.isAccessible())
 				AccessController.doPrivileged(new SetAccessibleAction(constructor));
-			value2 = constructor.newInstance(new Object[] {((String) value2).trim()});
+			return constructor.newInstance(new Object[] {string.trim()});
 		} catch (IllegalAccessException e) {
-			return false;
+			return INVALID_OPERAND;
 		} catch (InvocationTargetException e) {
-			return false;
+			return INVALID_OPERAND;
 		} catch (InstantiationException e) {
+			return INVALID_OPERAND;
+		}
+	}
+
+	private boolean compare_Comparable(int operation, Comparable<Object> value1, Object value2) {
+		if (operation == SUBSTRING) {
+			if (Debug.DEBUG_FILTER) {
+				Debug.println("SUBSTRING(" + value1 + "," + value2 + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			}
+			return false;
+		}
+		value2 = getOperand(value1.getClass());
+		if (value2 == INVALID_OPERAND) {
 			return false;
 		}
 
@@ -1209,24 +1358,8 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 			}
 			return false;
 		}
-		Constructor<?> constructor;
-		try {
-			constructor = value1.getClass().getConstructor(constructorType);
-		} catch (NoSuchMethodException e) {
-			if (Debug.DEBUG_FILTER) {
-				Debug.println("Type not supported"); //$NON-NLS-1$
-			}
-			return false;
-		}
-		try {
-			if (!constructor.isAccessible())
-				AccessController.doPrivileged(new SetAccessibleAction(constructor));
-			value2 = constructor.newInstance(new Object[] {((String) value2).trim()});
-		} catch (IllegalAccessException e) {
-			return false;
-		} catch (InvocationTargetException e) {
-			return false;
-		} catch (InstantiationException e) {
+		value2 = getOperand(value1.getClass());
+		if (value2 == INVALID_OPERAND) {
 			return false;
 		}
 
@@ -1719,6 +1852,19 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 		}
 	}
 
+	/**
+	 * A filter operand converted to a property value type.
+	 */
+	private static final class Operand {
+		final Class<?> type;
+		final Object value;
+
+		Operand(Class<?> type, Object value) {
+			this.type = type;
+			this.value = value;
+		}
+	}
+
 	private static class SetAccessibleAction implements PrivilegedAction<Object> {
 		private final AccessibleObject accessible;
 
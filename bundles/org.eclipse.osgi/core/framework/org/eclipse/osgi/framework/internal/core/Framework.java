@@ -17,6 +17,8 @@ import java.security.*;
 import java.util.*;
 import org.eclipse.core.runtime.internal.adaptor.ContextFinder;
 import org.eclipse.osgi.baseadaptor.BaseAdaptor;
+import org.eclipse.osgi.event.CoalescingBundleListener;
+import org.eclipse.osgi.event.StateMaskBundleListener;
 import org.eclipse.osgi.framework.adaptor.*;
 import org.eclipse.osgi.framework.debug.Debug;
 import org.eclipse.osgi.framework.eventmgr.*;
@@ -50,6 +52,8 @@ public class Framework implements EventPublisher, Runnable {
 	public static final String PROP_FRAMEWORK_THREAD = "osgi.framework.activeThreadType"; //$NON-NLS-1$
 	public static final String THREAD_NORMAL = "normal"; //$NON-NLS-1$
 	public static final String PROP_EQUINOX_SECURITY = "eclipse.security"; //$NON-NLS-1$
+	/** the maximum number of threads used to deliver asynchronous events; one thread by default */
+	public static final String PROP_EVENT_DISPATCH_THREADS = "osgi.framework.eventDispatchThreads"; //$NON-NLS-1$
 	public static final String SECURITY_OSGI = "osgi"; //$NON-NLS-1$
 
 	private static String J2SE = "J2SE-"; //$NON-NLS-1$
@@ -94,12 +98,29 @@ public class Framework implements EventPublisher, Runnable {
 	// Map of BundleContexts for bundle's SynchronousBundleListeners.
 	private final Map<BundleContextImpl, CopyOnWriteIdentityMap<SynchronousBundleListener, SynchronousBundleListener>> allSyncBundleListeners = new HashMap<BundleContextImpl, CopyOnWriteIdentityMap<SynchronousBundleListener, SynchronousBundleListener>>();
 	protected static final int BUNDLEEVENTSYNC = 2;
+	// Map of state masks to the BundleContexts for bundle's StateMaskBundleListeners.
+	private final Map<Integer, Map<BundleContextImpl, CopyOnWriteIdentityMap<SynchronousBundleListener, SynchronousBundleListener>>> allStateMaskBundleListeners = new HashMap<Integer, Map<BundleContextImpl, CopyOnWriteIdentityMap<SynchronousBundleListener, SynchronousBundleListener>>>();
 	/* SERVICEEVENT(3) is now handled by ServiceRegistry */
 	// Map of BundleContexts for bundle's FrameworkListeners.
 	private final Map<BundleContextImpl, CopyOnWriteIdentityMap<FrameworkListener, FrameworkListener>> allFrameworkListeners = new HashMap<BundleContextImpl, CopyOnWriteIdentityMap<FrameworkListener, FrameworkListener>>();
 	protected static final int FRAMEWORKEVENT = 4;
+	// Map of BundleContexts for bundle's CoalescingBundleListeners.
+	// The monitor of this map also guards the batch state below.
+	private final Map<BundleContextImpl, CopyOnWriteIdentityMap<BundleListener, BundleListener>> allCoalescingBundleListeners = new HashMap<BundleContextImpl, CopyOnWriteIdentityMap<BundleListener, BundleListener>>();
+	protected static final int BUNDLEEVENTBATCH = 5;
 	protected static final int BATCHEVENT_BEGIN = Integer.MIN_VALUE + 1;
 	protected static final int BATCHEVENT_END = Integer.MIN_VALUE;
+	/* the number of batch processes in progress */
+	/* @GuardedBy("allCoalescingBundleListeners") */
+	private int batchDepth = 0;
+	/* the thread of the batch process which only holds its own events and its nesting depth */
+	/* @GuardedBy("allCoalescingBundleListeners") */
+	private Thread batchThread;
+	/* @GuardedBy("allCoalescingBundleListeners") */
+	private int batchThreadDepth = 0;
+	/* the events published during the batch processes for the CoalescingBundleListeners */
+	/* @GuardedBy("allCoalescingBundleListeners") */
+	private final List<BundleEvent> batchedBundleEvents = new ArrayList<BundleEvent>();
 	static final String eventHookName = EventHook.class.getName();
 	static final String findHookName = FindHook.class.getName();
 	static final String collisionHookName = CollisionHook.class.getName();
@@ -109,8 +130,8 @@ public class Framework implements EventPublisher, Runnable {
 	private Map<String, Thread> installLock;
 	/** System Bundle object */
 	protected InternalSystemBundle systemBundle;
-	private String[] bootDelegation;
-	private String[] bootDelegationStems;
+	// the exact and stem boot delegation packages; null if there are none
+	private PackageNameTrie<Boolean> bootDelegation;
 	private boolean bootDelegateAll = false;
 	public final boolean contextBootDelegation = "true".equals(FrameworkProperties.getProperty("osgi.context.bootdelegation", "true")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 	public final boolean compatibiltyBootDelegation = "true".equals(FrameworkProperties.getProperty(Constants.OSGI_COMPATIBILITY_BOOTDELEGATION, "true")); //$NON-NLS-1$ //$NON-NLS-2$
@@ -213,7 +234,7 @@ public class Framework implements EventPublisher, Runnable {
 			Profile.logTime("Framework.initialze()", "done init props & new PermissionAdminImpl"); //$NON-NLS-1$//$NON-NLS-2$
 		startLevelManager = new StartLevelManager(this);
 		/* create the event manager and top level event dispatchers */
-		eventManager = new EventManager("Framework Event Dispatcher"); //$NON-NLS-1$
+		eventManager = newEventManager("Framework Event Dispatcher"); //$NON-NLS-1$
 		if (Profile.PROFILE && Profile.STARTUP)
 			Profile.logTime("Framework.initialze()", "done new EventManager"); //$NON-NLS-1$ //$NON-NLS-2$
 		/* create the service registry */
@@ -406,23 +427,20 @@ public class Framework implements EventPublisher, Runnable {
 		if (bootDelegationProp.trim().length() == 0)
 			return;
 		String[] bootPackages = ManifestElement.getArrayFromList(bootDelegationProp);
-		List<String> exactMatch = new ArrayList<String>(bootPackages.length);
-		List<String> stemMatch = new ArrayList<String>(bootPackages.length);
+		PackageNameTrie<Boolean> packages = new PackageNameTrie<Boolean>();
 		for (int i = 0; i < bootPackages.length; i++) {
 			if (bootPackages[i].equals("*")) { //$NON-NLS-1$
 				bootDelegateAll = true;
 				return;
 			} else if (bootPackages[i].endsWith("*")) { //$NON-NLS-1$
 				if (bootPackages[i].length() > 2 && bootPackages[i].endsWith(".*")) //$NON-NLS-1$
-					stemMatch.add(bootPackages[i].substring(0, bootPackages[i].length() - 1));
+					packages.putStem(bootPackages[i].substring(0, bootPackages[i].length() - 1), Boolean.TRUE);
 			} else {
-				exactMatch.add(bootPackages[i]);
+				packages.put(bootPackages[i], Boolean.TRUE);
 			}
 		}
-		if (!exactMatch.isEmpty())
-			bootDelegation = exactMatch.toArray(new String[exactMatch.size()]);
-		if (!stemMatch.isEmpty())
-			bootDelegationStems = stemMatch.toArray(new String[stemMatch.size()]);
+		if (!packages.isEmpty())
+			bootDelegation = packages;
 	}
 
 	@SuppressWarnings("deprecation")
@@ -608,9 +626,21 @@ public class Framework implements EventPublisher, Runnable {
 			}
 			bundles.removeAllBundles();
 		}
+		if (serviceRegistry != null)
+			serviceRegistry.close();
 		serviceRegistry = null;
 		allBundleListeners.clear();
 		allSyncBundleListeners.clear();
+		synchronized (allStateMaskBundleListeners) {
+			allStateMaskBundleListeners.clear();
+		}
+		synchronized (allCoalescingBundleListeners) {
+			allCoalescingBundleListeners.clear();
+			batchDepth = 0;
+			batchThread = null;
+			batchThreadDepth = 0;
+			batchedBundleEvents.clear();
+		}
 		allFrameworkListeners.clear();
 		if (eventManager != null) {
 			eventManager.close();
@@ -1370,6 +1400,13 @@ public class Framework implements EventPublisher, Runnable {
 		synchronized (allSyncBundleListeners) {
 			allSyncBundleListeners.remove(context);
 		}
+		synchronized (allStateMaskBundleListeners) {
+			for (Map<BundleContextImpl, CopyOnWriteIdentityMap<SynchronousBundleListener, SynchronousBundleListener>> contexts : allStateMaskBundleListeners.values())
+				contexts.remove(context);
+		}
+		synchronized (allCoalescingBundleListeners) {
+			allCoalescingBundleListeners.remove(context);
+		}
 		synchronized (allFrameworkListeners) {
 			allFrameworkListeners.remove(context);
 		}
@@ -1448,7 +1485,23 @@ public class Framework implements EventPublisher, Runnable {
 	}
 
 	void addBundleListener(BundleListener listener, BundleContextImpl context) {
-		if (listener instanceof SynchronousBundleListener) {
+		Integer mask = getStateMask(listener);
+		if (mask != null) {
+			checkAdminPermission(context.getBundle(), AdminPermission.LISTENER);
+			synchronized (allStateMaskBundleListeners) {
+				Map<BundleContextImpl, CopyOnWriteIdentityMap<SynchronousBundleListener, SynchronousBundleListener>> contexts = allStateMaskBundleListeners.get(mask);
+				if (contexts == null) {
+					contexts = new HashMap<BundleContextImpl, CopyOnWriteIdentityMap<SynchronousBundleListener, SynchronousBundleListener>>();
+					allStateMaskBundleListeners.put(mask, contexts);
+				}
+				CopyOnWriteIdentityMap<SynchronousBundleListener, SynchronousBundleListener> listeners = contexts.get(context);
+				if (listeners == null) {
+					listeners = new CopyOnWriteIdentityMap<SynchronousBundleListener, SynchronousBundleListener>();
+					contexts.put(context, listeners);
+				}
+				listeners.put((SynchronousBundleListener) listener, (SynchronousBundleListener) listener);
+			}
+		} else if (listener instanceof SynchronousBundleListener) {
 			checkAdminPermission(context.getBundle(), AdminPermission.LISTENER);
 			synchronized (allSyncBundleListeners) {
 				CopyOnWriteIdentityMap<SynchronousBundleListener, SynchronousBundleListener> listeners = allSyncBundleListeners.get(context);
@@ -1458,6 +1511,15 @@ public class Framework implements EventPublisher, Runnable {
 				}
 				listeners.put((SynchronousBundleListener) listener, (SynchronousBundleListener) listener);
 			}
+		} else if (listener instanceof CoalescingBundleListener) {
+			synchronized (allCoalescingBundleListeners) {
+				CopyOnWriteIdentityMap<BundleListener, BundleListener> listeners = allCoalescingBundleListeners.get(context);
+				if (listeners == null) {
+					listeners = new CopyOnWriteIdentityMap<BundleListener, BundleListener>();
+					allCoalescingBundleListeners.put(context, listeners);
+				}
+				listeners.put(listener, listener);
+			}
 		} else {
 			synchronized (allBundleListeners) {
 				CopyOnWriteIdentityMap<BundleListener, BundleListener> listeners = allBundleListeners.get(context);
@@ -1471,13 +1533,35 @@ public class Framework implements EventPublisher, Runnable {
 	}
 
 	void removeBundleListener(BundleListener listener, BundleContextImpl context) {
-		if (listener instanceof SynchronousBundleListener) {
+		if (getStateMask(listener) != null) {
+			checkAdminPermission(context.getBundle(), AdminPermission.LISTENER);
+			synchronized (allStateMaskBundleListeners) {
+				/* search all the masks in case the mask of the listener has changed */
+				for (Iterator<Map<BundleContextImpl, CopyOnWriteIdentityMap<SynchronousBundleListener, SynchronousBundleListener>>> masks = allStateMaskBundleListeners.values().iterator(); masks.hasNext();) {
+					Map<BundleContextImpl, CopyOnWriteIdentityMap<SynchronousBundleListener, SynchronousBundleListener>> contexts = masks.next();
+					CopyOnWriteIdentityMap<SynchronousBundleListener, SynchronousBundleListener> listeners = contexts.get(context);
+					if (listeners == null || listeners.remove(listener) == null)
+						continue;
+					/* do not keep empty maps for masks which are no longer used */
+					if (listeners.isEmpty())
+						contexts.remove(context);
+					if (contexts.isEmpty())
+						masks.remove();
+				}
+			}
+		} else if (listener instanceof SynchronousBundleListener) {
 			checkAdminPermission(context.getBundle(), AdminPermission.LISTENER);
 			synchronized (allSyncBundleListeners) {
 				CopyOnWriteIdentityMap<SynchronousBundleListener, SynchronousBundleListener> listeners = allSyncBundleListeners.get(context);
 				if (listeners != null)
 					listeners.remove(listener);
 			}
+		} else if (listener instanceof CoalescingBundleListener) {
+			synchronized (allCoalescingBundleListeners) {
+				CopyOnWriteIdentityMap<BundleListener, BundleListener> listeners = allCoalescingBundleListeners.get(context);
+				if (listeners != null)
+					listeners.remove(listener);
+			}
 		} else {
 			synchronized (allBundleListeners) {
 				CopyOnWriteIdentityMap<BundleListener, BundleListener> listeners = allBundleListeners.get(context);
@@ -1530,8 +1614,30 @@ public class Framework implements EventPublisher, Runnable {
 				}
 			}
 		}
+		/* Collect snapshot of StateMaskBundleListeners; only those with a mask matching the event */
+		Map<Set<Map.Entry<SynchronousBundleListener, SynchronousBundleListener>>, BundleContextImpl> listenersStateMask = null;
+		int eventStates = getEventStates(event);
+		synchronized (allStateMaskBundleListeners) {
+			for (Map.Entry<Integer, Map<BundleContextImpl, CopyOnWriteIdentityMap<SynchronousBundleListener, SynchronousBundleListener>>> maskEntry : allStateMaskBundleListeners.entrySet()) {
+				if ((maskEntry.getKey().intValue() & eventStates) == 0) {
+					continue;
+				}
+				for (Map.Entry<BundleContextImpl, CopyOnWriteIdentityMap<SynchronousBundleListener, SynchronousBundleListener>> entry : maskEntry.getValue().entrySet()) {
+					CopyOnWriteIdentityMap<SynchronousBundleListener, SynchronousBundleListener> listeners = entry.getValue();
+					if (!listeners.isEmpty()) {
+						if (listenersStateMask == null)
+							listenersStateMask = new IdentityHashMap<Set<Map.Entry<SynchronousBundleListener, SynchronousBundleListener>>, BundleContextImpl>();
+						listenersStateMask.put(listeners.entrySet(), entry.getKey());
+					}
+				}
+			}
+		}
 		/* Collect snapshot of BundleListeners; only if the event is NOT STARTING or STOPPING or LAZY_ACTIVATION */
 		Map<BundleContextImpl, Set<Map.Entry<BundleListener, BundleListener>>> listenersAsync = null;
+		/* Collect snapshot of CoalescingBundleListeners; only if the event is not held back for a batch */
+		Map<BundleContextImpl, Set<Map.Entry<BundleListener, BundleListener>>> listenersCoalescing = null;
+		/* the events of the batch which has ended with this event */
+		BundleEvent[] batch = null;
 		if ((event.getType() & (BundleEvent.STARTING | BundleEvent.STOPPING | BundleEvent.LAZY_ACTIVATION)) == 0) {
 			synchronized (allBundleListeners) {
 				listenersAsync = new HashMap<BundleContextImpl, Set<Map.Entry<BundleListener, BundleListener>>>(allBundleListeners.size());
@@ -1542,23 +1648,73 @@ public class Framework implements EventPublisher, Runnable {
 					}
 				}
 			}
+			synchronized (allCoalescingBundleListeners) {
+				boolean held = false;
+				switch (event.getType()) {
+					case BATCHEVENT_BEGIN :
+						batchDepth++;
+						break;
+					case BATCHEVENT_END :
+						if (batchDepth > 0 && --batchDepth == 0 && !batchedBundleEvents.isEmpty()) {
+							batch = batchedBundleEvents.toArray(new BundleEvent[batchedBundleEvents.size()]);
+							batchedBundleEvents.clear();
+						}
+						break;
+					default :
+						if ((batchDepth > 0 || (batchThreadDepth > 0 && batchThread == Thread.currentThread())) && !allCoalescingBundleListeners.isEmpty()) {
+							batchedBundleEvents.add(event);
+							held = true;
+						}
+				}
+				if (!held && (batch != null || !allCoalescingBundleListeners.isEmpty())) {
+					listenersCoalescing = new HashMap<BundleContextImpl, Set<Map.Entry<BundleListener, BundleListener>>>(allCoalescingBundleListeners.size());
+					for (Map.Entry<BundleContextImpl, CopyOnWriteIdentityMap<BundleListener, BundleListener>> entry : allCoalescingBundleListeners.entrySet()) {
+						CopyOnWriteIdentityMap<BundleListener, BundleListener> listeners = entry.getValue();
+						if (!listeners.isEmpty()) {
+							listenersCoalescing.put(entry.getKey(), listeners.entrySet());
+						}
+					}
+				}
+			}
+		}
+
+		/* Dispatch the events of an ended batch to the CoalescingBundleListeners before the end event */
+		if (batch != null && !listenersCoalescing.isEmpty()) {
+			publishBundleEventBatchPrivileged(batch, listenersCoalescing);
 		}
 
 		/* shrink the snapshot.
 		 * keySet returns a Collection which cannot be added to and
 		 * removals from that collection will result in removals of the
 		 * entry from the snapshot.
+		 * The shrinkable view is only built when there are hooks to call.
 		 */
-		Collection<BundleContext> shrinkable;
-		if (listenersAsync == null) {
-			shrinkable = asBundleContexts(listenersSync.keySet());
-		} else {
-			shrinkable = new ShrinkableCollection<BundleContext>(asBundleContexts(listenersSync.keySet()), asBundleContexts(listenersAsync.keySet()));
+		if (getServiceRegistry().hasBundleEventHooks()) {
+			Collection<BundleContext> shrinkable;
+			/* the contexts of the StateMaskBundleListeners; shrunk by the hooks along with the other snapshots */
+			Set<BundleContextImpl> stateMaskContexts = null;
+			if (listenersAsync == null && listenersStateMask == null) {
+				shrinkable = asBundleContexts(listenersSync.keySet());
+			} else {
+				List<Collection<? extends BundleContext>> keySets = new ArrayList<Collection<? extends BundleContext>>(4);
+				keySets.add(listenersSync.keySet());
+				if (listenersAsync != null)
+					keySets.add(listenersAsync.keySet());
+				if (listenersCoalescing != null)
+					keySets.add(listenersCoalescing.keySet());
+				if (listenersStateMask != null) {
+					stateMaskContexts = new HashSet<BundleContextImpl>(listenersStateMask.values());
+					keySets.add(stateMaskContexts);
+				}
+				shrinkable = new ShrinkableCollection<BundleContext>(keySets);
+			}
+			notifyEventHooksPrivileged(event, shrinkable);
+			if (stateMaskContexts != null)
+				listenersStateMask.values().retainAll(stateMaskContexts);
 		}
-		notifyEventHooksPrivileged(event, shrinkable);
 
 		/* Dispatch the event to the snapshot for sync listeners */
-		if (!listenersSync.isEmpty()) {
+		if (!listenersSync.isEmpty() || ((listenersStateMask != null) && !listenersStateMask.isEmpty())) {
 			ListenerQueue<SynchronousBundleListener, SynchronousBundleListener, BundleEvent> queue = newListenerQueue();
 			for (Map.Entry<BundleContextImpl, Set<Map.Entry<SynchronousBundleListener, SynchronousBundleListener>>> entry : listenersSync.entrySet()) {
 				@SuppressWarnings({"rawtypes", "unchecked"})
@@ -1566,11 +1722,18 @@ public class Framework implements EventPublisher, Runnable {
 				Set<Map.Entry<SynchronousBundleListener, SynchronousBundleListener>> listeners = entry.getValue();
 				queue.queueListeners(listeners, dispatcher);
 			}
+			if (listenersStateMask != null) {
+				for (Map.Entry<Set<Map.Entry<SynchronousBundleListener, SynchronousBundleListener>>, BundleContextImpl> entry : listenersStateMask.entrySet()) {
+					@SuppressWarnings({"rawtypes", "unchecked"})
+					EventDispatcher<SynchronousBundleListener, SynchronousBundleListener, BundleEvent> dispatcher = (EventDispatcher) entry.getValue();
+					queue.queueListeners(entry.getKey(), dispatcher);
+				}
+			}
 			queue.dispatchEventSynchronous(BUNDLEEVENTSYNC, event);
 		}
 
 		/* Dispatch the event to the snapshot for async listeners */
-		if ((listenersAsync != null) && !listenersAsync.isEmpty()) {
+		if (((listenersAsync != null) && !listenersAsync.isEmpty()) || ((listenersCoalescing != null) && !listenersCoalescing.isEmpty())) {
 			ListenerQueue<BundleListener, BundleListener, BundleEvent> queue = newListenerQueue();
 			for (Map.Entry<BundleContextImpl, Set<Map.Entry<BundleListener, BundleListener>>> entry : listenersAsync.entrySet()) {
 				@SuppressWarnings({"rawtypes", "unchecked"})
@@ -1578,10 +1741,168 @@ public class Framework implements EventPublisher, Runnable {
 				Set<Map.Entry<BundleListener, BundleListener>> listeners = entry.getValue();
 				queue.queueListeners(listeners, dispatcher);
 			}
+			if (listenersCoalescing != null) {
+				for (Map.Entry<BundleContextImpl, Set<Map.Entry<BundleListener, BundleListener>>> entry : listenersCoalescing.entrySet()) {
+					@SuppressWarnings({"rawtypes", "unchecked"})
+					EventDispatcher<BundleListener, BundleListener, BundleEvent> dispatcher = (EventDispatcher) entry.getKey();
+					Set<Map.Entry<BundleListener, BundleListener>> listeners = entry.getValue();
+					queue.queueListeners(listeners, dispatcher);
+				}
+			}
 			queue.dispatchEventAsynchronous(BUNDLEEVENT, event);
 		}
 	}
 
+	/**
+	 * Returns the state mask of a listener which is only interested in bundles in the states
+	 * of the mask.
+	 * 
+	 * @param listener The bundle listener.
+	 * @return The state mask or null if the listener is not a StateMaskBundleListener.
+	 */
+	private static Integer getStateMask(BundleListener listener) {
+		if (listener instanceof StateMaskBundleListener)
+			return new Integer(((StateMaskBundleListener) listener).getStateMask());
+		return null;
+	}
+
+	/**
+	 * Returns the bundle states of the specified event for the StateMaskBundleListeners.
+	 * These are the current state of the bundle and the states the bundle may have left
+	 * with the transition of the event, so a listener is also called when the bundle
+	 * leaves the states of its mask.
+	 * 
+	 * @param event The bundle event.
+	 * @return The bit mask of the bundle states of the event.
+	 */
+	private static int getEventStates(BundleEvent event) {
+		int states = event.getBundle().getState();
+		switch (event.getType()) {
+			case BundleEvent.INSTALLED :
+				return states;
+			case BundleEvent.RESOLVED :
+				return states | Bundle.INSTALLED;
+			case BundleEvent.LAZY_ACTIVATION :
+				return states | Bundle.RESOLVED;
+			case BundleEvent.STARTING :
+				return states | Bundle.RESOLVED | Bundle.STARTING;
+			case BundleEvent.STARTED :
+				return states | Bundle.STARTING;
+			case BundleEvent.STOPPING :
+				return states | Bundle.ACTIVE | Bundle.STARTING;
+			case BundleEvent.STOPPED :
+				return states | Bundle.STOPPING | Bundle.STARTING;
+			case BundleEvent.UPDATED :
+				return states | Bundle.INSTALLED | Bundle.RESOLVED;
+			case BundleEvent.UNRESOLVED :
+				return states | Bundle.RESOLVED;
+			case BundleEvent.UNINSTALLED :
+				return states | Bundle.INSTALLED | Bundle.RESOLVED;
+			default :
+				/* batch events and unknown events are delivered to all the listeners */
+				return -1;
+		}
+	}
+
+	/**
+	 * Begins a batch process of the current thread for the CoalescingBundleListeners.
+	 * Unlike a batch process which is begun by publishing a BATCHEVENT_BEGIN event, only the
+	 * events published by the current thread are held back for the batch, and the 
+	 * BatchBundleListeners are not called.  Only one thread at a time may run such
+	 * a batch process; the calls may nest.
+	 * @see #endBundleEventBatch()
+	 */
+	void beginBundleEventBatch() {
+		synchronized (allCoalescingBundleListeners) {
+			if (batchThreadDepth > 0 && batchThread != Thread.currentThread())
+				return; /* another thread is running a batch process; do not hold the events of this thread */
+			batchThread = Thread.currentThread();
+			batchThreadDepth++;
+		}
+	}
+
+	/**
+	 * Ends a batch process of the current thread for the CoalescingBundleListeners
+	 * and delivers the events held back for the batch.
+	 * @see #beginBundleEventBatch()
+	 */
+	void endBundleEventBatch() {
+		final BundleEvent[] batch;
+		final Map<BundleContextImpl, Set<Map.Entry<BundleListener, BundleListener>>> listenersCoalescing;
+		synchronized (allCoalescingBundleListeners) {
+			if (batchThreadDepth == 0 || batchThread != Thread.currentThread() || --batchThreadDepth > 0)
+				return;
+			batchThread = null;
+			/* the events are delivered when the batch processes begun by BATCHEVENT_BEGIN end */
+			if (batchDepth > 0 || batchedBundleEvents.isEmpty())
+				return;
+			batch = batchedBundleEvents.toArray(new BundleEvent[batchedBundleEvents.size()]);
+			batchedBundleEvents.clear();
+			listenersCoalescing = new HashMap<BundleContextImpl, Set<Map.Entry<BundleListener, BundleListener>>>(allCoalescingBundleListeners.size());
+			for (Map.Entry<BundleContextImpl, CopyOnWriteIdentityMap<BundleListener, BundleListener>> entry : allCoalescingBundleListeners.entrySet()) {
+				CopyOnWriteIdentityMap<BundleListener, BundleListener> listeners = entry.getValue();
+				if (!listeners.isEmpty()) {
+					listenersCoalescing.put(entry.getKey(), listeners.entrySet());
+				}
+			}
+		}
+		if (listenersCoalescing.isEmpty())
+			return;
+		if (System.getSecurityManager() == null) {
+			publishBundleEventBatchPrivileged(batch, listenersCoalescing);
+		} else {
+			AccessController.doPrivileged(new PrivilegedAction<Object>() {
+				public Object run() {
+					publishBundleEventBatchPrivileged(batch, listenersCoalescing);
+					return null;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Deliver the events of a batch process to CoalescingBundleListeners (asynchronous).
+	 * The bundle event hooks are called for each event of the batch, so the 
+	 * contexts which receive the events may differ.
+	 * 
+	 * @param batch The events published during the batch process.
+	 * @param listenersCoalescing The snapshot of the CoalescingBundleListeners.
+	 */
+	private void publishBundleEventBatchPrivileged(BundleEvent[] batch, Map<BundleContextImpl, Set<Map.Entry<BundleListener, BundleListener>>> listenersCoalescing) {
+		Map<BundleContextImpl, BundleEvent[]> batches = new HashMap<BundleContextImpl, BundleEvent[]>(listenersCoalescing.size());
+		if (getServiceRegistry().hasBundleEventHooks()) {
+			Map<BundleContextImpl, List<BundleEvent>> filtered = new HashMap<BundleContextImpl, List<BundleEvent>>(listenersCoalescing.size());
+			for (BundleEvent event : batch) {
+				Collection<BundleContextImpl> contexts = new HashMap<BundleContextImpl, Object>(listenersCoalescing).keySet();
+				notifyEventHooksPrivileged(event, asBundleContexts(contexts));
+				for (BundleContextImpl context : contexts) {
+					List<BundleEvent> events = filtered.get(context);
+					if (events == null) {
+						events = new ArrayList<BundleEvent>(batch.length);
+						filtered.put(context, events);
+					}
+					events.add(event);
+				}
+			}
+			for (Map.Entry<BundleContextImpl, List<BundleEvent>> entry : filtered.entrySet()) {
+				List<BundleEvent> events = entry.getValue();
+				batches.put(entry.getKey(), events.toArray(new BundleEvent[events.size()]));
+			}
+		} else {
+			for (BundleContextImpl context : listenersCoalescing.keySet()) {
+				batches.put(context, batch);
+			}
+		}
+
+		for (Map.Entry<BundleContextImpl, BundleEvent[]> entry : batches.entrySet()) {
+			ListenerQueue<BundleListener, BundleListener, BundleEvent[]> queue = newListenerQueue();
+			@SuppressWarnings({"rawtypes", "unchecked"})
+			EventDispatcher<BundleListener, BundleListener, BundleEvent[]> dispatcher = (EventDispatcher) entry.getKey();
+			queue.queueListeners(listenersCoalescing.get(entry.getKey()), dispatcher);
+			queue.dispatchEventAsynchronous(BUNDLEEVENTBATCH, entry.getValue());
+		}
+	}
+
 	/**
 	 * Coerce the generic type of a collection from Collection<BundleContextImpl>
 	 * to Collection<BundleContext>
@@ -1621,6 +1942,27 @@ public class Framework implements EventPublisher, Runnable {
 		return new ListenerQueue<K, V, E>(eventManager);
 	}
 
+	/**
+	 * Create an event manager for asynchronous event delivery.  The number of
+	 * delivery threads is configured with the osgi.framework.eventDispatchThreads
+	 * property; with more than one thread the events of different listeners are
+	 * delivered in parallel while each listener receives its events in order.
+	 * @param threadName The name of the event delivery threads.
+	 * @return A new event manager.
+	 */
+	public EventManager newEventManager(String threadName) {
+		int threads = 1;
+		String value = FrameworkProperties.getProperty(PROP_EVENT_DISPATCH_THREADS);
+		if (value != null) {
+			try {
+				threads = Math.max(1, Integer.parseInt(value.trim()));
+			} catch (NumberFormatException e) {
+				// use a single thread
+			}
+		}
+		return new EventManager(threadName, null, threads);
+	}
+
 	private void initializeContextFinder() {
 		Thread current = Thread.currentThread();
 		try {
@@ -1978,17 +2320,21 @@ public class Framework implements EventPublisher, Runnable {
 	}
 
 	public boolean isBootDelegationPackage(String name) {
+		return isBootDelegationPackage(name, 0, name.length());
+	}
+
+	/**
+	 * Returns true if the package name contained in the specified range of characters
+	 * is boot delegated.
+	 * @param name the string which contains the package name, for example a class name
+	 * @param start the index of the first character of the package name
+	 * @param end the index after the last character of the package name
+	 * @return true if the package is boot delegated
+	 */
+	public boolean isBootDelegationPackage(String name, int start, int end) {
 		if (bootDelegateAll)
 			return true;
-		if (bootDelegation != null)
-			for (int i = 0; i < bootDelegation.length; i++)
-				if (name.equals(bootDelegation[i]))
-					return true;
-		if (bootDelegationStems != null)
-			for (int i = 0; i < bootDelegationStems.length; i++)
-				if (name.startsWith(bootDelegationStems[i]))
-					return true;
-		return false;
+		return bootDelegation != null && bootDelegation.get(name, start, end) != null;
 	}
 
 	SignedContentFactory getSignedContentFactory() {
@@ -19,6 +19,7 @@ import org.eclipse.osgi.framework.adaptor.*;
 import org.eclipse.osgi.framework.debug.Debug;
 import org.eclipse.osgi.internal.loader.BundleLoader;
 import org.eclipse.osgi.internal.loader.BundleLoaderProxy;
+import org.eclipse.osgi.internal.loader.NegativeLookupCache;
 import org.eclipse.osgi.internal.profile.Profile;
 import org.eclipse.osgi.service.resolver.*;
 import org.eclipse.osgi.util.NLS;
@@ -534,6 +535,9 @@ public class PackageAdminImpl implements PackageAdmin, FrameworkWiring {
 			framework.publishFrameworkEvent(FrameworkEvent.ERROR, framework.systemBundle, new BundleException(Msg.BUNDLE_REFRESH_FAILURE, e));
 		}
 
+		// the wiring has changed; forget about any classes or resources which could not be found before
+		NegativeLookupCache.invalidateAll();
+
 		// send out any resolved.  This must be done after the state change locks have been release.
 		if (Debug.DEBUG_PACKAGEADMIN)
 			Debug.println("refreshPackages: send out RESOLVED events"); //$NON-NLS-1$
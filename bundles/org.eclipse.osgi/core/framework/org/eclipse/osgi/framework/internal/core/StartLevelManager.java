@@ -14,8 +14,12 @@ package org.eclipse.osgi.framework.internal.core;
 import java.io.IOException;
 import java.security.*;
 import java.util.*;
+import org.eclipse.osgi.baseadaptor.BaseAdaptor;
 import org.eclipse.osgi.framework.debug.Debug;
 import org.eclipse.osgi.framework.eventmgr.*;
+import org.eclipse.osgi.internal.baseadaptor.StartupClassProfileHook;
+import org.eclipse.osgi.internal.loader.BundleLoader;
+import org.eclipse.osgi.internal.loader.ClassPreloader;
 import org.eclipse.osgi.service.resolver.BundleDescription;
 import org.eclipse.osgi.util.NLS;
 import org.osgi.framework.*;
@@ -47,6 +51,10 @@ public class StartLevelManager implements EventDispatcher<Object, Object, StartL
 	private final Object lock = new Object();
 	private final Framework framework;
 
+	/** The startup class profile and the preloader used while launching; null if preloading is not enabled */
+	private StartupClassProfileHook startupProfile;
+	private ClassPreloader preloader;
+
 	/** This constructor is called by the Framework */
 	protected StartLevelManager(Framework framework) {
 		this.framework = framework;
@@ -60,9 +68,18 @@ public class StartLevelManager implements EventDispatcher<Object, Object, StartL
 		eventManager = new EventManager("Start Level Event Dispatcher"); //$NON-NLS-1$
 		startLevelListeners = new CopyOnWriteIdentityMap<Object, Object>();
 		startLevelListeners.put(this, this);
+
+		startupProfile = StartupClassProfileHook.getHook(framework.adaptor);
+		if (startupProfile != null)
+			preloader = new ClassPreloader(startupProfile.getThreadCount(), ((BaseAdaptor) framework.adaptor).getHookRegistry().getClassLoadingStatsHooks());
 	}
 
 	protected void cleanup() {
+		if (preloader != null) {
+			preloader.close();
+			preloader = null;
+		}
+		startupProfile = null;
 		eventManager.close();
 		eventManager = null;
 		startLevelListeners.clear();
@@ -243,6 +260,9 @@ public class StartLevelManager implements EventDispatcher<Object, Object, StartL
 						incFWSL(i + 1, getInstalledBundles(framework.bundles, false));
 					}
 					if (launching) {
+						if (preloader != null)
+							// let the preloader finish the queued classes; no more classes are queued after launch
+							preloader.finish();
 						framework.systemBundle.state = Bundle.ACTIVE;
 						framework.publishBundleEvent(BundleEvent.STARTED, framework.systemBundle);
 						framework.publishFrameworkEvent(FrameworkEvent.STARTED, framework.systemBundle, null);
@@ -453,8 +473,43 @@ public class StartLevelManager implements EventDispatcher<Object, Object, StartL
 		}
 		// save the startlevel
 		saveActiveStartLevel(incToSL);
-		// resume all bundles at the startlevel
-		resumeBundles(launchBundles, incToSL);
+		// preload the startup classes of the bundles at the startlevel
+		if (preloader != null)
+			preloadBundles(launchBundles, incToSL);
+		// resume all bundles at the startlevel as one batch for the CoalescingBundleListeners
+		framework.beginBundleEventBatch();
+		try {
+			resumeBundles(launchBundles, incToSL);
+		} finally {
+			framework.endBundleEventBatch();
+		}
+	}
+
+	/**
+	 * Queues the classes the bundles at the specified startlevel defined during the
+	 * previous launch to be preloaded while the bundles are resumed.
+	 * @param launch the bundles to launch sorted by startlevel
+	 * @param currentSL the startlevel being activated
+	 */
+	private void preloadBundles(AbstractBundle[] launch, int currentSL) {
+		for (int i = 0; i < launch.length; i++) {
+			int bsl = launch[i].getInternalStartLevel();
+			if (bsl < currentSL)
+				continue;
+			if (bsl > currentSL)
+				break;
+			if (launch[i].isFragment() || !launch[i].isResolved())
+				continue;
+			// a preloaded class would not trigger the lazy activation of the bundle
+			if ((launch[i].getBundleData().getStatus() & Constants.BUNDLE_LAZY_START) != 0)
+				continue;
+			String[] classNames = startupProfile.getStartupClasses(launch[i].getBundleData());
+			if (classNames == null)
+				continue;
+			BundleLoader loader = ((BundleHost) launch[i]).getBundleLoader();
+			if (loader != null)
+				preloader.preload(loader, classNames);
+		}
 	}
 
 	/**
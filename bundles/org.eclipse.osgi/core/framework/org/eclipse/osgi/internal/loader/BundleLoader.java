@@ -17,6 +17,7 @@ import java.net.URL;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.*;
+import org.eclipse.osgi.baseadaptor.loader.BaseClassLoader;
 import org.eclipse.osgi.framework.adaptor.*;
 import org.eclipse.osgi.framework.debug.Debug;
 import org.eclipse.osgi.framework.internal.core.*;
@@ -62,10 +63,14 @@ public class BundleLoader implements ClassLoaderDelegate {
 	private static final int PRE_LIBRARY = 7;
 	private static final int POST_LIBRARY = 8;
 
-	private static final boolean USE_GLOBAL_DEADLOCK_AVOIDANCE_LOCK = "true".equals(BundleLoaderProxy.secureAction.getProperty("osgi.classloader.singleThreadLoads")); //$NON-NLS-1$//$NON-NLS-2$
+	private static final String SINGLE_THREAD_LOADS = BundleLoaderProxy.secureAction.getProperty("osgi.classloader.singleThreadLoads"); //$NON-NLS-1$
+	private static final boolean USE_GLOBAL_DEADLOCK_AVOIDANCE_LOCK = "true".equals(SINGLE_THREAD_LOADS); //$NON-NLS-1$
+	// osgi.classloader.singleThreadLoads=perLoader uses a lock per class loader with cycle detection instead of the global lock
+	private static final LoaderLockGraph loaderLocks = "perLoader".equals(SINGLE_THREAD_LOADS) ? new LoaderLockGraph() : null; //$NON-NLS-1$
 	private static final List<Object[]> waitingList = USE_GLOBAL_DEADLOCK_AVOIDANCE_LOCK ? new ArrayList<Object[]>(0) : null;
 	private static Object lockThread;
 	private static int lockCount = 0;
+	private static final int NEGATIVE_CACHE_SIZE = getNegativeCacheSize();
 
 	/* the proxy */
 	final private BundleLoaderProxy proxy;
@@ -85,6 +90,8 @@ public class BundleLoader implements ClassLoaderDelegate {
 	// note that the following non-final must be access using synchronization
 	/* cache of imported packages. Key is packagename, Value is PackageSource */
 	private KeyedHashSet importedSources;
+	// index of the importedSources by package name; guarded by importedSources
+	private PackageNameTrie<PackageSource> importedSourceIndex;
 	/* If not null, list of package stems to import dynamically. */
 	private String[] dynamicImportPackageStems;
 	/* If not null, list of package names to import dynamically. */
@@ -94,6 +101,21 @@ public class BundleLoader implements ClassLoaderDelegate {
 	/* The is the BundleClassLoader for the bundle */
 	private BundleClassLoader classloader;
 	private ClassLoader parent;
+	/* If not null, cache of class names which could not be found by this loader */
+	private final NegativeLookupCache classMissCache;
+	/* If not null, cache of resource names which could not be found by this loader */
+	private final NegativeLookupCache resourceMissCache;
+
+	private static int getNegativeCacheSize() {
+		String size = BundleLoaderProxy.secureAction.getProperty("osgi.classloader.negativeCacheSize"); //$NON-NLS-1$
+		if (size == null)
+			return 0;
+		try {
+			return Integer.parseInt(size.trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
 
 	/**
 	 * Returns the package name from the specified class name.
@@ -142,6 +164,8 @@ public class BundleLoader implements ClassLoaderDelegate {
 	protected BundleLoader(BundleHost bundle, BundleLoaderProxy proxy) throws BundleException {
 		this.bundle = bundle;
 		this.proxy = proxy;
+		classMissCache = NEGATIVE_CACHE_SIZE > 0 ? new NegativeLookupCache(NEGATIVE_CACHE_SIZE) : null;
+		resourceMissCache = NEGATIVE_CACHE_SIZE > 0 ? new NegativeLookupCache(NEGATIVE_CACHE_SIZE) : null;
 		try {
 			bundle.getBundleData().open(); /* make sure the BundleData is open */
 		} catch (IOException e) {
@@ -243,14 +267,18 @@ public class BundleLoader implements ClassLoaderDelegate {
 		BundleDescription bundleDesc = proxy.getBundleDescription();
 		ExportPackageDescription[] packages = bundleDesc.getResolvedImports();
 		if (packages != null && packages.length > 0) {
-			if (importedSources == null)
+			if (importedSources == null) {
 				importedSources = new KeyedHashSet(packages.length, false);
+				importedSourceIndex = new PackageNameTrie<PackageSource>();
+			}
 			for (int i = 0; i < packages.length; i++) {
 				if (packages[i].getExporter() == bundleDesc)
 					continue; // ignore imports resolved to this bundle
 				PackageSource source = createExportPackageSource(packages[i], visited);
-				if (source != null)
+				if (source != null) {
 					importedSources.add(source);
+					importedSourceIndex.put(source.getId(), source);
+				}
 			}
 		}
 		loaderFlags |= FLAG_IMPORTSINIT;
@@ -324,6 +352,8 @@ public class BundleLoader implements ClassLoaderDelegate {
 			classloader.close();
 		if (policy != null)
 			policy.close(bundle.getFramework().getSystemBundleContext());
+		if (Debug.DEBUG_LOADER && classMissCache != null)
+			Debug.println("BundleLoader[" + this + "].close() classes: " + classMissCache + " resources: " + resourceMissCache); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 		loaderFlags |= FLAG_CLOSED; /* This indicates the BundleLoader is destroyed */
 	}
 
@@ -396,8 +426,19 @@ public class BundleLoader implements ClassLoaderDelegate {
 	Class<?> findLocalClass(String name) throws ClassNotFoundException {
 		if (Debug.DEBUG_LOADER)
 			Debug.println("BundleLoader[" + this + "].findLocalClass(" + name + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		BundleClassLoader bcl = createClassLoader();
+		if (loaderLocks != null && bcl instanceof BaseClassLoader && canSkipLocalClassHooks()) {
+			// a class which is already defined does not need the class loader; this avoids
+			// nesting loader locks for most delegations from other bundles (see LoaderLockGraph)
+			Class<?> clazz = ((BaseClassLoader) bcl).publicFindLoaded(name);
+			if (clazz != null)
+				return clazz;
+		}
+		// other bundles delegate to this method; the class loader must be locked before it is used
+		if (loaderLocks != null)
+			loaderLocks.lock(bcl);
 		try {
-			Class<?> clazz = createClassLoader().findLocalClass(name);
+			Class<?> clazz = bcl.findLocalClass(name);
 			if (Debug.DEBUG_LOADER && clazz != null)
 				Debug.println("BundleLoader[" + this + "] found local class " + name); //$NON-NLS-1$ //$NON-NLS-2$
 			return clazz;
@@ -407,6 +448,35 @@ public class BundleLoader implements ClassLoaderDelegate {
 					throw e;
 			}
 			return null;
+		} finally {
+			if (loaderLocks != null)
+				loaderLocks.unlock(bcl);
+		}
+	}
+
+	/*
+	 * Returns true if finding an already defined class does not need the class loading hooks;
+	 * the hooks activate a bundle with a lazy activation policy on its first class load.
+	 */
+	private boolean canSkipLocalClassHooks() {
+		return bundle.getState() == Bundle.ACTIVE || (bundle.getBundleData().getStatus() & Constants.BUNDLE_LAZY_START) == 0;
+	}
+
+	/**
+	 * Loads a class local to this bundle ahead of its first use.  This follows the
+	 * same locking protocol as {@link #findClass(String)}.
+	 * @param name The name of the class to preload.
+	 * @return The loaded Class or null if the class is not found.
+	 * @throws ClassNotFoundException
+	 */
+	Class<?> preloadLocalClass(String name) throws ClassNotFoundException {
+		try {
+			if (USE_GLOBAL_DEADLOCK_AVOIDANCE_LOCK)
+				lock(createClassLoader());
+			return findLocalClass(name);
+		} finally {
+			if (USE_GLOBAL_DEADLOCK_AVOIDANCE_LOCK)
+				unlock();
 		}
 	}
 
@@ -423,23 +493,36 @@ public class BundleLoader implements ClassLoaderDelegate {
 			// 1) if startsWith "java." delegate to parent and terminate search
 			// we want to throw ClassNotFoundExceptions if a java.* class cannot be loaded from the parent.
 			return parentCL.loadClass(name);
+		int missStamp = 0;
+		if (checkParent && classMissCache != null) {
+			missStamp = classMissCache.getStamp();
+			if (classMissCache.contains(name))
+				throw new ClassNotFoundException(name);
+		}
+		// the per class loader locks are only obtained by findLocalClass when a class loader is
+		// used; locking this class loader for a class of another bundle would nest loader locks
 		try {
 			if (USE_GLOBAL_DEADLOCK_AVOIDANCE_LOCK)
 				lock(createClassLoader());
-			return findClassInternal(name, checkParent, parentCL);
+			return findClassInternal(name, checkParent, parentCL, missStamp);
 		} finally {
 			if (USE_GLOBAL_DEADLOCK_AVOIDANCE_LOCK)
 				unlock();
 		}
 	}
 
-	private Class<?> findClassInternal(String name, boolean checkParent, ClassLoader parentCL) throws ClassNotFoundException {
+	private Class<?> findClassInternal(String name, boolean checkParent, ClassLoader parentCL, int missStamp) throws ClassNotFoundException {
 		if (Debug.DEBUG_LOADER)
 			Debug.println("BundleLoader[" + this + "].loadBundleClass(" + name + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-		String pkgName = getPackageName(name);
+		// the package name is matched as a range of the class name; it is only created
+		// if the class is neither boot delegated nor imported
+		int pkgEnd = name.lastIndexOf('.');
+		String pkgChars = pkgEnd > 0 ? name : DEFAULT_PACKAGE;
+		if (pkgEnd <= 0)
+			pkgEnd = DEFAULT_PACKAGE.length();
 		boolean bootDelegation = false;
 		// follow the OSGi delegation model
-		if (checkParent && parentCL != null && bundle.getFramework().isBootDelegationPackage(pkgName))
+		if (checkParent && parentCL != null && bundle.getFramework().isBootDelegationPackage(pkgChars, 0, pkgEnd))
 			// 2) if part of the bootdelegation list then delegate to parent and continue of failure
 			try {
 				return parentCL.loadClass(name);
@@ -458,14 +541,16 @@ public class BundleLoader implements ClassLoaderDelegate {
 		if (result != null)
 			return result;
 		// 3) search the imported packages
-		PackageSource source = findImportedSource(pkgName, null);
+		PackageSource source = findImportedSource(pkgChars, 0, pkgEnd, null);
 		if (source != null) {
 			// 3) found import source terminate search at the source
 			result = source.loadClass(name);
 			if (result != null)
 				return result;
+			recordClassMiss(name, checkParent, missStamp);
 			throw new ClassNotFoundException(name);
 		}
+		String pkgName = pkgChars.substring(0, pkgEnd);
 		// 4) search the required bundles
 		source = findRequiredSource(pkgName, null);
 		if (source != null)
@@ -484,6 +569,7 @@ public class BundleLoader implements ClassLoaderDelegate {
 				if (result != null)
 					return result;
 				// must throw CNFE if dynamic import source does not have the class
+				recordClassMiss(name, checkParent, missStamp);
 				throw new ClassNotFoundException(name);
 			}
 		}
@@ -510,9 +596,50 @@ public class BundleLoader implements ClassLoaderDelegate {
 			} catch (ClassNotFoundException e) {
 				// we want to generate our own exception below
 			}
+		// only record the failure if the result does not depend on the class context of the request
+		if (parentCL == null || bootDelegation || !bundle.getFramework().contextBootDelegation || bundle.getFramework().compatibiltyBootDelegation)
+			recordClassMiss(name, checkParent, missStamp);
 		throw new ClassNotFoundException(name);
 	}
 
+	private void recordClassMiss(String name, boolean checkParent, int missStamp) {
+		if (checkParent && classMissCache != null)
+			classMissCache.add(name, missStamp);
+	}
+
+	private void recordResourceMiss(String name, boolean checkParent, int missStamp) {
+		if (checkParent && resourceMissCache != null)
+			resourceMissCache.add(name, missStamp);
+	}
+
+	/**
+	 * Clears the cache of class and resource names which could not be found by this loader.
+	 * This must be called whenever the set of classes or resources available to this
+	 * loader may have changed.
+	 */
+	public void clearNegativeLookupCache() {
+		if (classMissCache != null)
+			classMissCache.clear();
+		if (resourceMissCache != null)
+			resourceMissCache.clear();
+	}
+
+	/**
+	 * Returns the cache of class names which could not be found by this loader.
+	 * @return the class name miss cache or null if negative lookup caching is disabled.
+	 */
+	public NegativeLookupCache getClassMissCache() {
+		return classMissCache;
+	}
+
+	/**
+	 * Returns the cache of resource names which could not be found by this loader.
+	 * @return the resource name miss cache or null if negative lookup caching is disabled.
+	 */
+	public NegativeLookupCache getResourceMissCache() {
+		return resourceMissCache;
+	}
+
 	@SuppressWarnings("unchecked")
 	private <E> E searchHooks(String name, int type) throws ClassNotFoundException, FileNotFoundException {
 		ClassLoaderDelegateHook[] delegateHooks = bundle.getFramework().getDelegateHooks();
@@ -592,6 +719,12 @@ public class BundleLoader implements ClassLoaderDelegate {
 	URL findResource(String name, boolean checkParent) {
 		if ((name.length() > 1) && (name.charAt(0) == '/')) /* if name has a leading slash */
 			name = name.substring(1); /* remove leading slash before search */
+		int missStamp = 0;
+		if (checkParent && resourceMissCache != null) {
+			missStamp = resourceMissCache.getStamp();
+			if (resourceMissCache.contains(name))
+				return null;
+		}
 		String pkgName = getResourcePackageName(name);
 		boolean bootDelegation = false;
 		ClassLoader parentCL = getParentClassLoader();
@@ -623,9 +756,13 @@ public class BundleLoader implements ClassLoaderDelegate {
 			return result;
 		// 3) search the imported packages
 		PackageSource source = findImportedSource(pkgName, null);
-		if (source != null)
+		if (source != null) {
 			// 3) found import source terminate search at the source
-			return source.getResource(name);
+			result = source.getResource(name);
+			if (result == null)
+				recordResourceMiss(name, checkParent, missStamp);
+			return result;
+		}
 		// 4) search the required bundles
 		source = findRequiredSource(pkgName, null);
 		if (source != null)
@@ -639,9 +776,13 @@ public class BundleLoader implements ClassLoaderDelegate {
 		// 6) attempt to find a dynamic import source; only do this if a required source was not found
 		if (source == null) {
 			source = findDynamicSource(pkgName);
-			if (source != null)
+			if (source != null) {
 				// must return the result of the dynamic import and do not continue
-				return source.getResource(name);
+				result = source.getResource(name);
+				if (result == null)
+					recordResourceMiss(name, checkParent, missStamp);
+				return result;
+			}
 		}
 
 		if (result == null)
@@ -659,9 +800,16 @@ public class BundleLoader implements ClassLoaderDelegate {
 			return result;
 		// hack to support backwards compatibiility for bootdelegation
 		// or last resort; do class context trick to work around VM bugs
-		if (parentCL != null && !bootDelegation && ((checkParent && bundle.getFramework().compatibiltyBootDelegation) || isRequestFromVM()))
+		if (parentCL != null && !bootDelegation && ((checkParent && bundle.getFramework().compatibiltyBootDelegation) || isRequestFromVM())) {
 			// we don't need to continue if the resource is not found here
-			return parentCL.getResource(name);
+			result = parentCL.getResource(name);
+			if (result == null)
+				recordResourceMiss(name, checkParent, missStamp);
+			return result;
+		}
+		// only record the failure if the result does not depend on the class context of the request
+		if (parentCL == null || bootDelegation || !bundle.getFramework().contextBootDelegation || bundle.getFramework().compatibiltyBootDelegation)
+			recordResourceMiss(name, checkParent, missStamp);
 		return result;
 	}
 
@@ -1133,6 +1281,7 @@ public class BundleLoader implements ClassLoaderDelegate {
 		}
 		if (dynamicImports.size() > 0) {
 			addDynamicImportPackage(dynamicImports.toArray(new String[dynamicImports.size()]));
+			clearNegativeLookupCache();
 			BundleDescription revision = getLoaderProxy().getBundleDescription();
 			State state = revision.getContainingState();
 			state.addDynamicImportPackages(revision, dynamicImportSpecs.toArray(new ImportPackageSpecification[dynamicImportSpecs.size()]));
@@ -1149,6 +1298,7 @@ public class BundleLoader implements ClassLoaderDelegate {
 		if (classpath != null)
 			classloader.attachFragment(fragment.getBundleData(), fragment.getProtectionDomain(), classpath);
 		initializeExports(exports, exportedPackages);
+		clearNegativeLookupCache();
 	}
 
 	/*
@@ -1166,11 +1316,19 @@ public class BundleLoader implements ClassLoaderDelegate {
 	}
 
 	private PackageSource findImportedSource(String pkgName, KeyedHashSet visited) {
+		return findImportedSource(pkgName, 0, pkgName.length(), visited);
+	}
+
+	/*
+	 * Finds the imported source of the package name contained in the specified range
+	 * of characters; this avoids creating the package name of a class name.
+	 */
+	private PackageSource findImportedSource(String name, int start, int end, KeyedHashSet visited) {
 		KeyedHashSet imports = getImportedSources(visited);
 		if (imports == null)
 			return null;
 		synchronized (imports) {
-			return (PackageSource) imports.getByKey(pkgName);
+			return importedSourceIndex.get(name, start, end);
 		}
 	}
 
@@ -1180,11 +1338,14 @@ public class BundleLoader implements ClassLoaderDelegate {
 			if (exportPackage != null) {
 				PackageSource source = createExportPackageSource(exportPackage, null);
 				synchronized (this) {
-					if (importedSources == null)
+					if (importedSources == null) {
 						importedSources = new KeyedHashSet(false);
+						importedSourceIndex = new PackageNameTrie<PackageSource>();
+					}
 				}
 				synchronized (importedSources) {
 					importedSources.add(source);
+					importedSourceIndex.put(source.getId(), source);
 				}
 				return source;
 			}
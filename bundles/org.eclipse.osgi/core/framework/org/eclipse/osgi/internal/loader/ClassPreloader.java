@@ -0,0 +1,239 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.internal.loader;
+
+import java.security.AccessController;
+import java.util.LinkedList;
+import org.eclipse.osgi.baseadaptor.hooks.ClassLoadingStatsHook;
+import org.eclipse.osgi.baseadaptor.hooks.ClassPreloadStatsHook;
+import org.eclipse.osgi.baseadaptor.loader.BaseClassLoader;
+import org.eclipse.osgi.framework.adaptor.BundleClassLoader;
+import org.eclipse.osgi.framework.debug.Debug;
+import org.eclipse.osgi.framework.util.SecureAction;
+
+/**
+ * A pool of worker threads which load the classes of bundles ahead of their first use.
+ * Preload requests are processed in the order they are queued.  A preload is counted
+ * as a hit if the worker defined the class before any other thread loaded it; it is
+ * counted as wasted if the class was already loaded or could not be found.  The time
+ * the workers spent defining the hit classes is reported as the time saved for the
+ * threads which launch the bundles.  The counts are reported to the configured
+ * {@link ClassPreloadStatsHook}s once all workers exited.
+ */
+public class ClassPreloader {
+	private static final SecureAction secureAction = AccessController.doPrivileged(SecureAction.createSecureAction());
+	private static final ThreadLocal<Boolean> preloading = new ThreadLocal<Boolean>();
+
+	private final LinkedList<Request> queue = new LinkedList<Request>();
+	private final Thread[] workers;
+	private final ClassLoadingStatsHook[] hooks;
+	private int activeWorkers;
+	private boolean finished = false;
+	private boolean closed = false;
+	private long hits = 0;
+	private long wasted = 0;
+	private long timeSaved = 0;
+	private long startTime;
+
+	/**
+	 * Returns true if the current thread is a preload worker.  Class loading hooks may
+	 * use this to avoid side effects, such as lazy activation, which must only be
+	 * triggered by a real use of a class.
+	 * @return true if the current thread is a preload worker
+	 */
+	public static boolean isPreloadThread() {
+		return preloading.get() != null;
+	}
+
+	/**
+	 * Creates a class preloader.  The worker threads are started with the first request.
+	 * @param threadCount the number of worker threads
+	 * @param hooks the class loading stats hooks to report the preload counts to
+	 */
+	public ClassPreloader(int threadCount, ClassLoadingStatsHook[] hooks) {
+		workers = new Thread[Math.max(1, threadCount)];
+		this.hooks = hooks;
+	}
+
+	/**
+	 * Queues the specified classes to be preloaded by the loader.
+	 * @param loader the loader of the bundle which contains the classes
+	 * @param classNames the names of the classes in the order they should be loaded
+	 */
+	public synchronized void preload(BundleLoader loader, String[] classNames) {
+		if (finished || classNames == null || classNames.length == 0)
+			return;
+		queue.add(new Request(loader, classNames));
+		if (startTime == 0) {
+			startTime = System.currentTimeMillis();
+			for (int i = 0; i < workers.length; i++) {
+				workers[i] = secureAction.createThread(new Worker(), "Class Preloader " + i, null); //$NON-NLS-1$
+				workers[i].setDaemon(true);
+				workers[i].setPriority(Thread.NORM_PRIORITY - 1);
+				workers[i].start();
+			}
+			activeWorkers = workers.length;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Indicates that no more requests will be queued.  The workers exit once the
+	 * queued requests are processed.
+	 */
+	public synchronized void finish() {
+		finished = true;
+		notifyAll();
+	}
+
+	/**
+	 * Discards the queued requests and stops the workers.
+	 */
+	public synchronized void close() {
+		finished = true;
+		closed = true;
+		queue.clear();
+		notifyAll();
+	}
+
+	synchronized boolean nextRequest(Worker worker) {
+		while (!closed) {
+			if (!queue.isEmpty()) {
+				Request request = queue.getFirst();
+				String name = request.next();
+				if (name == null) {
+					queue.removeFirst();
+				} else {
+					worker.loader = request.loader;
+					worker.name = name;
+					return true;
+				}
+			} else if (finished) {
+				break;
+			} else {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					break;
+				}
+			}
+		}
+		return false;
+	}
+
+	synchronized boolean exitWorker() {
+		return --activeWorkers == 0;
+	}
+
+	void recordStats() {
+		long hitCount, wastedCount, saved;
+		synchronized (this) {
+			hitCount = hits;
+			wastedCount = wasted;
+			saved = timeSaved;
+		}
+		if (Debug.DEBUG_LOADER)
+			Debug.println(toString() + " completed in " + (System.currentTimeMillis() - startTime) + "ms"); //$NON-NLS-1$ //$NON-NLS-2$
+		// call the hooks outside of the preloader monitor
+		for (int i = 0; i < hooks.length; i++)
+			if (hooks[i] instanceof ClassPreloadStatsHook)
+				((ClassPreloadStatsHook) hooks[i]).recordClassPreload(hitCount, wastedCount, saved);
+	}
+
+	synchronized void recordHit(long time) {
+		hits++;
+		timeSaved += time;
+	}
+
+	synchronized void recordWasted() {
+		wasted++;
+	}
+
+	void preload(BundleLoader loader, String name) {
+		try {
+			BundleClassLoader bcl = loader.createClassLoader();
+			if (bcl instanceof BaseClassLoader && ((BaseClassLoader) bcl).publicFindLoaded(name) != null) {
+				// another thread got to the class first
+				recordWasted();
+				return;
+			}
+			long start = System.currentTimeMillis();
+			if (loader.preloadLocalClass(name) != null)
+				recordHit(System.currentTimeMillis() - start);
+			else
+				recordWasted();
+		} catch (ClassNotFoundException e) {
+			recordWasted();
+		} catch (LinkageError e) {
+			// the class will fail again when it is really used
+			recordWasted();
+		} catch (RuntimeException e) {
+			// the loader may have been closed by a refresh
+			if (Debug.DEBUG_LOADER)
+				Debug.printStackTrace(e);
+			recordWasted();
+		}
+	}
+
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	public synchronized long getWastedCount() {
+		return wasted;
+	}
+
+	/**
+	 * Returns the time in milliseconds the workers spent defining classes before they
+	 * were requested by other threads.
+	 * @return the time saved in milliseconds
+	 */
+	public synchronized long getTimeSaved() {
+		return timeSaved;
+	}
+
+	public synchronized String toString() {
+		return "ClassPreloader[hits=" + hits + ", wasted=" + wasted + ", timeSaved=" + timeSaved + "ms]"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+	}
+
+	class Worker implements Runnable {
+		// the current request; set by nextRequest
+		BundleLoader loader;
+		String name;
+
+		public void run() {
+			preloading.set(Boolean.TRUE);
+			while (nextRequest(this))
+				preload(loader, name);
+			if (exitWorker())
+				recordStats();
+		}
+	}
+
+	/**
+	 * The classes of one bundle which remain to be preloaded.  Access is guarded
+	 * by the preloader.
+	 */
+	static class Request {
+		final BundleLoader loader;
+		private final String[] classNames;
+		private int index = 0;
+
+		Request(BundleLoader loader, String[] classNames) {
+			this.loader = loader;
+			this.classNames = classNames;
+		}
+
+		String next() {
+			return index < classNames.length ? classNames[index++] : null;
+		}
+	}
+}
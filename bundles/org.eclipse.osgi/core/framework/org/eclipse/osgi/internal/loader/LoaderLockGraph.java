@@ -0,0 +1,252 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.internal.loader;
+
+import java.util.*;
+
+/**
+ * Per class loader deadlock avoidance locks.  This is an alternative to the global
+ * deadlock avoidance lock of {@link BundleLoader} (see bug 121737) which allows
+ * threads to load classes concurrently as long as each thread only uses its own
+ * class loader.
+ * <p>
+ * Each class loader is owned by at most one thread at a time.  A thread which owns
+ * a class loader and requests another one (delegation to another bundle) must also
+ * obtain the nesting lock, so at most one thread at a time owns more than one class
+ * loader.  The class loaders and the nesting lock the threads wait for form a wait-for
+ * graph.  A cycle forms when the owner of the nesting lock requests a class loader
+ * whose owner is waiting for the nesting lock.  The cycle is broken by lending the
+ * class loader to the owner of the nesting lock.  This is safe because a thread which
+ * waits for the nesting lock owns exactly one class loader and waits on that class
+ * loader object, which releases its monitor.  The class loader is returned once the
+ * borrowing thread releases it.  When the owner of the nesting lock is back to one
+ * class loader the nesting lock is handed to the thread which has waited longest for it.
+ * </p>
+ * <p>
+ * A thread which does not own a class loader waits on the class loader it requests,
+ * which releases the class loader monitor in case the thread holds it.  The owner of
+ * the nesting lock waits on the graph itself.  The graph is guarded by the monitor of
+ * this object which is never held while a class loader monitor is acquired.
+ * </p>
+ * <p>
+ * Loads which need more than one class loader are serialized on the nesting lock, as
+ * they are with the global lock.  To keep such loads rare {@link BundleLoader} only
+ * locks a class loader when it searches it for a class which is not yet defined, so
+ * only the delegations which define a class of another bundle take the nesting lock.
+ * </p>
+ */
+public class LoaderLockGraph {
+	// the nesting lock is a node of the wait-for graph
+	private final Object nestingLock = new Object();
+	// Map<Object classloader, LoaderLock>; only contains loaders which are owned
+	private final Map<Object, LoaderLock> locks = new IdentityHashMap<Object, LoaderLock>();
+	// Map<Thread, ThreadState>; only contains threads which own a loader or are waiting
+	private final Map<Thread, ThreadState> threads = new HashMap<Thread, ThreadState>();
+	private Thread nestingOwner;
+	// the threads waiting for the nesting lock in the order they requested it
+	private final LinkedList<Thread> nestingQueue = new LinkedList<Thread>();
+
+	/**
+	 * Obtains the lock of a class loader for the current thread.  The lock is reentrant.
+	 * @param loader the class loader to lock
+	 */
+	public void lock(Object loader) {
+		Thread currentThread = Thread.currentThread();
+		boolean interrupted = false;
+		while (true) {
+			Object waitOn;
+			synchronized (this) {
+				ThreadState state = getState(currentThread);
+				LoaderLock lock = locks.get(loader);
+				if (lock != null && lock.owner == currentThread) {
+					lock.count++;
+					break;
+				}
+				if (state.held > 0 && (nestingOwner != currentThread || state.handOffPending)) {
+					if (nestingOwner == null) {
+						nestingOwner = currentThread;
+						waitOn = null;
+					} else {
+						// wait for the nesting lock on the one loader this thread owns so it can be lent
+						if (nestingOwner != currentThread && state.waitingFor != nestingLock) {
+							state.waitingFor = nestingLock;
+							nestingQueue.add(currentThread);
+							// the owner of the nesting lock may be waiting for the loader of this thread
+							notifyAll();
+						}
+						waitOn = state.loader;
+					}
+				} else {
+					waitOn = null;
+				}
+				if (waitOn == null) {
+					if (lock == null) {
+						locks.put(loader, new LoaderLock(currentThread, 1));
+						acquired(state, loader);
+						break;
+					}
+					ThreadState ownerState = threads.get(lock.owner);
+					if (nestingOwner == currentThread && ownerState != null && ownerState.waitingFor == nestingLock) {
+						// the owner waits for the nesting lock held by this thread; borrow the loader to break the cycle
+						if (lock.lenders == null)
+							lock.lenders = new LinkedList<LoaderLock>();
+						lock.lenders.add(new LoaderLock(lock.owner, lock.count));
+						lock.owner = currentThread;
+						lock.count = 1;
+						acquired(state, loader);
+						break;
+					}
+					state.waitingFor = loader;
+					if (nestingOwner == currentThread) {
+						// the owner is running with its one loader; it releases the loader or waits for the nesting lock
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							interrupted = true;
+						}
+						continue;
+					}
+					waitOn = loader;
+				}
+			}
+			synchronized (waitOn) {
+				// check again while holding the monitor so that a notification is not missed
+				synchronized (this) {
+					if (waitOn == loader ? !locks.containsKey(loader) : canNest(currentThread, waitOn))
+						continue;
+				}
+				try {
+					waitOn.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+					// we still want to try again
+				}
+			}
+		}
+		if (interrupted)
+			currentThread.interrupt();
+	}
+
+	/**
+	 * Releases the lock of a class loader held by the current thread.
+	 * @param loader the class loader to unlock
+	 */
+	public void unlock(Object loader) {
+		ThreadState nextNestingOwner = null;
+		synchronized (loader) {
+			synchronized (this) {
+				LoaderLock lock = locks.get(loader);
+				if (lock == null || --lock.count > 0)
+					return;
+				Thread currentThread = Thread.currentThread();
+				if (lock.lenders == null || lock.lenders.isEmpty()) {
+					locks.remove(loader);
+				} else {
+					// return the loader to the thread which lent it
+					LoaderLock lender = lock.lenders.removeLast();
+					lock.owner = lender.owner;
+					lock.count = lender.count;
+				}
+				ThreadState state = threads.get(currentThread);
+				if (state != null) {
+					if (--state.held == 0) {
+						state.loader = null;
+						if (state.waitingFor == null)
+							threads.remove(currentThread);
+					}
+					if (state.held <= 1 && nestingOwner == currentThread)
+						// this thread is back to using at most one loader
+						nextNestingOwner = handOffNesting();
+				}
+				notifyAll();
+			}
+			loader.notifyAll();
+		}
+		if (nextNestingOwner != null) {
+			// the new owner of the nesting lock waits on its loader; it cannot continue until the
+			// hand off completes so the monitor of its loader is not held for long by other threads
+			Object nextLoader = nextNestingOwner.loader;
+			synchronized (nextLoader) {
+				synchronized (this) {
+					nextNestingOwner.handOffPending = false;
+				}
+				nextLoader.notifyAll();
+			}
+		}
+	}
+
+	private ThreadState getState(Thread thread) {
+		ThreadState state = threads.get(thread);
+		if (state == null) {
+			state = new ThreadState();
+			threads.put(thread, state);
+		}
+		return state;
+	}
+
+	private void acquired(ThreadState state, Object loader) {
+		if (state.held++ == 0)
+			state.loader = loader;
+		state.waitingFor = null;
+	}
+
+	private boolean canNest(Thread thread, Object ownLoader) {
+		if (nestingOwner != thread || threads.get(thread).handOffPending)
+			return false;
+		LoaderLock lock = locks.get(ownLoader);
+		// the loader may be lent to the owner of the nesting lock
+		return lock != null && lock.owner == thread;
+	}
+
+	/*
+	 * Hands the nesting lock to the thread which has waited longest for it and returns
+	 * the state of that thread; returns null if no thread is waiting.  The hand off
+	 * completes once the thread is notified.
+	 */
+	private ThreadState handOffNesting() {
+		nestingOwner = null;
+		while (!nestingQueue.isEmpty()) {
+			Thread next = nestingQueue.removeFirst();
+			ThreadState state = threads.get(next);
+			if (state != null && state.waitingFor == nestingLock) {
+				nestingOwner = next;
+				// the loader of the new owner can no longer be borrowed
+				state.waitingFor = null;
+				state.handOffPending = true;
+				return state;
+			}
+		}
+		return null;
+	}
+
+	static class LoaderLock {
+		Thread owner;
+		int count;
+		// the threads which lent the loader and their lock count; created on demand
+		LinkedList<LoaderLock> lenders;
+
+		LoaderLock(Thread owner, int count) {
+			this.owner = owner;
+			this.count = count;
+		}
+	}
+
+	static class ThreadState {
+		// the number of loaders the thread owns, including borrowed loaders
+		int held;
+		// the first loader the thread owns
+		Object loader;
+		// the loader or nesting lock the thread is waiting for
+		Object waitingFor;
+		// true while the nesting lock is handed to the thread
+		boolean handOffPending;
+	}
+}
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.internal.loader;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of class or resource names which a BundleLoader has failed to find.
+ * The cache is used to short circuit the delegation search for names which are
+ * repeatedly requested but are known not to be available to the bundle.
+ * <p>
+ * Results are recorded with the stamp obtained before the search was started.
+ * If the cache is cleared while a search is in progress the result of the search
+ * is discarded.  All caches are also cleared each time {@link #invalidateAll()}
+ * is called; this is done whenever the wiring of the framework changes.
+ * </p>
+ */
+public class NegativeLookupCache {
+	private static volatile int globalStamp = 0;
+
+	private final Map<String, Boolean> misses;
+	private int stamp = 0;
+	private int lastGlobalStamp;
+	private long hitCount = 0;
+	private long missCount = 0;
+
+	/**
+	 * Creates a cache which holds at most maxSize names.  When the limit is
+	 * reached the oldest recorded name is discarded.
+	 * @param maxSize the maximum number of names to remember
+	 */
+	public NegativeLookupCache(final int maxSize) {
+		this.misses = new LinkedHashMap<String, Boolean>(Math.min(maxSize, 16)) {
+			private static final long serialVersionUID = -1947391734587231478L;
+
+			protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+				return size() > maxSize;
+			}
+		};
+		this.lastGlobalStamp = globalStamp;
+	}
+
+	/**
+	 * Invalidates the content of all negative lookup caches.
+	 */
+	public static synchronized void invalidateAll() {
+		globalStamp++;
+	}
+
+	/**
+	 * Returns the current stamp of this cache.  The stamp must be obtained
+	 * before the search for a name is started and passed to {@link #add(String, int)}
+	 * when the search fails.
+	 * @return the current stamp of this cache
+	 */
+	public synchronized int getStamp() {
+		validate();
+		return stamp;
+	}
+
+	/**
+	 * Returns true if the specified name is known to not be found.
+	 * @param name the class or resource name
+	 * @return true if the name is known to not be found
+	 */
+	public synchronized boolean contains(String name) {
+		validate();
+		if (misses.containsKey(name)) {
+			hitCount++;
+			return true;
+		}
+		missCount++;
+		return false;
+	}
+
+	/**
+	 * Records a name which could not be found.  The name is not recorded
+	 * if the cache has been cleared since the specified stamp was obtained.
+	 * @param name the class or resource name
+	 * @param searchStamp the stamp obtained before the search was started
+	 */
+	public synchronized void add(String name, int searchStamp) {
+		validate();
+		if (searchStamp != stamp)
+			return;
+		misses.put(name, Boolean.TRUE);
+	}
+
+	/**
+	 * Clears the content of this cache.
+	 */
+	public synchronized void clear() {
+		misses.clear();
+		stamp++;
+	}
+
+	/**
+	 * Returns the number of lookups which were answered by this cache.
+	 * @return the number of cache hits
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * Returns the number of lookups which could not be answered by this cache.
+	 * @return the number of cache misses
+	 */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	private void validate() {
+		int currentGlobal = globalStamp;
+		if (currentGlobal != lastGlobalStamp) {
+			lastGlobalStamp = currentGlobal;
+			clear();
+		}
+	}
+
+	public synchronized String toString() {
+		return "NegativeLookupCache[size=" + misses.size() + ", hits=" + hitCount + ", misses=" + missCount + "]"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+	}
+}
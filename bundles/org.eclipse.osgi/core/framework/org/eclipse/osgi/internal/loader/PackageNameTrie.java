@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.internal.loader;
+
+/**
+ * A character trie of package names.  Values are mapped either to an exact package
+ * name or to a stem which matches every name starting with the stem (for example
+ * <code>com.acme.</code>).  Lookups match a range of characters of a string so that
+ * the package of a class name can be looked up without creating a substring.
+ * <p>
+ * This class is not thread safe; users must synchronize access if the trie is
+ * modified after it is published to other threads.
+ * </p>
+ */
+public final class PackageNameTrie<V> {
+	private static final char[] EMPTY_KEYS = new char[0];
+
+	private final Node<V> root = new Node<V>();
+	private int size = 0;
+
+	/**
+	 * Maps the specified package name to a value unless the package name is already
+	 * mapped.  The first value put for a package name is kept, like the first element
+	 * added to a <code>KeyedHashSet</code> which does not replace duplicates.
+	 * @param packageName the exact package name
+	 * @param value the value
+	 * @return the existing value of the package name or null if the value was mapped
+	 */
+	public V put(String packageName, V value) {
+		Node<V> node = addNode(packageName);
+		if (node.value != null)
+			return node.value;
+		node.value = value;
+		size++;
+		return null;
+	}
+
+	/**
+	 * Maps the specified stem to a value.  The value is returned for any name which starts
+	 * with the stem unless the name has an exact mapping or a longer stem matches.
+	 * The first value put for a stem is kept.
+	 * @param stem the stem; typically ends with a '.'
+	 * @param value the value
+	 * @return the existing value of the stem or null if the value was mapped
+	 */
+	public V putStem(String stem, V value) {
+		Node<V> node = addNode(stem);
+		if (node.stemValue != null)
+			return node.stemValue;
+		node.stemValue = value;
+		size++;
+		return null;
+	}
+
+	/**
+	 * Returns the value of the specified package name.
+	 * @param packageName the package name
+	 * @return the value or null if the package name has no mapping and no stem matches
+	 */
+	public V get(String packageName) {
+		return get(packageName, 0, packageName.length());
+	}
+
+	/**
+	 * Returns the value of the package name contained in the specified range of characters.
+	 * An exact mapping of the package name takes precedence over stems; the longest matching
+	 * stem takes precedence over shorter ones.
+	 * @param name the string which contains the package name, for example a class name
+	 * @param start the index of the first character of the package name
+	 * @param end the index after the last character of the package name
+	 * @return the value or null if the package name has no mapping and no stem matches
+	 */
+	public V get(String name, int start, int end) {
+		Node<V> node = root;
+		V stemValue = root.stemValue;
+		for (int i = start; i < end; i++) {
+			node = node.getChild(name.charAt(i));
+			if (node == null)
+				return stemValue;
+			if (node.stemValue != null)
+				stemValue = node.stemValue;
+		}
+		return node.value != null ? node.value : stemValue;
+	}
+
+	/**
+	 * Returns true if the trie contains no mappings.
+	 * @return true if the trie contains no mappings
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the number of package names and stems mapped by the trie.
+	 * @return the number of mappings
+	 */
+	public int size() {
+		return size;
+	}
+
+	private Node<V> addNode(String key) {
+		Node<V> node = root;
+		for (int i = 0, length = key.length(); i < length; i++)
+			node = node.addChild(key.charAt(i));
+		return node;
+	}
+
+	static final class Node<V> {
+		// the sorted characters of the children
+		private char[] keys = EMPTY_KEYS;
+		private Node<V>[] children;
+		V value;
+		V stemValue;
+
+		Node<V> getChild(char c) {
+			int index = indexOf(c);
+			return index < 0 ? null : children[index];
+		}
+
+		@SuppressWarnings("unchecked")
+		Node<V> addChild(char c) {
+			int index = indexOf(c);
+			if (index >= 0)
+				return children[index];
+			index = -(index + 1);
+			char[] newKeys = new char[keys.length + 1];
+			Node<V>[] newChildren = new Node[keys.length + 1];
+			System.arraycopy(keys, 0, newKeys, 0, index);
+			newKeys[index] = c;
+			System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+			if (children != null) {
+				System.arraycopy(children, 0, newChildren, 0, index);
+				System.arraycopy(children, index, newChildren, index + 1, keys.length - index);
+			}
+			Node<V> child = new Node<V>();
+			newChildren[index] = child;
+			keys = newKeys;
+			children = newChildren;
+			return child;
+		}
+
+		/*
+		 * Binary search of the child keys; returns the index of the key or
+		 * (-(insertion point) - 1) if the key is not present.
+		 */
+		private int indexOf(char c) {
+			int low = 0;
+			int high = keys.length - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				char key = keys[mid];
+				if (key < c)
+					low = mid + 1;
+				else if (key > c)
+					high = mid - 1;
+				else
+					return mid;
+			}
+			return -(low + 1);
+		}
+	}
+}
@@ -215,5 +215,7 @@ public class PolicyHandler implements SynchronousBundleListener {
 		} catch (BundleException e) {
 			//Ignore
 		}
+		// the set of registered buddies may have changed
+		policedLoader.clearNegativeLookupCache();
 	}
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2010 IBM Corporation and others.
+ * Copyright (c) 2003, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -11,6 +11,7 @@
 
 package org.eclipse.osgi.internal.serviceregistry;
 
+import org.eclipse.osgi.event.AsynchronousServiceListener;
 import org.eclipse.osgi.framework.debug.Debug;
 import org.eclipse.osgi.framework.internal.core.BundleContextImpl;
 import org.eclipse.osgi.framework.internal.core.FilterImpl;
@@ -29,10 +30,15 @@ class FilteredServiceListener implements ServiceListener, ListenerHook.ListenerI
 	private final BundleContextImpl context;
 	/** is this an AllServiceListener */
 	private final boolean allservices;
+	/** is this an AsynchronousServiceListener */
+	private final boolean asynchronous;
 	/** an objectClass required by the filter */
 	private final String objectClass;
 	/** indicates whether the listener has been removed */
 	private volatile boolean removed;
+	/** the order in which the listener was added to the service registry */
+	/* @GuardedBy("serviceEventListeners") */
+	private long order;
 
 	/**
 	 * Constructor.
@@ -61,6 +67,7 @@ class FilteredServiceListener implements ServiceListener, ListenerHook.ListenerI
 		this.listener = listener;
 		this.context = context;
 		this.allservices = (listener instanceof AllServiceListener);
+		this.asynchronous = (listener instanceof AsynchronousServiceListener);
 	}
 
 	/**
@@ -101,7 +108,12 @@ class FilteredServiceListener implements ServiceListener, ListenerHook.ListenerI
 				Debug.println("dispatchFilteredServiceEvent(" + listenerName + ")"); //$NON-NLS-1$ //$NON-NLS-2$
 			}
 
-			listener.serviceChanged(event);
+			if (asynchronous) {
+				/* the event passed the filter now; deliver it later on the service event thread */
+				context.getFramework().getServiceRegistry().postServiceEventAsynchronous(this, event);
+			} else {
+				listener.serviceChanged(event);
+			}
 		}
 	}
 
@@ -188,6 +200,31 @@ class FilteredServiceListener implements ServiceListener, ListenerHook.ListenerI
 		removed = true;
 	}
 
+	/**
+	 * Returns the objectClass required by the filter.
+	 * @return The interned objectClass or <code>null</code> if the filter does
+	 * not require an objectClass.
+	 */
+	String getObjectClass() {
+		return objectClass;
+	}
+
+	/**
+	 * Returns the service listener which was added.
+	 * @return The service listener.
+	 */
+	ServiceListener getListener() {
+		return listener;
+	}
+
+	long getOrder() {
+		return order;
+	}
+
+	void setOrder(long order) {
+		this.order = order;
+	}
+
 	/**
 	 * Returns an objectClass filter string for the specified class name.
 	 * @return A filter string for the specified class name or <code>null</code> if the 
@@ -11,6 +11,7 @@
 
 package org.eclipse.osgi.internal.serviceregistry;
 
+import org.eclipse.osgi.framework.internal.core.FilterImpl;
 import org.osgi.framework.*;
 
 /**
@@ -62,10 +63,7 @@ class ModifiedServiceEvent extends ServiceEvent {
 	 * properties.
 	 * @return True is the filter matches the previous service properties.
 	 */
-	boolean matchPreviousProperties(Filter filter) {
-		/* We use matchCase here since ServiceProperties already 
-		 * does case insensitive lookup.
-		 */
-		return filter.matchCase(previousProperties);
+	boolean matchPreviousProperties(FilterImpl filter) {
+		return filter.matchProperties(previousProperties);
 	}
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2010 IBM Corporation and others.
+ * Copyright (c) 2003, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -13,48 +13,156 @@ package org.eclipse.osgi.internal.serviceregistry;
 
 import java.lang.reflect.Array;
 import java.util.*;
-import org.eclipse.osgi.framework.util.Headers;
+import org.eclipse.osgi.framework.internal.core.Msg;
+import org.eclipse.osgi.util.NLS;
 import org.osgi.framework.Constants;
 
 /**
- * Hashtable for service properties.
+ * Immutable dictionary of service properties.
  * 
- * Supports case-insensitive key lookup.
+ * Supports case-insensitive key lookup.  The keys and values are held in
+ * exactly sized arrays along with a case-folded hash of each key, so that a
+ * lookup only compares the keys with a matching hash.
  */
-class ServiceProperties extends Headers<String, Object> {
+public final class ServiceProperties extends Dictionary<String, Object> {
+	private final String[] keys;
+	private final int[] hashes;
+	private final Object[] values;
+
 	/**
 	 * Create a properties object for the service.
 	 *
 	 * @param props The properties for this service.
+	 * @param objectClass The value of the objectClass property.
+	 * @param serviceId The value of the service.id property.
+	 * @exception IllegalArgumentException If the properties contain case
+	 * variants of the same key name.
 	 */
-	private ServiceProperties(int size, Dictionary<String, ?> props) {
-		super(size);
-
+	ServiceProperties(Dictionary<String, ?> props, String[] objectClass, Long serviceId) {
+		int size = 0;
+		String[] k;
+		Object[] v;
 		if (props == null) {
-			return;
-		}
-		synchronized (props) {
-			Enumeration<?> keysEnum = props.keys();
+			k = new String[2];
+			v = new Object[2];
+		} else {
+			synchronized (props) {
+				k = new String[props.size() + 2];
+				v = new Object[k.length];
+				Enumeration<?> keysEnum = props.keys();
 
-			while (keysEnum.hasMoreElements()) {
-				Object key = keysEnum.nextElement();
+				while (keysEnum.hasMoreElements()) {
+					Object key = keysEnum.nextElement();
 
-				if (key instanceof String) {
-					String header = (String) key;
-
-					setProperty(header, props.get(header));
+					if (key instanceof String) {
+						String header = (String) key;
+						Object value = props.get(header);
+						if (value == null)
+							continue;
+						/* the framework properties are set below and replace any case variants */
+						if (header.equalsIgnoreCase(Constants.OBJECTCLASS) || header.equalsIgnoreCase(Constants.SERVICE_ID))
+							continue;
+						for (int i = 0; i < size; i++) {
+							if (k[i].equalsIgnoreCase(header))
+								throw new IllegalArgumentException(NLS.bind(Msg.HEADER_DUPLICATE_KEY_EXCEPTION, header));
+						}
+						if (size == k.length - 2) {
+							/* the dictionary grew while we were enumerating it */
+							String[] nk = new String[size + 12];
+							Object[] nv = new Object[nk.length];
+							System.arraycopy(k, 0, nk, 0, size);
+							System.arraycopy(v, 0, nv, 0, size);
+							k = nk;
+							v = nv;
+						}
+						k[size] = header;
+						v[size] = cloneValue(value);
+						size++;
+					}
 				}
 			}
 		}
+		k[size] = Constants.OBJECTCLASS;
+		v[size++] = objectClass;
+		k[size] = Constants.SERVICE_ID;
+		v[size++] = serviceId;
+
+		if (size < k.length) {
+			String[] nk = new String[size];
+			Object[] nv = new Object[size];
+			System.arraycopy(k, 0, nk, 0, size);
+			System.arraycopy(v, 0, nv, 0, size);
+			k = nk;
+			v = nv;
+		}
+		int[] h = new int[size];
+		for (int i = 0; i < size; i++)
+			h[i] = hashKey(k[i]);
+		this.keys = k;
+		this.values = v;
+		this.hashes = h;
 	}
 
 	/**
-	 * Create a properties object for the service.
-	 *
-	 * @param props The properties for this service.
+	 * Returns a hash of the key which is the same for all case variants of the key.
+	 * 
+	 * @param key The property key.
+	 * @return The case-folded hash of the key.
 	 */
-	ServiceProperties(Dictionary<String, ?> props) {
-		this((props == null) ? 2 : props.size() + 2, props);
+	public static int hashKey(String key) {
+		int hash = 0;
+		for (int i = 0, length = key.length(); i < length; i++)
+			hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(key.charAt(i)));
+		return hash;
+	}
+
+	/**
+	 * Returns the value of a property using case-insensitive key lookup.  This
+	 * is the entry point used for filter matching; the value is not cloned.
+	 * 
+	 * @param key The property key.
+	 * @param hash The case-folded hash of the key as returned by {@link #hashKey(String)}.
+	 * @return The value of the property or <code>null</code> if there is
+	 * no property by that name.
+	 */
+	public Object get(String key, int hash) {
+		String[] k = keys;
+		for (int i = 0; i < k.length; i++) {
+			if (hashes[i] == hash && (k[i] == key || k[i].equalsIgnoreCase(key)))
+				return values[i];
+		}
+		return null;
+	}
+
+	public Object get(Object key) {
+		if (!(key instanceof String))
+			return null;
+		String name = (String) key;
+		return get(name, hashKey(name));
+	}
+
+	public int size() {
+		return keys.length;
+	}
+
+	public boolean isEmpty() {
+		return keys.length == 0;
+	}
+
+	public Enumeration<String> keys() {
+		return Collections.enumeration(Arrays.asList(keys));
+	}
+
+	public Enumeration<Object> elements() {
+		return Collections.enumeration(Arrays.asList(values));
+	}
+
+	public Object put(String key, Object value) {
+		throw new UnsupportedOperationException();
+	}
+
+	public Object remove(Object key) {
+		throw new UnsupportedOperationException();
 	}
 
 	/**
@@ -73,29 +181,8 @@ class ServiceProperties extends Headers<String, Object> {
 	 *
 	 * @return The list of property key names.
 	 */
-	synchronized String[] getPropertyKeys() {
-		int size = size();
-
-		String[] keynames = new String[size];
-
-		Enumeration<String> keysEnum = keys();
-
-		for (int i = 0; i < size; i++) {
-			keynames[i] = keysEnum.nextElement();
-		}
-
-		return keynames;
-	}
-
-	/**
-	 * Put a clone of the property value into this property object.
-	 *
-	 * @param key Name of property.
-	 * @param value Value of property.
-	 * @return previous property value.
-	 */
-	synchronized Object setProperty(String key, Object value) {
-		return set(key, cloneValue(value));
+	String[] getPropertyKeys() {
+		return keys.clone();
 	}
 
 	/**
@@ -144,9 +231,7 @@ class ServiceProperties extends Headers<String, Object> {
 		return value;
 	}
 
-	public synchronized String toString() {
-		String keys[] = getPropertyKeys();
-
+	public String toString() {
 		int size = keys.length;
 
 		StringBuffer sb = new StringBuffer(20 * size);
@@ -162,7 +247,7 @@ class ServiceProperties extends Headers<String, Object> {
 
 				sb.append(key);
 				sb.append('=');
-				Object value = get(key);
+				Object value = values[i];
 				if (value.getClass().isArray()) {
 					sb.append('[');
 					int length = Array.getLength(value);
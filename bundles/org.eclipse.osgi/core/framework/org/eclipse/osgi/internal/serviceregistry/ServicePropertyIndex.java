@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.internal.serviceregistry;
+
+import java.util.*;
+import org.eclipse.osgi.internal.serviceregistry.ServiceRegistry.RegistrationSnapshot;
+
+/**
+ * An equality index of the published services on the value of one service property.
+ * Registrations are indexed by each String value of the property; String arrays and
+ * collections of Strings are indexed by each element.  Registrations with a value of
+ * another type are kept in a separate list which is always included in the candidates
+ * since a filter may match such a value after converting the filter value to the
+ * type of the property.  Registrations which do not have the property are not
+ * included since they cannot match a filter which requires a value of the property.
+ * <p>
+ * Like the other published services data structures of the registry, the snapshots of
+ * the index are replaced (copy-on-write) while holding the registry monitor and are
+ * read without synchronization.
+ * </p>
+ */
+class ServicePropertyIndex {
+	/** the property key */
+	private final String key;
+	/** the case-folded hash of the key */
+	private final int hash;
+	/** the registrations by property value; copied when a value is added or removed */
+	/* @GuardedBy("registry") for writes */
+	private volatile Map<String, RegistrationSnapshot> byValue = new HashMap<String, RegistrationSnapshot>();
+	/** the sorted registrations with values which are not indexed */
+	/* @GuardedBy("registry") for writes */
+	private volatile ServiceRegistrationImpl<?>[] unindexed = ServiceRegistry.emptyRegistrations;
+
+	ServicePropertyIndex(String key) {
+		this.key = key;
+		this.hash = ServiceProperties.hashKey(key);
+	}
+
+	String getKey() {
+		return key;
+	}
+
+	/**
+	 * Adds the registration under the value of its properties.
+	 * @param registration the registration
+	 * @param properties the properties of the registration
+	 */
+	/* @GuardedBy("registry") */
+	void add(ServiceRegistrationImpl<?> registration, ServiceProperties properties) {
+		Object value = properties.get(key, hash);
+		if (value == null)
+			return;
+		Collection<String> values = getIndexValues(value);
+		if (values == null) {
+			unindexed = ServiceRegistry.insertRegistration(unindexed, registration);
+			return;
+		}
+		Map<String, RegistrationSnapshot> map = byValue;
+		for (String indexValue : values) {
+			RegistrationSnapshot services = map.get(indexValue);
+			if (services == null) {
+				if (map == byValue)
+					map = new HashMap<String, RegistrationSnapshot>(map);
+				map.put(indexValue, new RegistrationSnapshot(new ServiceRegistrationImpl<?>[] {registration}));
+			} else {
+				services.registrations = ServiceRegistry.insertRegistration(services.registrations, registration);
+			}
+		}
+		byValue = map;
+	}
+
+	/**
+	 * Removes the registration from under the value of its properties.
+	 * @param registration the registration
+	 * @param properties the properties the registration was added with
+	 */
+	/* @GuardedBy("registry") */
+	void remove(ServiceRegistrationImpl<?> registration, ServiceProperties properties) {
+		Object value = properties.get(key, hash);
+		if (value == null)
+			return;
+		Collection<String> values = getIndexValues(value);
+		if (values == null) {
+			unindexed = ServiceRegistry.removeRegistration(unindexed, registration);
+			return;
+		}
+		Map<String, RegistrationSnapshot> map = byValue;
+		for (String indexValue : values) {
+			RegistrationSnapshot services = map.get(indexValue);
+			if (services == null)
+				continue;
+			ServiceRegistrationImpl<?>[] remaining = ServiceRegistry.removeRegistration(services.registrations, registration);
+			if (remaining.length == 0) {
+				if (map == byValue)
+					map = new HashMap<String, RegistrationSnapshot>(map);
+				map.remove(indexValue);
+			} else {
+				services.registrations = remaining;
+			}
+		}
+		byValue = map;
+	}
+
+	/**
+	 * Returns the sorted registrations which may have the specified property value.
+	 * @param value the property value required by a filter
+	 * @return the sorted candidates; must not be modified
+	 */
+	ServiceRegistrationImpl<?>[] getCandidates(String value) {
+		RegistrationSnapshot services = byValue.get(value);
+		ServiceRegistrationImpl<?>[] indexed = services == null ? ServiceRegistry.emptyRegistrations : services.registrations;
+		ServiceRegistrationImpl<?>[] others = unindexed;
+		if (others.length == 0)
+			return indexed;
+		if (indexed.length == 0)
+			return others;
+		ServiceRegistrationImpl<?>[] result = new ServiceRegistrationImpl<?>[indexed.length + others.length];
+		System.arraycopy(indexed, 0, result, 0, indexed.length);
+		System.arraycopy(others, 0, result, indexed.length, others.length);
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * Returns the String values to index or null if the value cannot be indexed.
+	 */
+	private static Collection<String> getIndexValues(Object value) {
+		if (value instanceof String)
+			return Collections.singleton((String) value);
+		Collection<?> elements;
+		if (value instanceof String[])
+			elements = Arrays.asList((String[]) value);
+		else if (value instanceof Collection)
+			elements = (Collection<?>) value;
+		else
+			return null;
+		Collection<String> result = new HashSet<String>(elements.size());
+		for (Object element : elements) {
+			if (!(element instanceof String))
+				return null;
+			result.add((String) element);
+		}
+		return result;
+	}
+}
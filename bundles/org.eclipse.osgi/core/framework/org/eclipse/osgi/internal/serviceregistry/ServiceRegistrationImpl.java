@@ -62,23 +62,25 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 	/* @GuardedBy("registrationLock") */
 	private final List<BundleContextImpl> contextsUsing;
 
-	/** properties for this registration. */
-	/* @GuardedBy("registrationLock") */
-	private ServiceProperties properties;
+	/** properties for this registration; immutable and replaced when the registration is modified. */
+	/* @GuardedBy("registrationLock") for writes */
+	private volatile ServiceProperties properties;
 
 	/** service id. */
 	private final long serviceid;
 
-	/** service ranking. */
-	/* @GuardedBy("registrationLock") */
-	private int serviceranking;
+	/** service ranking; volatile so that the registry snapshots can be
+	 * searched and sorted without acquiring the registrationLock. */
+	/* @GuardedBy("registrationLock") for writes */
+	private volatile int serviceranking;
 
 	/* internal object to use for synchronization */
 	private final Object registrationLock = new Object();
 
-	/** The registration state */
-	/* @GuardedBy("registrationLock") */
-	private int state;
+	/** The registration state; volatile so that getService and ungetService
+	 * can check it without acquiring the registrationLock. */
+	/* @GuardedBy("registrationLock") for writes */
+	private volatile int state;
 	private static final int REGISTERED = 0x00;
 	private static final int UNREGISTERING = 0x01;
 	private static final int UNREGISTERED = 0x02;
@@ -116,13 +118,7 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 		final ServiceReferenceImpl<S> ref;
 		synchronized (registry) {
 			context.checkValid();
-			synchronized (registrationLock) {
-				ref = reference; /* used to publish event outside sync */
-				this.properties = createProperties(props); /* must be valid after unregister is called. */
-			}
-			if (Debug.DEBUG_SERVICES) {
-				Debug.println("registerService[" + bundle + "](" + this + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-			}
+			ref = initProperties(props);
 			registry.addServiceRegistration(context, this);
 		}
 
@@ -130,6 +126,27 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 		registry.publishServiceEvent(new ServiceEvent(ServiceEvent.REGISTERED, ref));
 	}
 
+	/**
+	 * Set the properties of this registration before it is added to the
+	 * service registry.
+	 *
+	 * @param props The properties for this service.
+	 * @return The reference to use to publish the REGISTERED event.
+	 */
+	/* @GuardedBy("registry") */
+	ServiceReferenceImpl<S> initProperties(Dictionary<String, ?> props) {
+		assert Thread.holdsLock(registry);
+		final ServiceReferenceImpl<S> ref;
+		synchronized (registrationLock) {
+			ref = reference; /* used to publish event outside sync */
+			this.properties = createProperties(props); /* must be valid after unregister is called. */
+		}
+		if (Debug.DEBUG_SERVICES) {
+			Debug.println("registerService[" + bundle + "](" + this + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+		return ref;
+	}
+
 	/**
 	 * Update the properties associated with this service.
 	 *
@@ -165,7 +182,7 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 				previousProperties = this.properties;
 				this.properties = createProperties(props);
 			}
-			registry.modifyServiceRegistration(context, this);
+			registry.modifyServiceRegistration(context, this, previousProperties);
 		}
 		/* must not hold the registrationLock when this event is published */
 		registry.publishServiceEvent(new ModifiedServiceEvent(ref, previousProperties));
@@ -204,26 +221,58 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 	public void unregister() {
 		final ServiceReferenceImpl<S> ref;
 		synchronized (registry) {
-			synchronized (registrationLock) {
-				if (state != REGISTERED) { /* in the process of unregisterING */
-					throw new IllegalStateException(Msg.SERVICE_ALREADY_UNREGISTERED_EXCEPTION);
-				}
+			ref = markUnregistering();
+			/* remove this object from the service registry */
+			registry.removeServiceRegistration(context, this);
+		}
 
-				/* remove this object from the service registry */
-				if (Debug.DEBUG_SERVICES) {
-					Debug.println("unregisterService[" + bundle + "](" + this + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-				}
+		/* must not hold the registrationLock when this event is published */
+		registry.publishServiceEvent(new ServiceEvent(ServiceEvent.UNREGISTERING, ref));
 
-				registry.removeServiceRegistration(context, this);
+		completeUnregister();
+	}
 
-				state = UNREGISTERING; /* mark unregisterING */
-				ref = reference; /* used to publish event outside sync */
+	/**
+	 * Mark this registration as unregistering. The caller must remove
+	 * this registration from the service registry before releasing the
+	 * registry lock and then publish the UNREGISTERING event and
+	 * call {@link #completeUnregister()}.
+	 *
+	 * @return The reference to use to publish the UNREGISTERING event.
+	 * @exception java.lang.IllegalStateException If
+	 * this ServiceRegistration has already been unregistered.
+	 */
+	/* @GuardedBy("registry") */
+	ServiceReferenceImpl<S> markUnregistering() {
+		assert Thread.holdsLock(registry);
+		synchronized (registrationLock) {
+			if (state != REGISTERED) { /* in the process of unregisterING */
+				throw new IllegalStateException(Msg.SERVICE_ALREADY_UNREGISTERED_EXCEPTION);
 			}
+
+			if (Debug.DEBUG_SERVICES) {
+				Debug.println("unregisterService[" + bundle + "](" + this + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			}
+
+			state = UNREGISTERING; /* mark unregisterING */
+			return reference;
 		}
+	}
 
-		/* must not hold the registrationLock when this event is published */
-		registry.publishServiceEvent(new ServiceEvent(ServiceEvent.UNREGISTERING, ref));
+	/**
+	 * Returns true if this registration has not begun to unregister.
+	 *
+	 * @return <code>true</code> if this registration is registered.
+	 */
+	boolean isRegistered() {
+		return state == REGISTERED;
+	}
 
+	/**
+	 * Complete unregistering the service after the UNREGISTERING event
+	 * has been published.
+	 */
+	void completeUnregister() {
 		int size = 0;
 		BundleContextImpl[] users = null;
 
@@ -254,6 +303,15 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 		/* The properties field must remain valid after unregister completes. */
 	}
 
+	/**
+	 * Returns the BundleContext of the bundle which registered this service.
+	 *
+	 * @return The registering context.
+	 */
+	BundleContextImpl getContext() {
+		return context;
+	}
+
 	/**
 	 * Returns a {@link ServiceReferenceImpl} object for this registration.
 	 * The {@link ServiceReferenceImpl} object may be shared with other bundles.
@@ -291,11 +349,7 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 	/* @GuardedBy("registrationLock") */
 	private ServiceProperties createProperties(Dictionary<String, ?> p) {
 		assert Thread.holdsLock(registrationLock);
-		ServiceProperties props = new ServiceProperties(p);
-
-		props.set(Constants.OBJECTCLASS, clazzes, true);
-		props.set(Constants.SERVICE_ID, new Long(serviceid), true);
-		props.setReadOnly();
+		ServiceProperties props = new ServiceProperties(p, clazzes, new Long(serviceid));
 		Object ranking = props.getProperty(Constants.SERVICE_RANKING);
 
 		serviceranking = (ranking instanceof Integer) ? ((Integer) ranking).intValue() : 0;
@@ -308,9 +362,7 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 	 * @return The service registration's properties.
 	 */
 	public ServiceProperties getProperties() {
-		synchronized (registrationLock) {
-			return properties;
-		}
+		return properties;
 	}
 
 	/**
@@ -326,9 +378,7 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 	 * no property by that name.
 	 */
 	Object getProperty(String key) {
-		synchronized (registrationLock) {
-			return properties.getProperty(key);
-		}
+		return properties.getProperty(key);
 	}
 
 	/**
@@ -342,9 +392,7 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 	 * @return The list of property key names.
 	 */
 	String[] getPropertyKeys() {
-		synchronized (registrationLock) {
-			return properties.getPropertyKeys();
-		}
+		return properties.getPropertyKeys();
 	}
 
 	/**
@@ -360,9 +408,7 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 	 * @return The service ranking for this service.
 	 */
 	int getRanking() {
-		synchronized (registrationLock) {
-			return serviceranking;
-		}
+		return serviceranking;
 	}
 
 	String[] getClasses() {
@@ -419,10 +465,8 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 	 * @return Service object
 	 */
 	Object getService(BundleContextImpl user) {
-		synchronized (registrationLock) {
-			if (state == UNREGISTERED) { /* service unregistered */
-				return null;
-			}
+		if (state == UNREGISTERED) { /* service unregistered */
+			return null;
 		}
 		if (Debug.DEBUG_SERVICES) {
 			Debug.println("getService[" + user.getBundleImpl() + "](" + this + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
@@ -458,18 +502,18 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 			/* Obtain and return the service object */
 			synchronized (use) {
 				/* if another thread removed the ServiceUse, then
-				 * go back to the top and start again */
-				synchronized (servicesInUse) {
-					user.checkValid();
-					if (servicesInUse.get(this) != use) {
-						continue;
-					}
+				 * go back to the top and start again. The ServiceUse
+				 * is marked removed while holding its monitor so the
+				 * servicesInUse map does not need to be checked again. */
+				if (use.isRemoved()) {
+					continue;
 				}
 				Object serviceObject = use.getService();
 				/* if the service factory failed to return an object and
 				 * we created the service use, then remove the 
 				 * optimistically added ServiceUse. */
 				if ((serviceObject == null) && added) {
+					use.markRemoved();
 					synchronized (servicesInUse) {
 						synchronized (registrationLock) {
 							servicesInUse.remove(this);
@@ -491,10 +535,8 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 	 *         otherwise <code>true</code>.
 	 */
 	boolean ungetService(BundleContextImpl user) {
-		synchronized (registrationLock) {
-			if (state == UNREGISTERED) {
-				return false;
-			}
+		if (state == UNREGISTERED) {
+			return false;
 		}
 
 		if (Debug.DEBUG_SERVICES) {
@@ -515,6 +557,12 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 		}
 
 		synchronized (use) {
+			/* if another thread removed the ServiceUse after it was obtained
+			 * from the servicesInUse map, then the use count is already zero.
+			 * The map may hold a newer ServiceUse which must not be removed. */
+			if (use.isRemoved()) {
+				return false;
+			}
 			if (use.ungetService()) {
 				/* use count is now zero */
 				synchronized (servicesInUse) {
@@ -550,15 +598,25 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 		}
 		ServiceUse<?> use;
 		synchronized (servicesInUse) {
-			synchronized (registrationLock) {
-				use = servicesInUse.remove(this);
-				if (use == null) {
-					return;
-				}
-				contextsUsing.remove(user);
+			use = servicesInUse.get(this);
+			if (use == null) {
+				return;
 			}
 		}
 		synchronized (use) {
+			/* the ServiceUse must be marked removed while holding its monitor
+			 * before it is removed from the servicesInUse map so a getService
+			 * call which has already obtained it will not use it. */
+			if (use.isRemoved()) {
+				return;
+			}
+			use.markRemoved();
+			synchronized (servicesInUse) {
+				synchronized (registrationLock) {
+					servicesInUse.remove(this);
+					contextsUsing.remove(user);
+				}
+			}
 			use.releaseService();
 		}
 	}
@@ -16,6 +16,7 @@ import java.util.*;
 import org.eclipse.osgi.framework.debug.Debug;
 import org.eclipse.osgi.framework.eventmgr.*;
 import org.eclipse.osgi.framework.internal.core.*;
+import org.eclipse.osgi.util.ManifestElement;
 import org.eclipse.osgi.util.NLS;
 import org.osgi.framework.*;
 import org.osgi.framework.Constants;
@@ -35,21 +36,32 @@ public class ServiceRegistry {
 	static final String eventHookName = EventHook.class.getName();
 	static final String eventListenerHookName = EventListenerHook.class.getName();
 	static final String listenerHookName = ListenerHook.class.getName();
-
-	/** Published services by class name. 
-	 * The {@literal List<ServiceRegistrationImpl<?>>}s are both sorted 
-	 * in the natural order of ServiceRegistrationImpl and also are sets in that
-	 * there must be no two entries in a List which are equal.
+	static final String bundleEventHookName = org.osgi.framework.hooks.bundle.EventHook.class.getName();
+
+	/** Published services by class name.
+	 * The map and the arrays are never modified once they are published; they are
+	 * replaced (copy-on-write) while holding the registry monitor so lookups do not need
+	 * to synchronize.  The map is only replaced when a class name is added or removed;
+	 * otherwise the array of the class name entry is replaced.
+	 * The arrays are both sorted in the natural order of ServiceRegistrationImpl and also 
+	 * are sets in that there must be no two entries in an array which are equal.
 	 */
-	/* @GuardedBy("this") */
-	private final Map<String, List<ServiceRegistrationImpl<?>>> publishedServicesByClass;
+	/* @GuardedBy("this") for writes */
+	private volatile Map<String, RegistrationSnapshot> publishedServicesByClass;
 
 	/** All published services. 
-	 * The List is both sorted in the natural order of ServiceRegistrationImpl and also is a
-	 * set in that there must be no two entries in the List which are equal.
+	 * The array is both sorted in the natural order of ServiceRegistrationImpl and also is a
+	 * set in that there must be no two entries in the array which are equal.
+	 * The array is never modified once it is published; it is replaced (copy-on-write)
+	 * while holding the registry monitor.
 	 */
-	/* @GuardedBy("this") */
-	private final List<ServiceRegistrationImpl<?>> allPublishedServices;
+	/* @GuardedBy("this") for writes */
+	private volatile ServiceRegistrationImpl<?>[] allPublishedServices;
+
+	/** Equality indexes of the published services on the configured property keys;
+	 * empty if no property keys are configured.
+	 */
+	private final ServicePropertyIndex[] propertyIndexes;
 
 	/** Published services by BundleContextImpl.  
 	 * The {@literal List<ServiceRegistrationImpl<?>>}s are NOT sorted 
@@ -69,6 +81,72 @@ public class ServiceRegistry {
 	/* @GuardedBy("serviceEventListeners") */
 	private final Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> serviceEventListeners;
 
+	/** Active Service Listeners whose filter requires an objectClass, by the required objectClass.
+	 * {@literal Map<String,Map<BundleContextImpl,CopyOnWriteIdentityMap<ServiceListener,FilteredServiceListener>>>}.
+	 * A service event only needs to be delivered to the listeners indexed under one of the
+	 * classes of the service and to the unindexed listeners.
+	 */
+	/* @GuardedBy("serviceEventListeners") */
+	private final Map<String, Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>> serviceEventListenersByClass;
+
+	/** Active Service Listeners whose filter does not require an objectClass.
+	 * {@literal Map<BundleContextImpl,CopyOnWriteIdentityMap<ServiceListener,FilteredServiceListener>>}.
+	 */
+	/* @GuardedBy("serviceEventListeners") */
+	private final Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> unindexedServiceEventListeners;
+
+	/** the sorted FindHook registrations; a cache of the published services updated with them */
+	/* @GuardedBy("this") for writes */
+	private volatile ServiceRegistrationImpl<?>[] findHooks = emptyRegistrations;
+	/** the sorted EventHook registrations; a cache of the published services updated with them */
+	/* @GuardedBy("this") for writes */
+	private volatile ServiceRegistrationImpl<?>[] eventHooks = emptyRegistrations;
+	/** the sorted EventListenerHook registrations; a cache of the published services updated with them */
+	/* @GuardedBy("this") for writes */
+	private volatile ServiceRegistrationImpl<?>[] eventListenerHooks = emptyRegistrations;
+	/** indicates whether any bundle EventHook is registered */
+	/* @GuardedBy("this") for writes */
+	private volatile boolean bundleEventHooks = false;
+
+	/** the order in which the next service listener is added */
+	/* @GuardedBy("serviceEventListeners") */
+	private long serviceListenerOrder;
+
+	/** guards the asynchronous service event delivery state */
+	private final Object asyncServiceEventLock = new Object();
+	/** delivers service events to asynchronous service listeners; created when first needed */
+	/* @GuardedBy("asyncServiceEventLock") */
+	private EventManager asyncServiceEventManager;
+	/** the number of service events posted to asynchronous service listeners which have not been delivered */
+	/* @GuardedBy("asyncServiceEventLock") */
+	private int pendingAsyncServiceEvents;
+	/** the largest number of pending asynchronous service events */
+	/* @GuardedBy("asyncServiceEventLock") */
+	private int peakPendingAsyncServiceEvents;
+	/** true once the registry has been closed */
+	/* @GuardedBy("asyncServiceEventLock") */
+	private boolean asyncServiceEventsClosed;
+	/** delivers a service event posted for an asynchronous service listener */
+	private final EventDispatcher<FilteredServiceListener, BundleContextImpl, ServiceEvent> asyncServiceEventDispatcher = new EventDispatcher<FilteredServiceListener, BundleContextImpl, ServiceEvent>() {
+		public void dispatchEvent(FilteredServiceListener listener, BundleContextImpl context, int action, ServiceEvent event) {
+			try {
+				/* the listener may have been removed after the event was posted */
+				if (!listener.isRemoved()) {
+					ServiceListener l = listener.getListener();
+					context.dispatchEvent(l, l, action, event);
+				}
+			} finally {
+				synchronized (asyncServiceEventLock) {
+					pendingAsyncServiceEvents--;
+				}
+			}
+		}
+	};
+
+	/** the comma separated list of service property keys to index */
+	private static final String PROP_PROPERTY_INDEX = "osgi.serviceregistry.propertyIndex"; //$NON-NLS-1$
+	/** the empty snapshot of service registrations */
+	static final ServiceRegistrationImpl<?>[] emptyRegistrations = new ServiceRegistrationImpl<?>[0];
 	/** initial capacity of the main data structure */
 	private static final int initialCapacity = 50;
 	/** initial capacity of the nested data structure */
@@ -83,10 +161,23 @@ public class ServiceRegistry {
 	public ServiceRegistry(Framework framework) {
 		this.framework = framework;
 		serviceid = 1;
-		publishedServicesByClass = new HashMap<String, List<ServiceRegistrationImpl<?>>>(initialCapacity);
+		publishedServicesByClass = new HashMap<String, RegistrationSnapshot>(initialCapacity);
 		publishedServicesByContext = new HashMap<BundleContextImpl, List<ServiceRegistrationImpl<?>>>(initialCapacity);
-		allPublishedServices = new ArrayList<ServiceRegistrationImpl<?>>(initialCapacity);
+		allPublishedServices = emptyRegistrations;
+		propertyIndexes = createPropertyIndexes(FrameworkProperties.getProperty(PROP_PROPERTY_INDEX));
 		serviceEventListeners = new HashMap<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>(initialCapacity);
+		serviceEventListenersByClass = new HashMap<String, Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>>(initialCapacity);
+		unindexedServiceEventListeners = new HashMap<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>(initialCapacity);
+	}
+
+	private static ServicePropertyIndex[] createPropertyIndexes(String keys) {
+		if (keys == null)
+			return new ServicePropertyIndex[0];
+		String[] keyList = ManifestElement.getArrayFromList(keys, ","); //$NON-NLS-1$
+		ServicePropertyIndex[] result = new ServicePropertyIndex[keyList.length];
+		for (int i = 0; i < keyList.length; i++)
+			result[i] = new ServicePropertyIndex(keyList[i]);
+		return result;
 	}
 
 	/**
@@ -167,6 +258,117 @@ public class ServiceRegistry {
 	 * @see ServiceFactory
 	 */
 	public ServiceRegistrationImpl<?> registerService(BundleContextImpl context, String[] clazzes, Object service, Dictionary<String, ?> properties) {
+		clazzes = checkRegisterService(clazzes, service);
+
+		ServiceRegistrationImpl<?> registration = new ServiceRegistrationImpl<Object>(this, context, clazzes, service);
+		registration.register(properties);
+		if (isListenerHook(clazzes)) {
+			notifyNewListenerHook(registration);
+		}
+		return registration;
+	}
+
+	/**
+	 * Registers a set of services in a single update of the service registry.
+	 * Each service is registered as if by
+	 * {@link #registerService(BundleContextImpl, String[], Object, Dictionary)}
+	 * except that either all of the services are registered or, if any of the
+	 * services cannot be registered, none of them are. The services are added to
+	 * the service registry together and then a {@link ServiceEvent#REGISTERED}
+	 * service event is published for each service in the order of the arguments.
+	 * 
+	 * @param context The BundleContext of the registering bundle.
+	 * @param clazzes The class names under which each service can be located.
+	 * @param services The service objects or <code>ServiceFactory</code> objects.
+	 * @param properties The properties for each service or <code>null</code>
+	 *        if none of the services have properties. Any element may be
+	 *        <code>null</code> if that service has no properties.
+	 * @return The registrations of the services in the order of the arguments.
+	 * @throws java.lang.IllegalArgumentException If the arrays have different
+	 *         lengths or if any of the services could not be registered by
+	 *         {@link #registerService(BundleContextImpl, String[], Object, Dictionary)}.
+	 * @throws java.lang.SecurityException If the caller does not have the
+	 *         <code>ServicePermission</code> to register any of the services.
+	 * @throws java.lang.IllegalStateException If this BundleContext is no
+	 *         longer valid.
+	 */
+	public ServiceRegistrationImpl<?>[] registerServices(BundleContextImpl context, String[][] clazzes, Object[] services, Dictionary<String, ?>[] properties) {
+		int count = services.length;
+		if ((clazzes.length != count) || ((properties != null) && (properties.length != count))) {
+			throw new IllegalArgumentException(Msg.SERVICE_BATCH_SIZE_EXCEPTION);
+		}
+
+		ServiceRegistrationImpl<?>[] registrations = new ServiceRegistrationImpl<?>[count];
+		for (int i = 0; i < count; i++) {
+			String[] checked = checkRegisterService(clazzes[i], services[i]);
+			registrations[i] = new ServiceRegistrationImpl<Object>(this, context, checked, services[i]);
+		}
+
+		ServiceReferenceImpl<?>[] references = new ServiceReferenceImpl<?>[count];
+		synchronized (this) {
+			context.checkValid();
+			for (int i = 0; i < count; i++) {
+				references[i] = registrations[i].initProperties((properties == null) ? null : properties[i]);
+			}
+			addServiceRegistrations(context, registrations);
+		}
+
+		/* must not hold the registrations lock when these events are published */
+		for (int i = 0; i < count; i++) {
+			publishServiceEvent(new ServiceEvent(ServiceEvent.REGISTERED, references[i]));
+			if (isListenerHook(registrations[i].getClasses())) {
+				notifyNewListenerHook(registrations[i]);
+			}
+		}
+		return registrations;
+	}
+
+	/**
+	 * Unregisters a set of services in a single update of the service registry.
+	 * Either all of the services are unregistered or, if any of the services
+	 * has already been unregistered, none of them are. The services are removed
+	 * from the service registry together and then each service is unregistered
+	 * as if by {@link ServiceRegistration#unregister()} in the order of the
+	 * argument, starting with publishing its {@link ServiceEvent#UNREGISTERING}
+	 * service event.
+	 * 
+	 * @param registrations The registrations of the services to unregister.
+	 * @throws java.lang.IllegalStateException If any of the services has
+	 *         already been unregistered or is contained more than once.
+	 */
+	public void unregisterServices(ServiceRegistrationImpl<?>[] registrations) {
+		int count = registrations.length;
+		ServiceReferenceImpl<?>[] references = new ServiceReferenceImpl<?>[count];
+		synchronized (this) {
+			Set<ServiceRegistrationImpl<?>> unique = new HashSet<ServiceRegistrationImpl<?>>(count);
+			for (ServiceRegistrationImpl<?> registration : registrations) {
+				if (!registration.isRegistered() || !unique.add(registration)) {
+					throw new IllegalStateException(Msg.SERVICE_ALREADY_UNREGISTERED_EXCEPTION);
+				}
+			}
+			for (int i = 0; i < count; i++) {
+				references[i] = registrations[i].markUnregistering();
+			}
+			removeServiceRegistrations(registrations, unique);
+		}
+
+		/* must not hold the registrations lock when these events are published */
+		for (int i = 0; i < count; i++) {
+			publishServiceEvent(new ServiceEvent(ServiceEvent.UNREGISTERING, references[i]));
+			registrations[i].completeUnregister();
+		}
+	}
+
+	/**
+	 * Checks that a service can be registered under the specified class names.
+	 * 
+	 * @return The interned class names without duplicates.
+	 * @throws java.lang.IllegalArgumentException If the service is null, no class
+	 *         names are specified or the service is not an instance of all the classes.
+	 * @throws java.lang.SecurityException If the caller does not have the
+	 *         <code>ServicePermission</code> to register the service.
+	 */
+	private static String[] checkRegisterService(String[] clazzes, Object service) {
 		if (service == null) {
 			if (Debug.DEBUG_SERVICES) {
 				Debug.println("Service object is null"); //$NON-NLS-1$
@@ -210,12 +412,44 @@ public class ServiceRegistry {
 			}
 		}
 
-		ServiceRegistrationImpl<?> registration = new ServiceRegistrationImpl<Object>(this, context, clazzes, service);
-		registration.register(properties);
-		if (copy.contains(listenerHookName)) {
-			notifyNewListenerHook(registration);
+		return clazzes;
+	}
+
+	private static boolean isListenerHook(String[] clazzes) {
+		for (String clazz : clazzes) {
+			if (clazz.equals(listenerHookName)) {
+				return true;
+			}
 		}
-		return registration;
+		return false;
+	}
+
+	/**
+	 * Returns the reference of the registration if it is visible to the context.
+	 * 
+	 * @param context The BundleContext of the requesting bundle.
+	 * @param registration The registration.
+	 * @param allservices True if the bundle called getAllServiceReferences.
+	 * @return The reference or <code>null</code> if the service has been unregistered,
+	 *         is not assignable to the context or the caller does not have permission
+	 *         to get the service.
+	 */
+	private ServiceReferenceImpl<?> getVisibleReference(BundleContextImpl context, ServiceRegistrationImpl<?> registration, boolean allservices) {
+		ServiceReferenceImpl<?> reference;
+		try {
+			reference = registration.getReferenceImpl();
+		} catch (IllegalStateException e) {
+			return null; // got unregistered, don't return reference
+		}
+		if (!allservices && !isAssignableTo(context, reference)) {
+			return null; // don't return reference
+		}
+		try { /* test for permission to get the service */
+			checkGetServicePermission(reference);
+		} catch (SecurityException se) {
+			return null; // don't return reference
+		}
+		return reference;
 	}
 
 	/**
@@ -296,28 +530,16 @@ public class ServiceRegistry {
 			Debug.println((allservices ? "getAllServiceReferences(" : "getServiceReferences(") + clazz + ", \"" + filterstring + "\")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
 		}
 		Filter filter = (filterstring == null) ? null : context.createFilter(filterstring);
-		List<ServiceRegistrationImpl<?>> registrations = lookupServiceRegistrations(clazz, filter);
-		List<ServiceReferenceImpl<?>> references = new ArrayList<ServiceReferenceImpl<?>>(registrations.size());
+		ServiceRegistrationImpl<?>[] registrations = lookupServiceRegistrations(clazz, filter);
+		List<ServiceReferenceImpl<?>> references = new ArrayList<ServiceReferenceImpl<?>>(registrations.length);
 		for (ServiceRegistrationImpl<?> registration : registrations) {
-			ServiceReferenceImpl<?> reference;
-			try {
-				reference = registration.getReferenceImpl();
-			} catch (IllegalStateException e) {
-				continue; // got unregistered, don't return reference
+			ServiceReferenceImpl<?> reference = getVisibleReference(context, registration, allservices);
+			if (reference != null) {
+				references.add(reference);
 			}
-			if (allservices || isAssignableTo(context, reference)) {
-				try { /* test for permission to get the service */
-					checkGetServicePermission(reference);
-				} catch (SecurityException se) {
-					continue; // don't return reference
-				}
-			} else {
-				continue; // don't return reference
-			}
-			references.add(reference);
 		}
 
-		if (callHooks) {
+		if (callHooks && findHooks.length > 0) {
 			Collection<ServiceReference<?>> shrinkable = new ShrinkableCollection<ServiceReference<?>>(references);
 			notifyFindHooks(context, clazz, filterstring, allservices, shrinkable);
 		}
@@ -384,6 +606,19 @@ public class ServiceRegistry {
 			Debug.println("getServiceReference(" + clazz + ")"); //$NON-NLS-1$ //$NON-NLS-2$
 		}
 
+		if (findHooks.length == 0) {
+			// Without FindHooks to shrink the result, the first visible registration
+			// in the sorted snapshot is the one to return; there is no need to
+			// check the rest of the registrations.
+			for (ServiceRegistrationImpl<?> registration : lookupServiceRegistrations(clazz, null)) {
+				ServiceReferenceImpl<?> reference = getVisibleReference(context, registration, false);
+				if (reference != null) {
+					return reference;
+				}
+			}
+			return null;
+		}
+
 		try {
 			ServiceReferenceImpl<?>[] references = getServiceReferences(context, clazz, null, false);
 
@@ -689,6 +924,16 @@ public class ServiceRegistry {
 				serviceEventListeners.put(context, listeners);
 			}
 			oldFilteredListener = listeners.put(listener, filteredListener);
+			if (oldFilteredListener != null) {
+				// the listener keeps its position in the order of the context's listeners
+				if (oldFilteredListener.getObjectClass() != filteredListener.getObjectClass()) {
+					unindexServiceListener(context, listener, oldFilteredListener);
+				}
+				filteredListener.setOrder(oldFilteredListener.getOrder());
+			} else {
+				filteredListener.setOrder(serviceListenerOrder++);
+			}
+			indexServiceListener(context, listener, filteredListener);
 		}
 
 		if (oldFilteredListener != null) {
@@ -720,6 +965,9 @@ public class ServiceRegistry {
 				return; // this context has no listeners to begin with
 			}
 			oldFilteredListener = listeners.remove(listener);
+			if (oldFilteredListener != null) {
+				unindexServiceListener(context, listener, oldFilteredListener);
+			}
 		}
 
 		if (oldFilteredListener == null) {
@@ -739,6 +987,11 @@ public class ServiceRegistry {
 		Map<ServiceListener, FilteredServiceListener> removedListenersMap;
 		synchronized (serviceEventListeners) {
 			removedListenersMap = serviceEventListeners.remove(context);
+			if (removedListenersMap != null) {
+				for (Map.Entry<ServiceListener, FilteredServiceListener> entry : removedListenersMap.entrySet()) {
+					unindexServiceListener(context, entry.getKey(), entry.getValue());
+				}
+			}
 		}
 		if ((removedListenersMap == null) || removedListenersMap.isEmpty()) {
 			return;
@@ -750,6 +1003,93 @@ public class ServiceRegistry {
 		notifyListenerHooks(asListenerInfos(removedListeners), false);
 	}
 
+	/**
+	 * Adds a service listener to the index of the objectClass required by its filter
+	 * or to the unindexed service listeners.
+	 */
+	/* @GuardedBy("serviceEventListeners") */
+	private void indexServiceListener(BundleContextImpl context, ServiceListener listener, FilteredServiceListener filteredListener) {
+		Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> index = getServiceListenerIndex(filteredListener.getObjectClass(), true);
+		CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener> listeners = index.get(context);
+		if (listeners == null) {
+			listeners = new CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>();
+			index.put(context, listeners);
+		}
+		listeners.put(listener, filteredListener);
+	}
+
+	/**
+	 * Removes a service listener from the index it was added to by
+	 * {@link #indexServiceListener(BundleContextImpl, ServiceListener, FilteredServiceListener)}.
+	 */
+	/* @GuardedBy("serviceEventListeners") */
+	private void unindexServiceListener(BundleContextImpl context, ServiceListener listener, FilteredServiceListener filteredListener) {
+		String objectClass = filteredListener.getObjectClass();
+		Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> index = getServiceListenerIndex(objectClass, false);
+		if (index == null) {
+			return;
+		}
+		CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener> listeners = index.get(context);
+		if ((listeners == null) || (listeners.get(listener) != filteredListener)) {
+			return;
+		}
+		listeners.remove(listener);
+		if (listeners.isEmpty()) {
+			index.remove(context);
+			if ((objectClass != null) && index.isEmpty()) {
+				serviceEventListenersByClass.remove(objectClass);
+			}
+		}
+	}
+
+	/* @GuardedBy("serviceEventListeners") */
+	private Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> getServiceListenerIndex(String objectClass, boolean create) {
+		if (objectClass == null) {
+			return unindexedServiceEventListeners;
+		}
+		Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> index = serviceEventListenersByClass.get(objectClass);
+		if ((index == null) && create) {
+			index = new HashMap<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>(initialSubCapacity);
+			serviceEventListenersByClass.put(objectClass, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Adds a snapshot of the service listeners of each context in the specified index
+	 * to the listener snapshot. If a context already has listeners in the listener snapshot,
+	 * the listeners are merged in the order the listeners were added.
+	 */
+	/* @GuardedBy("serviceEventListeners") */
+	private static void snapshotServiceListeners(Map<BundleContextImpl, Set<Map.Entry<ServiceListener, FilteredServiceListener>>> listenerSnapshot, Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> index) {
+		for (Map.Entry<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> entry : index.entrySet()) {
+			CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener> listeners = entry.getValue();
+			if (listeners.isEmpty()) {
+				continue;
+			}
+			BundleContextImpl context = entry.getKey();
+			Set<Map.Entry<ServiceListener, FilteredServiceListener>> previous = listenerSnapshot.get(context);
+			if (previous == null) {
+				listenerSnapshot.put(context, listeners.entrySet());
+				continue;
+			}
+			List<Map.Entry<ServiceListener, FilteredServiceListener>> merged = new ArrayList<Map.Entry<ServiceListener, FilteredServiceListener>>(previous.size() + listeners.size());
+			merged.addAll(previous);
+			merged.addAll(listeners.entrySet());
+			Collections.sort(merged, listenerOrder);
+			listenerSnapshot.put(context, new LinkedHashSet<Map.Entry<ServiceListener, FilteredServiceListener>>(merged));
+		}
+	}
+
+	/** Sorts service listener entries in the order the listeners were added. */
+	private static final Comparator<Map.Entry<ServiceListener, FilteredServiceListener>> listenerOrder = new Comparator<Map.Entry<ServiceListener, FilteredServiceListener>>() {
+		public int compare(Map.Entry<ServiceListener, FilteredServiceListener> e1, Map.Entry<ServiceListener, FilteredServiceListener> e2) {
+			long order1 = e1.getValue().getOrder();
+			long order2 = e2.getValue().getOrder();
+			return (order1 < order2) ? -1 : ((order1 == order2) ? 0 : 1);
+		}
+	};
+
 	/**
 	 * Coerce the generic type of a collection from Collection<FilteredServiceListener>
 	 * to Collection<ListenerInfo>
@@ -780,14 +1120,19 @@ public class ServiceRegistry {
 	}
 
 	void publishServiceEventPrivileged(final ServiceEvent event) {
-		/* Build the listener snapshot */
+		/* Build the listener snapshot from the listeners which require one of the
+		 * service's classes and the listeners which do not require an objectClass.
+		 * The other listeners would discard the event without evaluating their filter.
+		 */
+		String[] classes = ((ServiceReferenceImpl<?>) event.getServiceReference()).getClasses();
 		Map<BundleContextImpl, Set<Map.Entry<ServiceListener, FilteredServiceListener>>> listenerSnapshot;
 		synchronized (serviceEventListeners) {
 			listenerSnapshot = new HashMap<BundleContextImpl, Set<Map.Entry<ServiceListener, FilteredServiceListener>>>(serviceEventListeners.size());
-			for (Map.Entry<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> entry : serviceEventListeners.entrySet()) {
-				CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener> listeners = entry.getValue();
-				if (!listeners.isEmpty()) {
-					listenerSnapshot.put(entry.getKey(), listeners.entrySet());
+			snapshotServiceListeners(listenerSnapshot, unindexedServiceEventListeners);
+			for (String clazz : classes) {
+				Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> index = serviceEventListenersByClass.get(clazz);
+				if (index != null) {
+					snapshotServiceListeners(listenerSnapshot, index);
 				}
 			}
 		}
@@ -797,16 +1142,20 @@ public class ServiceRegistry {
 		 * removals from that collection will result in removals of the
 		 * entry from the snapshot.
 		 */
-		Collection<BundleContext> contexts = asBundleContexts(listenerSnapshot.keySet());
-		notifyEventHooksPrivileged(event, contexts);
-		if (listenerSnapshot.isEmpty()) {
-			return;
+		if (eventHooks.length > 0) {
+			Collection<BundleContext> contexts = asBundleContexts(listenerSnapshot.keySet());
+			notifyEventHooksPrivileged(event, contexts);
 		}
-		Map<BundleContext, Collection<ListenerInfo>> listeners = new ShrinkableValueCollectionMap<BundleContext, ListenerInfo>(listenerSnapshot);
-		notifyEventListenerHooksPrivileged(event, listeners);
 		if (listenerSnapshot.isEmpty()) {
 			return;
 		}
+		if (eventListenerHooks.length > 0) {
+			Map<BundleContext, Collection<ListenerInfo>> listeners = new ShrinkableValueCollectionMap<BundleContext, ListenerInfo>(listenerSnapshot);
+			notifyEventListenerHooksPrivileged(event, listeners);
+			if (listenerSnapshot.isEmpty()) {
+				return;
+			}
+		}
 
 		/* deliver the event to the snapshot */
 		ListenerQueue<ServiceListener, FilteredServiceListener, ServiceEvent> queue = framework.newListenerQueue();
@@ -819,6 +1168,79 @@ public class ServiceRegistry {
 		queue.dispatchEventSynchronous(SERVICEEVENT, event);
 	}
 
+	/**
+	 * Post a service event which passed the filter of an asynchronous service listener
+	 * for delivery on a service event thread.  The events of each listener are delivered
+	 * in the order they are posted.
+	 * 
+	 * @param listener The asynchronous service listener.
+	 * @param event The service event to deliver.
+	 */
+	void postServiceEventAsynchronous(FilteredServiceListener listener, ServiceEvent event) {
+		EventManager manager;
+		synchronized (asyncServiceEventLock) {
+			if (asyncServiceEventsClosed) {
+				return;
+			}
+			if (asyncServiceEventManager == null) {
+				asyncServiceEventManager = framework.newEventManager("Service Event Dispatcher"); //$NON-NLS-1$
+			}
+			manager = asyncServiceEventManager;
+			if (++pendingAsyncServiceEvents > peakPendingAsyncServiceEvents) {
+				peakPendingAsyncServiceEvents = pendingAsyncServiceEvents;
+			}
+		}
+		ListenerQueue<FilteredServiceListener, BundleContextImpl, ServiceEvent> queue = new ListenerQueue<FilteredServiceListener, BundleContextImpl, ServiceEvent>(manager);
+		queue.queueListeners(Collections.singletonMap(listener, (BundleContextImpl) listener.getBundleContext()).entrySet(), asyncServiceEventDispatcher);
+		try {
+			queue.dispatchEventAsynchronous(SERVICEEVENT, event);
+		} catch (IllegalStateException e) {
+			/* the registry was closed while posting the event */
+			synchronized (asyncServiceEventLock) {
+				pendingAsyncServiceEvents--;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of service events posted to asynchronous service listeners
+	 * which have not yet been delivered.  A growing number indicates the asynchronous
+	 * listeners do not keep up with the rate of service changes.
+	 * 
+	 * @return The number of pending asynchronous service events.
+	 */
+	public int getPendingAsyncServiceEvents() {
+		synchronized (asyncServiceEventLock) {
+			return pendingAsyncServiceEvents;
+		}
+	}
+
+	/**
+	 * Returns the largest number of pending asynchronous service events since the
+	 * registry was created.
+	 * 
+	 * @return The peak number of pending asynchronous service events.
+	 */
+	public int getPeakPendingAsyncServiceEvents() {
+		synchronized (asyncServiceEventLock) {
+			return peakPendingAsyncServiceEvents;
+		}
+	}
+
+	/**
+	 * Release the resources of the service registry.  Service events which have
+	 * not yet been delivered to asynchronous service listeners are discarded.
+	 */
+	public void close() {
+		synchronized (asyncServiceEventLock) {
+			asyncServiceEventsClosed = true;
+			if (asyncServiceEventManager != null) {
+				asyncServiceEventManager.close();
+				asyncServiceEventManager = null;
+			}
+		}
+	}
+
 	/**
 	 * Coerce the generic type of a collection from Collection<BundleContextImpl>
 	 * to Collection<BundleContext>
@@ -859,25 +1281,137 @@ public class ServiceRegistry {
 		// The list is NOT sorted, so we just add
 		contextServices.add(registration);
 
-		// Add the ServiceRegistrationImpl to the list of Services published by Class Name.
-		int insertIndex;
+		// Add the ServiceRegistrationImpl to the snapshots of Services published by Class Name.
+		Map<String, RegistrationSnapshot> byClass = publishedServicesByClass;
 		for (String clazz : registration.getClasses()) {
-			List<ServiceRegistrationImpl<?>> services = publishedServicesByClass.get(clazz);
+			RegistrationSnapshot services = byClass.get(clazz);
 
 			if (services == null) {
-				services = new ArrayList<ServiceRegistrationImpl<?>>(initialSubCapacity);
-				publishedServicesByClass.put(clazz, services);
+				if (byClass == publishedServicesByClass)
+					byClass = new HashMap<String, RegistrationSnapshot>(byClass);
+				byClass.put(clazz, new RegistrationSnapshot(new ServiceRegistrationImpl<?>[] {registration}));
+			} else {
+				services.registrations = insertRegistration(services.registrations, registration);
 			}
+		}
+		// publish the new map if a class name was added
+		publishedServicesByClass = byClass;
 
-			// The list is sorted, so we must find the proper location to insert
-			insertIndex = -Collections.binarySearch(services, registration) - 1;
-			services.add(insertIndex, registration);
+		// Add the ServiceRegistrationImpl to the snapshot of all published Services.
+		allPublishedServices = insertRegistration(allPublishedServices, registration);
+		updateHookCache();
+
+		if (propertyIndexes.length > 0) {
+			ServiceProperties properties = registration.getProperties();
+			for (ServicePropertyIndex index : propertyIndexes)
+				index.add(registration, properties);
 		}
+	}
 
-		// Add the ServiceRegistrationImpl to the list of all published Services.
-		// The list is sorted, so we must find the proper location to insert
-		insertIndex = -Collections.binarySearch(allPublishedServices, registration) - 1;
-		allPublishedServices.add(insertIndex, registration);
+	/**
+	 * Add a set of ServiceRegistrationImpls to the data structure. Each snapshot
+	 * of the published services is copied once for the whole set.
+	 * 
+	 * @param context The BundleContext of the bundle registering the services.
+	 * @param registrations The new ServiceRegistrations.
+	 */
+	/* @GuardedBy("this") */
+	private void addServiceRegistrations(BundleContextImpl context, ServiceRegistrationImpl<?>[] registrations) {
+		assert Thread.holdsLock(this);
+		List<ServiceRegistrationImpl<?>> contextServices = publishedServicesByContext.get(context);
+		if (contextServices == null) {
+			contextServices = new ArrayList<ServiceRegistrationImpl<?>>(Math.max(initialSubCapacity, registrations.length));
+			publishedServicesByContext.put(context, contextServices);
+		}
+		contextServices.addAll(Arrays.asList(registrations));
+
+		ServiceRegistrationImpl<?>[] sorted = registrations.clone();
+		Arrays.sort(sorted);
+		// group the sorted registrations by class name; the groups remain sorted
+		Map<String, List<ServiceRegistrationImpl<?>>> added = new HashMap<String, List<ServiceRegistrationImpl<?>>>();
+		for (ServiceRegistrationImpl<?> registration : sorted) {
+			for (String clazz : registration.getClasses()) {
+				List<ServiceRegistrationImpl<?>> classServices = added.get(clazz);
+				if (classServices == null) {
+					classServices = new ArrayList<ServiceRegistrationImpl<?>>(initialSubCapacity);
+					added.put(clazz, classServices);
+				}
+				classServices.add(registration);
+			}
+		}
+
+		Map<String, RegistrationSnapshot> byClass = publishedServicesByClass;
+		for (Map.Entry<String, List<ServiceRegistrationImpl<?>>> entry : added.entrySet()) {
+			String clazz = entry.getKey();
+			ServiceRegistrationImpl<?>[] classServices = entry.getValue().toArray(new ServiceRegistrationImpl<?>[entry.getValue().size()]);
+			RegistrationSnapshot services = byClass.get(clazz);
+			if (services == null) {
+				if (byClass == publishedServicesByClass)
+					byClass = new HashMap<String, RegistrationSnapshot>(byClass);
+				byClass.put(clazz, new RegistrationSnapshot(classServices));
+			} else {
+				services.registrations = insertRegistrations(services.registrations, classServices);
+			}
+		}
+		// publish the new map if a class name was added
+		publishedServicesByClass = byClass;
+
+		allPublishedServices = insertRegistrations(allPublishedServices, sorted);
+		updateHookCache();
+
+		if (propertyIndexes.length > 0) {
+			for (ServiceRegistrationImpl<?> registration : registrations) {
+				ServiceProperties properties = registration.getProperties();
+				for (ServicePropertyIndex index : propertyIndexes)
+					index.add(registration, properties);
+			}
+		}
+	}
+
+	/**
+	 * Remove a set of ServiceRegistrationImpls from the data structure. Each snapshot
+	 * of the published services is copied once for the whole set.
+	 * 
+	 * @param registrations The ServiceRegistrations to remove.
+	 * @param removed The set of the ServiceRegistrations to remove.
+	 */
+	/* @GuardedBy("this") */
+	private void removeServiceRegistrations(ServiceRegistrationImpl<?>[] registrations, Set<ServiceRegistrationImpl<?>> removed) {
+		assert Thread.holdsLock(this);
+		Set<String> classes = new HashSet<String>();
+		for (ServiceRegistrationImpl<?> registration : registrations) {
+			List<ServiceRegistrationImpl<?>> contextServices = publishedServicesByContext.get(registration.getContext());
+			if (contextServices != null) {
+				contextServices.remove(registration);
+			}
+			classes.addAll(Arrays.asList(registration.getClasses()));
+		}
+
+		Map<String, RegistrationSnapshot> byClass = publishedServicesByClass;
+		for (String clazz : classes) {
+			RegistrationSnapshot services = byClass.get(clazz);
+			ServiceRegistrationImpl<?>[] remaining = removeRegistrations(services.registrations, removed);
+			if (remaining.length == 0) { // remove empty entry
+				if (byClass == publishedServicesByClass)
+					byClass = new HashMap<String, RegistrationSnapshot>(byClass);
+				byClass.remove(clazz);
+			} else {
+				services.registrations = remaining;
+			}
+		}
+		// publish the new map if a class name was removed
+		publishedServicesByClass = byClass;
+
+		allPublishedServices = removeRegistrations(allPublishedServices, removed);
+		updateHookCache();
+
+		if (propertyIndexes.length > 0) {
+			for (ServiceRegistrationImpl<?> registration : registrations) {
+				ServiceProperties properties = registration.getProperties();
+				for (ServicePropertyIndex index : propertyIndexes)
+					index.remove(registration, properties);
+			}
+		}
 	}
 
 	/**
@@ -885,30 +1419,57 @@ public class ServiceRegistry {
 	 * 
 	 * @param context The BundleContext of the bundle registering the service.
 	 * @param registration The modified ServiceRegistration.
+	 * @param previousProperties The properties of the ServiceRegistration before it was modified.
 	 */
 	/* @GuardedBy("this") */
-	void modifyServiceRegistration(BundleContextImpl context, ServiceRegistrationImpl<?> registration) {
+	void modifyServiceRegistration(BundleContextImpl context, ServiceRegistrationImpl<?> registration, ServiceProperties previousProperties) {
 		assert Thread.holdsLock(this);
 		// The list of Services published by BundleContextImpl is not sorted, so
 		// we do not need to modify it.
 
-		// Remove the ServiceRegistrationImpl from the list of Services published by Class Name
+		// Remove the ServiceRegistrationImpl from the snapshots of Services published by Class Name
 		// and then add at the correct index.
-		int insertIndex;
+		Map<String, RegistrationSnapshot> byClass = publishedServicesByClass;
 		for (String clazz : registration.getClasses()) {
-			List<ServiceRegistrationImpl<?>> services = publishedServicesByClass.get(clazz);
-			services.remove(registration);
-			// The list is sorted, so we must find the proper location to insert
-			insertIndex = -Collections.binarySearch(services, registration) - 1;
-			services.add(insertIndex, registration);
+			RegistrationSnapshot services = byClass.get(clazz);
+			services.registrations = insertRegistration(removeRegistration(services.registrations, registration), registration);
 		}
 
-		// Remove the ServiceRegistrationImpl from the list of all published Services
+		// Remove the ServiceRegistrationImpl from the snapshot of all published Services
 		// and then add at the correct index.
-		allPublishedServices.remove(registration);
-		// The list is sorted, so we must find the proper location to insert
-		insertIndex = -Collections.binarySearch(allPublishedServices, registration) - 1;
-		allPublishedServices.add(insertIndex, registration);
+		allPublishedServices = insertRegistration(removeRegistration(allPublishedServices, registration), registration);
+		updateHookCache();
+
+		if (propertyIndexes.length > 0) {
+			ServiceProperties properties = registration.getProperties();
+			for (ServicePropertyIndex index : propertyIndexes) {
+				index.remove(registration, previousProperties);
+				index.add(registration, properties);
+			}
+		}
+	}
+
+	/**
+	 * Update the cached hook registrations from the snapshots of the services published
+	 * by class name.  Must be called after the snapshots have been changed.
+	 */
+	/* @GuardedBy("this") */
+	private void updateHookCache() {
+		assert Thread.holdsLock(this);
+		findHooks = lookupServiceRegistrations(findHookName, null);
+		eventHooks = lookupServiceRegistrations(eventHookName, null);
+		eventListenerHooks = lookupServiceRegistrations(eventListenerHookName, null);
+		bundleEventHooks = lookupServiceRegistrations(bundleEventHookName, null).length > 0;
+	}
+
+	/**
+	 * Returns whether any bundle EventHook is registered. The framework uses this to
+	 * avoid building the shrinkable views of a bundle event when there are no hooks to call.
+	 *
+	 * @return <code>true</code> if a bundle EventHook is registered; <code>false</code> otherwise.
+	 */
+	public boolean hasBundleEventHooks() {
+		return bundleEventHooks;
 	}
 
 	/**
@@ -926,17 +1487,91 @@ public class ServiceRegistry {
 			contextServices.remove(registration);
 		}
 
-		// Remove the ServiceRegistrationImpl from the list of Services published by Class Name.
+		// Remove the ServiceRegistrationImpl from the snapshots of Services published by Class Name.
+		Map<String, RegistrationSnapshot> byClass = publishedServicesByClass;
 		for (String clazz : registration.getClasses()) {
-			List<ServiceRegistrationImpl<?>> services = publishedServicesByClass.get(clazz);
-			services.remove(registration);
-			if (services.isEmpty()) { // remove empty list
-				publishedServicesByClass.remove(clazz);
+			RegistrationSnapshot services = byClass.get(clazz);
+			ServiceRegistrationImpl<?>[] remaining = removeRegistration(services.registrations, registration);
+			if (remaining.length == 0) { // remove empty entry
+				if (byClass == publishedServicesByClass)
+					byClass = new HashMap<String, RegistrationSnapshot>(byClass);
+				byClass.remove(clazz);
+			} else {
+				services.registrations = remaining;
+			}
+		}
+		// publish the new map if a class name was removed
+		publishedServicesByClass = byClass;
+
+		// Remove the ServiceRegistrationImpl from the snapshot of all published Services.
+		allPublishedServices = removeRegistration(allPublishedServices, registration);
+		updateHookCache();
+
+		if (propertyIndexes.length > 0) {
+			ServiceProperties properties = registration.getProperties();
+			for (ServicePropertyIndex index : propertyIndexes)
+				index.remove(registration, properties);
+		}
+	}
+
+	/**
+	 * Returns a copy of the sorted registrations with the registration inserted in order.
+	 */
+	static ServiceRegistrationImpl<?>[] insertRegistration(ServiceRegistrationImpl<?>[] registrations, ServiceRegistrationImpl<?> registration) {
+		// The array is sorted, so we must find the proper location to insert
+		int insertIndex = -Arrays.binarySearch(registrations, registration) - 1;
+		ServiceRegistrationImpl<?>[] result = new ServiceRegistrationImpl<?>[registrations.length + 1];
+		System.arraycopy(registrations, 0, result, 0, insertIndex);
+		result[insertIndex] = registration;
+		System.arraycopy(registrations, insertIndex, result, insertIndex + 1, registrations.length - insertIndex);
+		return result;
+	}
+
+	/**
+	 * Returns a sorted copy of the sorted registrations merged with the sorted added registrations.
+	 */
+	static ServiceRegistrationImpl<?>[] insertRegistrations(ServiceRegistrationImpl<?>[] registrations, ServiceRegistrationImpl<?>[] added) {
+		ServiceRegistrationImpl<?>[] result = new ServiceRegistrationImpl<?>[registrations.length + added.length];
+		int i = 0, j = 0, k = 0;
+		while ((i < registrations.length) && (j < added.length)) {
+			result[k++] = (registrations[i].compareTo(added[j]) <= 0) ? registrations[i++] : added[j++];
+		}
+		System.arraycopy(registrations, i, result, k, registrations.length - i);
+		System.arraycopy(added, j, result, k, added.length - j);
+		return result;
+	}
+
+	/**
+	 * Returns a copy of the registrations without the removed registrations.
+	 */
+	static ServiceRegistrationImpl<?>[] removeRegistrations(ServiceRegistrationImpl<?>[] registrations, Set<ServiceRegistrationImpl<?>> removed) {
+		List<ServiceRegistrationImpl<?>> result = new ArrayList<ServiceRegistrationImpl<?>>(registrations.length);
+		for (ServiceRegistrationImpl<?> registration : registrations) {
+			if (!removed.contains(registration)) {
+				result.add(registration);
 			}
 		}
+		if (result.size() == registrations.length)
+			return registrations;
+		return result.isEmpty() ? emptyRegistrations : result.toArray(new ServiceRegistrationImpl<?>[result.size()]);
+	}
 
-		// Remove the ServiceRegistrationImpl from the list of all published Services.
-		allPublishedServices.remove(registration);
+	/**
+	 * Returns a copy of the registrations without the registration.  The registrations 
+	 * are searched linearly since the ranking of the registration may have been modified.
+	 */
+	static ServiceRegistrationImpl<?>[] removeRegistration(ServiceRegistrationImpl<?>[] registrations, ServiceRegistrationImpl<?> registration) {
+		for (int i = 0; i < registrations.length; i++) {
+			if (registrations[i] == registration) {
+				if (registrations.length == 1)
+					return emptyRegistrations;
+				ServiceRegistrationImpl<?>[] result = new ServiceRegistrationImpl<?>[registrations.length - 1];
+				System.arraycopy(registrations, 0, result, 0, i);
+				System.arraycopy(registrations, i + 1, result, i, result.length - i);
+				return result;
+			}
+		}
+		return registrations;
 	}
 
 	/**
@@ -945,45 +1580,72 @@ public class ServiceRegistry {
 	 * @param clazz The class name with which the service was registered or
 	 *        <code>null</code> for all services.
 	 * @param filter The filter criteria.
-	 * @return List<ServiceRegistrationImpl>
+	 * @return The sorted registrations; must not be modified since it may be a snapshot of the data structure
 	 */
-	private List<ServiceRegistrationImpl<?>> lookupServiceRegistrations(String clazz, Filter filter) {
-		List<ServiceRegistrationImpl<?>> result;
-		synchronized (this) {
-			if (clazz == null) { /* all services */
-				result = allPublishedServices;
-			} else {
-				/* services registered under the class name */
-				result = publishedServicesByClass.get(clazz);
-			}
-
-			if ((result == null) || result.isEmpty()) {
-				@SuppressWarnings("unchecked")
-				List<ServiceRegistrationImpl<?>> empty = Collections.EMPTY_LIST;
-				return empty;
-			}
+	private ServiceRegistrationImpl<?>[] lookupServiceRegistrations(String clazz, Filter filter) {
+		ServiceRegistrationImpl<?>[] result;
+		if (clazz == null) { /* all services */
+			result = allPublishedServices;
+		} else {
+			/* services registered under the class name */
+			RegistrationSnapshot services = publishedServicesByClass.get(clazz);
+			result = services == null ? emptyRegistrations : services.registrations;
+		}
 
-			result = new ArrayList<ServiceRegistrationImpl<?>>(result); /* make a new list since we don't want to change the real list */
+		if (filter == null || result.length == 0) {
+			return result; /* the snapshot is never modified */
 		}
 
-		if (filter == null) {
-			return result;
+		// use a property index to find the candidates if the filter requires an indexed property value
+		boolean checkClass = false;
+		if (propertyIndexes.length > 0 && filter instanceof FilterImpl) {
+			for (ServicePropertyIndex index : propertyIndexes) {
+				String value = ((FilterImpl) filter).getPrimaryKeyValue(index.getKey());
+				if (value != null) {
+					ServiceRegistrationImpl<?>[] candidates = index.getCandidates(value);
+					if (candidates.length < result.length) {
+						result = candidates;
+						checkClass = clazz != null;
+					}
+					break;
+				}
+			}
 		}
 
-		for (Iterator<ServiceRegistrationImpl<?>> iter = result.iterator(); iter.hasNext();) {
-			ServiceRegistrationImpl<?> registration = iter.next();
+		List<ServiceRegistrationImpl<?>> matches = new ArrayList<ServiceRegistrationImpl<?>>(result.length);
+		for (ServiceRegistrationImpl<?> registration : result) {
+			if (checkClass && !isRegisteredUnder(registration, clazz)) {
+				continue; /* the candidate is registered under other class names */
+			}
 			ServiceReferenceImpl<?> reference;
 			try {
 				reference = registration.getReferenceImpl();
 			} catch (IllegalStateException e) {
-				iter.remove(); /* service was unregistered after we left the synchronized block above */
-				continue;
+				continue; /* service was unregistered after the snapshot was taken */
 			}
-			if (!filter.match(reference)) {
-				iter.remove();
+			if (filter.match(reference)) {
+				matches.add(registration);
 			}
 		}
-		return result;
+		return matches.toArray(new ServiceRegistrationImpl<?>[matches.size()]);
+	}
+
+	private static boolean isRegisteredUnder(ServiceRegistrationImpl<?> registration, String clazz) {
+		for (String registeredClass : registration.getClasses())
+			if (registeredClass.equals(clazz))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Returns true if at least one service is registered under the specified class name.
+	 * This is a cheap check which does not copy the registrations.
+	 * 
+	 * @param clazz The class name with which the service was registered.
+	 * @return true if at least one service is registered under the class name.
+	 */
+	public boolean hasServiceRegistrations(String clazz) {
+		return publishedServicesByClass.get(clazz) != null;
 	}
 
 	/**
@@ -1125,10 +1787,14 @@ public class ServiceRegistry {
 	}
 
 	void notifyFindHooksPrivileged(final BundleContextImpl context, final String clazz, final String filterstring, final boolean allservices, final Collection<ServiceReference<?>> result) {
+		ServiceRegistrationImpl<?>[] hooks = findHooks;
+		if (hooks.length == 0) {
+			return;
+		}
 		if (Debug.DEBUG_HOOKS) {
 			Debug.println("notifyServiceFindHooks(" + context.getBundleImpl() + "," + clazz + "," + filterstring + "," + allservices + "," + result + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
 		}
-		notifyHooksPrivileged(new HookContext() {
+		notifyHooksPrivileged(hooks, new HookContext() {
 			public void call(Object hook, ServiceRegistration<?> hookRegistration) throws Exception {
 				if (hook instanceof FindHook) {
 					((FindHook) hook).find(context, clazz, filterstring, allservices, result);
@@ -1154,10 +1820,14 @@ public class ServiceRegistry {
 	 * @param result The result to return to the caller which may have been shrunk by the EventHooks.
 	 */
 	private void notifyEventHooksPrivileged(final ServiceEvent event, final Collection<BundleContext> result) {
+		ServiceRegistrationImpl<?>[] hooks = eventHooks;
+		if (hooks.length == 0) {
+			return;
+		}
 		if (Debug.DEBUG_HOOKS) {
 			Debug.println("notifyServiceEventHooks(" + event.getType() + ":" + event.getServiceReference() + "," + result + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ 
 		}
-		notifyHooksPrivileged(new HookContext() {
+		notifyHooksPrivileged(hooks, new HookContext() {
 			public void call(Object hook, ServiceRegistration<?> hookRegistration) throws Exception {
 				if (hook instanceof EventHook) {
 					((EventHook) hook).event(event, result);
@@ -1183,10 +1853,14 @@ public class ServiceRegistry {
 	 * @param result The result to return to the caller which may have been shrunk by the EventListenerHooks.
 	 */
 	private void notifyEventListenerHooksPrivileged(final ServiceEvent event, final Map<BundleContext, Collection<ListenerInfo>> result) {
+		ServiceRegistrationImpl<?>[] hooks = eventListenerHooks;
+		if (hooks.length == 0) {
+			return;
+		}
 		if (Debug.DEBUG_HOOKS) {
 			Debug.println("notifyServiceEventListenerHooks(" + event.getType() + ":" + event.getServiceReference() + "," + result + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ 
 		}
-		notifyHooksPrivileged(new HookContext() {
+		notifyHooksPrivileged(hooks, new HookContext() {
 			public void call(Object hook, ServiceRegistration<?> hookRegistration) throws Exception {
 				if (hook instanceof EventListenerHook) {
 					((EventListenerHook) hook).event(event, result);
@@ -1209,13 +1883,22 @@ public class ServiceRegistry {
 	 * @param hookContext Context to use when calling the hook services.
 	 */
 	public void notifyHooksPrivileged(HookContext hookContext) {
+		notifyHooksPrivileged(lookupServiceRegistrations(hookContext.getHookClassName(), null), hookContext);
+	}
+
+	/**
+	 * Calls the specified hook services.
+	 * 
+	 * @param hooks The sorted hook services to call.
+	 * @param hookContext Context to use when calling the hook services.
+	 */
+	private void notifyHooksPrivileged(ServiceRegistrationImpl<?>[] hooks, HookContext hookContext) {
 		BundleContextImpl systemBundleContext = framework.getSystemBundleContext();
 		if (systemBundleContext == null) { // if no system bundle context, we are done!
 			return;
 		}
 
-		List<ServiceRegistrationImpl<?>> hooks = lookupServiceRegistrations(hookContext.getHookClassName(), null);
-		// Since the list is already sorted, we don't need to sort the list to call the hooks
+		// Since the array is already sorted, we don't need to sort the array to call the hooks
 		// in the proper order.
 
 		for (ServiceRegistrationImpl<?> registration : hooks) {
@@ -1359,4 +2042,16 @@ public class ServiceRegistry {
 			}
 		});
 	}
+
+	/**
+	 * The snapshot of the services registered under a class name or property value.
+	 */
+	static final class RegistrationSnapshot {
+		/* replaced (copy-on-write) while holding the registry monitor; never empty */
+		volatile ServiceRegistrationImpl<?>[] registrations;
+
+		RegistrationSnapshot(ServiceRegistrationImpl<?>[] registrations) {
+			this.registrations = registrations;
+		}
+	}
 }
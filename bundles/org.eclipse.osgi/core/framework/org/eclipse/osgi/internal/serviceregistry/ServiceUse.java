@@ -46,6 +46,10 @@ public class ServiceUse<S> {
 	/** true if we are calling the factory getService method. Used to detect recursion. */
 	/* @GuardedBy("this") */
 	private boolean factoryInUse;
+	/** true once this service use has been removed from the bundle's services in use.
+	 * A removed service use must not be used again. */
+	/* @GuardedBy("this") */
+	private boolean removed;
 
 	/** Internal framework object. */
 
@@ -60,6 +64,7 @@ public class ServiceUse<S> {
 	ServiceUse(BundleContextImpl context, ServiceRegistrationImpl<S> registration) {
 		this.useCount = 0;
 		this.factoryInUse = false;
+		this.removed = false;
 		S service = registration.getServiceObject();
 		if (service instanceof ServiceFactory<?>) {
 			@SuppressWarnings("unchecked")
@@ -207,6 +212,9 @@ public class ServiceUse<S> {
 	 * <li><code>true</code> is returned.
 	 * </ol>
 	 *
+	 * <p>When the use count is zero, this service use is marked removed
+	 * and the caller must remove it from the bundle's services in use.
+	 *
 	 * @return <code>true</code> if the context bundle's use count for the service
 	 *         is zero otherwise <code>false</code>.
 	 */
@@ -214,6 +222,7 @@ public class ServiceUse<S> {
 	boolean ungetService() {
 		assert Thread.holdsLock(this);
 		if (useCount == 0) {
+			removed = true;
 			return true;
 		}
 
@@ -222,6 +231,7 @@ public class ServiceUse<S> {
 			return false;
 		}
 
+		removed = true;
 		if (factory == null) {
 			return true;
 		}
@@ -264,6 +274,7 @@ public class ServiceUse<S> {
 	/* @GuardedBy("this") */
 	void releaseService() {
 		assert Thread.holdsLock(this);
+		removed = true;
 		if ((useCount == 0) || (factory == null)) {
 			return;
 		}
@@ -291,4 +302,26 @@ public class ServiceUse<S> {
 			context.getFramework().publishFrameworkEvent(FrameworkEvent.ERROR, registration.getBundle(), se);
 		}
 	}
+
+	/**
+	 * Returns true if this service use has been removed from the bundle's
+	 * services in use by {@link #ungetService()}, {@link #releaseService()}
+	 * or {@link #markRemoved()}.
+	 * 
+	 * @return <code>true</code> if this service use must not be used again.
+	 */
+	/* @GuardedBy("this") */
+	boolean isRemoved() {
+		assert Thread.holdsLock(this);
+		return removed;
+	}
+
+	/**
+	 * Marks this service use removed from the bundle's services in use.
+	 */
+	/* @GuardedBy("this") */
+	void markRemoved() {
+		assert Thread.holdsLock(this);
+		removed = true;
+	}
 }
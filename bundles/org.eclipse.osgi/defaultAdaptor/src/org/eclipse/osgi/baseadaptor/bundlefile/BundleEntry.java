@@ -13,6 +13,7 @@ package org.eclipse.osgi.baseadaptor.bundlefile;
 
 import java.io.*;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import org.eclipse.osgi.framework.debug.Debug;
 
 /**
@@ -132,4 +133,54 @@ public abstract class BundleEntry {
 		}
 		return classbytes;
 	}
+
+	/**
+	 * Used for class loading.  Reads the content of this entry into a byte buffer.  The specified
+	 * buffer is used if it is a writable heap buffer with enough capacity; otherwise a new buffer is
+	 * allocated.  This default implementation gets the input stream from this entry and copies the
+	 * content into the buffer.  Subclasses may return a buffer which directly holds the content of
+	 * the entry; such buffers may be read-only.
+	 * @param buffer a buffer which may be used to hold the content, may be <code>null</code>
+	 * @return a buffer whose remaining content is the content of this entry
+	 * @throws IOException
+	 * @since 3.8
+	 */
+	public ByteBuffer getByteBuffer(ByteBuffer buffer) throws IOException {
+		InputStream in = getInputStream();
+		int length = (int) getSize();
+		if (Debug.DEBUG_LOADER)
+			Debug.println("  about to read " + length + " bytes from " + getName()); //$NON-NLS-1$ //$NON-NLS-2$
+
+		ByteBuffer result = buffer;
+		int capacity = length > 0 ? length : BUF_SIZE;
+		if (result == null || result.isReadOnly() || !result.hasArray() || result.capacity() < capacity)
+			result = ByteBuffer.allocate(capacity);
+		int bytesread = 0;
+		int readcount;
+		try {
+			int max = length > 0 ? length : result.capacity();
+			while (bytesread < max) {
+				readcount = in.read(result.array(), result.arrayOffset() + bytesread, max - bytesread);
+				if (readcount <= 0) /* if we didn't read anything */
+					break; /* leave the loop */
+				bytesread += readcount;
+				if (length <= 0 && bytesread == max) {
+					/* BundleEntry does not know its own length! */
+					ByteBuffer oldbytes = result;
+					result = ByteBuffer.allocate(max + BUF_SIZE);
+					System.arraycopy(oldbytes.array(), oldbytes.arrayOffset(), result.array(), result.arrayOffset(), bytesread);
+					max = result.capacity();
+				}
+			}
+		} finally {
+			try {
+				in.close();
+			} catch (IOException ee) {
+				// nothing to do here
+			}
+		}
+		result.clear();
+		result.limit(bytesread);
+		return result;
+	}
 }
@@ -38,7 +38,7 @@ abstract public class BundleFile {
 	 * The File object for this BundleFile.
 	 */
 	protected File basefile;
-	private int mruIndex = -1;
+	private volatile int mruIndex = -1;
 
 	/**
 	 * Default constructor
@@ -92,6 +92,44 @@ abstract public class BundleFile {
 	 */
 	abstract public Enumeration<String> getEntryPaths(String path);
 
+	/**
+	 * Allows to access the entries of the bundle.  This method is 
+	 * equivalent to {@link #getEntryPaths(String)} except that if recurse
+	 * is true then the content of all sub directories of "path" is 
+	 * also included in the returned paths.
+	 * <p>
+	 * The default implementation calls {@link #getEntryPaths(String)} for 
+	 * each directory found.  Subclasses may override this method to provide 
+	 * a more efficient implementation.
+	 * </p>
+	 * @param path path of the entry to locate in the bundle
+	 * @param recurse true if the content of sub directories should be included
+	 * @return an Enumeration of Strings that indicate the paths found or
+	 * null if the path does not exist. 
+	 * @since 3.8
+	 */
+	public Enumeration<String> getEntryPaths(String path, boolean recurse) {
+		Enumeration<String> paths = getEntryPaths(path);
+		if (!recurse || paths == null)
+			return paths;
+		List<String> result = new ArrayList<String>();
+		List<Enumeration<String>> pending = new ArrayList<Enumeration<String>>();
+		pending.add(paths);
+		while (!pending.isEmpty()) {
+			Enumeration<String> current = pending.remove(pending.size() - 1);
+			while (current.hasMoreElements()) {
+				String next = current.nextElement();
+				result.add(next);
+				if (next.length() > 0 && next.charAt(next.length() - 1) == '/') {
+					Enumeration<String> subPaths = getEntryPaths(next);
+					if (subPaths != null)
+						pending.add(subPaths);
+				}
+			}
+		}
+		return Collections.enumeration(result);
+	}
+
 	/**
 	 * Closes the BundleFile.
 	 * @throws IOException if any error occurs.
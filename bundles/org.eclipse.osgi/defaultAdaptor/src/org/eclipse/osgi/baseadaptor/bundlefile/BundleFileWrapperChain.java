@@ -47,6 +47,10 @@ public class BundleFileWrapperChain extends BundleFile {
 		return wrapped.getEntryPaths(path);
 	}
 
+	public Enumeration<String> getEntryPaths(String path, boolean recurse) {
+		return wrapped.getEntryPaths(path, recurse);
+	}
+
 	public File getFile(String path, boolean nativeCode) {
 		return wrapped.getFile(path, nativeCode);
 	}
@@ -49,7 +49,7 @@ public class MRUBundleFileList implements EventDispatcher<Object, Object, Bundle
 	// the current number of open bundle files
 	private int numOpen = 0;
 	// the current use stamp
-	private long curUseStamp = 0;
+	private volatile long curUseStamp = 0;
 	// used to work around bug 275166
 	private boolean firstDispatch = true;
 
@@ -159,10 +159,23 @@ public class MRUBundleFileList implements EventDispatcher<Object, Object, Bundle
 	public void use(BundleFile bundleFile) {
 		if (fileLimit < MIN)
 			return; // MRU is disabled
-		synchronized (this) {
-			int index = bundleFile.getMruIndex();
-			if ((index >= 0 && index < fileLimit) && bundleFileList[index] == bundleFile)
-				incUseStamp(index);
+		// The use stamps are only used to find the least recently used bundle file; an
+		// approximate stamp is good enough.  Do not synchronize on the list here so that
+		// readers of different bundle files do not contend on one lock; a lost update of
+		// the stamp is harmless.
+		int index = bundleFile.getMruIndex();
+		if ((index >= 0 && index < fileLimit) && bundleFileList[index] == bundleFile) {
+			long useStamp = curUseStamp;
+			if (useStamp == Long.MAX_VALUE) {
+				// reset all the stamps while holding the lock
+				synchronized (this) {
+					if (bundleFileList[index] == bundleFile)
+						incUseStamp(index);
+				}
+				return;
+			}
+			curUseStamp = ++useStamp;
+			useStampList[index] = useStamp;
 		}
 	}
 
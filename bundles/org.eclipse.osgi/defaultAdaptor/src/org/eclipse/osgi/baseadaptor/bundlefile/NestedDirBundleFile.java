@@ -67,7 +67,11 @@ public class NestedDirBundleFile extends BundleFile {
 	}
 
 	public Enumeration<String> getEntryPaths(String path) {
-		final Enumeration<String> basePaths = baseBundleFile.getEntryPaths(prependNestedDir(path));
+		return getEntryPaths(path, false);
+	}
+
+	public Enumeration<String> getEntryPaths(String path, boolean recurse) {
+		final Enumeration<String> basePaths = baseBundleFile.getEntryPaths(prependNestedDir(path), recurse);
 		final int cpLength = cp.length();
 		if (basePaths == null)
 			return null;
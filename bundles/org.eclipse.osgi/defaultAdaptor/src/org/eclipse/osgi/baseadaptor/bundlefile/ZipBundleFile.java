@@ -69,12 +69,19 @@ public class ZipBundleFile extends BundleFile {
 	 * @return true if the zip file is open
 	 */
 	protected boolean checkedOpen() {
+		return openZipFile() != null;
+	}
+
+	/*
+	 * Returns an open ZipFile or null if the ZipFile could not be opened.
+	 */
+	private ZipFile openZipFile() {
 		try {
-			return getZipFile() != null;
+			return getZipFile();
 		} catch (IOException e) {
 			if (bundledata != null)
 				bundledata.getAdaptor().getEventPublisher().publishFrameworkEvent(FrameworkEvent.ERROR, bundledata.getBundle(), e);
-			return false;
+			return null;
 		}
 	}
 
@@ -94,14 +101,35 @@ public class ZipBundleFile extends BundleFile {
 	 * @return an open ZipFile for this bundle
 	 * @throws IOException
 	 */
-	protected synchronized ZipFile getZipFile() throws IOException {
-		if (closed) {
-			mruListAdd();
-			zipFile = basicOpen();
-			closed = false;
-		} else
-			mruListUse();
-		return zipFile;
+	protected ZipFile getZipFile() throws IOException {
+		if (!closed) {
+			// fast path; the zip file is already open
+			ZipFile current = zipFile;
+			if (current != null) {
+				mruListUse();
+				return current;
+			}
+		}
+		synchronized (this) {
+			if (closed) {
+				mruListAdd();
+				zipFile = basicOpen();
+				closed = false;
+			} else
+				mruListUse();
+			return zipFile;
+		}
+	}
+
+	/*
+	 * Readers use the ZipFile without locking this bundle file; the ZipFile may be closed by
+	 * another thread, for example the MRU list, while it is read.  Reading a closed ZipFile
+	 * throws an IllegalStateException in which case the read is retried with a newly opened
+	 * ZipFile.  The exception is rethrown if the ZipFile was not closed.
+	 */
+	private void checkClosed(ZipFile zip, IllegalStateException e) {
+		if (!closed && zip == zipFile)
+			throw e;
 	}
 
 	/**
@@ -112,12 +140,16 @@ public class ZipBundleFile extends BundleFile {
 	* @return a ZipEntry or null if the entry does not exist
 	*/
 	protected ZipEntry getZipEntry(String path) {
+		return getZipEntry(zipFile, path);
+	}
+
+	private static ZipEntry getZipEntry(ZipFile zip, String path) {
 		if (path.length() > 0 && path.charAt(0) == '/')
 			path = path.substring(1);
-		ZipEntry entry = zipFile.getEntry(path);
+		ZipEntry entry = zip.getEntry(path);
 		if (entry != null && entry.getSize() == 0 && !entry.isDirectory()) {
 			// work around the directory bug see bug 83542
-			ZipEntry dirEntry = zipFile.getEntry(path + '/');
+			ZipEntry dirEntry = zip.getEntry(path + '/');
 			if (dirEntry != null)
 				entry = dirEntry;
 		}
@@ -210,11 +242,22 @@ public class ZipBundleFile extends BundleFile {
 		return null;
 	}
 
-	public synchronized boolean containsDir(String dir) {
-		if (!checkedOpen())
-			return false;
+	public boolean containsDir(String dir) {
 		if (dir == null)
 			return false;
+		while (true) {
+			ZipFile zip = openZipFile();
+			if (zip == null)
+				return false;
+			try {
+				return containsDir(zip, dir);
+			} catch (IllegalStateException e) {
+				checkClosed(zip, e);
+			}
+		}
+	}
+
+	private static boolean containsDir(ZipFile zip, String dir) {
 
 		if (dir.length() == 0)
 			return true;
@@ -228,7 +271,7 @@ public class ZipBundleFile extends BundleFile {
 		if (dir.length() > 0 && dir.charAt(dir.length() - 1) != '/')
 			dir = dir + '/';
 
-		Enumeration<? extends ZipEntry> entries = zipFile.entries();
+		Enumeration<? extends ZipEntry> entries = zip.entries();
 		ZipEntry zipEntry;
 		String entryPath;
 		while (entries.hasMoreElements()) {
@@ -241,28 +284,45 @@ public class ZipBundleFile extends BundleFile {
 		return false;
 	}
 
-	public synchronized BundleEntry getEntry(String path) {
-		if (!checkedOpen())
-			return null;
-		ZipEntry zipEntry = getZipEntry(path);
-		if (zipEntry == null) {
-			if (path.length() == 0 || path.charAt(path.length() - 1) == '/') {
-				// this is a directory request lets see if any entries exist in this directory
-				if (containsDir(path))
-					return new DirZipBundleEntry(this, path);
+	public BundleEntry getEntry(String path) {
+		while (true) {
+			ZipFile zip = openZipFile();
+			if (zip == null)
+				return null;
+			try {
+				ZipEntry zipEntry = getZipEntry(zip, path);
+				if (zipEntry == null) {
+					if (path.length() == 0 || path.charAt(path.length() - 1) == '/') {
+						// this is a directory request lets see if any entries exist in this directory
+						if (containsDir(zip, path))
+							return new DirZipBundleEntry(this, path);
+					}
+					return null;
+				}
+
+				return new ZipBundleEntry(zipEntry, this);
+			} catch (IllegalStateException e) {
+				checkClosed(zip, e);
 			}
-			return null;
 		}
-
-		return new ZipBundleEntry(zipEntry, this);
-
 	}
 
-	public synchronized Enumeration<String> getEntryPaths(String path) {
-		if (!checkedOpen())
-			return null;
+	public Enumeration<String> getEntryPaths(String path) {
 		if (path == null)
 			throw new NullPointerException();
+		while (true) {
+			ZipFile zip = openZipFile();
+			if (zip == null)
+				return null;
+			try {
+				return getEntryPaths(zip, path);
+			} catch (IllegalStateException e) {
+				checkClosed(zip, e);
+			}
+		}
+	}
+
+	private static Enumeration<String> getEntryPaths(ZipFile zip, String path) {
 
 		if (path.length() > 0 && path.charAt(0) == '/')
 			path = path.substring(1);
@@ -270,7 +330,7 @@ public class ZipBundleFile extends BundleFile {
 			path = new StringBuffer(path).append("/").toString(); //$NON-NLS-1$
 
 		List<String> vEntries = new ArrayList<String>();
-		Enumeration<? extends ZipEntry> entries = zipFile.entries();
+		Enumeration<? extends ZipEntry> entries = zip.entries();
 		while (entries.hasMoreElements()) {
 			ZipEntry zipEntry = entries.nextElement();
 			String entryPath = zipEntry.getName();
@@ -291,6 +351,47 @@ public class ZipBundleFile extends BundleFile {
 		return vEntries.size() == 0 ? null : Collections.enumeration(vEntries);
 	}
 
+	public Enumeration<String> getEntryPaths(String path, boolean recurse) {
+		if (!recurse)
+			return getEntryPaths(path);
+		if (path == null)
+			throw new NullPointerException();
+		while (true) {
+			ZipFile zip = openZipFile();
+			if (zip == null)
+				return null;
+			try {
+				return getAllEntryPaths(zip, path);
+			} catch (IllegalStateException e) {
+				checkClosed(zip, e);
+			}
+		}
+	}
+
+	private static Enumeration<String> getAllEntryPaths(ZipFile zip, String path) {
+
+		if (path.length() > 0 && path.charAt(0) == '/')
+			path = path.substring(1);
+		if (path.length() > 0 && path.charAt(path.length() - 1) != '/')
+			path = new StringBuffer(path).append("/").toString(); //$NON-NLS-1$
+
+		// use a single pass over the zip entries; directories may not have their own entries
+		Set<String> vEntries = new LinkedHashSet<String>();
+		Enumeration<? extends ZipEntry> entries = zip.entries();
+		while (entries.hasMoreElements()) {
+			String entryPath = entries.nextElement().getName();
+			if (entryPath.startsWith(path) && path.length() < entryPath.length()) {
+				int slash = entryPath.indexOf('/', path.length());
+				while (slash >= 0 && slash < entryPath.length() - 1) {
+					vEntries.add(entryPath.substring(0, slash + 1));
+					slash = entryPath.indexOf('/', slash + 1);
+				}
+				vEntries.add(entryPath);
+			}
+		}
+		return vEntries.size() == 0 ? null : Collections.enumeration(vEntries);
+	}
+
 	public synchronized void close() throws IOException {
 		if (!closed) {
 			if (referenceCount > 0 && isMruListClosing()) {
@@ -352,6 +453,6 @@ public class ZipBundleFile extends BundleFile {
 		referenceCount = Math.max(0, referenceCount - 1);
 		// only notify if the referenceCount is zero.
 		if (referenceCount == 0)
-			notify();
+			notifyAll();
 	}
 }
@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.baseadaptor.hooks;
+
+import java.nio.ByteBuffer;
+import org.eclipse.osgi.baseadaptor.bundlefile.BundleEntry;
+import org.eclipse.osgi.baseadaptor.loader.*;
+
+/**
+ * A class loading hook which is able to process class bytes held in a <code>ByteBuffer</code>.
+ * A classpath manager only defines classes from byte buffers if all the configured class loading
+ * hooks implement this interface; otherwise the bytes of each class are read into an array and
+ * {@link ClassLoadingHook#processClass(String, byte[], ClasspathEntry, BundleEntry, ClasspathManager)}
+ * is called.
+ * @see ByteBufferClassLoader
+ * @see ByteBufferClassLoadingStatsHook
+ * @since 3.8
+ */
+public interface ByteBufferClassLoadingHook extends ClassLoadingHook {
+	/**
+	 * Gets called by a classpath manager before defining a class from a byte buffer.  This method allows
+	 * a class loading hook to process the bytes of a class that is about to be defined.
+	 * <p>
+	 * The content of the buffer is from its position to its limit.  The buffer may be read-only and
+	 * may be reused by the classpath manager once the class is defined; the hook must not modify the
+	 * buffer or keep a reference to it.
+	 * </p>
+	 * @param name the name of the class being defined
+	 * @param classbytes the bytes of the class being defined
+	 * @param classpathEntry the ClasspathEntry where the class bytes have been read from.
+	 * @param entry the BundleEntry source of the class bytes
+	 * @param manager the class path manager used to define the requested class
+	 * @return a buffer with the modified class bytes or null if the original bytes should be used.
+	 */
+	ByteBuffer processClass(String name, ByteBuffer classbytes, ClasspathEntry classpathEntry, BundleEntry entry, ClasspathManager manager);
+}
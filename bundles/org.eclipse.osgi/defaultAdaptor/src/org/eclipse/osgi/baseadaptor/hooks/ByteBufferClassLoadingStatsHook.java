@@ -0,0 +1,38 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.baseadaptor.hooks;
+
+import java.nio.ByteBuffer;
+import org.eclipse.osgi.baseadaptor.bundlefile.BundleEntry;
+import org.eclipse.osgi.baseadaptor.loader.*;
+
+/**
+ * A class loading stats hook which is able to record class definitions made from a
+ * <code>ByteBuffer</code>.  A classpath manager only defines classes from byte buffers
+ * if all the configured class loading stats hooks implement this interface.
+ * @see ByteBufferClassLoadingHook
+ * @since 3.8
+ */
+public interface ByteBufferClassLoadingStatsHook extends ClassLoadingStatsHook {
+	/**
+	 * Gets called by a classpath manager after a successfully defining a class from a byte buffer.
+	 * This method allows a class loading stat hook to record data about a class definition.
+	 * The buffer must not be modified and is only valid for the duration of this call.
+	 * @param name the name of the class that got defined
+	 * @param clazz the class object that got defined
+	 * @param classbytes the class bytes used to define the class
+	 * @param classpathEntry the ClasspathEntry where the class bytes got read from
+	 * @param entry the BundleEntry source of the class bytes
+	 * @param manager the classpath manager used to define the class
+	 */
+	void recordClassDefine(String name, Class<?> clazz, ByteBuffer classbytes, ClasspathEntry classpathEntry, BundleEntry entry, ClasspathManager manager);
+}
@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.baseadaptor.hooks;
+
+import org.eclipse.osgi.baseadaptor.loader.ClasspathManager;
+
+/**
+ * A class loading stats hook which records contention on the class name locks of a
+ * classpath manager.  Class name locks are used instead of the class loader lock when
+ * the <code>osgi.classloader.lock</code> property is set to <code>classname</code> or
+ * the class loader is parallel capable.
+ * @see ClasspathManager#findLocalClass(String)
+ * @since 3.8
+ */
+public interface ClassNameLockStatsHook extends ClassLoadingStatsHook {
+	/**
+	 * Gets called by a classpath manager after a thread waited for another thread to
+	 * finish loading a class with the same name.  A classpath manager will call this method
+	 * for each configured class loading stat hook which implements this interface.
+	 * @param name the name of the requested class
+	 * @param waitTime the time in milliseconds the thread waited for the class name lock
+	 * @param manager the classpath manager used to find and load the requested class
+	 */
+	void recordClassNameLockContention(String name, long waitTime, ClasspathManager manager);
+}
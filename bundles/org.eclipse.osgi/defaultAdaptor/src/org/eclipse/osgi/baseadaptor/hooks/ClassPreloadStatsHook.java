@@ -0,0 +1,30 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.baseadaptor.hooks;
+
+/**
+ * A class loading stats hook which records the results of preloading the startup
+ * classes of bundles while the framework is launched.  Classes are only preloaded
+ * when the <code>osgi.classloader.preload</code> property is set.
+ * @since 3.8
+ */
+public interface ClassPreloadStatsHook extends ClassLoadingStatsHook {
+	/**
+	 * Gets called by the class preloader after all of its worker threads exited.
+	 * The preloader will call this method for each configured class loading stat hook
+	 * which implements this interface.
+	 * @param hits the number of classes defined by the preloader before they were requested
+	 * @param wasted the number of classes which were already loaded or could not be preloaded
+	 * @param timeSaved the time in milliseconds the preloader spent defining the hit classes
+	 */
+	void recordClassPreload(long hits, long wasted, long timeSaved);
+}
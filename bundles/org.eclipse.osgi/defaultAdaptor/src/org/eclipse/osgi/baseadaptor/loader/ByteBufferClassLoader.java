@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.baseadaptor.loader;
+
+import java.nio.ByteBuffer;
+import org.eclipse.osgi.baseadaptor.bundlefile.BundleEntry;
+
+/**
+ * A base class loader which is able to define classes from a <code>ByteBuffer</code>.
+ * This allows the {@link ClasspathManager} to define classes from pooled or memory
+ * mapped buffers without copying the class bytes into a new array for each class.
+ * @see org.eclipse.osgi.baseadaptor.hooks.ByteBufferClassLoadingHook
+ * @since 3.8
+ */
+public interface ByteBufferClassLoader extends BaseClassLoader {
+	/**
+	 * Defines a Class from the remaining content of a byte buffer.
+	 * @param name the name of the class to define
+	 * @param classbytes the bytes of the class to define
+	 * @param classpathEntry the classpath entry used to load the class bytes
+	 * @param entry the bundle entry used to load the class bytes
+	 * @return a defined Class
+	 */
+	Class<?> defineClass(String name, ByteBuffer classbytes, ClasspathEntry classpathEntry, BundleEntry entry);
+}
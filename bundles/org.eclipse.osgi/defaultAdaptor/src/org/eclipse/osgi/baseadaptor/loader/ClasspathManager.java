@@ -11,22 +11,21 @@
 
 package org.eclipse.osgi.baseadaptor.loader;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.security.ProtectionDomain;
 import java.util.*;
 import org.eclipse.osgi.baseadaptor.BaseAdaptor;
 import org.eclipse.osgi.baseadaptor.BaseData;
 import org.eclipse.osgi.baseadaptor.bundlefile.BundleEntry;
 import org.eclipse.osgi.baseadaptor.bundlefile.BundleFile;
-import org.eclipse.osgi.baseadaptor.hooks.ClassLoadingHook;
-import org.eclipse.osgi.baseadaptor.hooks.ClassLoadingStatsHook;
+import org.eclipse.osgi.baseadaptor.bundlefile.ZipBundleFile;
+import org.eclipse.osgi.baseadaptor.hooks.*;
 import org.eclipse.osgi.framework.adaptor.*;
 import org.eclipse.osgi.framework.debug.Debug;
 import org.eclipse.osgi.framework.internal.core.FrameworkProperties;
-import org.eclipse.osgi.internal.baseadaptor.AdaptorMsg;
-import org.eclipse.osgi.internal.baseadaptor.ArrayMap;
+import org.eclipse.osgi.internal.baseadaptor.*;
 import org.eclipse.osgi.util.NLS;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.FrameworkEvent;
@@ -47,12 +46,17 @@ public class ClasspathManager {
 	private final static String PROP_CLASSLOADER_LOCK = "osgi.classloader.lock"; //$NON-NLS-1$
 	private final static String VALUE_CLASSNAME_LOCK = "classname"; //$NON-NLS-1$
 	private final static boolean LOCK_CLASSNAME = VALUE_CLASSNAME_LOCK.equals(FrameworkProperties.getProperty(PROP_CLASSLOADER_LOCK));
+	private final static String PROP_PACKAGE_INDEX = "osgi.classloader.packageIndex"; //$NON-NLS-1$
+	private final static boolean USE_PACKAGE_INDEX = "true".equals(FrameworkProperties.getProperty(PROP_PACKAGE_INDEX)); //$NON-NLS-1$
+	private final static String PROP_DEFINE_BUFFERS = "osgi.classloader.defineBuffers"; //$NON-NLS-1$
+	private final static boolean DEFINE_BUFFERS = !"false".equals(FrameworkProperties.getProperty(PROP_DEFINE_BUFFERS)) && isByteBufferAvailable(); //$NON-NLS-1$
 
 	private final BaseData data;
 	private final String[] classpath;
 	private final BaseClassLoader classloader;
 	private final boolean isParallelClassLoader;
-	private final Map<String, Thread> classNameLocks = new HashMap<String, Thread>(5);
+	// Map<String classname, ClassNameLock>; only contains the names of classes being loaded
+	private final Map<String, ClassNameLock> classNameLocks = new HashMap<String, ClassNameLock>(5);
 
 	// Note that PDE has internal dependency on this field type/name (bug 267238)
 	private ClasspathEntry[] entries;
@@ -62,6 +66,10 @@ public class ClasspathManager {
 	private ArrayMap<String, String> loadedLibraries = null;
 	// used to detect recusive defineClass calls for the same class on the same class loader (bug 345500)
 	private ThreadLocal<Collection<String>> currentlyDefining = new ThreadLocal<Collection<String>>();
+	// lazily built index of package directories to classpath entries; discarded when a fragment is inserted
+	private PackageIndex packageIndex;
+	// the persistent cache of class bytes; null if the cache is not enabled
+	private ClassBytesCache classBytesCache;
 
 	/**
 	 * Constructs a classpath manager for the given host base data, classpath and base class loader
@@ -86,6 +94,7 @@ public class ClasspathManager {
 	 */
 	public void initialize() {
 		entries = buildClasspath(classpath, this, data, classloader == null ? null : classloader.getDomain());
+		classBytesCache = ClassBytesCacheHook.getCache(data.getAdaptor());
 		ClassLoadingHook[] hooks = data.getAdaptor().getHookRegistry().getClassLoadingHooks();
 		if (classloader != null)
 			for (int i = 0; i < hooks.length; i++)
@@ -146,6 +155,22 @@ public class ClasspathManager {
 		if (insert == 0)
 			newFragments[fragments.length] = fragClasspath;
 		fragments = newFragments;
+		// the index must be rebuilt to include the new fragment entries
+		packageIndex = null;
+	}
+
+	/**
+	 * Returns the package index for the current classpath entries.  The index is built
+	 * the first time it is requested.
+	 * @return the package index or null if package indexing is not enabled with the
+	 * <code>osgi.classloader.packageIndex</code> property
+	 */
+	private synchronized PackageIndex getPackageIndex() {
+		if (!USE_PACKAGE_INDEX || entries == null)
+			return null;
+		if (packageIndex == null)
+			packageIndex = new PackageIndex(entries, fragments);
+		return packageIndex;
 	}
 
 	private static ClasspathEntry[] buildClasspath(String[] cp, ClasspathManager hostloader, BaseData sourcedata, ProtectionDomain sourcedomain) {
@@ -303,6 +328,21 @@ public class ClasspathManager {
 
 	private URL findLocalResourceImpl(String resource, int classPathIndex) {
 		URL result = null;
+		PackageIndex index = getPackageIndex();
+		if (index != null) {
+			int[] candidates = index.getResourceCandidates(resource);
+			if (candidates != null) {
+				for (int i = 0; i < candidates.length; i++) {
+					int curIndex = candidates[i];
+					if (classPathIndex != -1 && classPathIndex != curIndex)
+						continue;
+					result = findResourceImpl(resource, index.getEntry(curIndex).getBundleFile(), curIndex);
+					if (result != null)
+						return result;
+				}
+				return null;
+			}
+		}
 		int curIndex = 0;
 		for (int i = 0; i < entries.length; i++) {
 			if (entries[i] != null) {
@@ -464,7 +504,7 @@ public class ClasspathManager {
 	}
 
 	private Class<?> findLocalClass_LockClassName(String classname, ClassLoadingStatsHook[] hooks) throws ClassNotFoundException {
-		boolean initialLock = lockClassName(classname);
+		boolean initialLock = lockClassName(classname, hooks);
 		try {
 			return findLocalClassImpl(classname, hooks);
 		} finally {
@@ -485,6 +525,17 @@ public class ClasspathManager {
 		Class<?> result = classloader.publicFindLoaded(classname);
 		if (result != null)
 			return result;
+		PackageIndex index = getPackageIndex();
+		if (index != null) {
+			// only search the entries which contain the package of the class
+			int[] candidates = index.getClassCandidates(classname);
+			for (int i = 0; i < candidates.length; i++) {
+				result = findClassImpl(classname, index.getEntry(candidates[i]), hooks);
+				if (result != null)
+					return result;
+			}
+			throw new ClassNotFoundException(classname);
+		}
 		for (int i = 0; i < entries.length; i++) {
 			if (entries[i] != null) {
 				result = findClassImpl(classname, entries[i], hooks);
@@ -504,20 +555,31 @@ public class ClasspathManager {
 		throw new ClassNotFoundException(classname);
 	}
 
-	private boolean lockClassName(String classname) throws ClassNotFoundException {
-		synchronized (classNameLocks) {
-			Object lockingThread = classNameLocks.get(classname);
-			Thread current = Thread.currentThread();
-			if (lockingThread == current)
-				return false;
-			while (true) {
-				if (lockingThread == null) {
-					classNameLocks.put(classname, current);
-					return true;
-				}
+	private boolean lockClassName(String classname, ClassLoadingStatsHook[] hooks) throws ClassNotFoundException {
+		Thread current = Thread.currentThread();
+		long waitStart = 0;
+		while (true) {
+			ClassNameLock lock;
+			synchronized (classNameLocks) {
+				lock = classNameLocks.get(classname);
+				if (lock == null)
+					classNameLocks.put(classname, new ClassNameLock(current));
+				else if (lock.owner == current)
+					return false;
+			}
+			if (lock == null) {
+				// the hooks are called after the locks monitor is released
+				if (waitStart != 0)
+					recordClassNameLockContention(classname, System.currentTimeMillis() - waitStart, hooks);
+				return true;
+			}
+			if (waitStart == 0)
+				waitStart = System.currentTimeMillis();
+			// only threads loading the same class wait on the lock
+			synchronized (lock) {
 				try {
-					classNameLocks.wait();
-					lockingThread = classNameLocks.get(classname);
+					while (lock.owner != null)
+						lock.wait();
 				} catch (InterruptedException e) {
 					current.interrupt();
 					throw new ClassNotFoundException(classname, e);
@@ -527,23 +589,56 @@ public class ClasspathManager {
 	}
 
 	private void unlockClassName(String classname) {
+		ClassNameLock lock;
 		synchronized (classNameLocks) {
-			classNameLocks.remove(classname);
-			classNameLocks.notifyAll();
+			lock = classNameLocks.remove(classname);
 		}
+		if (lock == null)
+			return;
+		synchronized (lock) {
+			lock.owner = null;
+			lock.notifyAll();
+		}
+	}
+
+	private void recordClassNameLockContention(String classname, long waitTime, ClassLoadingStatsHook[] hooks) {
+		if (Debug.DEBUG_LOADER)
+			Debug.println("BundleClassLoader[" + data + "] waited " + waitTime + "ms for class name lock " + classname); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		for (int i = 0; i < hooks.length; i++)
+			if (hooks[i] instanceof ClassNameLockStatsHook)
+				((ClassNameLockStatsHook) hooks[i]).recordClassNameLockContention(classname, waitTime, this);
 	}
 
 	private Class<?> findClassImpl(String name, ClasspathEntry classpathEntry, ClassLoadingStatsHook[] hooks) {
 		if (Debug.DEBUG_LOADER)
 			Debug.println("BundleClassLoader[" + classpathEntry.getBundleFile() + "].findClass(" + name + ")"); //$NON-NLS-1$ //$NON-NLS-2$//$NON-NLS-3$
 		String filename = name.replace('.', '/').concat(".class"); //$NON-NLS-1$
-		BundleEntry entry = classpathEntry.getBundleFile().getEntry(filename);
-		if (entry == null)
-			return null;
+		// the class bytes cache is consulted before the entry is looked up in the bundle file
+		BaseData cacheData = getCacheData(classpathEntry);
+		ByteBuffer cached = cacheData == null ? null : classBytesCache.getClassBytes(cacheData.getBundleID(), cacheData.getLastModified(), classpathEntry.getBundleFile().getBaseFile().getPath(), filename);
+		BundleEntry entry;
+		if (cached != null) {
+			// the entry is only looked up if a hook needs more than the class bytes
+			entry = new CachedClassEntry(classpathEntry.getBundleFile(), filename, cached);
+		} else {
+			entry = classpathEntry.getBundleFile().getEntry(filename);
+			if (entry == null)
+				return null;
+		}
+
+		if (DEFINE_BUFFERS && canDefineBuffers(hooks))
+			return findClassBufferImpl(name, filename, classpathEntry, entry, hooks, cacheData, cached);
 
 		byte[] classbytes;
 		try {
-			classbytes = entry.getBytes();
+			if (cached != null) {
+				classbytes = new byte[cached.remaining()];
+				cached.get(classbytes);
+			} else {
+				classbytes = entry.getBytes();
+				if (cacheData != null)
+					classBytesCache.putClassBytes(cacheData.getBundleID(), cacheData.getLastModified(), classpathEntry.getBundleFile().getBaseFile().getPath(), filename, ByteBuffer.wrap(classbytes));
+			}
 		} catch (IOException e) {
 			if (Debug.DEBUG_LOADER)
 				Debug.println("  IOException reading " + filename + " from " + classpathEntry.getBundleFile()); //$NON-NLS-1$ //$NON-NLS-2$
@@ -555,11 +650,7 @@ public class ClasspathManager {
 			Debug.println("  defining class " + name); //$NON-NLS-1$
 		}
 
-		Collection<String> current = currentlyDefining.get();
-		if (current == null) {
-			current = new ArrayList<String>(5);
-			currentlyDefining.set(current);
-		}
+		Collection<String> current = getCurrentlyDefining();
 		if (current.contains(name))
 			return null; // avoid recursive defines (bug 345500)
 		try {
@@ -574,6 +665,96 @@ public class ClasspathManager {
 		}
 	}
 
+	private Class<?> findClassBufferImpl(String name, String filename, ClasspathEntry classpathEntry, BundleEntry entry, ClassLoadingStatsHook[] hooks, BaseData cacheData, ByteBuffer cached) {
+		ByteBuffer pooled = cached == null ? ClassBufferPool.acquire() : null;
+		try {
+			ByteBuffer classbytes = cached;
+			try {
+				if (classbytes == null) {
+					classbytes = entry.getByteBuffer(pooled);
+					if (cacheData != null)
+						classBytesCache.putClassBytes(cacheData.getBundleID(), cacheData.getLastModified(), classpathEntry.getBundleFile().getBaseFile().getPath(), filename, classbytes);
+				}
+			} catch (IOException e) {
+				if (Debug.DEBUG_LOADER)
+					Debug.println("  IOException reading " + filename + " from " + classpathEntry.getBundleFile()); //$NON-NLS-1$ //$NON-NLS-2$
+				return null;
+			}
+
+			if (Debug.DEBUG_LOADER) {
+				Debug.println("  read " + classbytes.remaining() + " bytes from " + classpathEntry.getBundleFile() + "/" + filename); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				Debug.println("  defining class " + name); //$NON-NLS-1$
+			}
+
+			Collection<String> current = getCurrentlyDefining();
+			if (current.contains(name))
+				return null; // avoid recursive defines (bug 345500)
+			try {
+				current.add(name);
+				return defineClass(name, classbytes, classpathEntry, entry, hooks);
+			} catch (Error e) {
+				if (Debug.DEBUG_LOADER)
+					Debug.println("  error defining class " + name); //$NON-NLS-1$
+				throw e;
+			} finally {
+				current.remove(name);
+			}
+		} finally {
+			// the class bytes have been consumed by the VM; the buffer can be reused
+			ClassBufferPool.release(pooled);
+		}
+	}
+
+	/*
+	 * Returns the base data used to key the cached bytes of the classes in the classpath entry
+	 * or null if the classes of the entry are not cached.  Only classes read from zip files are
+	 * cached; directories may change without the bundle being updated and wrapped bundle files
+	 * (e.g. signed content) must see the bytes of each class that is loaded.
+	 */
+	private BaseData getCacheData(ClasspathEntry classpathEntry) {
+		if (classBytesCache == null)
+			return null;
+		BundleFile bundleFile = classpathEntry.getBundleFile();
+		if (!(bundleFile instanceof ZipBundleFile || bundleFile instanceof MappedZipBundleFile))
+			return null;
+		return classpathEntry.getBaseData() != null ? classpathEntry.getBaseData() : data;
+	}
+
+	private Collection<String> getCurrentlyDefining() {
+		Collection<String> current = currentlyDefining.get();
+		if (current == null) {
+			current = new ArrayList<String>(5);
+			currentlyDefining.set(current);
+		}
+		return current;
+	}
+
+	/*
+	 * Classes can only be defined from byte buffers if the class loader and all the configured
+	 * hooks support byte buffers; otherwise the hooks must be given a byte array.
+	 */
+	private boolean canDefineBuffers(ClassLoadingStatsHook[] statsHooks) {
+		if (!(classloader instanceof ByteBufferClassLoader))
+			return false;
+		ClassLoadingHook[] hooks = data.getAdaptor().getHookRegistry().getClassLoadingHooks();
+		for (int i = 0; i < hooks.length; i++)
+			if (!(hooks[i] instanceof ByteBufferClassLoadingHook))
+				return false;
+		for (int i = 0; i < statsHooks.length; i++)
+			if (!(statsHooks[i] instanceof ByteBufferClassLoadingStatsHook))
+				return false;
+		return true;
+	}
+
+	private static boolean isByteBufferAvailable() {
+		try {
+			Class.forName("java.nio.ByteBuffer"); //$NON-NLS-1$
+			return true;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
 	/**
 	 * Defines the specified class.  This method will first call all the configured class loading hooks 
 	 * {@link ClassLoadingHook#processClass(String, byte[], ClasspathEntry, BundleEntry, ClasspathManager)} 
@@ -606,6 +787,33 @@ public class ClasspathManager {
 		return result;
 	}
 
+	/**
+	 * Defines the specified class from a byte buffer.  This is the same as 
+	 * {@link #defineClass(String, byte[], ClasspathEntry, BundleEntry, ClassLoadingStatsHook[])} except
+	 * that the byte buffer versions of the hook methods are called and the class is defined with 
+	 * {@link ByteBufferClassLoader#defineClass(String, ByteBuffer, ClasspathEntry, BundleEntry)}.
+	 * Callers must ensure the class loader and all the hooks support byte buffers.
+	 */
+	private Class<?> defineClass(String name, ByteBuffer classbytes, ClasspathEntry classpathEntry, BundleEntry entry, ClassLoadingStatsHook[] statsHooks) {
+		ClassLoadingHook[] hooks = data.getAdaptor().getHookRegistry().getClassLoadingHooks();
+		ByteBuffer modifiedBytes = classbytes;
+		Class<?> result = null;
+		try {
+			for (int i = 0; i < hooks.length; i++) {
+				modifiedBytes = ((ByteBufferClassLoadingHook) hooks[i]).processClass(name, classbytes, classpathEntry, entry, this);
+				if (modifiedBytes != null)
+					classbytes = modifiedBytes;
+			}
+
+			// define from a duplicate; the position of the buffer may be changed by the class loader
+			result = ((ByteBufferClassLoader) classloader).defineClass(name, classbytes.duplicate(), classpathEntry, entry);
+		} finally {
+			for (int i = 0; i < statsHooks.length; i++)
+				((ByteBufferClassLoadingStatsHook) statsHooks[i]).recordClassDefine(name, result, classbytes, classpathEntry, entry, this);
+		}
+		return result;
+	}
+
 	/**
 	 * Returns the host base data for this classpath manager
 	 * @return the host base data for this classpath manager
@@ -707,4 +915,183 @@ public class ClasspathManager {
 
 		return getBaseData().getAdaptor().listEntryPaths(bundleFiles, path, filePattern, options);
 	}
+
+	/**
+	 * An index of the package directories contained in the classpath entries of a 
+	 * classpath manager.  For each package directory the index holds the classpath 
+	 * indexes of the entries which contain the directory, in search order.  Entries 
+	 * which cannot be indexed are always searched.
+	 */
+	static final class PackageIndex {
+		private static final int[] EMPTY_CANDIDATES = new int[0];
+		// all the classpath entries; the array index is the classpath index of the entry
+		private final ClasspathEntry[] allEntries;
+		// classpath indexes of the entries which must always be searched
+		private final int[] unindexed;
+		private final Map<String, int[]> packages = new HashMap<String, int[]>();
+
+		PackageIndex(ClasspathEntry[] hostEntries, FragmentClasspath[] fragmentClasspaths) {
+			List<ClasspathEntry> all = new ArrayList<ClasspathEntry>(hostEntries.length);
+			for (int i = 0; i < hostEntries.length; i++)
+				all.add(hostEntries[i]);
+			for (int i = 0; i < fragmentClasspaths.length; i++) {
+				ClasspathEntry[] fragEntries = fragmentClasspaths[i].getEntries();
+				for (int j = 0; j < fragEntries.length; j++)
+					all.add(fragEntries[j]);
+			}
+			allEntries = all.toArray(new ClasspathEntry[all.size()]);
+
+			Map<String, List<Integer>> packageLists = new HashMap<String, List<Integer>>();
+			List<Integer> unindexedList = new ArrayList<Integer>(0);
+			for (int i = 0; i < allEntries.length; i++) {
+				if (allEntries[i] == null)
+					continue;
+				if (!indexEntry(allEntries[i].getBundleFile(), i, packageLists))
+					unindexedList.add(new Integer(i));
+			}
+			unindexed = toArray(unindexedList);
+			for (Map.Entry<String, List<Integer>> packageList : packageLists.entrySet()) {
+				List<Integer> candidates = packageList.getValue();
+				if (!unindexedList.isEmpty()) {
+					candidates.addAll(unindexedList);
+					Collections.sort(candidates);
+				}
+				packages.put(packageList.getKey(), toArray(candidates));
+			}
+		}
+
+		private static boolean indexEntry(BundleFile bundleFile, int cpIndex, Map<String, List<Integer>> packageLists) {
+			File baseFile = bundleFile.getBaseFile();
+			// the content of a directory may change at runtime (e.g. in development mode); do not index it
+			if (baseFile == null || baseFile.isDirectory())
+				return false;
+			Enumeration<String> paths = bundleFile.getEntryPaths("", true); //$NON-NLS-1$
+			if (paths == null)
+				return false;
+			Integer index = new Integer(cpIndex);
+			while (paths.hasMoreElements()) {
+				String path = paths.nextElement();
+				if (path.length() == 0 || path.charAt(path.length() - 1) == '/')
+					continue;
+				String dir = path.substring(0, path.lastIndexOf('/') + 1);
+				List<Integer> candidates = packageLists.get(dir);
+				if (candidates == null) {
+					candidates = new ArrayList<Integer>(1);
+					packageLists.put(dir, candidates);
+				}
+				if (candidates.isEmpty() || !candidates.get(candidates.size() - 1).equals(index))
+					candidates.add(index);
+			}
+			return true;
+		}
+
+		private static int[] toArray(List<Integer> list) {
+			if (list.isEmpty())
+				return EMPTY_CANDIDATES;
+			int[] result = new int[list.size()];
+			for (int i = 0; i < result.length; i++)
+				result[i] = list.get(i).intValue();
+			return result;
+		}
+
+		ClasspathEntry getEntry(int cpIndex) {
+			return allEntries[cpIndex];
+		}
+
+		int[] getClassCandidates(String classname) {
+			int lastDot = classname.lastIndexOf('.');
+			String dir = lastDot < 0 ? "" : classname.substring(0, lastDot + 1).replace('.', '/'); //$NON-NLS-1$
+			return getCandidates(dir);
+		}
+
+		/*
+		 * Returns null if the resource name cannot be handled by the index;
+		 * for example directory names and relative path segments.
+		 */
+		int[] getResourceCandidates(String resource) {
+			if (resource.length() > 0 && resource.charAt(0) == '/')
+				resource = resource.substring(1);
+			if (resource.length() == 0 || resource.charAt(resource.length() - 1) == '/' || resource.indexOf("./") >= 0 || resource.endsWith(".")) //$NON-NLS-1$ //$NON-NLS-2$
+				return null;
+			return getCandidates(resource.substring(0, resource.lastIndexOf('/') + 1));
+		}
+
+		private int[] getCandidates(String dir) {
+			int[] candidates = packages.get(dir);
+			return candidates == null ? unindexed : candidates;
+		}
+	}
+
+	/**
+	 * The lock of a class name.  Threads waiting for the class wait on the lock until
+	 * the owner is cleared by the thread which loaded the class.
+	 */
+	/*
+	 * The entry of a class whose bytes were found in the class bytes cache.  The content
+	 * is served from the cache; the entry of the bundle file is only looked up for the
+	 * other attributes.
+	 */
+	static final class CachedClassEntry extends BundleEntry {
+		private final BundleFile bundleFile;
+		private final String name;
+		private final ByteBuffer classbytes;
+		private BundleEntry entry;
+
+		CachedClassEntry(BundleFile bundleFile, String name, ByteBuffer classbytes) {
+			this.bundleFile = bundleFile;
+			this.name = name;
+			this.classbytes = classbytes;
+		}
+
+		private BundleEntry getEntry() {
+			if (entry == null)
+				entry = bundleFile.getEntry(name);
+			return entry;
+		}
+
+		public InputStream getInputStream() {
+			return new ByteArrayInputStream(getBytes());
+		}
+
+		public long getSize() {
+			return classbytes.remaining();
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getTime() {
+			BundleEntry bundleEntry = getEntry();
+			return bundleEntry == null ? -1 : bundleEntry.getTime();
+		}
+
+		public URL getLocalURL() {
+			BundleEntry bundleEntry = getEntry();
+			return bundleEntry == null ? null : bundleEntry.getLocalURL();
+		}
+
+		public URL getFileURL() {
+			BundleEntry bundleEntry = getEntry();
+			return bundleEntry == null ? null : bundleEntry.getFileURL();
+		}
+
+		public byte[] getBytes() {
+			byte[] bytes = new byte[classbytes.remaining()];
+			classbytes.duplicate().get(bytes);
+			return bytes;
+		}
+
+		public ByteBuffer getByteBuffer(ByteBuffer buffer) {
+			return classbytes.duplicate();
+		}
+	}
+
+	static final class ClassNameLock {
+		Thread owner;
+
+		ClassNameLock(Thread owner) {
+			this.owner = owner;
+		}
+	}
 }
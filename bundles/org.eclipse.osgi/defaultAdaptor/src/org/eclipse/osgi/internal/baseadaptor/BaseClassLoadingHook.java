@@ -12,11 +12,12 @@
 package org.eclipse.osgi.internal.baseadaptor;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 import java.security.ProtectionDomain;
 import java.util.ArrayList;
 import org.eclipse.osgi.baseadaptor.BaseData;
 import org.eclipse.osgi.baseadaptor.bundlefile.BundleEntry;
-import org.eclipse.osgi.baseadaptor.hooks.ClassLoadingHook;
+import org.eclipse.osgi.baseadaptor.hooks.ByteBufferClassLoadingHook;
 import org.eclipse.osgi.baseadaptor.loader.*;
 import org.eclipse.osgi.framework.adaptor.BundleProtectionDomain;
 import org.eclipse.osgi.framework.adaptor.ClassLoaderDelegate;
@@ -25,7 +26,7 @@ import org.eclipse.osgi.framework.internal.core.FrameworkProperties;
 import org.eclipse.osgi.util.ManifestElement;
 import org.osgi.framework.Constants;
 
-public class BaseClassLoadingHook implements ClassLoadingHook {
+public class BaseClassLoadingHook implements ByteBufferClassLoadingHook {
 	private static final String[] LIB_EXTENSIONS;
 	private static final String[] EMPTY_STRINGS = new String[0];
 	static {
@@ -114,6 +115,11 @@ public class BaseClassLoadingHook implements ClassLoadingHook {
 		return null;
 	}
 
+	public ByteBuffer processClass(String name, ByteBuffer classbytes, ClasspathEntry classpathEntry, BundleEntry entry, ClasspathManager manager) {
+		// do nothing
+		return null;
+	}
+
 	public byte[] processClass(String name, byte[] classbytes, ClasspathEntry classpathEntry, BundleEntry entry, ClasspathManager manager) {
 		// do nothing
 		return null;
@@ -1144,6 +1144,14 @@ public class BaseStorage implements SynchronousBundleListener {
 		return bundleStoreRoot;
 	}
 
+	/**
+	 * Returns the MRU list which limits the number of bundle files this storage keeps open
+	 * @return the MRU list of open bundle files
+	 */
+	public MRUBundleFileList getMRUBundleFileList() {
+		return mruList;
+	}
+
 	/**
 	 * Returns a list of classpath files for an extension bundle
 	 * @param bundleData the bundle data for an extension bundle
@@ -45,6 +45,7 @@ public class BundleUninstall implements BundleOperation {
 	 * @throws BundleException If a failure occured modifiying peristent storage.
 	 */
 	public void commit(boolean postpone) throws BundleException {
+		ClassBytesCacheHook.invalidate(data);
 		BaseStorageHook storageHook = (BaseStorageHook) data.getStorageHook(BaseStorageHook.KEY);
 		try {
 			storageHook.delete(postpone, BaseStorageHook.DEL_BUNDLE_STORE);
@@ -115,6 +115,7 @@ public class BundleUpdate implements BundleOperation {
 	 */
 
 	public void commit(boolean postpone) throws BundleException {
+		ClassBytesCacheHook.invalidate(data);
 		storage.processExtension(data, BaseStorage.EXTENSION_UNINSTALLED); // remove the old extension
 		storage.processExtension(newData, BaseStorage.EXTENSION_UPDATED); // update to the new one
 		newData.setLastModified(System.currentTimeMillis()); // save the last modified
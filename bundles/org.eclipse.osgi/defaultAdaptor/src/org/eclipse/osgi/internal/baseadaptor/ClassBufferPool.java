@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.internal.baseadaptor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Small per thread pools of heap byte buffers used to read class bytes before they
+ * are defined.  Class definitions may nest (defining a class may load its super class
+ * on the same thread) so a buffer is acquired for each definition and released once
+ * the class is defined.  Each thread only uses its own pool so no locking is needed;
+ * a thread keeps at most {@link #MAX_POOLED} buffers of at most {@link #MAX_BUFFER_SIZE}
+ * bytes.
+ */
+public class ClassBufferPool {
+	/**
+	 * The capacity of a new buffer.
+	 */
+	public static final int BUFFER_SIZE = 16 * 1024;
+	/**
+	 * Buffers with a larger capacity are not pooled.
+	 */
+	public static final int MAX_BUFFER_SIZE = 64 * 1024;
+	/**
+	 * The maximum number of buffers pooled by one thread.
+	 */
+	public static final int MAX_POOLED = 4;
+
+	private static final ThreadLocal<Pool> pools = new ThreadLocal<Pool>();
+
+	private ClassBufferPool() {
+		// no instances
+	}
+
+	/**
+	 * Returns a cleared buffer from the pool of the current thread or a new buffer
+	 * if the pool is empty.
+	 * @return a cleared buffer
+	 */
+	public static ByteBuffer acquire() {
+		Pool pool = pools.get();
+		if (pool != null && pool.pooled > 0) {
+			ByteBuffer result = pool.buffers[--pool.pooled];
+			pool.buffers[pool.pooled] = null;
+			result.clear();
+			return result;
+		}
+		return ByteBuffer.allocate(BUFFER_SIZE);
+	}
+
+	/**
+	 * Returns a buffer to the pool of the current thread.  Buffers which are too large,
+	 * direct or read-only are discarded, as are buffers released to a full pool.
+	 * @param buffer the buffer to release
+	 */
+	public static void release(ByteBuffer buffer) {
+		if (buffer == null || buffer.isDirect() || buffer.isReadOnly() || buffer.capacity() > MAX_BUFFER_SIZE)
+			return;
+		Pool pool = pools.get();
+		if (pool == null) {
+			pool = new Pool();
+			pools.set(pool);
+		}
+		if (pool.pooled < MAX_POOLED)
+			pool.buffers[pool.pooled++] = buffer;
+	}
+
+	/**
+	 * The buffers pooled by one thread.
+	 */
+	private static class Pool {
+		final ByteBuffer[] buffers = new ByteBuffer[MAX_POOLED];
+		int pooled = 0;
+	}
+}
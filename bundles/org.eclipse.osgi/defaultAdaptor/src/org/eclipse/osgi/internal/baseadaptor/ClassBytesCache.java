@@ -0,0 +1,425 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.internal.baseadaptor;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import org.eclipse.osgi.framework.debug.Debug;
+
+/**
+ * A persistent cache of uncompressed class bytes.  The cache is an append-only file
+ * of records.  Each class record holds the bundle id, the bundle timestamp, the path
+ * of the bundle file (classpath entry), the name of the class entry and the class bytes.
+ * An invalidate record discards all the records of a bundle which precede it.
+ * <p>
+ * The content of the file is memory mapped when the cache is opened and classes are
+ * read from the mapping.  Classes recorded after the cache is opened are appended to
+ * the file and are available from the mapping the next time the cache is opened.
+ * </p>
+ * <p>
+ * The mapping and its index do not change once the cache is opened; invalidating a
+ * bundle publishes a new index.  Cached classes are read without locking the cache.
+ * </p>
+ */
+public class ClassBytesCache {
+	private static final int FILE_MAGIC = 0x43424331; // CBC1
+	private static final byte TYPE_CLASS = 1;
+	private static final byte TYPE_INVALIDATE = 2;
+
+	private final File file;
+	private final long maxSize;
+	// the mapped content and its index; null if nothing is mapped
+	private volatile Mapping mapping;
+	// keys of the classes appended since the cache was opened
+	private final Set<String> appended = new HashSet<String>();
+	private DataOutputStream out;
+	private long startSize;
+	private long size;
+	// the counts are not synchronized; they may miss concurrent updates
+	private volatile long hits = 0;
+	private volatile long misses = 0;
+
+	/**
+	 * Creates a class bytes cache backed by the specified file.
+	 * @param file the cache file
+	 * @param maxSize the maximum size of the cache file; classes which would make the
+	 * file exceed this size are not appended
+	 */
+	public ClassBytesCache(File file, long maxSize) {
+		this.file = file;
+		this.maxSize = Math.min(maxSize, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Opens the cache.  The existing content of the cache file is mapped and indexed.
+	 * If the file is corrupt its content is discarded.
+	 * @param readOnly true if new classes must not be appended to the cache file
+	 */
+	public synchronized void open(boolean readOnly) {
+		ByteBuffer mapped = null;
+		// Map<Long bundleId, BundleClasses> built from the mapped content
+		Map<Long, BundleClasses> index = new HashMap<Long, BundleClasses>();
+		long goodLength = 0;
+		if (file.isFile() && file.length() <= Integer.MAX_VALUE) {
+			try {
+				if (!readOnly) {
+					// drop a partially written record before the file is mapped;
+					// a mapped file cannot be truncated on some platforms
+					goodLength = scanLength();
+					if (goodLength != 0 && goodLength != file.length()) {
+						RandomAccessFile raf = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+						try {
+							raf.setLength(goodLength);
+						} finally {
+							raf.close();
+						}
+					}
+				}
+				if (readOnly || goodLength != 0) {
+					FileInputStream in = new FileInputStream(file);
+					try {
+						FileChannel channel = in.getChannel();
+						mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+					} finally {
+						in.close();
+					}
+					goodLength = readIndex(mapped, index);
+					if (!readOnly && goodLength != mapped.limit()) {
+						// the content is corrupt; use what was read but do not append after it
+						mapped.limit((int) goodLength);
+						mapping = new Mapping(mapped, index);
+						return;
+					}
+				}
+			} catch (IOException e) {
+				if (Debug.DEBUG_LOADER)
+					Debug.printStackTrace(e);
+				mapped = null;
+				index.clear();
+				goodLength = 0;
+			}
+		}
+		mapping = mapped == null ? null : new Mapping(mapped, index);
+		if (readOnly)
+			return;
+		try {
+			if (goodLength == 0) {
+				// a new or corrupt cache file
+				mapping = null;
+				if (file.exists() && !file.delete())
+					return;
+			}
+			File parent = file.getParentFile();
+			if (parent != null && !parent.exists())
+				parent.mkdirs();
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+			startSize = goodLength;
+			if (goodLength == 0)
+				out.writeInt(FILE_MAGIC);
+			size = startSize + out.size();
+		} catch (IOException e) {
+			// continue without appending to the cache
+			if (Debug.DEBUG_LOADER)
+				Debug.printStackTrace(e);
+			out = null;
+		}
+	}
+
+	/*
+	 * Reads the record headers of the cache file, skipping the class bytes, and returns
+	 * the length of the complete records.
+	 */
+	private long scanLength() throws IOException {
+		long fileLength = file.length();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		long good = 0;
+		try {
+			if (in.readInt() != FILE_MAGIC)
+				return 0;
+			good = 4;
+			int type;
+			while ((type = in.read()) != -1) {
+				in.readLong(); // bundle id
+				long recordLength = 1 + 8;
+				if (type == TYPE_CLASS) {
+					in.readLong(); // timestamp
+					int bundleFileLength = in.readUnsignedShort();
+					skipFully(in, bundleFileLength);
+					int entryNameLength = in.readUnsignedShort();
+					skipFully(in, entryNameLength);
+					int length = in.readInt();
+					if (length < 0)
+						break;
+					skipFully(in, length);
+					recordLength += 8 + 2 + bundleFileLength + 2 + entryNameLength + 4 + length;
+				} else if (type != TYPE_INVALIDATE) {
+					break;
+				}
+				if (good + recordLength > fileLength)
+					break;
+				good += recordLength;
+			}
+		} catch (EOFException e) {
+			// a partially written record
+		} finally {
+			in.close();
+		}
+		return good;
+	}
+
+	private static void skipFully(InputStream in, long n) throws IOException {
+		while (n > 0) {
+			long skipped = in.skip(n);
+			if (skipped <= 0) {
+				if (in.read() == -1)
+					throw new EOFException();
+				skipped = 1;
+			}
+			n -= skipped;
+		}
+	}
+
+	/*
+	 * Reads the records of the mapped content and returns the length of the content
+	 * which was read successfully.
+	 */
+	private static long readIndex(ByteBuffer mapped, Map<Long, BundleClasses> index) {
+		ByteBuffer buffer = mapped.duplicate();
+		if (buffer.remaining() < 4 || buffer.getInt() != FILE_MAGIC)
+			return 0;
+		int good = buffer.position();
+		try {
+			while (buffer.hasRemaining()) {
+				byte type = buffer.get();
+				Long bundleId = new Long(buffer.getLong());
+				if (type == TYPE_INVALIDATE) {
+					index.remove(bundleId);
+				} else if (type == TYPE_CLASS) {
+					long timestamp = buffer.getLong();
+					String bundleFile = readUTF(buffer);
+					String entryName = readUTF(buffer);
+					int length = buffer.getInt();
+					int offset = buffer.position();
+					if (length < 0 || length > buffer.remaining())
+						break;
+					buffer.position(offset + length);
+					BundleClasses classes = index.get(bundleId);
+					if (classes == null || classes.timestamp != timestamp) {
+						// a newer version of the bundle replaces the old classes
+						classes = new BundleClasses(timestamp);
+						index.put(bundleId, classes);
+					}
+					classes.put(bundleFile, entryName, offset, length);
+				} else {
+					break;
+				}
+				good = buffer.position();
+			}
+		} catch (RuntimeException e) {
+			// a partially written record (BufferUnderflowException)
+		} catch (IOException e) {
+			// a corrupt string
+		}
+		return good;
+	}
+
+	private static String readUTF(ByteBuffer buffer) throws IOException {
+		// the string is written with DataOutputStream.writeUTF; read it back the same way
+		int length = buffer.getShort() & 0xFFFF;
+		byte[] bytes = new byte[length + 2];
+		bytes[0] = (byte) (length >>> 8);
+		bytes[1] = (byte) length;
+		buffer.get(bytes, 2, length);
+		return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+	}
+
+	/**
+	 * Returns the cached bytes of a class.
+	 * @param bundleId the id of the bundle which contains the class
+	 * @param timestamp the last modified time of the bundle
+	 * @param bundleFile the path of the bundle file the class entry is in
+	 * @param entryName the name of the class entry
+	 * @return a read-only buffer with the class bytes or null if the class is not cached
+	 */
+	public ByteBuffer getClassBytes(long bundleId, long timestamp, String bundleFile, String entryName) {
+		Mapping current = mapping;
+		if (current == null)
+			return null;
+		BundleClasses classes = current.index.get(new Long(bundleId));
+		if (classes == null || classes.timestamp != timestamp)
+			return null;
+		long location = classes.get(bundleFile, entryName);
+		if (location == -1)
+			return null;
+		hits++;
+		// the position and limit of the mapped buffer never change; duplicates may be created concurrently
+		ByteBuffer result = current.buffer.duplicate();
+		int offset = (int) (location >>> 32);
+		result.position(offset);
+		result.limit(offset + (int) location);
+		return result.slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * Appends the bytes of a class to the cache file.  This is called for the classes
+	 * which were read from their bundle because they are not cached.
+	 * @param bundleId the id of the bundle which contains the class
+	 * @param timestamp the last modified time of the bundle
+	 * @param bundleFile the path of the bundle file the class entry is in
+	 * @param entryName the name of the class entry
+	 * @param classbytes the remaining content of the buffer is the class bytes; the
+	 * position of the buffer is not changed
+	 */
+	public synchronized void putClassBytes(long bundleId, long timestamp, String bundleFile, String entryName, ByteBuffer classbytes) {
+		misses++;
+		if (out == null)
+			return;
+		int length = classbytes.remaining();
+		// stop appending rather than grow the file past the maximum size
+		if (size + 1 + 8 + 8 + 2 + 2 + bundleFile.length() * 3 + entryName.length() * 3 + 4 + length > maxSize)
+			return;
+		if (!appended.add(bundleId + "/" + timestamp + "/" + bundleFile + "!" + entryName)) //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			return;
+		try {
+			out.writeByte(TYPE_CLASS);
+			out.writeLong(bundleId);
+			out.writeLong(timestamp);
+			out.writeUTF(bundleFile);
+			out.writeUTF(entryName);
+			out.writeInt(length);
+			if (classbytes.hasArray()) {
+				out.write(classbytes.array(), classbytes.arrayOffset() + classbytes.position(), length);
+			} else {
+				byte[] bytes = new byte[length];
+				classbytes.duplicate().get(bytes);
+				out.write(bytes);
+			}
+			// the stream is flushed when the cache is closed
+			size = startSize + out.size();
+		} catch (IOException e) {
+			appendFailed(e);
+		}
+	}
+
+	/**
+	 * Discards all the cached classes of a bundle.  This is called when a bundle
+	 * is updated or uninstalled.
+	 * @param bundleId the id of the bundle
+	 */
+	public synchronized void invalidate(long bundleId) {
+		Long id = new Long(bundleId);
+		Mapping current = mapping;
+		if (current != null && current.index.containsKey(id)) {
+			// readers use the index without locking; publish a copy
+			Map<Long, BundleClasses> index = new HashMap<Long, BundleClasses>(current.index);
+			index.remove(id);
+			mapping = new Mapping(current.buffer, index);
+		}
+		for (Iterator<String> keys = appended.iterator(); keys.hasNext();)
+			if (keys.next().startsWith(bundleId + "/")) //$NON-NLS-1$
+				keys.remove();
+		if (out == null)
+			return;
+		try {
+			out.writeByte(TYPE_INVALIDATE);
+			out.writeLong(bundleId);
+			out.flush();
+			size = startSize + out.size();
+		} catch (IOException e) {
+			appendFailed(e);
+		}
+	}
+
+	private void appendFailed(IOException e) {
+		if (Debug.DEBUG_LOADER)
+			Debug.printStackTrace(e);
+		// stop appending; a partially written record is discarded the next time the cache is opened
+		try {
+			out.close();
+		} catch (IOException ee) {
+			// nothing to do
+		}
+		out = null;
+	}
+
+	/**
+	 * Closes the cache.
+	 */
+	public synchronized void close() {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				if (Debug.DEBUG_LOADER)
+					Debug.printStackTrace(e);
+			}
+			out = null;
+		}
+		mapping = null;
+		appended.clear();
+	}
+
+	public long getHitCount() {
+		return hits;
+	}
+
+	public long getMissCount() {
+		return misses;
+	}
+
+	public synchronized String toString() {
+		return "ClassBytesCache[" + file + ", size=" + size + ", hits=" + hits + ", misses=" + misses + "]"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+	}
+
+	/**
+	 * The mapped content of the cache file and the index of the classes it contains.
+	 */
+	private static class Mapping {
+		final ByteBuffer buffer;
+		// Map<Long bundleId, BundleClasses>; not modified once the mapping is published
+		final Map<Long, BundleClasses> index;
+
+		Mapping(ByteBuffer buffer, Map<Long, BundleClasses> index) {
+			this.buffer = buffer;
+			this.index = index;
+		}
+	}
+
+	/**
+	 * The cached classes of one version of a bundle.
+	 */
+	private static class BundleClasses {
+		final long timestamp;
+		// Map<String bundleFile, Map<String entryName, Long offset << 32 | length>>
+		private final Map<String, Map<String, Long>> files = new HashMap<String, Map<String, Long>>(2);
+
+		BundleClasses(long timestamp) {
+			this.timestamp = timestamp;
+		}
+
+		void put(String bundleFile, String entryName, int offset, int length) {
+			Map<String, Long> entries = files.get(bundleFile);
+			if (entries == null) {
+				entries = new HashMap<String, Long>();
+				files.put(bundleFile, entries);
+			}
+			entries.put(entryName, new Long(((long) offset << 32) | (length & 0xFFFFFFFFL)));
+		}
+
+		long get(String bundleFile, String entryName) {
+			Map<String, Long> entries = files.get(bundleFile);
+			Long location = entries == null ? null : entries.get(entryName);
+			return location == null ? -1 : location.longValue();
+		}
+	}
+}
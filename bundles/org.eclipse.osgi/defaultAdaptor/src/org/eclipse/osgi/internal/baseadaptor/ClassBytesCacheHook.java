@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.internal.baseadaptor;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URLConnection;
+import java.util.Properties;
+import org.eclipse.core.runtime.adaptor.LocationManager;
+import org.eclipse.osgi.baseadaptor.*;
+import org.eclipse.osgi.baseadaptor.hooks.AdaptorHook;
+import org.eclipse.osgi.framework.debug.Debug;
+import org.eclipse.osgi.framework.internal.core.FrameworkProperties;
+import org.eclipse.osgi.framework.log.FrameworkLog;
+import org.osgi.framework.BundleContext;
+
+/**
+ * An adaptor hook which manages the persistent {@link ClassBytesCache} in the
+ * configuration area.  The hook is only added if the <code>osgi.classloader.classCache</code>
+ * property is set to <code>true</code>.  The maximum size of the cache file in bytes
+ * may be set with the <code>osgi.classloader.classCache.maxSize</code> property.
+ */
+public class ClassBytesCacheHook implements HookConfigurator, AdaptorHook {
+	public static final String PROP_CLASS_CACHE = "osgi.classloader.classCache"; //$NON-NLS-1$
+	public static final String PROP_CLASS_CACHE_MAX_SIZE = "osgi.classloader.classCache.maxSize"; //$NON-NLS-1$
+	private static final String CLASS_CACHE_FILE = ".classcache"; //$NON-NLS-1$
+	private static final long DEFAULT_MAX_SIZE = 128 * 1024 * 1024;
+
+	private volatile ClassBytesCache cache;
+
+	/**
+	 * Returns the class bytes cache of the specified adaptor.
+	 * @param adaptor the adaptor
+	 * @return the class bytes cache or null if the cache is not enabled
+	 */
+	public static ClassBytesCache getCache(BaseAdaptor adaptor) {
+		AdaptorHook[] hooks = adaptor.getHookRegistry().getAdaptorHooks();
+		for (int i = 0; i < hooks.length; i++)
+			if (hooks[i] instanceof ClassBytesCacheHook)
+				return ((ClassBytesCacheHook) hooks[i]).cache;
+		return null;
+	}
+
+	/**
+	 * Discards the cached classes of the specified bundle.
+	 * @param data the bundle data which is updated or uninstalled
+	 */
+	public static void invalidate(BaseData data) {
+		ClassBytesCache classCache = getCache(data.getAdaptor());
+		if (classCache != null)
+			classCache.invalidate(data.getBundleID());
+	}
+
+	public void addHooks(HookRegistry hookRegistry) {
+		if (!"true".equals(FrameworkProperties.getProperty(PROP_CLASS_CACHE))) //$NON-NLS-1$
+			return;
+		try {
+			Class.forName("java.nio.channels.FileChannel"); //$NON-NLS-1$
+		} catch (ClassNotFoundException e) {
+			// memory mapped files are not available
+			return;
+		}
+		hookRegistry.addAdaptorHook(this);
+	}
+
+	public void initialize(BaseAdaptor adaptor) {
+		File configDir = LocationManager.getOSGiConfigurationDir();
+		if (configDir == null)
+			return;
+		long maxSize = DEFAULT_MAX_SIZE;
+		String maxSizeProp = FrameworkProperties.getProperty(PROP_CLASS_CACHE_MAX_SIZE);
+		if (maxSizeProp != null) {
+			try {
+				maxSize = Long.parseLong(maxSizeProp);
+			} catch (NumberFormatException e) {
+				// use the default
+			}
+		}
+		boolean readOnly = LocationManager.getConfigurationLocation().isReadOnly();
+		ClassBytesCache classCache = new ClassBytesCache(new File(configDir, CLASS_CACHE_FILE), maxSize);
+		classCache.open(readOnly);
+		cache = classCache;
+	}
+
+	public void frameworkStart(BundleContext context) {
+		// nothing
+	}
+
+	public void frameworkStop(BundleContext context) {
+		if (cache == null)
+			return;
+		if (Debug.DEBUG_LOADER)
+			Debug.println(cache.toString());
+		cache.close();
+		cache = null;
+	}
+
+	public void frameworkStopping(BundleContext context) {
+		// nothing
+	}
+
+	public void addProperties(Properties properties) {
+		// nothing
+	}
+
+	public URLConnection mapLocationToURLConnection(String location) throws IOException {
+		return null;
+	}
+
+	public void handleRuntimeError(Throwable error) {
+		// nothing
+	}
+
+	public FrameworkLog createFrameworkLog() {
+		return null;
+	}
+}
@@ -15,6 +15,7 @@ import java.io.IOException;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.security.*;
 import java.security.cert.Certificate;
 import java.util.*;
@@ -34,7 +35,7 @@ import org.osgi.framework.Bundle;
  * @see BaseClassLoader
  * @see ClasspathManager
  */
-public class DefaultClassLoader extends ClassLoader implements ParallelClassLoader {
+public class DefaultClassLoader extends ClassLoader implements ParallelClassLoader, ByteBufferClassLoader {
 	/**
 	 * A PermissionCollection for AllPermissions; shared across all ProtectionDomains when security is disabled
 	 */
@@ -188,6 +189,10 @@ public class DefaultClassLoader extends ClassLoader implements ParallelClassLoad
 		return defineClass(name, classbytes, 0, classbytes.length, classpathEntry.getDomain());
 	}
 
+	public Class<?> defineClass(String name, ByteBuffer classbytes, ClasspathEntry classpathEntry, BundleEntry entry) {
+		return defineClass(name, classbytes, classpathEntry.getDomain());
+	}
+
 	public Class<?> publicFindLoaded(String classname) {
 		return findLoadedClass(classname);
 	}
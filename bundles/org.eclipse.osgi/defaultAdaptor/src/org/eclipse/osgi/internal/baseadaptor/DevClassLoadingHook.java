@@ -12,18 +12,19 @@
 package org.eclipse.osgi.internal.baseadaptor;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 import java.security.ProtectionDomain;
 import java.util.ArrayList;
 import org.eclipse.osgi.baseadaptor.*;
 import org.eclipse.osgi.baseadaptor.bundlefile.BundleEntry;
 import org.eclipse.osgi.baseadaptor.bundlefile.BundleFile;
-import org.eclipse.osgi.baseadaptor.hooks.ClassLoadingHook;
+import org.eclipse.osgi.baseadaptor.hooks.ByteBufferClassLoadingHook;
 import org.eclipse.osgi.baseadaptor.loader.*;
 import org.eclipse.osgi.framework.adaptor.BundleProtectionDomain;
 import org.eclipse.osgi.framework.adaptor.ClassLoaderDelegate;
 import org.eclipse.osgi.framework.util.KeyedElement;
 
-public class DevClassLoadingHook implements ClassLoadingHook, HookConfigurator, KeyedElement {
+public class DevClassLoadingHook implements ByteBufferClassLoadingHook, HookConfigurator, KeyedElement {
 	public static final String KEY = DevClassLoadingHook.class.getName();
 	public static final int HASHCODE = KEY.hashCode();
 	private static final String FRAGMENT = "@fragment@"; //$NON-NLS-1$
@@ -33,6 +34,11 @@ public class DevClassLoadingHook implements ClassLoadingHook, HookConfigurator,
 		return null;
 	}
 
+	public ByteBuffer processClass(String name, ByteBuffer classbytes, ClasspathEntry classpathEntry, BundleEntry entry, ClasspathManager manager) {
+		// Do nothing
+		return null;
+	}
+
 	public boolean addClassPathEntry(ArrayList<ClasspathEntry> cpEntries, String cp, ClasspathManager hostmanager, BaseData sourcedata, ProtectionDomain sourcedomain) {
 		// first check that we are in devmode for this sourcedata
 		String[] devClassPath = !DevClassPathHelper.inDevelopmentMode() ? null : DevClassPathHelper.getDevClassPath(sourcedata.getSymbolicName());
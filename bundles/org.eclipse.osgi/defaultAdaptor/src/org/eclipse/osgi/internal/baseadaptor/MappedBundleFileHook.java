@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.internal.baseadaptor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.zip.ZipException;
+import org.eclipse.osgi.baseadaptor.*;
+import org.eclipse.osgi.baseadaptor.bundlefile.BundleFile;
+import org.eclipse.osgi.baseadaptor.bundlefile.MRUBundleFileList;
+import org.eclipse.osgi.baseadaptor.hooks.BundleFileFactoryHook;
+import org.eclipse.osgi.framework.debug.Debug;
+import org.eclipse.osgi.framework.internal.core.FrameworkProperties;
+
+/**
+ * A bundle file factory which creates {@link MappedZipBundleFile} objects for
+ * bundles installed as zip files.  The factory is only added if the
+ * <code>osgi.bundlefile.mapped</code> property is set to <code>true</code>.
+ * Zip files which cannot be indexed (for example ZIP64 files) or mapped are left
+ * to the default bundle file implementation.  The mapped bundle files share the
+ * MRU list of open bundle files with the default implementation.
+ */
+public class MappedBundleFileHook implements HookConfigurator, BundleFileFactoryHook {
+	public static final String PROP_MAPPED_BUNDLEFILE = "osgi.bundlefile.mapped"; //$NON-NLS-1$
+
+	public void addHooks(HookRegistry hookRegistry) {
+		if (!"true".equals(FrameworkProperties.getProperty(PROP_MAPPED_BUNDLEFILE))) //$NON-NLS-1$
+			return;
+		try {
+			Class.forName("java.nio.channels.FileChannel"); //$NON-NLS-1$
+		} catch (ClassNotFoundException e) {
+			// memory mapped files are not available
+			return;
+		}
+		hookRegistry.addBundleFileFactoryHook(this);
+	}
+
+	public BundleFile createBundleFile(Object content, BaseData data, boolean base) throws IOException {
+		if (!(content instanceof File))
+			return null;
+		File file = (File) content;
+		if (!file.isFile() || file.length() >= Integer.MAX_VALUE)
+			return null;
+		try {
+			return MappedZipBundleFile.create(file, data, getMRUBundleFileList(data));
+		} catch (ZipException e) {
+			// not a zip file we can index; use the default implementation
+			if (Debug.DEBUG_GENERAL)
+				Debug.println("Unable to index zip file " + file + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+			return null;
+		} catch (IOException e) {
+			// the file cannot be mapped (e.g. the address space is exhausted); use the default implementation
+			if (Debug.DEBUG_GENERAL)
+				Debug.println("Unable to map zip file " + file + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+			return null;
+		}
+	}
+
+	private static MRUBundleFileList getMRUBundleFileList(BaseData data) {
+		if (data == null)
+			return null;
+		BaseStorageHook storageHook = (BaseStorageHook) data.getStorageHook(BaseStorageHook.KEY);
+		return storageHook == null ? null : storageHook.getStorage().getMRUBundleFileList();
+	}
+}
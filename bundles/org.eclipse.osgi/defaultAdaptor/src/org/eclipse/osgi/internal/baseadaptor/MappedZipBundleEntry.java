@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.internal.baseadaptor;
+
+import java.io.*;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import org.eclipse.osgi.baseadaptor.bundlefile.BundleEntry;
+
+/**
+ * A BundleEntry for an entry of a {@link MappedZipBundleFile}.  The entry only
+ * holds the index of the entry in the {@link ZipIndex} of the bundle file.  Entries
+ * for directories which do not have their own zip entry use an index of -1.
+ */
+public class MappedZipBundleEntry extends BundleEntry {
+	private final MappedZipBundleFile bundleFile;
+	private final String name;
+	private final int index;
+
+	MappedZipBundleEntry(MappedZipBundleFile bundleFile, String name, int index) {
+		this.bundleFile = bundleFile;
+		this.name = name;
+		this.index = index;
+	}
+
+	public InputStream getInputStream() throws IOException {
+		if (index < 0)
+			return new ByteArrayInputStream(new byte[0]);
+		return bundleFile.getInputStream(index);
+	}
+
+	/**
+	 * Returns a read-only view of the mapped content for stored entries so that
+	 * the content is not copied.  The content is copied if the file cannot be mapped.
+	 */
+	public ByteBuffer getByteBuffer(ByteBuffer buffer) throws IOException {
+		if (index >= 0 && bundleFile.getIndex().getMethod(index) == ZipIndex.STORED) {
+			ByteBuffer content = bundleFile.getRawContent(index);
+			if (content != null)
+				return content;
+		}
+		return super.getByteBuffer(buffer);
+	}
+
+	public long getSize() {
+		return index < 0 ? 0 : bundleFile.getIndex().getSize(index);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getTime() {
+		return index < 0 ? 0 : bundleFile.getIndex().getTime(index);
+	}
+
+	@SuppressWarnings("deprecation")
+	public URL getLocalURL() {
+		try {
+			return new URL("jar:" + bundleFile.getBaseFile().toURL() + "!/" + name); //$NON-NLS-1$ //$NON-NLS-2$
+		} catch (MalformedURLException e) {
+			//This can not happen, unless the jar protocol is not supported.
+			return null;
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	public URL getFileURL() {
+		try {
+			File file = bundleFile.getFile(name, false);
+			if (file != null)
+				return file.toURL();
+		} catch (MalformedURLException e) {
+			//This can not happen.
+		}
+		return null;
+	}
+}
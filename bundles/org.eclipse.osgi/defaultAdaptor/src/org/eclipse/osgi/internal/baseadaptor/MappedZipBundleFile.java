@@ -0,0 +1,468 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.internal.baseadaptor;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.*;
+import org.eclipse.osgi.baseadaptor.BaseData;
+import org.eclipse.osgi.baseadaptor.bundlefile.*;
+import org.eclipse.osgi.framework.debug.Debug;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * A BundleFile that reads the content of a zip file from a read-only memory mapping
+ * of the file.  Entries are located with a {@link ZipIndex} of the central directory
+ * instead of a {@link ZipFile}; no {@link ZipEntry} objects are created to look up
+ * or read an entry.
+ * <p>
+ * The file channel is closed as soon as the file has been mapped, but the mapping
+ * keeps the file in use, so a mapped bundle file is added to the MRU list of open
+ * bundle files like a {@link ZipBundleFile}.  Closing the bundle file only drops the
+ * mapping; the index is kept and the file is mapped again the next time it is read.
+ * If the file cannot be mapped the entries are read with a {@link ZipBundleFile}.
+ * </p>
+ */
+public class MappedZipBundleFile extends BundleFile {
+	private static final int BUFFER_SIZE = 8192;
+
+	private final BaseData bundledata;
+	private final ZipIndex index;
+	private final MRUBundleFileList mruList;
+	private volatile ByteBuffer buffer;
+	// used to read the entries once the file could not be mapped; reset by close
+	private ZipBundleFile fallback;
+
+	/**
+	 * Creates a mapped bundle file for the specified zip file.
+	 * @param basefile the zip file
+	 * @param bundledata the base data the file belongs to
+	 * @param index the index of the zip file
+	 * @param mruList the MRU list of open bundle files; may be null
+	 */
+	public MappedZipBundleFile(File basefile, BaseData bundledata, ZipIndex index, MRUBundleFileList mruList) {
+		super(basefile);
+		this.bundledata = bundledata;
+		this.index = index;
+		this.mruList = mruList;
+	}
+
+	/**
+	 * Creates a mapped bundle file for the specified zip file.  A persisted index
+	 * of the zip file is used if one is available and up to date; otherwise the
+	 * central directory of the zip file is read and the index is persisted.
+	 * @param basefile the zip file
+	 * @param bundledata the base data the file belongs to
+	 * @param mruList the MRU list of open bundle files; may be null
+	 * @return a mapped bundle file
+	 * @throws IOException if the zip file cannot be mapped or indexed
+	 */
+	public static MappedZipBundleFile create(File basefile, BaseData bundledata, MRUBundleFileList mruList) throws IOException {
+		long length = basefile.length();
+		long lastModified = basefile.lastModified();
+		File indexFile = bundledata == null ? null : bundledata.getExtractFile(".zipindex" + File.separator + Integer.toHexString(basefile.getAbsolutePath().hashCode())); //$NON-NLS-1$
+		ZipIndex index = ZipIndex.load(indexFile, length, lastModified);
+		ByteBuffer mapped = null;
+		if (index == null) {
+			mapped = map(basefile);
+			index = ZipIndex.read(mapped, lastModified);
+			if (indexFile != null) {
+				try {
+					index.save(indexFile);
+				} catch (IOException e) {
+					// the index will be created again the next time
+					if (Debug.DEBUG_GENERAL)
+						Debug.printStackTrace(e);
+				}
+			}
+		}
+		MappedZipBundleFile result = new MappedZipBundleFile(basefile, bundledata, index, mruList);
+		if (mapped != null) {
+			result.mruListAdd();
+			result.buffer = mapped;
+		}
+		return result;
+	}
+
+	private static ByteBuffer map(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			in.close();
+		}
+	}
+
+	ZipIndex getIndex() {
+		return index;
+	}
+
+	/*
+	 * Returns the mapped zip file or null if the file cannot be mapped.
+	 */
+	private ByteBuffer getBuffer() throws IOException {
+		ByteBuffer result = buffer;
+		if (result != null) {
+			mruListUse();
+			return result;
+		}
+		synchronized (this) {
+			if (buffer == null) {
+				if (fallback != null)
+					return null;
+				ByteBuffer mapped;
+				try {
+					mapped = map(basefile);
+				} catch (IOException e) {
+					if (Debug.DEBUG_GENERAL)
+						Debug.println("Unable to map zip file " + basefile + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+					fallback = new ZipBundleFile(basefile, bundledata, mruList);
+					return null;
+				}
+				if (mapped.limit() != index.getFileLength())
+					throw new ZipException("The zip file has changed: " + basefile); //$NON-NLS-1$
+				mruListAdd();
+				buffer = mapped;
+			} else
+				mruListUse();
+			return buffer;
+		}
+	}
+
+	private synchronized ZipBundleFile getFallback() {
+		return fallback;
+	}
+
+	InputStream getInputStream(int entry) throws IOException {
+		ByteBuffer raw = getRawContent(entry);
+		if (raw == null) {
+			ZipBundleFile zip = getFallback();
+			BundleEntry zipEntry = zip == null ? null : zip.getEntry(index.getName(entry));
+			if (zipEntry == null)
+				throw new FileNotFoundException(index.getName(entry));
+			return zipEntry.getInputStream();
+		}
+		InputStream in = new ByteBufferInputStream(raw);
+		if (index.getMethod(entry) == ZipIndex.STORED)
+			return in;
+		return new MappedInflaterInputStream(in, index.getSize(entry), Math.max(1, Math.min(index.getCompressedSize(entry) + 1, BUFFER_SIZE)));
+	}
+
+	/**
+	 * Returns a read-only view of the mapped data of an entry.  For stored entries
+	 * this is the content of the entry; for deflated entries it is the compressed data.
+	 * @param entry the entry index
+	 * @return a read-only view of the data of the entry or null if the file cannot be mapped
+	 * @throws IOException if the entry data cannot be located
+	 */
+	ByteBuffer getRawContent(int entry) throws IOException {
+		ByteBuffer zip = getBuffer();
+		if (zip == null)
+			return null;
+		zip = zip.duplicate();
+		int offset = index.getDataOffset(zip, entry);
+		int compressedSize = index.getCompressedSize(entry);
+		if (offset + compressedSize > zip.limit())
+			throw new ZipException("Invalid entry size: " + index.getName(entry)); //$NON-NLS-1$
+		zip.position(offset);
+		zip.limit(offset + compressedSize);
+		return zip.slice().asReadOnlyBuffer();
+	}
+
+	// returns the index of the entry for the path; handles the directory bug see bug 83542
+	private int getEntryIndex(String path) {
+		int entry = index.indexOf(path);
+		if (entry >= 0 && index.getSize(entry) == 0 && !path.endsWith("/")) { //$NON-NLS-1$
+			int dirEntry = index.indexOf(path + '/');
+			if (dirEntry >= 0)
+				entry = dirEntry;
+		}
+		return entry;
+	}
+
+	public BundleEntry getEntry(String path) {
+		if (path.length() > 0 && path.charAt(0) == '/')
+			path = path.substring(1);
+		int entry = getEntryIndex(path);
+		if (entry >= 0)
+			return new MappedZipBundleEntry(this, index.getName(entry), entry);
+		if (path.length() == 0 || path.charAt(path.length() - 1) == '/') {
+			// this is a directory request lets see if any entries exist in this directory
+			if (containsDir(path))
+				return new MappedZipBundleEntry(this, path, -1);
+		}
+		return null;
+	}
+
+	public boolean containsDir(String dir) {
+		if (dir == null)
+			return false;
+		if (dir.length() == 0)
+			return true;
+		if (dir.charAt(0) == '/') {
+			if (dir.length() == 1)
+				return true;
+			dir = dir.substring(1);
+		}
+		if (dir.length() > 0 && dir.charAt(dir.length() - 1) != '/')
+			dir = dir + '/';
+		if (index.indexOf(dir) >= 0)
+			return true;
+		for (int i = 0, count = index.getCount(); i < count; i++)
+			if (index.getName(i).startsWith(dir))
+				return true;
+		return false;
+	}
+
+	public Enumeration<String> getEntryPaths(String path) {
+		if (path == null)
+			throw new NullPointerException();
+		if (path.length() > 0 && path.charAt(0) == '/')
+			path = path.substring(1);
+		if (path.length() > 0 && path.charAt(path.length() - 1) != '/')
+			path = new StringBuffer(path).append("/").toString(); //$NON-NLS-1$
+
+		Set<String> vEntries = new LinkedHashSet<String>();
+		for (int i = 0, count = index.getCount(); i < count; i++) {
+			String entryPath = index.getName(i);
+			if (entryPath.startsWith(path) && path.length() < entryPath.length()) {
+				int slash = entryPath.indexOf('/', path.length());
+				vEntries.add(slash < 0 ? entryPath : entryPath.substring(0, slash + 1));
+			}
+		}
+		return vEntries.size() == 0 ? null : Collections.enumeration(vEntries);
+	}
+
+	public Enumeration<String> getEntryPaths(String path, boolean recurse) {
+		if (!recurse)
+			return getEntryPaths(path);
+		if (path == null)
+			throw new NullPointerException();
+		if (path.length() > 0 && path.charAt(0) == '/')
+			path = path.substring(1);
+		if (path.length() > 0 && path.charAt(path.length() - 1) != '/')
+			path = new StringBuffer(path).append("/").toString(); //$NON-NLS-1$
+
+		// directories may not have their own zip entries
+		Set<String> vEntries = new LinkedHashSet<String>();
+		for (int i = 0, count = index.getCount(); i < count; i++) {
+			String entryPath = index.getName(i);
+			if (entryPath.startsWith(path) && path.length() < entryPath.length()) {
+				int slash = entryPath.indexOf('/', path.length());
+				while (slash >= 0 && slash < entryPath.length() - 1) {
+					vEntries.add(entryPath.substring(0, slash + 1));
+					slash = entryPath.indexOf('/', slash + 1);
+				}
+				vEntries.add(entryPath);
+			}
+		}
+		return vEntries.size() == 0 ? null : Collections.enumeration(vEntries);
+	}
+
+	private File getExtractFile(String entryName) {
+		if (bundledata == null)
+			return null;
+		String path = ".cp"; /* put all these entries in this subdir *///$NON-NLS-1$
+		String name = entryName.replace('/', File.separatorChar);
+		if ((name.length() > 1) && (name.charAt(0) == File.separatorChar)) /* if name has a leading slash */
+			path = path.concat(name);
+		else
+			path = path + File.separator + name;
+		return bundledata.getExtractFile(path);
+	}
+
+	private void extractDirectory(String dirName) {
+		for (int i = 0, count = index.getCount(); i < count; i++) {
+			String entryPath = index.getName(i);
+			if (entryPath.startsWith(dirName) && !entryPath.endsWith("/")) //$NON-NLS-1$
+				getFile(entryPath, false);
+		}
+	}
+
+	public synchronized File getFile(String path, boolean nativeCode) {
+		if (path.length() > 0 && path.charAt(0) == '/')
+			path = path.substring(1);
+		int entry = getEntryIndex(path);
+		String entryName;
+		if (entry >= 0)
+			entryName = index.getName(entry);
+		else if (path.length() > 0 && path.charAt(path.length() - 1) == '/' && containsDir(path))
+			entryName = path;
+		else
+			return null;
+
+		try {
+			File nested = getExtractFile(entryName);
+			if (nested != null) {
+				if (nested.exists()) {
+					/* the entry is already cached */
+					if (Debug.DEBUG_GENERAL)
+						Debug.println("File already present: " + nested.getPath()); //$NON-NLS-1$
+					if (nested.isDirectory())
+						// must ensure the complete directory is extracted (bug 182585)
+						extractDirectory(entryName);
+				} else {
+					if (entryName.endsWith("/")) { //$NON-NLS-1$
+						if (!nested.mkdirs()) {
+							if (Debug.DEBUG_GENERAL)
+								Debug.println("Unable to create directory: " + nested.getPath()); //$NON-NLS-1$
+							throw new IOException(NLS.bind(AdaptorMsg.ADAPTOR_DIRECTORY_CREATE_EXCEPTION, nested.getAbsolutePath()));
+						}
+						extractDirectory(entryName);
+					} else {
+						InputStream in = getInputStream(entry);
+						/* the entry has not been cached */
+						if (Debug.DEBUG_GENERAL)
+							Debug.println("Creating file: " + nested.getPath()); //$NON-NLS-1$
+						/* create the necessary directories */
+						File dir = new File(nested.getParent());
+						if (!dir.exists() && !dir.mkdirs()) {
+							if (Debug.DEBUG_GENERAL)
+								Debug.println("Unable to create directory: " + dir.getPath()); //$NON-NLS-1$
+							throw new IOException(NLS.bind(AdaptorMsg.ADAPTOR_DIRECTORY_CREATE_EXCEPTION, dir.getAbsolutePath()));
+						}
+						/* copy the entry to the cache */
+						AdaptorUtil.readFile(in, nested);
+						if (nativeCode)
+							setPermissions(nested);
+					}
+				}
+				return nested;
+			}
+		} catch (IOException e) {
+			if (Debug.DEBUG_GENERAL)
+				Debug.printStackTrace(e);
+		}
+		return null;
+	}
+
+	/**
+	 * Drops the mapping of the zip file.  Streams which are still open continue
+	 * to read from the old mapping; the mapping is released once they are no longer
+	 * referenced.
+	 */
+	public void close() throws IOException {
+		ZipBundleFile zip;
+		synchronized (this) {
+			zip = fallback;
+			fallback = null;
+			if (buffer != null) {
+				buffer = null;
+				mruListRemove();
+			}
+		}
+		if (zip != null)
+			zip.close();
+	}
+
+	private void mruListRemove() {
+		if (mruList != null)
+			mruList.remove(this);
+	}
+
+	private void mruListUse() {
+		if (mruList != null)
+			mruList.use(this);
+	}
+
+	private void mruListAdd() {
+		if (mruList != null)
+			mruList.add(this);
+	}
+
+	public void open() {
+		// the file is mapped lazily when it is read
+	}
+
+	/**
+	 * An input stream that reads from a byte buffer.
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buf;
+
+		ByteBufferInputStream(ByteBuffer buf) {
+			this.buf = buf;
+		}
+
+		public int read() {
+			return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+		}
+
+		public int read(byte[] b, int off, int len) {
+			if (len == 0)
+				return 0;
+			int remaining = buf.remaining();
+			if (remaining == 0)
+				return -1;
+			len = Math.min(len, remaining);
+			buf.get(b, off, len);
+			return len;
+		}
+
+		public long skip(long n) {
+			int skipped = (int) Math.max(0, Math.min(n, buf.remaining()));
+			buf.position(buf.position() + skipped);
+			return skipped;
+		}
+
+		public int available() {
+			return buf.remaining();
+		}
+	}
+
+	/**
+	 * An inflater stream for the raw deflated data of an entry.  Like ZipFile a
+	 * dummy byte is supplied to the inflater at the end of the data because
+	 * the inflater is created with the nowrap option.
+	 */
+	private static class MappedInflaterInputStream extends InflaterInputStream {
+		private final int size;
+		private boolean eof = false;
+		private boolean closed = false;
+
+		MappedInflaterInputStream(InputStream in, int size, int bufferSize) {
+			super(in, new Inflater(true), bufferSize);
+			this.size = size;
+		}
+
+		protected void fill() throws IOException {
+			if (eof)
+				throw new EOFException("Unexpected end of ZLIB input stream"); //$NON-NLS-1$
+			len = in.read(buf, 0, buf.length);
+			if (len == -1) {
+				buf[0] = 0;
+				len = 1;
+				eof = true;
+			}
+			inf.setInput(buf, 0, len);
+		}
+
+		public int available() throws IOException {
+			if (closed)
+				return 0;
+			return Math.max(0, size - inf.getTotalOut());
+		}
+
+		public void close() throws IOException {
+			if (closed)
+				return;
+			closed = true;
+			try {
+				super.close();
+			} finally {
+				inf.end();
+			}
+		}
+	}
+}
@@ -0,0 +1,286 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.internal.baseadaptor;
+
+import java.io.*;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.util.*;
+import org.eclipse.core.runtime.adaptor.LocationManager;
+import org.eclipse.osgi.baseadaptor.*;
+import org.eclipse.osgi.baseadaptor.bundlefile.BundleEntry;
+import org.eclipse.osgi.baseadaptor.hooks.AdaptorHook;
+import org.eclipse.osgi.baseadaptor.hooks.ByteBufferClassLoadingStatsHook;
+import org.eclipse.osgi.baseadaptor.loader.ClasspathEntry;
+import org.eclipse.osgi.baseadaptor.loader.ClasspathManager;
+import org.eclipse.osgi.framework.adaptor.BundleData;
+import org.eclipse.osgi.framework.adaptor.FrameworkAdaptor;
+import org.eclipse.osgi.framework.debug.Debug;
+import org.eclipse.osgi.framework.internal.core.FrameworkProperties;
+import org.eclipse.osgi.framework.log.FrameworkLog;
+import org.eclipse.osgi.internal.loader.ClassPreloader;
+import org.osgi.framework.*;
+
+/**
+ * A hook which records the classes each bundle defines while the framework is
+ * launching.  The ordered class list of each bundle is saved in the configuration
+ * area when the framework stops and is used on the next launch to preload the
+ * classes of the bundles as their start level is reached.  Classes are recorded until
+ * the framework is started.  The profile of a bundle is discarded if the bundle is
+ * modified.
+ * <p>
+ * Only the classes which are defined or found by threads other than the preload
+ * threads are recorded, so a profiled class which is no longer used during launch is
+ * dropped from the profile.  A preloaded class is only found again if it is requested
+ * from its class loader; a class which is only referenced by other classes of its
+ * bundle is resolved by the VM without asking the class loader and is recorded again
+ * on the launch after it was dropped.
+ * </p>
+ * <p>
+ * The hook is only added if the <code>osgi.classloader.preload</code> property is
+ * set to <code>true</code>.  The number of preload threads may be set with the
+ * <code>osgi.classloader.preload.threads</code> property.
+ * </p>
+ */
+public class StartupClassProfileHook implements HookConfigurator, AdaptorHook, ByteBufferClassLoadingStatsHook, FrameworkListener {
+	public static final String PROP_PRELOAD = "osgi.classloader.preload"; //$NON-NLS-1$
+	public static final String PROP_PRELOAD_THREADS = "osgi.classloader.preload.threads"; //$NON-NLS-1$
+	private static final String PROFILE_FILE = ".startupclasses"; //$NON-NLS-1$
+	private static final int FILE_MAGIC = 0x53435031; // SCP1
+	private static final int DEFAULT_THREADS = 2;
+
+	private File profileFile;
+	private boolean readOnly;
+	// the profile read at launch; Map<Long bundleId, BundleProfile>
+	private final Map<Long, BundleProfile> previous = new HashMap<Long, BundleProfile>();
+	// the profile recorded during this launch; Map<Long bundleId, BundleProfile>
+	private final Map<Long, BundleProfile> recorded = new HashMap<Long, BundleProfile>();
+	private volatile boolean recording = false;
+	private BundleContext context;
+
+	/**
+	 * Returns the startup class profile hook of the specified adaptor.
+	 * @param adaptor the adaptor
+	 * @return the startup class profile hook or null if preloading is not enabled
+	 */
+	public static StartupClassProfileHook getHook(FrameworkAdaptor adaptor) {
+		if (!(adaptor instanceof BaseAdaptor))
+			return null;
+		AdaptorHook[] hooks = ((BaseAdaptor) adaptor).getHookRegistry().getAdaptorHooks();
+		for (int i = 0; i < hooks.length; i++)
+			if (hooks[i] instanceof StartupClassProfileHook)
+				return (StartupClassProfileHook) hooks[i];
+		return null;
+	}
+
+	public void addHooks(HookRegistry hookRegistry) {
+		if (!"true".equals(FrameworkProperties.getProperty(PROP_PRELOAD))) //$NON-NLS-1$
+			return;
+		hookRegistry.addAdaptorHook(this);
+		hookRegistry.addClassLoadingStatsHook(this);
+	}
+
+	/**
+	 * Returns the number of threads to use for preloading classes.
+	 * @return the number of preload threads
+	 */
+	public int getThreadCount() {
+		String threads = FrameworkProperties.getProperty(PROP_PRELOAD_THREADS);
+		if (threads != null) {
+			try {
+				return Integer.parseInt(threads);
+			} catch (NumberFormatException e) {
+				// use the default
+			}
+		}
+		return DEFAULT_THREADS;
+	}
+
+	/**
+	 * Returns the classes the specified bundle defined during the previous launch.
+	 * @param data the bundle data
+	 * @return the class names in the order they were defined or null if no
+	 * profile is available for the bundle
+	 */
+	public synchronized String[] getStartupClasses(BundleData data) {
+		BundleProfile profile = previous.get(new Long(data.getBundleID()));
+		if (profile == null || profile.lastModified != data.getLastModified())
+			return null;
+		return profile.classNames.toArray(new String[profile.classNames.size()]);
+	}
+
+	public void initialize(BaseAdaptor adaptor) {
+		File configDir = LocationManager.getOSGiConfigurationDir();
+		if (configDir == null)
+			return;
+		profileFile = new File(configDir, PROFILE_FILE);
+		readOnly = LocationManager.getConfigurationLocation().isReadOnly();
+		if (profileFile.isFile())
+			readProfile();
+		recording = true;
+	}
+
+	private synchronized void readProfile() {
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(profileFile)));
+			try {
+				if (in.readInt() != FILE_MAGIC)
+					return;
+				int numBundles = in.readInt();
+				for (int i = 0; i < numBundles; i++) {
+					long id = in.readLong();
+					BundleProfile profile = new BundleProfile(in.readLong());
+					int numClasses = in.readInt();
+					for (int j = 0; j < numClasses; j++)
+						profile.classNames.add(in.readUTF());
+					previous.put(new Long(id), profile);
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// a corrupt profile; start over
+			if (Debug.DEBUG_LOADER)
+				Debug.printStackTrace(e);
+			previous.clear();
+		}
+	}
+
+	private synchronized void saveProfile() {
+		if (profileFile == null || readOnly)
+			return;
+		if (recorded.isEmpty()) {
+			// nothing was used during this launch; do not preload the old profile again
+			profileFile.delete();
+			return;
+		}
+		try {
+			File parent = profileFile.getParentFile();
+			if (parent != null && !parent.exists())
+				parent.mkdirs();
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(profileFile)));
+			try {
+				out.writeInt(FILE_MAGIC);
+				out.writeInt(recorded.size());
+				for (Iterator<Map.Entry<Long, BundleProfile>> entries = recorded.entrySet().iterator(); entries.hasNext();) {
+					Map.Entry<Long, BundleProfile> entry = entries.next();
+					BundleProfile profile = entry.getValue();
+					out.writeLong(entry.getKey().longValue());
+					out.writeLong(profile.lastModified);
+					out.writeInt(profile.classNames.size());
+					for (Iterator<String> names = profile.classNames.iterator(); names.hasNext();)
+						out.writeUTF(names.next());
+				}
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			if (Debug.DEBUG_LOADER)
+				Debug.printStackTrace(e);
+			profileFile.delete();
+		}
+	}
+
+	public void frameworkStart(BundleContext bundleContext) {
+		this.context = bundleContext;
+		bundleContext.addFrameworkListener(this);
+	}
+
+	public void frameworkEvent(FrameworkEvent event) {
+		if (event.getType() != FrameworkEvent.STARTED)
+			return;
+		// the framework has launched; stop recording
+		recording = false;
+		if (context != null)
+			context.removeFrameworkListener(this);
+	}
+
+	public void frameworkStop(BundleContext bundleContext) {
+		recording = false;
+		saveProfile();
+		synchronized (this) {
+			previous.clear();
+			recorded.clear();
+		}
+	}
+
+	public void frameworkStopping(BundleContext bundleContext) {
+		// nothing
+	}
+
+	public void addProperties(Properties properties) {
+		// nothing
+	}
+
+	public URLConnection mapLocationToURLConnection(String location) throws IOException {
+		return null;
+	}
+
+	public void handleRuntimeError(Throwable error) {
+		// nothing
+	}
+
+	public FrameworkLog createFrameworkLog() {
+		return null;
+	}
+
+	public void preFindLocalClass(String name, ClasspathManager manager) {
+		// nothing
+	}
+
+	public void postFindLocalClass(String name, Class<?> clazz, ClasspathManager manager) {
+		// a class which was preloaded is still used if it is found by another thread
+		if (recording && clazz != null && !ClassPreloader.isPreloadThread())
+			record(name, manager.getBaseData());
+	}
+
+	public void preFindLocalResource(String name, ClasspathManager manager) {
+		// nothing
+	}
+
+	public void postFindLocalResource(String name, URL resource, ClasspathManager manager) {
+		// nothing
+	}
+
+	public void recordClassDefine(String name, Class<?> clazz, byte[] classbytes, ClasspathEntry classpathEntry, BundleEntry entry, ClasspathManager manager) {
+		// the classes defined by the preloader are only recorded if they are used
+		if (recording && clazz != null && !ClassPreloader.isPreloadThread())
+			record(name, manager.getBaseData());
+	}
+
+	public void recordClassDefine(String name, Class<?> clazz, ByteBuffer classbytes, ClasspathEntry classpathEntry, BundleEntry entry, ClasspathManager manager) {
+		if (recording && clazz != null && !ClassPreloader.isPreloadThread())
+			record(name, manager.getBaseData());
+	}
+
+	private synchronized void record(String name, BaseData data) {
+		Long id = new Long(data.getBundleID());
+		BundleProfile profile = recorded.get(id);
+		if (profile == null || profile.lastModified != data.getLastModified()) {
+			profile = new BundleProfile(data.getLastModified());
+			recorded.put(id, profile);
+		}
+		profile.classNames.add(name);
+	}
+
+	/**
+	 * The startup classes of one version of a bundle.
+	 */
+	private static class BundleProfile {
+		final long lastModified;
+		final Collection<String> classNames = new LinkedHashSet<String>();
+
+		BundleProfile(long lastModified) {
+			this.lastModified = lastModified;
+		}
+	}
+}
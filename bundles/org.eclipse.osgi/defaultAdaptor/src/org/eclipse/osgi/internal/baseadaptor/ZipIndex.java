@@ -0,0 +1,273 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.internal.baseadaptor;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Calendar;
+import java.util.zip.ZipException;
+
+/**
+ * A compact index of the entries of a zip file.  For each entry the index holds the
+ * name, the offset of the local file header, the compressed and uncompressed sizes,
+ * the compression method and the modification time.  The index is built by reading
+ * the central directory of the zip file and may be persisted so that the central
+ * directory does not need to be read again.
+ * <p>
+ * Entries are looked up with an open addressing hash table so that no objects
+ * are allocated by a lookup.
+ * </p>
+ */
+public class ZipIndex {
+	public static final int STORED = 0;
+	public static final int DEFLATED = 8;
+
+	private static final int INDEX_MAGIC = 0x5a495831; // ZIX1
+	private static final int END_SIG = 0x06054b50;
+	private static final int CEN_SIG = 0x02014b50;
+	private static final int LOC_SIG = 0x04034b50;
+	private static final int END_HEADER = 22;
+	private static final int CEN_HEADER = 46;
+	private static final int LOC_HEADER = 30;
+	private static final int MAX_COMMENT = 0xFFFF;
+
+	private final long fileLength;
+	private final long fileLastModified;
+	private final String[] names;
+	private final int[] localOffsets;
+	private final int[] compressedSizes;
+	private final int[] sizes;
+	private final short[] methods;
+	private final int[] dosTimes;
+	// open addressing hash table; values are entry indexes + 1; 0 is an empty slot
+	private final int[] table;
+
+	private ZipIndex(long fileLength, long fileLastModified, int count) {
+		this.fileLength = fileLength;
+		this.fileLastModified = fileLastModified;
+		this.names = new String[count];
+		this.localOffsets = new int[count];
+		this.compressedSizes = new int[count];
+		this.sizes = new int[count];
+		this.methods = new short[count];
+		this.dosTimes = new int[count];
+		int tableSize = 16;
+		while (tableSize < count * 2)
+			tableSize <<= 1;
+		this.table = new int[tableSize];
+	}
+
+	/**
+	 * Builds an index by reading the central directory of a mapped zip file.
+	 * @param zip the content of the zip file
+	 * @param lastModified the last modified time of the zip file
+	 * @return the index of the zip file
+	 * @throws ZipException if the zip file cannot be indexed (e.g. ZIP64 or encrypted content)
+	 */
+	public static ZipIndex read(ByteBuffer zip, long lastModified) throws ZipException {
+		zip = zip.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int length = zip.limit();
+		int end = -1;
+		for (int i = length - END_HEADER; i >= 0 && i >= length - END_HEADER - MAX_COMMENT; i--) {
+			if (zip.getInt(i) == END_SIG) {
+				end = i;
+				break;
+			}
+		}
+		if (end < 0)
+			throw new ZipException("Cannot find the end of the central directory"); //$NON-NLS-1$
+		int count = zip.getShort(end + 10) & 0xFFFF;
+		long cenOffset = zip.getInt(end + 16) & 0xFFFFFFFFL;
+		if (count == 0xFFFF || cenOffset == 0xFFFFFFFFL || cenOffset > length)
+			throw new ZipException("ZIP64 content is not supported"); //$NON-NLS-1$
+		ZipIndex index = new ZipIndex(length, lastModified, count);
+		int pos = (int) cenOffset;
+		for (int i = 0; i < count; i++) {
+			if (pos + CEN_HEADER > length || zip.getInt(pos) != CEN_SIG)
+				throw new ZipException("Invalid central directory header"); //$NON-NLS-1$
+			int flags = zip.getShort(pos + 8) & 0xFFFF;
+			int method = zip.getShort(pos + 10) & 0xFFFF;
+			if ((flags & 0x01) != 0 || (method != STORED && method != DEFLATED))
+				throw new ZipException("Unsupported entry encoding"); //$NON-NLS-1$
+			int nameLength = zip.getShort(pos + 28) & 0xFFFF;
+			int extraLength = zip.getShort(pos + 30) & 0xFFFF;
+			int commentLength = zip.getShort(pos + 32) & 0xFFFF;
+			byte[] nameBytes = new byte[nameLength];
+			ByteBuffer nameBuffer = zip.duplicate();
+			nameBuffer.position(pos + CEN_HEADER);
+			nameBuffer.get(nameBytes);
+			String name;
+			try {
+				name = new String(nameBytes, "UTF-8"); //$NON-NLS-1$
+			} catch (UnsupportedEncodingException e) {
+				throw new ZipException(e.getMessage());
+			}
+			index.set(i, name, zip.getInt(pos + 42), zip.getInt(pos + 20), zip.getInt(pos + 24), method, zip.getInt(pos + 12));
+			pos += CEN_HEADER + nameLength + extraLength + commentLength;
+		}
+		return index;
+	}
+
+	/**
+	 * Reads a persisted index.  The index is only returned if it was created for a zip
+	 * file with the specified length and last modified time.
+	 * @param indexFile the persisted index file
+	 * @param length the length of the zip file
+	 * @param lastModified the last modified time of the zip file
+	 * @return the persisted index or null if the index does not exist or is out of date
+	 */
+	public static ZipIndex load(File indexFile, long length, long lastModified) {
+		if (indexFile == null || !indexFile.isFile())
+			return null;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+			if (in.readInt() != INDEX_MAGIC || in.readLong() != length || in.readLong() != lastModified)
+				return null;
+			int count = in.readInt();
+			ZipIndex index = new ZipIndex(length, lastModified, count);
+			for (int i = 0; i < count; i++)
+				index.set(i, in.readUTF(), in.readInt(), in.readInt(), in.readInt(), in.readShort(), in.readInt());
+			return index;
+		} catch (IOException e) {
+			// the index will be rebuilt
+			return null;
+		} finally {
+			if (in != null)
+				try {
+					in.close();
+				} catch (IOException e) {
+					// nothing to do
+				}
+		}
+	}
+
+	/**
+	 * Persists this index to the specified file.
+	 * @param indexFile the file to persist the index to
+	 * @throws IOException if an error occurs writing the index
+	 */
+	public void save(File indexFile) throws IOException {
+		File parent = indexFile.getParentFile();
+		if (parent != null && !parent.exists())
+			parent.mkdirs();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+		try {
+			out.writeInt(INDEX_MAGIC);
+			out.writeLong(fileLength);
+			out.writeLong(fileLastModified);
+			out.writeInt(names.length);
+			for (int i = 0; i < names.length; i++) {
+				out.writeUTF(names[i]);
+				out.writeInt(localOffsets[i]);
+				out.writeInt(compressedSizes[i]);
+				out.writeInt(sizes[i]);
+				out.writeShort(methods[i]);
+				out.writeInt(dosTimes[i]);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private void set(int i, String name, int localOffset, int compressedSize, int size, int method, int dosTime) {
+		names[i] = name;
+		localOffsets[i] = localOffset;
+		compressedSizes[i] = compressedSize;
+		sizes[i] = size;
+		methods[i] = (short) method;
+		dosTimes[i] = dosTime;
+		int mask = table.length - 1;
+		int slot = name.hashCode() & mask;
+		while (table[slot] != 0)
+			slot = (slot + 1) & mask;
+		table[slot] = i + 1;
+	}
+
+	/**
+	 * Returns the index of the entry with the specified name
+	 * @param name the name of the entry
+	 * @return the index of the entry or -1 if the entry does not exist
+	 */
+	public int indexOf(String name) {
+		int mask = table.length - 1;
+		int slot = name.hashCode() & mask;
+		int entry;
+		while ((entry = table[slot]) != 0) {
+			if (names[entry - 1].equals(name))
+				return entry - 1;
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	public int getCount() {
+		return names.length;
+	}
+
+	public String getName(int entry) {
+		return names[entry];
+	}
+
+	public int getSize(int entry) {
+		return sizes[entry];
+	}
+
+	public int getCompressedSize(int entry) {
+		return compressedSizes[entry];
+	}
+
+	public int getMethod(int entry) {
+		return methods[entry];
+	}
+
+	public long getFileLength() {
+		return fileLength;
+	}
+
+	public long getFileLastModified() {
+		return fileLastModified;
+	}
+
+	/**
+	 * Returns the offset of the entry data in the zip file.  The local file header
+	 * of the entry is read from the mapped zip file to find the offset.
+	 * @param zip the content of the zip file
+	 * @param entry the entry index
+	 * @return the offset of the entry data
+	 * @throws ZipException if the local file header is invalid
+	 */
+	public int getDataOffset(ByteBuffer zip, int entry) throws ZipException {
+		int pos = localOffsets[entry];
+		if (pos < 0 || pos + LOC_HEADER > zip.limit() || (getU16(zip, pos) | getU16(zip, pos + 2) << 16) != LOC_SIG)
+			throw new ZipException("Invalid local file header: " + names[entry]); //$NON-NLS-1$
+		return pos + LOC_HEADER + getU16(zip, pos + 26) + getU16(zip, pos + 28);
+	}
+
+	// reads a little endian unsigned short regardless of the byte order of the buffer
+	private static int getU16(ByteBuffer zip, int pos) {
+		return (zip.get(pos) & 0xFF) | (zip.get(pos + 1) & 0xFF) << 8;
+	}
+
+	/**
+	 * Returns the modification time of the entry in milliseconds.
+	 * @param entry the entry index
+	 * @return the modification time of the entry
+	 */
+	public long getTime(int entry) {
+		int dosTime = dosTimes[entry];
+		Calendar cal = Calendar.getInstance();
+		cal.clear();
+		cal.set(((dosTime >> 25) & 0x7f) + 1980, ((dosTime >> 21) & 0x0f) - 1, (dosTime >> 16) & 0x1f, (dosTime >> 11) & 0x1f, (dosTime >> 5) & 0x3f, (dosTime << 1) & 0x3e);
+		return cal.getTimeInMillis();
+	}
+}
@@ -11,12 +11,13 @@
 package org.eclipse.osgi.internal.baseadaptor.weaving;
 
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.security.ProtectionDomain;
 import java.util.*;
 import org.eclipse.osgi.baseadaptor.*;
 import org.eclipse.osgi.baseadaptor.bundlefile.BundleEntry;
-import org.eclipse.osgi.baseadaptor.hooks.ClassLoadingHook;
-import org.eclipse.osgi.baseadaptor.hooks.ClassLoadingStatsHook;
+import org.eclipse.osgi.baseadaptor.hooks.ByteBufferClassLoadingHook;
+import org.eclipse.osgi.baseadaptor.hooks.ByteBufferClassLoadingStatsHook;
 import org.eclipse.osgi.baseadaptor.loader.*;
 import org.eclipse.osgi.framework.adaptor.BundleProtectionDomain;
 import org.eclipse.osgi.framework.adaptor.ClassLoaderDelegate;
@@ -24,8 +25,9 @@ import org.eclipse.osgi.framework.internal.core.Framework;
 import org.eclipse.osgi.internal.loader.BundleLoader;
 import org.eclipse.osgi.internal.serviceregistry.ServiceRegistry;
 import org.osgi.framework.*;
+import org.osgi.framework.hooks.weaving.WeavingHook;
 
-public class WeavingHookConfigurator implements HookConfigurator, ClassLoadingHook, ClassLoadingStatsHook {
+public class WeavingHookConfigurator implements HookConfigurator, ByteBufferClassLoadingHook, ByteBufferClassLoadingStatsHook {
 	private BaseAdaptor adaptor;
 	// holds the map of black listed hooks.  Use weak map to avoid pinning and simplify cleanup.
 	private final Map<ServiceRegistration<?>, Boolean> blackList = Collections.synchronizedMap(new WeakHashMap<ServiceRegistration<?>, Boolean>());
@@ -77,6 +79,18 @@ public class WeavingHookConfigurator implements HookConfigurator, ClassLoadingHo
 		}
 	}
 
+	public ByteBuffer processClass(String name, ByteBuffer classbytes, ClasspathEntry classpathEntry, BundleEntry entry, ClasspathManager manager) {
+		ServiceRegistry registry = getRegistry();
+		// avoid copying the class bytes into an array if there are no weaving hooks to call
+		if (registry == null || !registry.hasServiceRegistrations(WeavingHook.class.getName()))
+			return null;
+		byte[] bytes = new byte[classbytes.remaining()];
+		classbytes.duplicate().get(bytes);
+		byte[] wovenBytes = processClass(name, bytes, classpathEntry, entry, manager);
+		// the bytes have already been copied; define the class from the copy
+		return ByteBuffer.wrap(wovenBytes != null ? wovenBytes : bytes);
+	}
+
 	public boolean addClassPathEntry(ArrayList<ClasspathEntry> cpEntries, String cp, ClasspathManager hostmanager, BaseData sourcedata, ProtectionDomain sourcedomain) {
 		return false;
 	}
@@ -123,4 +137,14 @@ public class WeavingHookConfigurator implements HookConfigurator, ClassLoadingHo
 		wovenClass.setWeavingCompleted(clazz);
 	}
 
+	public void recordClassDefine(String name, Class<?> clazz, ByteBuffer classbytes, ClasspathEntry classpathEntry, BundleEntry entry, ClasspathManager manager) {
+		// a woven class is not created for classes defined while no weaving hooks are registered
+		List<WovenClassImpl> wovenClasses = wovenClassStack.get();
+		if (wovenClasses == null || wovenClasses.size() == 0)
+			return;
+		if (!name.equals(wovenClasses.get(wovenClasses.size() - 1).getClassName()))
+			return;
+		recordClassDefine(name, clazz, (byte[]) null, classpathEntry, entry, manager);
+	}
+
 }
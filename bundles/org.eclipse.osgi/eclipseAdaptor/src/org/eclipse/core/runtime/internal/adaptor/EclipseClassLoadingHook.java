@@ -12,6 +12,7 @@
 package org.eclipse.core.runtime.internal.adaptor;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 import java.security.ProtectionDomain;
 import java.util.ArrayList;
 import java.util.List;
@@ -20,7 +21,7 @@ import java.util.jar.Manifest;
 import org.eclipse.osgi.baseadaptor.*;
 import org.eclipse.osgi.baseadaptor.bundlefile.BundleEntry;
 import org.eclipse.osgi.baseadaptor.bundlefile.BundleFile;
-import org.eclipse.osgi.baseadaptor.hooks.ClassLoadingHook;
+import org.eclipse.osgi.baseadaptor.hooks.ByteBufferClassLoadingHook;
 import org.eclipse.osgi.baseadaptor.loader.*;
 import org.eclipse.osgi.framework.adaptor.BundleProtectionDomain;
 import org.eclipse.osgi.framework.adaptor.ClassLoaderDelegate;
@@ -28,7 +29,7 @@ import org.eclipse.osgi.framework.internal.core.FrameworkProperties;
 import org.eclipse.osgi.internal.baseadaptor.BaseClassLoadingHook;
 import org.eclipse.osgi.internal.baseadaptor.BaseStorageHook;
 
-public class EclipseClassLoadingHook implements ClassLoadingHook, HookConfigurator {
+public class EclipseClassLoadingHook implements ByteBufferClassLoadingHook, HookConfigurator {
 	private static String[] NL_JAR_VARIANTS = buildNLJarVariants(EclipseEnvironmentInfo.getDefault().getNL());
 	private static boolean DEFINE_PACKAGES;
 	private final static boolean DEFINE_PACKAGE_ATTRIBUTES = !"noattributes".equals(FrameworkProperties.getProperty("osgi.classloader.define.packages")); //$NON-NLS-1$ //$NON-NLS-2$
@@ -61,6 +62,12 @@ public class EclipseClassLoadingHook implements ClassLoadingHook, HookConfigurat
 		return result.toArray(new String[result.size()]);
 	}
 
+	public ByteBuffer processClass(String name, ByteBuffer classbytes, ClasspathEntry classpathEntry, BundleEntry entry, ClasspathManager manager) {
+		// only the class name is used to define the package
+		processClass(name, (byte[]) null, classpathEntry, entry, manager);
+		return null;
+	}
+
 	public byte[] processClass(String name, byte[] classbytes, ClasspathEntry classpathEntry, BundleEntry entry, ClasspathManager manager) {
 		if (!DEFINE_PACKAGES)
 			return null;
@@ -14,11 +14,12 @@ package org.eclipse.core.runtime.internal.adaptor;
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
 import java.util.*;
 import org.eclipse.osgi.baseadaptor.*;
 import org.eclipse.osgi.baseadaptor.bundlefile.BundleEntry;
 import org.eclipse.osgi.baseadaptor.hooks.AdaptorHook;
-import org.eclipse.osgi.baseadaptor.hooks.ClassLoadingStatsHook;
+import org.eclipse.osgi.baseadaptor.hooks.ByteBufferClassLoadingStatsHook;
 import org.eclipse.osgi.baseadaptor.loader.ClasspathEntry;
 import org.eclipse.osgi.baseadaptor.loader.ClasspathManager;
 import org.eclipse.osgi.framework.adaptor.FrameworkAdaptor;
@@ -28,12 +29,13 @@ import org.eclipse.osgi.framework.internal.core.*;
 import org.eclipse.osgi.framework.internal.core.Constants;
 import org.eclipse.osgi.framework.log.FrameworkLog;
 import org.eclipse.osgi.framework.log.FrameworkLogEntry;
+import org.eclipse.osgi.internal.loader.ClassPreloader;
 import org.eclipse.osgi.service.resolver.BundleDescription;
 import org.eclipse.osgi.service.resolver.StateHelper;
 import org.eclipse.osgi.util.NLS;
 import org.osgi.framework.*;
 
-public class EclipseLazyStarter implements ClassLoadingStatsHook, AdaptorHook, HookConfigurator {
+public class EclipseLazyStarter implements ByteBufferClassLoadingStatsHook, AdaptorHook, HookConfigurator {
 	private static final boolean throwErrorOnFailedStart = "true".equals(FrameworkProperties.getProperty("osgi.compatibility.errorOnFailedStart", "true")); //$NON-NLS-1$//$NON-NLS-2$ //$NON-NLS-3$
 	private BaseAdaptor adaptor;
 	// holds the current activation trigger class and the ClasspathManagers that need to be activated
@@ -53,6 +55,10 @@ public class EclipseLazyStarter implements ClassLoadingStatsHook, AdaptorHook, H
 		// The bundle is not active and does not require activation, just return the class
 		if (!shouldActivateFor(name, manager.getBaseData(), storageHook, manager))
 			return;
+		// Preloading must not activate the bundle, and a preloaded class would not activate
+		// the bundle when it is really used; fail the preload so the class is loaded on first use
+		if (ClassPreloader.isPreloadThread())
+			throw new ClassNotFoundException(name);
 		List<Object> stack = activationStack.get();
 		if (stack == null) {
 			stack = new ArrayList<Object>(6);
@@ -142,6 +148,10 @@ public class EclipseLazyStarter implements ClassLoadingStatsHook, AdaptorHook, H
 		// do nothing
 	}
 
+	public void recordClassDefine(String name, Class<?> clazz, ByteBuffer classbytes, ClasspathEntry classpathEntry, BundleEntry entry, ClasspathManager manager) {
+		// do nothing
+	}
+
 	private boolean shouldActivateFor(String className, BaseData bundledata, EclipseStorageHook storageHook, ClasspathManager manager) throws ClassNotFoundException {
 		if (!isLazyStartable(className, bundledata, storageHook))
 			return false;
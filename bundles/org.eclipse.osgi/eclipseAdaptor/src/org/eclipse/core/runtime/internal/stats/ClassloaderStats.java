@@ -20,6 +20,8 @@ import java.util.*;
 public class ClassloaderStats {
 	private String id;
 	private long loadingTime; // time spent loading classes
+	private int lockContentionCount; // number of times a thread waited for another thread loading the same class
+	private long lockWaitTime; // time spent waiting for class name locks
 	/**
 	 * classes loaded by the plugin (key: class name, value: ClassStats) 
 	 */
@@ -122,6 +124,10 @@ public class ClassloaderStats {
 		findLoader(id).endLoadClass(className, success);
 	}
 
+	public static void contendedClassNameLock(String id, long waitTime) {
+		findLoader(id).contendedLock(waitTime);
+	}
+
 	public static void loadedBundle(String id, ResourceBundleStats info) {
 		findLoader(id).loadedBundle(info);
 	}
@@ -146,6 +152,11 @@ public class ClassloaderStats {
 		}
 	}
 
+	private synchronized void contendedLock(long waitTime) {
+		lockContentionCount++;
+		lockWaitTime += waitTime;
+	}
+
 	private void loadedBundle(ResourceBundleStats bundle) {
 		bundles.add(bundle);
 	}
@@ -230,6 +241,14 @@ public class ClassloaderStats {
 		return loadingTime;
 	}
 
+	public synchronized int getLockContentionCount() {
+		return lockContentionCount;
+	}
+
+	public synchronized long getLockWaitTime() {
+		return lockWaitTime;
+	}
+
 	public ClassStats[] getClasses() {
 		//the parameter to toArray is of size zero for thread safety, otherwise this
 		//could return an array with null entries if the map shrinks concurrently
@@ -12,11 +12,14 @@ package org.eclipse.core.runtime.internal.stats;
 
 import java.io.*;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.*;
 import org.eclipse.osgi.baseadaptor.HookConfigurator;
 import org.eclipse.osgi.baseadaptor.HookRegistry;
 import org.eclipse.osgi.baseadaptor.bundlefile.BundleEntry;
-import org.eclipse.osgi.baseadaptor.hooks.ClassLoadingStatsHook;
+import org.eclipse.osgi.baseadaptor.hooks.ByteBufferClassLoadingStatsHook;
+import org.eclipse.osgi.baseadaptor.hooks.ClassNameLockStatsHook;
+import org.eclipse.osgi.baseadaptor.hooks.ClassPreloadStatsHook;
 import org.eclipse.osgi.baseadaptor.loader.ClasspathEntry;
 import org.eclipse.osgi.baseadaptor.loader.ClasspathManager;
 import org.eclipse.osgi.framework.adaptor.BundleWatcher;
@@ -26,12 +29,16 @@ import org.eclipse.osgi.framework.debug.FrameworkDebugOptions;
 import org.eclipse.osgi.util.ManifestElement;
 import org.osgi.framework.Bundle;
 
-public class StatsManager implements BundleWatcher, HookConfigurator, ClassLoadingStatsHook {
+public class StatsManager implements BundleWatcher, HookConfigurator, ByteBufferClassLoadingStatsHook, ClassNameLockStatsHook, ClassPreloadStatsHook {
 	// This connect bundles and their info, and so allows to access the info without running through
 	// the bundle registry. This map only contains activated bundles. The key is the bundle Id
 	private Hashtable<Long, BundleStats> bundles = new Hashtable<Long, BundleStats>(20);
 	private Map<Thread, Stack<BundleStats>> activationStacks = new HashMap<Thread, Stack<BundleStats>>(5);
 	private static boolean booting = true; // the state of the platform. This value is changed by the InternalPlatform itself.
+	// the results of preloading the startup classes; see recordClassPreload
+	private long preloadHits = 0;
+	private long preloadWasted = 0;
+	private long preloadTimeSaved = 0;
 
 	private static StatsManager defaultInstance;
 
@@ -224,6 +231,33 @@ public class StatsManager implements BundleWatcher, HookConfigurator, ClassLoadi
 		// do nothing
 	}
 
+	public void recordClassDefine(String name, Class<?> clazz, ByteBuffer classbytes, ClasspathEntry classpathEntry, BundleEntry entry, ClasspathManager manager) {
+		// do nothing
+	}
+
+	public void recordClassNameLockContention(String name, long waitTime, ClasspathManager manager) {
+		if (StatsManager.MONITOR_CLASSES)
+			ClassloaderStats.contendedClassNameLock(getClassloaderId(manager), waitTime);
+	}
+
+	public synchronized void recordClassPreload(long hits, long wasted, long timeSaved) {
+		preloadHits = hits;
+		preloadWasted = wasted;
+		preloadTimeSaved = timeSaved;
+	}
+
+	public synchronized long getPreloadHits() {
+		return preloadHits;
+	}
+
+	public synchronized long getPreloadWasted() {
+		return preloadWasted;
+	}
+
+	public synchronized long getPreloadTimeSaved() {
+		return preloadTimeSaved;
+	}
+
 	private String getClassloaderId(ClasspathManager loader) {
 		return loader.getBaseData().getSymbolicName();
 	}
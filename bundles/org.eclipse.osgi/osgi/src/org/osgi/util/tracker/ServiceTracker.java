@@ -17,6 +17,7 @@
 package org.osgi.util.tracker;
 
 import java.lang.reflect.Array;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.SortedMap;
 import java.util.TreeMap;
@@ -552,14 +553,16 @@ public class ServiceTracker<S, T> implements ServiceTrackerCustomizer<S, T> {
 		if (t == null) { /* if ServiceTracker is not open */
 			return null;
 		}
-		synchronized (t) {
-			int length = t.size();
-			if (length == 0) {
-				return null;
-			}
-			ServiceReference<S>[] result = new ServiceReference[length];
-			return t.copyKeys(result);
+		final Ranked<S, T>[] ranked = t.getRanked();
+		int length = ranked.length;
+		if (length == 0) {
+			return null;
+		}
+		ServiceReference<S>[] result = new ServiceReference[length];
+		for (int i = 0; i < length; i++) {
+			result[i] = ranked[i].reference;
 		}
+		return result;
 	}
 
 	/**
@@ -600,6 +603,10 @@ public class ServiceTracker<S, T> implements ServiceTrackerCustomizer<S, T> {
 		if (length == 0) { /* if no service is being tracked */
 			return null;
 		}
+		if (isRanked(references)) {
+			/* the references are in ranking order; the first is the highest */
+			return cachedReference = references[0];
+		}
 		int index = 0;
 		if (length > 1) { /* if more than one service, select highest ranking */
 			int rankings[] = new int[length];
@@ -641,6 +648,33 @@ public class ServiceTracker<S, T> implements ServiceTrackerCustomizer<S, T> {
 		return cachedReference = references[index];
 	}
 
+	/**
+	 * Returns {@code true} if the specified references are the references of
+	 * the ranked snapshot of the tracked services, in the same order. This is
+	 * the case unless {@link #getServiceReferences()} is overridden to return
+	 * other references.
+	 * 
+	 * @param references The references returned by
+	 *        {@link #getServiceReferences()}.
+	 * @return {@code true} if the references are in ranking order.
+	 */
+	private boolean isRanked(final ServiceReference<S>[] references) {
+		final Tracked t = tracked();
+		if (t == null) { /* if ServiceTracker is not open */
+			return false;
+		}
+		final Ranked<S, T>[] ranked = t.ranked;
+		if ((ranked == null) || (ranked.length != references.length)) {
+			return false;
+		}
+		for (int i = 0; i < ranked.length; i++) {
+			if (ranked[i].reference != references[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * Returns the service object for the specified
 	 * {@code ServiceReference} if the specified referenced service is
@@ -656,6 +690,12 @@ public class ServiceTracker<S, T> implements ServiceTrackerCustomizer<S, T> {
 		if (t == null) { /* if ServiceTracker is not open */
 			return null;
 		}
+		final Ranked<S, T>[] ranked = t.ranked;
+		if ((ranked != null) && (ranked.length > 0)
+				&& (ranked[0].reference == reference)) {
+			/* the highest ranked service is most often asked for */
+			return ranked[0].service;
+		}
 		synchronized (t) {
 			return t.getCustomizedObject(reference);
 		}
@@ -906,6 +946,15 @@ public class ServiceTracker<S, T> implements ServiceTrackerCustomizer<S, T> {
 	private class Tracked extends
 			AbstractTracked<ServiceReference<S>, T, ServiceEvent>
 			implements ServiceListener {
+		/**
+		 * The tracked services sorted by ranking, highest first, or
+		 * {@code null} if the tracked services have been modified since the
+		 * snapshot was created. The array is never modified once published;
+		 * it is created while synchronized on this object so it can be read
+		 * without synchronization.
+		 */
+		volatile Ranked<S, T>[]	ranked;
+
 		/**
 		 * Tracked constructor.
 		 */
@@ -913,6 +962,29 @@ public class ServiceTracker<S, T> implements ServiceTrackerCustomizer<S, T> {
 			super();
 		}
 
+		/**
+		 * Returns the ranked snapshot of the tracked services. The snapshot
+		 * is created if the tracked services have been modified since it was
+		 * last created.
+		 * 
+		 * @return The tracked services sorted by ranking, highest first.
+		 */
+		final Ranked<S, T>[] getRanked() {
+			Ranked<S, T>[] r = ranked;
+			if (r != null) {
+				return r;
+			}
+			synchronized (this) {
+				r = ranked;
+				if (r == null) {
+					ServiceReference<S>[] references = copyKeys(new ServiceReference[size()]);
+					r = Ranked.sort(references, this);
+					ranked = r;
+				}
+				return r;
+			}
+		}
+
 		/**
 		 * {@code ServiceListener} method for the
 		 * {@code ServiceTracker} class. This method must NOT be
@@ -963,6 +1035,7 @@ public class ServiceTracker<S, T> implements ServiceTrackerCustomizer<S, T> {
 		 */
 		final void modified() {
 			super.modified(); /* increment the modification count */
+			ranked = null; /* the snapshot is created again when it is read */
 			ServiceTracker.this.modified();
 		}
 
@@ -1007,6 +1080,72 @@ public class ServiceTracker<S, T> implements ServiceTrackerCustomizer<S, T> {
 		}
 	}
 
+	/**
+	 * An immutable entry of the ranked snapshot of the tracked services. The
+	 * ranking and service id are read once when the snapshot is created so the
+	 * snapshot stays consistently sorted.
+	 * 
+	 * @Immutable
+	 */
+	private static final class Ranked<S, T> implements
+			Comparable<Ranked< ? , ? >> {
+		final ServiceReference<S>				reference;
+		final T									service;
+		private final int						ranking;
+		private final long						id;
+
+		private Ranked(final ServiceReference<S> reference, final T service) {
+			this.reference = reference;
+			this.service = service;
+			Object property = reference.getProperty(Constants.SERVICE_RANKING);
+			this.ranking = (property instanceof Integer) ? ((Integer) property)
+					.intValue() : 0;
+			property = reference.getProperty(Constants.SERVICE_ID);
+			this.id = (property instanceof Long) ? ((Long) property)
+					.longValue() : Long.MAX_VALUE;
+		}
+
+		/**
+		 * Returns true if this entry ranks before the specified entry. That
+		 * is, it has a higher ranking or the same ranking and a lower service
+		 * id. This is the same algorithm used by
+		 * {@code BundleContext.getServiceReference}.
+		 */
+		private boolean ranksBefore(final Ranked< ? , ? > other) {
+			if (ranking != other.ranking) {
+				return ranking > other.ranking;
+			}
+			return id < other.id;
+		}
+
+		public int compareTo(final Ranked< ? , ? > other) {
+			if (ranksBefore(other)) {
+				return -1;
+			}
+			return other.ranksBefore(this) ? 1 : 0;
+		}
+
+		/**
+		 * Returns a new snapshot of the specified tracked references sorted by
+		 * ranking, highest first.
+		 * 
+		 * @GuardedBy tracked
+		 */
+		@SuppressWarnings("unchecked")
+		static <S, T> Ranked<S, T>[] sort(
+				final ServiceReference<S>[] references,
+				final AbstractTracked<ServiceReference<S>, T, ? > tracked) {
+			int length = references.length;
+			Ranked<S, T>[] result = new Ranked[length];
+			for (int i = 0; i < length; i++) {
+				result[i] = new Ranked<S, T>(references[i], tracked
+						.getCustomizedObject(references[i]));
+			}
+			Arrays.sort(result);
+			return result;
+		}
+	}
+
 	/**
 	 * Subclass of Tracked which implements the AllServiceListener interface.
 	 * This class is used by the ServiceTracker if open is called with true.
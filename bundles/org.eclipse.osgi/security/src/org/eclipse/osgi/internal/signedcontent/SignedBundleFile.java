@@ -126,6 +126,10 @@ public class SignedBundleFile extends BundleFile implements SignedContentConstan
 		return wrappedBundleFile.getEntryPaths(path);
 	}
 
+	public Enumeration<String> getEntryPaths(String path, boolean recurse) {
+		return wrappedBundleFile.getEntryPaths(path, recurse);
+	}
+
 	public void close() throws IOException {
 		wrappedBundleFile.close();
 	}
@@ -340,6 +340,24 @@ public class CopyOnWriteIdentityMap<K, V> implements Map<K, V> {
 		return new Snapshot<K, V>(entries()).entrySet();
 	}
 
+	/**
+	 * Returns the current entries of an entry set snapshot returned by {@link #entrySet()}.
+	 * This allows the event manager to traverse a snapshot without allocating an iterator.
+	 * The returned array must not be modified.
+	 * This method is package private.
+	 *
+	 * @param set A Set of Map.Entry.
+	 * @return The entries of the snapshot or <code>null</code> if the specified set is
+	 * not an entry set snapshot of a CopyOnWriteIdentityMap.
+	 */
+	@SuppressWarnings("unchecked")
+	static <K, V> Map.Entry<K, V>[] entryArray(Set<Map.Entry<K, V>> set) {
+		if (set instanceof Snapshot.EntrySet) {
+			return ((Snapshot<K, V>.EntrySet) set).snapshotEntries();
+		}
+		return null;
+	}
+
 	/**
 	 * Returns a snapshot of the keys in this map.
 	 * Changes to the returned set or this map will not affect each other.
@@ -459,11 +477,15 @@ public class CopyOnWriteIdentityMap<K, V> implements Map<K, V> {
 		/**
 		 * Entry set view over the snapshot.
 		 */
-		private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+		final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
 			EntrySet() {
 				super();
 			}
 
+			Entry<K, V>[] snapshotEntries() {
+				return entries();
+			}
+
 			public Iterator<Map.Entry<K, V>> iterator() {
 				return new EntryIterator();
 			}
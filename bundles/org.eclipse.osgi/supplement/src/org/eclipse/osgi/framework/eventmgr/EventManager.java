@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2010 IBM Corporation and others.
+ * Copyright (c) 2003, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -13,8 +13,7 @@ package org.eclipse.osgi.framework.eventmgr;
 
 import java.security.AccessController;
 import java.security.PrivilegedAction;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 
 /**
  * This class is the central class for the Event Manager. Each
@@ -80,8 +79,9 @@ import java.util.Set;
  * When an event is fired, a snapshot list (ListenerQueue) must be made of the current listeners before delivery 
  * is attempted. The snapshot list is necessary to allow the listener list to be modified while the 
  * event is being delivered to the snapshot list. The memory cost of the snapshot list is
- * low since the ListenerQueue object uses the copy-on-write semantics 
- * of the CopyOnWriteIdentityMap. This guarantees the snapshot list is never modified once created.
+ * low since the ListenerQueue object only holds the entry set snapshots of the 
+ * CopyOnWriteIdentityMap objects which share the immutable entry array of the map. 
+ * This guarantees the snapshot list is never modified once created.
  * 
  * The OSGi framework also uses a 2 level dispatch technique (EventDispatcher).
  * Level one dispatch is used by the framework to add the level 2 listener list of each 
@@ -94,6 +94,12 @@ import java.util.Set;
  * 
  * <p> The highly dynamic nature of the OSGi framework had necessitated these features for 
  * proper and efficient event delivery.  
+ * 
+ * <p>By default an EventManager delivers all asynchronous events on a single thread.
+ * An EventManager constructed with a maximum number of threads greater than one
+ * delivers asynchronous events to different listeners in parallel using a bounded
+ * pool of threads.  Each listener still receives its events in the order in which
+ * they were dispatched.
  * @since 3.1
  * @noextend This class is not intended to be subclassed by clients.
  */
@@ -107,6 +113,18 @@ public class EventManager {
 	 */
 	private EventThread<?, ?, ?> thread;
 
+	/**
+	 * EventThreadPool for asynchronous dispatch of events when more than one
+	 * thread may be used.
+	 * Access to this field must be protected by a synchronized region.
+	 */
+	private EventThreadPool pool;
+
+	/**
+	 * The maximum number of threads used for asynchronous event delivery.
+	 */
+	private final int maxThreads;
+
 	/** 
 	 * Once closed, an attempt to create a new EventThread will result in an 
 	 * IllegalStateException. 
@@ -154,10 +172,37 @@ public class EventManager {
 	 * @since 3.4
 	 */
 	public EventManager(String threadName, ThreadGroup threadGroup) {
+		this(threadName, threadGroup, 1);
+	}
+
+	/**
+	 * EventManager constructor. An EventManager object is responsible for
+	 * the delivery of events to listeners via an EventDispatcher.
+	 * <p>
+	 * If the maximum number of threads is greater than one, asynchronous events
+	 * are delivered to different listeners in parallel.  The events of each
+	 * listener are delivered in the order in which they were dispatched, but
+	 * there is no order between the events of different listeners.
+	 *
+	 * @param threadName The name to give the event threads associated with
+	 * this EventManager.  A <code>null</code> value is allowed.
+	 * @param threadGroup The thread group to use for the asynchronous event
+	 * threads associated with this EventManager. A <code>null</code> value is allowed.
+	 * @param maxThreads The maximum number of threads to use for asynchronous
+	 * event delivery.
+	 * @throws IllegalArgumentException If maxThreads is less than one.
+	 * @since 3.8
+	 */
+	public EventManager(String threadName, ThreadGroup threadGroup, int maxThreads) {
+		if (maxThreads < 1) {
+			throw new IllegalArgumentException();
+		}
 		thread = null;
+		pool = null;
 		closed = false;
 		this.threadName = threadName;
 		this.threadGroup = threadGroup;
+		this.maxThreads = maxThreads;
 	}
 
 	/**
@@ -176,9 +221,79 @@ public class EventManager {
 			thread.close();
 			thread = null;
 		}
+		if (pool != null) {
+			pool.close();
+			pool = null;
+		}
 		closed = true;
 	}
 
+	/**
+	 * Returns the number of asynchronously dispatched events which are waiting to
+	 * be delivered.  An event dispatched to several listeners is counted once for
+	 * each listener when more than one thread is used for delivery, otherwise it is
+	 * counted once for each set of listeners.
+	 * 
+	 * @return The number of events waiting to be delivered.
+	 * @since 3.8
+	 */
+	public synchronized int getQueueDepth() {
+		if (pool != null) {
+			return pool.getQueueDepth();
+		}
+		return thread == null ? 0 : thread.getQueueDepth();
+	}
+
+	/**
+	 * Returns the largest number of events which were waiting to be delivered at
+	 * one time.  See {@link #getQueueDepth()}.
+	 * 
+	 * @return The peak number of events waiting to be delivered.
+	 * @since 3.8
+	 */
+	public synchronized int getPeakQueueDepth() {
+		if (pool != null) {
+			return pool.getPeakQueueDepth();
+		}
+		return thread == null ? 0 : thread.getPeakQueueDepth();
+	}
+
+	/**
+	 * Returns the current latency of each listener which has events waiting to be
+	 * delivered.  The latency of a listener is the time in milliseconds since its
+	 * oldest undelivered event was dispatched.  Latencies are only tracked when more
+	 * than one thread is used for delivery; otherwise an empty map is returned.
+	 * 
+	 * @return A map of the listener objects to their latencies in milliseconds.
+	 * @since 3.8
+	 */
+	public synchronized Map<Object, Long> getListenerLatencies() {
+		if (pool != null) {
+			return pool.getListenerLatencies();
+		}
+		return Collections.emptyMap();
+	}
+
+	/**
+	 * Returns the longest time in milliseconds an event waited between being
+	 * dispatched and being delivered to a listener.  Only tracked when more
+	 * than one thread is used for delivery; otherwise zero is returned.
+	 * 
+	 * @return The maximum latency in milliseconds.
+	 * @since 3.8
+	 */
+	public synchronized long getMaxLatency() {
+		return pool == null ? 0 : pool.getMaxLatency();
+	}
+
+	/**
+	 * Returns true if asynchronous events are delivered by a pool of threads.
+	 * @return true if more than one thread may be used to deliver events.
+	 */
+	boolean isPooled() {
+		return maxThreads > 1;
+	}
+
 	/**
 	 * Returns the EventThread to use for dispatching events asynchronously for
 	 * this EventManager.
@@ -207,6 +322,23 @@ public class EventManager {
 		return result;
 	}
 
+	/**
+	 * Returns the EventThreadPool to use for dispatching events asynchronously for
+	 * this EventManager.
+	 *
+	 * @return EventThreadPool to use for dispatching events asynchronously for
+	 * this EventManager.
+	 */
+	synchronized EventThreadPool getEventThreadPool() {
+		if (closed) {
+			throw new IllegalStateException();
+		}
+		if (pool == null) {
+			pool = new EventThreadPool(threadGroup, threadName, maxThreads);
+		}
+		return pool;
+	}
+
 	/**
 	 * This method calls the EventDispatcher object to complete the dispatch of
 	 * the event. If there are more elements in the list, call dispatchEvent
@@ -222,18 +354,32 @@ public class EventManager {
 	 * is passed to this method. This is passed on to the call back object.
 	 */
 	static <K, V, E> void dispatchEvent(Set<Map.Entry<K, V>> listeners, EventDispatcher<K, V, E> dispatcher, int eventAction, E eventObject) {
+		Map.Entry<K, V>[] entries = CopyOnWriteIdentityMap.entryArray(listeners);
+		if (entries != null) { /* a CopyOnWriteIdentityMap snapshot can be traversed without an iterator */
+			for (int i = 0; i < entries.length; i++) {
+				dispatchEvent(entries[i].getKey(), entries[i].getValue(), dispatcher, eventAction, eventObject);
+			}
+			return;
+		}
 		for (Map.Entry<K, V> listener : listeners) { /* iterate over the list of listeners */
-			final K eventListener = listener.getKey();
-			final V listenerObject = listener.getValue();
-			try {
-				/* Call the EventDispatcher to complete the delivery of the event. */
-				dispatcher.dispatchEvent(eventListener, listenerObject, eventAction, eventObject);
-			} catch (Throwable t) {
-				/* Consume and ignore any exceptions thrown by the listener */
-				if (DEBUG) {
-					System.out.println("Exception in " + eventListener); //$NON-NLS-1$
-					t.printStackTrace();
-				}
+			dispatchEvent(listener.getKey(), listener.getValue(), dispatcher, eventAction, eventObject);
+		}
+	}
+
+	/**
+	 * This method calls the EventDispatcher object to complete the dispatch of
+	 * the event to a single listener.
+	 * This method is package private.
+	 */
+	static <K, V, E> void dispatchEvent(K eventListener, V listenerObject, EventDispatcher<K, V, E> dispatcher, int eventAction, E eventObject) {
+		try {
+			/* Call the EventDispatcher to complete the delivery of the event. */
+			dispatcher.dispatchEvent(eventListener, listenerObject, eventAction, eventObject);
+		} catch (Throwable t) {
+			/* Consume and ignore any exceptions thrown by the listener */
+			if (DEBUG) {
+				System.out.println("Exception in " + eventListener); //$NON-NLS-1$
+				t.printStackTrace();
 			}
 		}
 	}
@@ -285,6 +431,10 @@ public class EventManager {
 		private Queued<K, V, E> tail;
 		/** if false the thread must terminate */
 		private volatile boolean running;
+		/** the number of items in the event queue */
+		private int queueDepth;
+		/** the largest number of items in the event queue */
+		private int peakQueueDepth;
 
 		/**
 		 * Constructor for the event thread. 
@@ -382,6 +532,9 @@ public class EventManager {
 				tail.next = item;
 				tail = item;
 			}
+			if (++queueDepth > peakQueueDepth) {
+				peakQueueDepth = queueDepth;
+			}
 
 			notify();
 		}
@@ -412,8 +565,266 @@ public class EventManager {
 			if (head == null) {
 				tail = null;
 			}
+			queueDepth--;
 
 			return item;
 		}
+
+		synchronized int getQueueDepth() {
+			return queueDepth;
+		}
+
+		synchronized int getPeakQueueDepth() {
+			return peakQueueDepth;
+		}
+	}
+
+	/**
+	 * This package private class is used for asynchronously dispatching events
+	 * with a bounded pool of threads.  The pending events are queued per listener
+	 * and a listener is only served by one thread at a time so that each listener
+	 * receives its events in order.  Listeners with pending events are served in
+	 * turn; a thread delivers one event to a listener and then moves on to the next
+	 * listener waiting for a thread.
+	 */
+	static class EventThreadPool {
+		private static int nextPoolNumber;
+
+		/**
+		 * An event waiting to be delivered to a listener.
+		 */
+		private static class Queued {
+			final Object listener;
+			final Object listenerObject;
+			final EventDispatcher<Object, Object, Object> dispatcher;
+			final int action;
+			final Object object;
+			/** the time at which the event was dispatched */
+			final long time;
+			Queued next;
+
+			Queued(Object listener, Object listenerObject, EventDispatcher<Object, Object, Object> dispatcher, int action, Object object, long time) {
+				this.listener = listener;
+				this.listenerObject = listenerObject;
+				this.dispatcher = dispatcher;
+				this.action = action;
+				this.object = object;
+				this.time = time;
+			}
+		}
+
+		/**
+		 * The events waiting to be delivered to a listener.  While the events of a
+		 * listener are pending, the listener is either being served by a thread or
+		 * waiting in the ready queue.
+		 */
+		private static class ListenerEvents {
+			final Object listener;
+			Queued head;
+			Queued tail;
+			/** next listener in the ready queue */
+			ListenerEvents nextReady;
+
+			ListenerEvents(Object listener) {
+				this.listener = listener;
+			}
+		}
+
+		private final ThreadGroup threadGroup;
+		private final String threadName;
+		private final int maxThreads;
+		/** the listeners with pending events */
+		/* @GuardedBy("this") */
+		private final Map<Object, ListenerEvents> pending = new IdentityHashMap<Object, ListenerEvents>();
+		/** the listeners waiting for a thread */
+		/* @GuardedBy("this") */
+		private ListenerEvents readyHead;
+		/* @GuardedBy("this") */
+		private ListenerEvents readyTail;
+		/* @GuardedBy("this") */
+		private final List<Thread> threads = new ArrayList<Thread>();
+		/* @GuardedBy("this") */
+		private int idleThreads;
+		/* @GuardedBy("this") */
+		private int queueDepth;
+		/* @GuardedBy("this") */
+		private int peakQueueDepth;
+		/* @GuardedBy("this") */
+		private long maxLatency;
+		/* @GuardedBy("this") */
+		private boolean running = true;
+
+		EventThreadPool(ThreadGroup threadGroup, String threadName, int maxThreads) {
+			this.threadGroup = threadGroup;
+			this.threadName = threadName == null ? getNextName() : threadName;
+			this.maxThreads = maxThreads;
+		}
+
+		private static synchronized String getNextName() {
+			return "EventManagerPool-" + nextPoolNumber++; //$NON-NLS-1$
+		}
+
+		/**
+		 * Queue an event for each listener of the snapshot list and wake up or
+		 * start threads to deliver them.
+		 *
+		 * @param lists The listener sets of the snapshot list
+		 * @param dispatchers The dispatchers of the listener sets
+		 * @param size The number of listener sets in the snapshot list
+		 * @param a Action for this event
+		 * @param o Object for this event
+		 */
+		@SuppressWarnings("unchecked")
+		synchronized <K, V, E> void postEvent(Set<Map.Entry<K, V>>[] lists, EventDispatcher<K, V, E>[] dispatchers, int size, int a, E o) {
+			if (!running) {
+				throw new IllegalStateException();
+			}
+			long now = System.currentTimeMillis();
+			int posted = 0;
+			for (int i = 0; i < size; i++) {
+				EventDispatcher<Object, Object, Object> d = (EventDispatcher<Object, Object, Object>) dispatchers[i];
+				for (Map.Entry<K, V> listener : lists[i]) {
+					K l = listener.getKey();
+					Queued item = new Queued(l, listener.getValue(), d, a, o, now);
+					ListenerEvents events = pending.get(l);
+					if (events == null) {
+						events = new ListenerEvents(l);
+						pending.put(l, events);
+						addReady(events);
+					}
+					/* a listener being served by a thread is requeued by that thread if it has more events */
+					if (events.head == null) {
+						events.head = item;
+					} else {
+						events.tail.next = item;
+					}
+					events.tail = item;
+					posted++;
+				}
+			}
+			if (posted == 0) {
+				return;
+			}
+			queueDepth += posted;
+			if (queueDepth > peakQueueDepth) {
+				peakQueueDepth = queueDepth;
+			}
+			if (idleThreads < posted && threads.size() < maxThreads) {
+				startThread();
+			}
+			notifyAll();
+		}
+
+		private void addReady(ListenerEvents events) {
+			events.nextReady = null;
+			if (readyHead == null) {
+				readyHead = events;
+			} else {
+				readyTail.nextReady = events;
+			}
+			readyTail = events;
+		}
+
+		private void startThread() {
+			final String name = threadName + "-" + threads.size(); //$NON-NLS-1$
+			Thread t = AccessController.doPrivileged(new PrivilegedAction<Thread>() {
+				public Thread run() {
+					Thread result = new Thread(threadGroup, new Runnable() {
+						public void run() {
+							serve();
+						}
+					}, name);
+					result.setDaemon(true); /* Mark thread as daemon thread */
+					return result;
+				}
+			});
+			threads.add(t);
+			t.start();
+		}
+
+		/**
+		 * The loop of the pool threads: take the next listener waiting for a
+		 * thread and deliver its oldest event.
+		 */
+		void serve() {
+			ListenerEvents events = null;
+			while (true) {
+				Queued item;
+				synchronized (this) {
+					if (events != null) {
+						/* done with the listener; requeue it if it has more events */
+						if (events.head == null) {
+							pending.remove(events.listener);
+						} else {
+							addReady(events);
+						}
+					}
+					idleThreads++;
+					while (running && readyHead == null) {
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							// If interrupted, we will loop back up and check running
+						}
+					}
+					idleThreads--;
+					if (!running) {
+						return;
+					}
+					events = readyHead;
+					readyHead = events.nextReady;
+					if (readyHead == null) {
+						readyTail = null;
+					}
+					item = events.head;
+					events.head = item.next;
+					if (events.head == null) {
+						events.tail = null;
+					}
+					queueDepth--;
+					long latency = System.currentTimeMillis() - item.time;
+					if (latency > maxLatency) {
+						maxLatency = latency;
+					}
+				}
+				EventManager.dispatchEvent(item.listener, item.listenerObject, item.dispatcher, item.action, item.object);
+				// clear the reference to the delivered event before waiting for the next one; see Bug 299589
+				item = null;
+			}
+		}
+
+		/**
+		 * Stop the threads.
+		 */
+		synchronized void close() {
+			running = false;
+			for (Thread t : threads) {
+				t.interrupt();
+			}
+			notifyAll();
+		}
+
+		synchronized int getQueueDepth() {
+			return queueDepth;
+		}
+
+		synchronized int getPeakQueueDepth() {
+			return peakQueueDepth;
+		}
+
+		synchronized long getMaxLatency() {
+			return maxLatency;
+		}
+
+		synchronized Map<Object, Long> getListenerLatencies() {
+			long now = System.currentTimeMillis();
+			Map<Object, Long> result = new IdentityHashMap<Object, Long>(pending.size());
+			for (ListenerEvents events : pending.values()) {
+				if (events.head != null) {
+					result.put(events.listener, new Long(now - events.head.time));
+				}
+			}
+			return result;
+		}
 	}
 }
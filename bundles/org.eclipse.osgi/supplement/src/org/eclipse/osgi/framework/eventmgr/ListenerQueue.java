@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2010 IBM Corporation and others.
+ * Copyright (c) 2003, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -21,7 +21,8 @@ import org.eclipse.osgi.framework.eventmgr.EventManager.EventThread;
  * events to those listeners. A ListenerQueue object is associated with a
  * specific EventManager object. ListenerQueue objects constructed with the same
  * EventManager object will get in-order delivery of events when
- * using asynchronous delivery. No delivery order is guaranteed for synchronous
+ * using asynchronous delivery. If the EventManager uses more than one thread,
+ * the order is only kept for the events of each listener. No delivery order is guaranteed for synchronous
  * delivery to avoid any potential deadly embraces.
  *
  * <p>ListenerQueue objects are created as necessary to build a list of listeners
@@ -40,9 +41,20 @@ public class ListenerQueue<K, V, E> {
 	 */
 	protected final EventManager manager;
 	/**
-	 * A list of listener lists.
+	 * A list of listener lists. Most events are queued to only a few listener lists
+	 * so plain arrays are used rather than a map to avoid copying on each addition.
+	 * Access to these fields must be protected by a synchronized region until
+	 * the queue is read only.
 	 */
-	private final Map<Set<Map.Entry<K, V>>, EventDispatcher<K, V, E>> queue;
+	private Set<Map.Entry<K, V>>[] lists;
+	/**
+	 * The dispatchers of the listener lists.
+	 */
+	private EventDispatcher<K, V, E>[] dispatchers;
+	/**
+	 * The number of listener lists in the queue.
+	 */
+	private int size;
 
 	/**
 	 * Once the listener queue has been used to dispatch an event, 
@@ -63,7 +75,7 @@ public class ListenerQueue<K, V, E> {
 		}
 
 		this.manager = manager;
-		queue = new CopyOnWriteIdentityMap<Set<Map.Entry<K, V>>, EventDispatcher<K, V, E>>();
+		size = 0;
 		readOnly = false;
 	}
 
@@ -103,9 +115,39 @@ public class ListenerQueue<K, V, E> {
 			throw new IllegalStateException();
 		}
 
-		if (!listeners.isEmpty()) {
-			queue.put(listeners, dispatcher); // enqueue the list and its dispatcher
+		if (listeners.isEmpty()) {
+			return;
+		}
+		for (int i = 0; i < size; i++) {
+			if (lists[i] == listeners) { // the list is already queued; replace its dispatcher
+				dispatchers[i] = dispatcher;
+				return;
+			}
 		}
+		if (lists == null) {
+			lists = newListsArray(4);
+			dispatchers = newDispatchersArray(4);
+		} else if (size == lists.length) {
+			Set<Map.Entry<K, V>>[] newLists = newListsArray(size * 2);
+			EventDispatcher<K, V, E>[] newDispatchers = newDispatchersArray(size * 2);
+			System.arraycopy(lists, 0, newLists, 0, size);
+			System.arraycopy(dispatchers, 0, newDispatchers, 0, size);
+			lists = newLists;
+			dispatchers = newDispatchers;
+		}
+		lists[size] = listeners; // enqueue the list and its dispatcher
+		dispatchers[size] = dispatcher;
+		size++;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <K, V> Set<Map.Entry<K, V>>[] newListsArray(int length) {
+		return new Set[length];
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <K, V, E> EventDispatcher<K, V, E>[] newDispatchersArray(int length) {
+		return new EventDispatcher[length];
 	}
 
 	/**
@@ -120,10 +162,15 @@ public class ListenerQueue<K, V, E> {
 		synchronized (this) {
 			readOnly = true;
 		}
+		if (manager.isPooled()) {
+			/* the pool queues the event per listener to keep the order of each listener's events */
+			manager.getEventThreadPool().postEvent(lists, dispatchers, size, eventAction, eventObject);
+			return;
+		}
 		EventThread<K, V, E> eventThread = manager.getEventThread();
 		synchronized (eventThread) { /* synchronize on the EventThread to ensure no interleaving of posting to the event thread */
-			for (Map.Entry<Set<Map.Entry<K, V>>, EventDispatcher<K, V, E>> entry : queue.entrySet()) { /* iterate over the list of listener lists */
-				eventThread.postEvent(entry.getKey(), entry.getValue(), eventAction, eventObject);
+			for (int i = 0; i < size; i++) { /* iterate over the list of listener lists */
+				eventThread.postEvent(lists[i], dispatchers[i], eventAction, eventObject);
 			}
 		}
 	}
@@ -144,8 +191,8 @@ public class ListenerQueue<K, V, E> {
 		}
 		// We can't guarantee any delivery order for synchronous events.
 		// Attempts to do so result in deadly embraces.
-		for (Map.Entry<Set<Map.Entry<K, V>>, EventDispatcher<K, V, E>> entry : queue.entrySet()) { /* iterate over the list of listener lists */
-			EventManager.dispatchEvent(entry.getKey(), entry.getValue(), eventAction, eventObject);
+		for (int i = 0; i < size; i++) { /* iterate over the list of listener lists */
+			EventManager.dispatchEvent(lists[i], dispatchers[i], eventAction, eventObject);
 		}
 	}
 }